@@ -0,0 +1,174 @@
+// EventQueueBenchmark - Compares the FTR event queue with the former sorted list
+package de.toem.impulse.extension.eda.transaction.ftr;
+
+import java.util.Random;
+
+/**
+ * EventQueueBenchmark - Micro benchmark of the pending event queue of FtrReader streams.
+ *
+ * Simulates the event flow of a stream: transactions start in time order, each queues a begin and an end event, and the queue is drained up to
+ * the start of the latest transaction (as finish() does per chunk). The number of outstanding transactions is varied from 1 to some thousands
+ * (e.g. DRAM bursts in flight). For each depth the former sorted, doubly linked list (walking backwards from the tail) and the EventQueue (in-order
+ * run plus min-heap) are run on the same input; the drained order is checked to be identical.
+ *
+ * Not part of the plugin; run from the command line:
+ *
+ * <pre>
+ * java -cp &lt;classes&gt; de.toem.impulse.extension.eda.transaction.ftr.EventQueueBenchmark [transactions]
+ * </pre>
+ */
+public class EventQueueBenchmark {
+
+    // Outstanding transactions per run
+    private static final int[] DEPTHS = { 1, 2, 4, 8, 16, 32, 64, 128, 256, 1024, 4096 };
+
+    // Timed repetitions per depth (the best one is reported)
+    private static final int REPETITIONS = 5;
+
+    /**
+     * Pending event of the former list implementation.
+     */
+    static final class ListEvent {
+        long time;
+        long id;
+        ListEvent prev, next;
+    }
+
+    /**
+     * The former queue: a time-sorted, doubly linked list, inserting by walking backwards from the tail.
+     */
+    static final class ListQueue {
+        ListEvent first, last;
+
+        void add(ListEvent event) {
+            if (first == null) {
+                first = last = event;
+                return;
+            }
+            ListEvent current = last;
+            while (current != null && current.time > event.time)
+                current = current.prev;
+            if (current == null) {
+                event.next = first;
+                first.prev = event;
+                first = event;
+            } else if (current == last) {
+                current.next = event;
+                event.prev = current;
+                last = event;
+            } else {
+                event.prev = current;
+                event.next = current.next;
+                current.next.prev = event;
+                current.next = event;
+            }
+        }
+
+        ListEvent poll() {
+            ListEvent found = first;
+            if (found == null)
+                return null;
+            first = found.next;
+            if (first != null)
+                first.prev = null;
+            else
+                last = null;
+            found.next = null;
+            return found;
+        }
+    }
+
+    /**
+     * Create the begin/end times of a workload: transactions start every 10 time units and last about depth * 10 units (uniformly 0.5x..1.5x),
+     * so about depth transactions are outstanding.
+     */
+    static long[] workload(int transactions, int depth, long seed) {
+        Random random = new Random(seed);
+        long[] times = new long[2 * transactions];
+        long start = 0;
+        for (int n = 0; n < transactions; n++) {
+            start += 10;
+            times[2 * n] = start;
+            times[2 * n + 1] = start + 5L * depth + (long) (random.nextDouble() * 10 * depth);
+        }
+        return times;
+    }
+
+    /**
+     * Run the list queue.
+     *
+     * @return checksum over the drained order
+     */
+    static long runList(long[] times) {
+        ListQueue queue = new ListQueue();
+        long checksum = 0, drained = 0;
+        for (int i = 0; i < times.length; i += 2) {
+            ListEvent begin = new ListEvent(), end = new ListEvent();
+            begin.time = times[i];
+            begin.id = i;
+            end.time = times[i + 1];
+            end.id = i + 1;
+            queue.add(begin);
+            queue.add(end);
+            // drain up to the latest start
+            while (queue.first != null && queue.first.time <= times[i]) {
+                checksum = checksum * 31 + queue.poll().id + drained++;
+            }
+        }
+        for (ListEvent event; (event = queue.poll()) != null;)
+            checksum = checksum * 31 + event.id + drained++;
+        return checksum;
+    }
+
+    /**
+     * Run the event queue.
+     *
+     * @return checksum over the drained order
+     */
+    static long runQueue(long[] times) {
+        EventQueue<ListEvent> queue = new EventQueue<>();
+        long checksum = 0, drained = 0;
+        for (int i = 0; i < times.length; i += 2) {
+            ListEvent begin = new ListEvent(), end = new ListEvent();
+            begin.time = times[i];
+            begin.id = i;
+            end.time = times[i + 1];
+            end.id = i + 1;
+            queue.add(begin.time, begin);
+            queue.add(end.time, end);
+            // drain up to the latest start
+            while (!queue.isEmpty() && queue.firstTime() <= times[i]) {
+                checksum = checksum * 31 + queue.poll().id + drained++;
+            }
+        }
+        for (ListEvent event; (event = queue.poll()) != null;)
+            checksum = checksum * 31 + event.id + drained++;
+        return checksum;
+    }
+
+    public static void main(String[] args) {
+        int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        System.out.println("Transactions: " + transactions);
+        System.out.printf("%10s %14s %14s %10s%n", "in flight", "list ns/tx", "queue ns/tx", "speedup");
+        for (int depth : DEPTHS) {
+            long[] times = workload(transactions, depth, depth);
+            long bestList = Long.MAX_VALUE, bestQueue = Long.MAX_VALUE;
+            // the first repetition warms up both implementations
+            for (int r = 0; r <= REPETITIONS; r++) {
+                long t0 = System.nanoTime();
+                long listChecksum = runList(times);
+                long t1 = System.nanoTime();
+                long queueChecksum = runQueue(times);
+                long t2 = System.nanoTime();
+                if (listChecksum != queueChecksum)
+                    throw new IllegalStateException("Different event order at depth " + depth);
+                if (r > 0) {
+                    bestList = Math.min(bestList, t1 - t0);
+                    bestQueue = Math.min(bestQueue, t2 - t1);
+                }
+            }
+            System.out.printf("%10d %14.1f %14.1f %9.2fx%n", depth, (double) bestList / transactions, (double) bestQueue / transactions,
+                    (double) bestList / bestQueue);
+        }
+    }
+}
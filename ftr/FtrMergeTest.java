@@ -0,0 +1,121 @@
+// FtrMergeTest - Merges FTR files of different time scales into one record and compares the transaction times
+package de.toem.impulse.extension.eda.transaction.ftr;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import de.toem.impulse.cells.record.IRecord;
+import de.toem.toolkits.utils.serializer.ParseException;
+
+/**
+ * FtrMergeTest - Merged files with mixed time scales.
+ *
+ * Writes the same random transactions (in ns) into FTR files of different time scales (ns, ps, fs), each with an own stream, and opens them as one
+ * merged record (property "files"). The transactions of each stream are read back (readTransactions) and their times compared in the domain units
+ * of the record: ps when merging ns and ps files, fs as soon as a fs file is merged. A file finer than fs must be rejected with a clear error.
+ * Throws an IllegalStateException on the first mismatch.
+ *
+ * Not part of the plugin; run from the command line with the impulse bundles on the class path:
+ *
+ * <pre>
+ * java -cp &lt;classes&gt; de.toem.impulse.extension.eda.transaction.ftr.FtrMergeTest [transactions]
+ * </pre>
+ */
+public class FtrMergeTest {
+
+    public static void main(String[] args) throws Exception {
+        int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        long[][] times = times(transactions);
+        File ns = write("ns", -9, times), ps = write("ps", -12, times), fs = write("fs", -15, times), as = write("as", -18, times);
+        try {
+            // ns and ps: domain ps
+            check(ns, new File[] { ps }, times, 1000);
+            check(ps, new File[] { ns }, times, 1000);
+            // a fs file refines the domain of all files to fs
+            check(ns, new File[] { ps, fs }, times, 1000000);
+            check(fs, new File[] { ns }, times, 1000000);
+            // finer than fs
+            try {
+                check(ns, new File[] { as }, times, 0);
+                throw new IllegalStateException("Merging an as file was not rejected");
+            } catch (ParseException e) {
+                if (!e.getMessage().contains(as.getName()) || !e.getMessage().contains("fs"))
+                    throw new IllegalStateException("Unclear error merging an as file: " + e.getMessage());
+            }
+            System.out.println(transactions + " transactions per file ok");
+        } finally {
+            ns.delete();
+            ps.delete();
+            fs.delete();
+            as.delete();
+        }
+    }
+
+    /**
+     * Random transaction start and end times in ns.
+     */
+    static long[][] times(int transactions) {
+        Random random = new Random(transactions);
+        long[][] times = new long[transactions][];
+        long start = 0;
+        for (int n = 0; n < transactions; n++) {
+            start += random.nextInt(100);
+            times[n] = new long[] { start, start + random.nextInt(50) };
+        }
+        return times;
+    }
+
+    /**
+     * Write the transactions into a file of the given time scale, with a stream named after the unit.
+     */
+    static File write(String unit, int timeScale, long[][] times) throws Exception {
+        File file = File.createTempFile("merge_" + unit + "_", ".ftr");
+        long factor = FtrReader.calculateTimescaleMultiplier(-9 - timeScale);
+        try (FtrWriter writer = new FtrWriter(file, timeScale)) {
+            writer.setChunkSize(1024);
+            int generator = writer.addGenerator(writer.addStream("top." + unit, "transactor"), "access");
+            for (long[] tx : times)
+                writer.transaction(generator, tx[0] * factor, tx[1] * factor);
+        }
+        return file;
+    }
+
+    /**
+     * Open a file with merged files lazily and compare the times of all streams in domain units.
+     *
+     * @param unit
+     *            domain units per ns
+     */
+    static void check(File file, File[] merged, long[][] times, long unit) throws Exception {
+        StringBuilder files = new StringBuilder();
+        for (File m : merged)
+            files.append(files.length() > 0 ? ";" : "").append(m.getPath());
+        FtrReader reader = new FtrReader(null, file.getPath(), null, null, null,
+                new String[][] { { "lazy", "true" }, { "files", files.toString() } }, null);
+        try (InputStream in = new FileInputStream(file)) {
+            reader.parse(null, in);
+        }
+        List<File> all = new ArrayList<>();
+        all.add(file);
+        for (File m : merged)
+            all.add(m);
+        for (File f : all) {
+            String name = "top." + f.getName().substring(6, 8);
+            IRecord.Signal signal = reader.getSignal(name);
+            if (signal == null)
+                throw new IllegalStateException("Missing stream " + name);
+            List<FtrReader.Transaction> read = new ArrayList<>();
+            reader.readTransactions(signal, Long.MIN_VALUE, Long.MAX_VALUE, read::add);
+            if (read.size() != times.length)
+                throw new IllegalStateException(name + ": read " + read.size() + " transactions, written " + times.length);
+            for (int n = 0; n < times.length; n++)
+                if (read.get(n).start != times[n][0] * unit || read.get(n).end != times[n][1] * unit)
+                    throw new IllegalStateException(name + " merged into " + file.getName() + ": read " + read.get(n).start + ".." + read.get(n).end
+                            + ", expected " + times[n][0] * unit + ".." + times[n][1] * unit);
+        }
+    }
+}
@@ -0,0 +1,588 @@
+// FtrQuery - Predicate queries on FTR files without import
+package de.toem.impulse.extension.eda.transaction.ftr;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import de.toem.toolkits.pattern.filter.FilterExpression;
+import de.toem.toolkits.pattern.threading.IProgress;
+import de.toem.toolkits.utils.serializer.ParseException;
+
+/**
+ * FtrQuery - Evaluates transaction predicates directly on the chunks of an FTR file, without importing it.
+ *
+ * Opening a query maps the file and reads the info, dictionary and directory sections and the chunk headers with the section reader of
+ * FtrReader, from the sidecar index if the file has a valid one. A query then decodes only the chunks of matching streams overlapping the time
+ * window, in parallel, and evaluates stream, generator, time, duration and attribute predicates on the decoded CBOR: attributes not referenced by a
+ * predicate are skipped undecoded, and so is the rest of a transaction once its core info fails. No signal or sample is created. Compressed chunks
+ * are decompressed through the chunk cache shared with the lazy readers, so memory is bounded by its capacity, the chunks in flight (two per
+ * thread) and the number of collected hits. The file stays mapped until the query is closed.
+ *
+ * Times and durations are in the domain units of the imported samples: ps, or fs for files with a finer time scale.
+ *
+ * <pre>
+ * try (FtrQuery query = new FtrQuery(file)) {
+ *     List&lt;FtrQuery.Hit&gt; hits = query.find(new FtrQuery.Filter().generators("write").attribute("addr", 0x40000000L, 0x4000FFFFL).duration(2000000, Long.MAX_VALUE),
+ *             0, 10000, null);
+ * }
+ * </pre>
+ */
+public class FtrQuery implements AutoCloseable {
+
+    // Chunks in flight per thread
+    private static final int CHUNKS_PER_THREAD = 2;
+
+    // Maximum number of attribute predicates of a filter
+    private static final int MAX_PREDICATES = 64;
+
+    // Mapped file content (null when closed)
+    private volatile MappedFile file;
+
+    // String dictionary
+    private final StringDictionary dictionary = new StringDictionary();
+
+    // Multiplier from file time units to domain units
+    private long timeScaleFactor = 1;
+
+    // Streams by id, in directory order
+    private final Map<Long, QueryStream> streams = new LinkedHashMap<>();
+
+    // View of the shared cache of decompressed chunks
+    private ChunkCache.View chunkCache;
+
+    // Pool of section and chunk buffers
+    private final BufferPool buffers = new BufferPool(4);
+
+    /**
+     * Stream of the file: name, generators and chunk index.
+     */
+    static class QueryStream {
+
+        final long id;
+
+        final String name;
+
+        // Generator names by id
+        final Map<Long, String> generators = new HashMap<>();
+
+        final ChunkIndex chunks = new ChunkIndex();
+
+        QueryStream(long id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    /**
+     * Matching transaction.
+     */
+    public static class Hit {
+
+        public final String stream;
+
+        public final String generator;
+
+        public final long txId;
+
+        public final long start;
+
+        public final long end;
+
+        Hit(String stream, String generator, long txId, long start, long end) {
+            this.stream = stream;
+            this.generator = generator;
+            this.txId = txId;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public String toString() {
+            return stream + " " + generator + " #" + txId + " " + start + ".." + end;
+        }
+    }
+
+    /**
+     * Receiver of the matching transactions. Called by one thread at a time, in no particular order.
+     */
+    public interface IHitConsumer {
+        /**
+         * @return false to stop the query
+         */
+        boolean hit(Hit hit);
+    }
+
+    /**
+     * Transaction filter. All given predicates must hold. An attribute predicate holds if the transaction has a begin, record or end attribute of
+     * that name with a matching value.
+     */
+    public static class Filter {
+
+        List<FilterExpression> streams, generators;
+
+        long from = Long.MIN_VALUE, to = Long.MAX_VALUE;
+
+        long minDuration = Long.MIN_VALUE, maxDuration = Long.MAX_VALUE;
+
+        final List<AttributePredicate> attributes = new ArrayList<>();
+
+        /**
+         * Match stream names by regular expression.
+         */
+        public Filter streams(String regex) {
+            this.streams = FilterExpression.createList(regex, FilterExpression.TYPE_REGULAR | FilterExpression.TYPE_TEXT);
+            return this;
+        }
+
+        /**
+         * Match generator names by regular expression.
+         */
+        public Filter generators(String regex) {
+            this.generators = FilterExpression.createList(regex, FilterExpression.TYPE_REGULAR | FilterExpression.TYPE_TEXT);
+            return this;
+        }
+
+        /**
+         * Transactions overlapping a time window.
+         */
+        public Filter time(long from, long to) {
+            this.from = from;
+            this.to = to;
+            return this;
+        }
+
+        /**
+         * Transactions with a duration (end - start) within the given range.
+         */
+        public Filter duration(long min, long max) {
+            this.minDuration = min;
+            this.maxDuration = max;
+            return this;
+        }
+
+        /**
+         * Integer, unsigned, pointer, time or boolean (0/1) attribute within a range.
+         */
+        public Filter attribute(String name, long min, long max) {
+            attributes.add(new AttributePredicate(name, AttributePredicate.INTEGER, min, max, 0, 0, null));
+            return this;
+        }
+
+        /**
+         * Floating point attribute within a range.
+         */
+        public Filter attribute(String name, double min, double max) {
+            attributes.add(new AttributePredicate(name, AttributePredicate.FLOAT, 0, 0, min, max, null));
+            return this;
+        }
+
+        /**
+         * String, enumeration or vector attribute with the given value.
+         */
+        public Filter attribute(String name, String value) {
+            attributes.add(new AttributePredicate(name, AttributePredicate.TEXT, 0, 0, 0, 0, value));
+            return this;
+        }
+    }
+
+    /**
+     * Predicate on an attribute value.
+     */
+    static class AttributePredicate {
+
+        static final int INTEGER = 0, FLOAT = 1, TEXT = 2;
+
+        final String name;
+
+        final int kind;
+
+        final long min, max;
+
+        final double minFloat, maxFloat;
+
+        final String text;
+
+        AttributePredicate(String name, int kind, long min, long max, double minFloat, double maxFloat, String text) {
+            this.name = name;
+            this.kind = kind;
+            this.min = min;
+            this.max = max;
+            this.minFloat = minFloat;
+            this.maxFloat = maxFloat;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Filter resolved against the dictionary and directory of the file.
+     */
+    private class Plan {
+
+        final Filter filter;
+
+        // Predicates by attribute name id (null: attribute not referenced)
+        final int[][] predicatesByName = new int[dictionary.size()][];
+
+        // Matching dictionary ids of text predicates
+        final boolean[][] textValues;
+
+        // Mask of all predicates
+        final long all;
+
+        // Accepted generators by stream
+        final Map<QueryStream, HashSet<Long>> generators = new HashMap<>();
+
+        Plan(Filter filter) {
+            this.filter = filter;
+            int n = filter.attributes.size();
+            if (n > MAX_PREDICATES)
+                throw new IllegalArgumentException("At most " + MAX_PREDICATES + " attribute predicates are supported");
+            this.all = n == MAX_PREDICATES ? -1L : (1L << n) - 1;
+            this.textValues = new boolean[n][];
+            for (int p = 0; p < n; p++) {
+                AttributePredicate predicate = filter.attributes.get(p);
+                byte[] name = predicate.name.getBytes(StandardCharsets.UTF_8);
+                byte[] text = null;
+                if (predicate.kind == AttributePredicate.TEXT) {
+                    textValues[p] = new boolean[dictionary.size()];
+                    text = predicate.text.getBytes(StandardCharsets.UTF_8);
+                }
+                // compare the UTF-8 bytes, without decoding the dictionary
+                for (int id = 0; id < dictionary.size(); id++) {
+                    if (dictionary.equals(id, name)) {
+                        int[] predicates = predicatesByName[id];
+                        predicates = predicates == null ? new int[1] : Arrays.copyOf(predicates, predicates.length + 1);
+                        predicates[predicates.length - 1] = p;
+                        predicatesByName[id] = predicates;
+                    }
+                    if (text != null && dictionary.equals(id, text))
+                        textValues[p][id] = true;
+                }
+            }
+            for (QueryStream stream : streams.values()) {
+                if (!FilterExpression.matches(filter.streams, stream.name, true))
+                    continue;
+                HashSet<Long> accepted = new HashSet<>();
+                for (Map.Entry<Long, String> generator : stream.generators.entrySet())
+                    if (FilterExpression.matches(filter.generators, generator.getValue(), true))
+                        accepted.add(generator.getKey());
+                if (!accepted.isEmpty())
+                    generators.put(stream, accepted);
+            }
+        }
+
+        /**
+         * Evaluate a predicate on a raw attribute value (see FtrReader.Generator.set).
+         */
+        boolean matches(int p, int typeId, long bits) {
+            AttributePredicate predicate = filter.attributes.get(p);
+            switch (predicate.kind) {
+            case AttributePredicate.INTEGER:
+                return !FtrReader.isFloat(typeId) && !FtrReader.isString(typeId) && bits >= predicate.min && bits <= predicate.max;
+            case AttributePredicate.FLOAT:
+                if (!FtrReader.isFloat(typeId))
+                    return false;
+                float value = Float.intBitsToFloat((int) bits);
+                return value >= predicate.minFloat && value <= predicate.maxFloat;
+            default:
+                return FtrReader.isString(typeId) && textValues[p][(int) bits];
+            }
+        }
+    }
+
+    // ========================================================================================================================
+    // Opening
+    // ========================================================================================================================
+
+    /**
+     * Open a file for queries: reads the info, dictionary and directory sections and indexes the chunks, from the sidecar index if the file has a
+     * valid one (see FtrReader property "index").
+     *
+     * @param file
+     *            the FTR file
+     * @throws ParseException
+     *             if the file cannot be mapped or is not a valid FTR file
+     */
+    public FtrQuery(File file) throws ParseException {
+        try {
+            MappedFile mapped = new MappedFile(file);
+            this.file = mapped;
+            this.chunkCache = ChunkCache.SHARED.view(ChunkCache.fileKey(file));
+            // relations are not queried
+            SectionReader sections = new SectionReader(new CborDecoder(mapped, 0, mapped.size()), mapped, buffers, dictionary, false);
+            Directory directory = new Directory();
+            SidecarIndex sidecar = SidecarIndex.read(SidecarIndex.fileOf(file), file, mapped);
+            if (sidecar != null) {
+                for (int i = 0; i < sidecar.size(); i++)
+                    if (!sections.replaySection(sidecar, i, directory))
+                        throw new ParseException("Sidecar index does not match the FTR file (delete " + SidecarIndex.fileOf(file) + ")");
+            } else {
+                sections.readHeader();
+                while (sections.hasMore())
+                    sections.readSection(directory);
+            }
+        } catch (IOException e) {
+            throw new ParseException("Failed to open FTR file: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Receiver of the sections: time scale, streams, generators and chunk headers.
+     */
+    private class Directory extends SectionReader.Adapter {
+
+        @Override
+        public void info(long timeScale, long epoch) throws ParseException {
+            timeScaleFactor = FtrReader.timeScaleMultiplier(timeScale, FtrReader.domainScale(timeScale));
+        }
+
+        @Override
+        public void stream(long id, long nameId, long kindId) {
+            streams.put(id, new QueryStream(id, dictionary.get((int) nameId)));
+        }
+
+        @Override
+        public void generator(long id, long nameId, long streamId) throws ParseException {
+            QueryStream stream = streams.get(streamId);
+            if (stream == null)
+                throw new ParseException("Generator references unknown stream ID: " + streamId);
+            stream.generators.put(id, dictionary.get((int) nameId));
+        }
+
+        @Override
+        public void chunk(int tag, long streamId, long start, long end, long uncompressedSize, long offset, long length) {
+            // chunk payloads are only indexed
+            QueryStream stream = streams.get(streamId);
+            if (stream != null)
+                stream.chunks.add(offset, length, uncompressedSize, start * timeScaleFactor, end * timeScaleFactor);
+        }
+    }
+
+    // ========================================================================================================================
+    // Queries
+    // ========================================================================================================================
+
+    /**
+     * @return the stream names of the file
+     */
+    public List<String> getStreams() {
+        List<String> names = new ArrayList<>();
+        for (QueryStream stream : streams.values())
+            names.add(stream.name);
+        return names;
+    }
+
+    /**
+     * Collect matching transactions, ordered by start time.
+     *
+     * @param filter
+     *            the filter
+     * @param threads
+     *            number of decoding threads (0: one per processor)
+     * @param maxHits
+     *            maximum number of hits collected; the query stops when reached (none if 0)
+     * @param progress
+     *            cancellation, may be null
+     * @return the hits
+     * @throws ParseException
+     *             on format error
+     */
+    public List<Hit> find(Filter filter, int threads, int maxHits, IProgress progress) throws ParseException {
+        List<Hit> hits = new ArrayList<>();
+        if (maxHits <= 0)
+            return hits;
+        scan(filter, threads, hit -> {
+            hits.add(hit);
+            return hits.size() < maxHits;
+        }, progress);
+        Collections.sort(hits, (a, b) -> a.start != b.start ? Long.compare(a.start, b.start) : Long.compare(a.txId, b.txId));
+        return hits;
+    }
+
+    /**
+     * Scan the file for matching transactions. Chunks are decoded in parallel; each hit is passed to the consumer as found.
+     *
+     * @param filter
+     *            the filter
+     * @param threads
+     *            number of decoding threads (0: one per processor)
+     * @param consumer
+     *            receiver of the hits
+     * @param progress
+     *            cancellation, may be null
+     * @return number of hits
+     * @throws ParseException
+     *             on format error
+     */
+    public int scan(Filter filter, int threads, IHitConsumer consumer, IProgress progress) throws ParseException {
+        MappedFile file = this.file;
+        if (file == null)
+            throw new ParseException("Query is closed");
+        Plan plan = new Plan(filter);
+        int n = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(n);
+        Semaphore inFlight = new Semaphore(n * CHUNKS_PER_THREAD);
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicReference<Exception> error = new AtomicReference<>();
+        int[] count = new int[1];
+        IHitConsumer collector = hit -> {
+            synchronized (count) {
+                if (stop.get())
+                    return false;
+                count[0]++;
+                if (!consumer.hit(hit))
+                    stop.set(true);
+                return !stop.get();
+            }
+        };
+        try {
+            for (Map.Entry<QueryStream, HashSet<Long>> entry : plan.generators.entrySet()) {
+                QueryStream stream = entry.getKey();
+                if (stream.chunks.size() == 0)
+                    continue;
+                scanTxEnds(file, stream, filter.from);
+                for (int i = stream.chunks.first(filter.from), last = stream.chunks.last(filter.to); i <= last; i++) {
+                    if (stop.get() || error.get() != null || (progress != null && progress.isCanceled()))
+                        break;
+                    if (!stream.chunks.overlaps(i, filter.from, filter.to))
+                        continue;
+                    inFlight.acquireUninterruptibly();
+                    int chunk = i;
+                    pool.execute(() -> {
+                        try {
+                            if (!stop.get() && error.get() == null)
+                                scanChunk(file, stream, chunk, entry.getValue(), plan, collector, stop);
+                        } catch (Exception e) {
+                            error.compareAndSet(null, e);
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                }
+            }
+        } finally {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Exception e = error.get();
+        if (e != null)
+            throw e instanceof ParseException ? (ParseException) e : new ParseException("Failed to query transaction chunk: " + e.getMessage(), e);
+        return count[0];
+    }
+
+    /**
+     * Release the mapped file. Queries started afterwards fail; a query still running keeps its mapping until it ends. The mapping itself is
+     * unmapped by the JVM once no query refers to it.
+     */
+    @Override
+    public void close() {
+        file = null;
+    }
+
+    /**
+     * Scan the chunks of a stream starting up to a time for their largest transaction end, so the chunk index selects the chunks of a window
+     * starting at that time exactly, also those of long transactions running into it (see ChunkIndex). Each chunk is scanned once.
+     */
+    private void scanTxEnds(MappedFile file, QueryStream stream, long from) throws ParseException {
+        ChunkIndex chunks = stream.chunks;
+        for (int i; (i = chunks.unscanned(from)) >= 0;) {
+            try {
+                chunks.setTxEnd(i, FtrReader.scanTxEnd(openChunk(file, chunks, i), timeScaleFactor));
+            } catch (IOException e) {
+                throw new ParseException("Failed to scan transaction chunk of stream " + stream.name + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Decode a chunk and evaluate the filter on its transactions.
+     */
+    private void scanChunk(MappedFile file, QueryStream stream, int i, HashSet<Long> generators, Plan plan, IHitConsumer consumer,
+            AtomicBoolean stop) throws IOException, ParseException {
+        CborDecoder decoder = openChunk(file, stream.chunks, i);
+        Filter filter = plan.filter;
+        if (decoder.readArrayLength() != -1)
+            throw new ParseException("Expected indefinite-length array in transaction chunk");
+        while (!decoder.isBreak() && !stop.get()) {
+            long elements = decoder.readArrayLength();
+            boolean rejected = false, core = false;
+            long satisfied = 0, txId = 0, genId = 0, start = 0, end = 0;
+            for (long e = 0; e < elements; e++) {
+                long tag = decoder.readTag();
+                if (rejected) {
+                    decoder.skipItem();
+                    continue;
+                }
+                if (tag == FtrReader.TX_TAG_CORE) {
+                    if (decoder.readArrayLength() != FtrReader.EXPECTED_TX_INFO_ARRAY_SIZE)
+                        throw new ParseException("Invalid transaction info array length");
+                    txId = decoder.readInt();
+                    genId = decoder.readInt();
+                    start = decoder.readInt() * timeScaleFactor;
+                    end = decoder.readInt() * timeScaleFactor;
+                    core = true;
+                    long duration = end - start;
+                    rejected = !generators.contains(genId) || end < filter.from || start > filter.to || duration < filter.minDuration
+                            || duration > filter.maxDuration;
+                    continue;
+                }
+                // attribute: name, type, value
+                if (decoder.readArrayLength() != FtrReader.EXPECTED_ATTR_ARRAY_SIZE)
+                    throw new ParseException("Invalid attribute array length");
+                int nameId = (int) decoder.readInt();
+                int[] predicates = nameId >= 0 && nameId < plan.predicatesByName.length ? plan.predicatesByName[nameId] : null;
+                if (predicates == null) {
+                    decoder.skipItem();
+                    decoder.skipItem();
+                    continue;
+                }
+                int typeId = (int) decoder.readInt();
+                long bits;
+                if (typeId == FtrReader.ATTRIBUTE_BOOLEAN)
+                    bits = decoder.readBoolean() ? 1 : 0;
+                else if (FtrReader.isFloat(typeId))
+                    bits = Float.floatToRawIntBits(decoder.readFloat());
+                else {
+                    bits = decoder.readInt();
+                    if (FtrReader.isString(typeId) && (bits < 0 || bits >= dictionary.size()))
+                        throw new ParseException("Invalid dictionary id for attribute value: " + bits);
+                }
+                for (int p : predicates)
+                    if (plan.matches(p, typeId, bits))
+                        satisfied |= 1L << p;
+            }
+            if (core && !rejected && satisfied == plan.all
+                    && !consumer.hit(new Hit(stream.name, stream.generators.get(genId), txId, start, end)))
+                return;
+        }
+    }
+
+    /**
+     * Open a decoder on a chunk: uncompressed chunks are decoded straight from the mapping, compressed chunks are decompressed through the shared
+     * chunk cache, so queries and lazy readers of the same file decompress each chunk once.
+     */
+    private CborDecoder openChunk(MappedFile file, ChunkIndex chunks, int i) throws ParseException {
+        if (!chunks.isCompressed(i))
+            return new CborDecoder(file, chunks.offset(i), chunks.length(i));
+        return new CborDecoder(chunkCache.decompress(file, chunks, i, buffers));
+    }
+}
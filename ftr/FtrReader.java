@@ -1,22 +1,58 @@
 // FtrReader - Fast Transaction Recording reader implementation
 package de.toem.impulse.extension.eda.transaction.ftr;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
 
 import de.toem.impulse.ImpulseBase;
 import de.toem.impulse.cells.record.IRecord;
 import de.toem.impulse.extension.eda.transaction.i18n.I18n;
+import de.toem.impulse.samples.IFloatSamplesWriter;
 import de.toem.impulse.samples.ISample;
 import de.toem.impulse.samples.ISamplesReader;
 import de.toem.impulse.samples.IStructSamplesWriter;
@@ -65,7 +101,7 @@ import kanzi.function.LZ4Codec;
  * The hierarchical signal structure is created based on stream names, using a configurable path separator (default: ".") to determine the hierarchy.
  * Each component of the path becomes a scope in the record structure, with the final component being the signal name.
  *
- * Implementation Notes: - Uses TimeBase.ns (nanoseconds) as the base time unit for all signals - Preserves original stream hierarchies in the impulse
+ * Implementation Notes: - Uses TimeBase.ps (picoseconds, fs for files with a finer time scale) as the base time unit for all signals - Preserves original stream hierarchies in the impulse
  * record structure - Adjusts timestamps based on the time scale from the file - Automatically detects files with .ftr extension
  *
  * Copyright (c) 2013-2025 Thomas Haber All rights reserved.
@@ -93,12 +129,30 @@ public class FtrReader extends AbstractSingleDomainRecordReader implements ISamp
     // Domain base used for time units
     private IDomainBase domainBase = TimeBase.ps;
 
+    // Time scale of the domain units (power of ten of a second)
+    private int domainScale = TIME_SCALE_PS;
+
     // Include signal filter list
     private List<FilterExpression> includeSignals;
 
     // Exclude signal filter list
     private List<FilterExpression> excludeSignals;
 
+    // Include filter for generators
+    private List<FilterExpression> includeGenerators;
+
+    // Exclude filter for generators
+    private List<FilterExpression> excludeGenerators;
+
+    // Include filter for attributes
+    private List<FilterExpression> includeAttributes;
+
+    // Exclude filter for attributes
+    private List<FilterExpression> excludeAttributes;
+
+    // Excluded attributes by dictionary name id (null: no attribute filter)
+    private boolean[] excludedAttributes;
+
     // Start domain time filter
     private long startDomain = Long.MIN_VALUE;
 
@@ -108,32 +162,138 @@ public class FtrReader extends AbstractSingleDomainRecordReader implements ISamp
     // Delay applied to domain times
     private long delayDomain = 0;
 
+    // Lazy window: a lazily produced signal is written window by window (0: at once)
+    private long windowDomain = 0;
+
     // Scale applied to domain times
     private double scaleDomain = 1;
 
+    // Map the file into memory and index chunks by offset
+    private boolean mapped;
+
+    // Default size of the decompressed chunk cache in MB
+    private static final int DEFAULT_CHUNK_CACHE = 64;
+
+    // Number of threads decoding transaction chunks (0/1: decode on the reading thread)
+    private int threads;
+
+    // Chunks in flight per decoding thread
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    // Chunk size from which the transactions of a chunk are decoded in parallel (bytes, uncompressed)
+    static final int PARALLEL_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    // Transactions per range of a chunk decoded in parallel
+    static final int RANGE_TRANSACTIONS = 4096;
+
+    // Whether to exclude all relations
+    private boolean excludeAllRelation;
+    // Locate written transactions by id for relations: only if relations are imported and the file has (or may have) relation sections
+    private boolean indexRelations;
+
     // ========================================================================================================================
     // Content
     // ========================================================================================================================
     // Console stream for logging and output
     IConsoleStream console;
 
-    // CBOR decoder for parsing the FTR file
-    private CborDecoder cborDecoder;
+    // Name of the content (usually the file path)
+    private String contentName;
+
+    // Memory mapped file (mapped mode only)
+    private MappedFile mappedFile;
+
+    // View of the shared cache of decompressed chunks (lazy mode)
+    private ChunkCache.View chunkCache;
+
+    // Pool of buffers for compressed and decompressed sections
+    private BufferPool buffers = new BufferPool(2);
+
+    // LZ4 codec per thread
+    private static final ThreadLocal<LZ4Codec> LZ4_CODEC = ThreadLocal.withInitial(LZ4Codec::new);
+
+    // Staged chunk import (parallel mode only)
+    private ChunkPipeline chunkPipeline;
+
+    // Pool decoding ranges of large chunks in parallel, or null
+    private ForkJoinPool rangeDecoders;
+
+    // Pool decoding ranges of large chunks of lazily produced streams, shared by all readers of the JVM (one thread per processor, threads are
+    // started on demand and end when idle)
+    private static final ForkJoinPool LAZY_RANGE_DECODERS = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    // Lock for record access (writers, notifications) from decoding threads (shared by the parts of a merged record)
+    private Object recordLock = new Object();
+
+    // Reader owning the record: this, or the reader of the opened file if this reader is a part of a merged record
+    private FtrReader root = this;
+
+    // Scope of the file in a merged record, or null
+    private String fileScope;
+
+    // Reader of the sections of the FTR file
+    private SectionReader sections;
 
     // Time scale factor for converting file time values to database time
     private long timeScaleFactor = 1000L;
 
-    // List that stores string dictionary entries
-    private final ArrayList<String> dictionary = new ArrayList<>();
+    // String dictionary entries (UTF-8 arena, decoded on use)
+    private final StringDictionary dictionary = new StringDictionary();
 
     // Map to store streams: streamId -> Stream object
-    private final Map<Long, Stream> streams = new HashMap<>();
+    private final IdTable<Stream> streams = new IdTable<>();
+
+    // Ids of streams excluded by the include/exclude filters
+    private final IdTable<Boolean> excludedStreams = new IdTable<>();
+
+    // Streams by number (Stream.no - 1)
+    private final ArrayList<Stream> streamList = new ArrayList<>();
+
+    // Location of the written transactions: txId -> stream number, sample index, time (off-heap)
+    private final TxIndex txIndex = new TxIndex();
+
+    // Relations of the relation sections (txId pairs and label)
+    private final RelationTable relations = new RelationTable();
+
+    // Streams by signal (lazy production; shared by the parts of a merged record)
+    private HashMap<IRecord.Signal, Stream> signalStreams = new HashMap<>();
+
+    // Scheduler of lazily produced streams
+    private LazyScheduler lazyScheduler;
+
+    // Use and maintain a sidecar index (lazy, mapped mode)
+    private boolean index;
 
-    // Set to store handled lazy signals
-    private final HashSet<IRecord.Signal> lazySignals = new HashSet<>();
+    // Follow a file that is still being written (eager stream mode)
+    private boolean follow;
 
-    // Set to store lazy-loading signals
-    private final HashSet<IRecord.Signal> lazyLoading = new LinkedHashSet<>();
+    // Create density overview signals from the chunk headers
+    private boolean overview;
+
+    // Overview signals (not produced lazily; shared by the parts of a merged record)
+    private HashSet<IRecord.Signal> overviewSignals = new HashSet<>();
+
+    // Number of intervals of the density overview
+    static final int OVERVIEW_BINS = 2000;
+
+    // Scope of the density overview signals
+    static final String OVERVIEW_SCOPE = "Overview";
+
+    // Poll interval when waiting for appended data in follow mode (ms)
+    static final int FOLLOW_POLL_INTERVAL = 500;
+
+    // Number of transaction chunks by stream id (eager mapped mode), or null
+    private IdTable<int[]> chunkCounts;
+
+    // Chunk headers by stream id and their time range for the density overview (eager mapped mode, times unscaled), or null
+    private IdTable<ChunkIndex> overviewChunks;
+    private long overviewFrom, overviewTo;
+
+    // Number of open stream writers and its maximum
+    private final AtomicInteger openWriters = new AtomicInteger(), peakWriters = new AtomicInteger();
+
+    // Sidecar index collected while parsing, or null
+    private SidecarIndex indexBuilder;
 
     // Progress indicator for lazy loading
     private boolean parsing;
@@ -185,6 +345,10 @@ public class FtrReader extends AbstractSingleDomainRecordReader implements ISamp
     // Epoch time tag
     static final long CBOR_EPOCH_TIME_TAG = 1;
 
+    // Time scales of the domain units (power of ten of a second)
+    static final int TIME_SCALE_PS = -12;
+    static final int TIME_SCALE_FS = -15;
+
     // File section tag constants
     // File info section tag
     static final int FILE_TAG_INFO = 6;
@@ -298,6 +462,31 @@ public class FtrReader extends AbstractSingleDomainRecordReader implements ISamp
     public FtrReader(ISerializerDescriptor descriptor, String contentName, String contentType, String cellType, String configuration,
             String[][] properties, InputStream in) {
         super(descriptor, configuration, properties, getPropertyModel(descriptor, null), in);
+        this.contentName = contentName;
+    }
+
+    /**
+     * Constructor for a part of a merged record: a reader parsing another file into the record of the root reader.
+     *
+     * @param root
+     *            the reader owning the record
+     * @param contentName
+     *            path of the file
+     * @param fileScope
+     *            scope of the file in the record
+     * @param properties
+     *            properties of the root reader (without the file list)
+     */
+    private FtrReader(FtrReader root, String contentName, String fileScope, String[][] properties) {
+        super(null, null, properties, getPropertyModel(null, null), null);
+        this.contentName = contentName;
+        this.root = root;
+        this.fileScope = fileScope;
+        this.recordLock = root.recordLock;
+        this.signalStreams = root.signalStreams;
+        this.overviewSignals = root.overviewSignals;
+        this.domainBase = root.domainBase;
+        this.domainScale = root.domainScale;
     }
 
     // ========================================================================================================================
@@ -362,6 +551,19 @@ public class FtrReader extends AbstractSingleDomainRecordReader implements ISamp
         boolean notPref = context != IRegistryObject.Preference.class;
         PropertyModel model = IParsingRecordReader
                 .getPropertyModel(PROP_INCLUDE | PROP_LAZY | PROP_HIERARCHY | (notPref ? (PROP_RANGE | PROP_TRANSFORM) : 0))
+                .add("mapped", false, null, "Memory mapped", null, null)
+                .add("index", false, null, "Sidecar index", null, null)
+                .add("follow", false, null, "Follow file", null, null)
+                .add("files", "", null, null, "Merged files", null, null)
+                .add("overview", false, null, "Density overview", null, null)
+                .add("chunkCache", DEFAULT_CHUNK_CACHE, null, null, null, "Chunk cache (MB)", null, null)
+                .add("threads", 0, null, null, null, "Decoding threads", null, null)
+                .add("window", "", null, null, "Lazy window", null, null)
+                .add("excludeAllRelation", true, null, "Exclude all relations", null, null)
+                .add("includeGenerators", "", null, null, "Include Generators", null, null)
+                .add("excludeGenerators", "", null, null, "Exclude Generators", null, null)
+                .add("includeAttributes", "", null, null, "Include Attributes", null, null)
+                .add("excludeAttributes", "", null, null, "Exclude Attributes", null, null)
                 .add(ConfiguredConsoleStream.getPropertyModel());
         model.setDefaultVal("hierarchy", ".");
         return model;
@@ -422,17 +624,38 @@ public class FtrReader extends AbstractSingleDomainRecordReader implements ISamp
         // stream id
         long id;
 
+        // Dense stream number (1..n) used in the transaction index
+        final int no;
+
+        // Number of samples written (index of the next sample)
+        int samples;
+
         // Name of the stream
         String name;
 
         // Kind of stream (e.g. input, output)
         String kind;
 
-        // Storage for compressed/uncompressed CBOR transaction chunks
-        public Pageable<byte[]> chunks;
+        // Index of the transaction chunks (file offset, length, compression, time range)
+        final ChunkIndex chunks = new ChunkIndex();
+
+        // Storage for CBOR transaction chunks held on the heap, compressed as in the file (lazy mode without mapping)
+        Pageable<byte[]> chunkData;
+
+        // Chunks waiting for a decoding thread, in file order (parallel mode, guarded by itself)
+        final ArrayDeque<Runnable> pending = new ArrayDeque<>();
 
-        // Map of generators by ID
-        Map<Long, Generator> generators = new HashMap<>();
+        // True while a decoding thread drains the pending chunks
+        boolean decoding;
+
+        // Generators by ID
+        final IdTable<Generator> generators = new IdTable<>();
+
+        // Chunks not yet read when parsing eagerly (counted in advance, 0 if unknown); the writer is closed after the last one
+        int remainingChunks;
+
+        // Number of included generators
+        int noOfGenerators;
 
         // Reference to the impulse signal created for this stream
         IRecord.Signal signal;
@@ -443,76 +666,99 @@ public class FtrReader extends AbstractSingleDomainRecordReader implements ISamp
         // Current time position in the stream
         long current;
 
+        // Set when all transactions of the stream are in the transaction index (lazy production, guarded by relations)
+        boolean indexed;
+
+        // Lazy production: transactions starting up to this time are written (Long.MIN_VALUE: none yet, Long.MAX_VALUE: all)
+        long produced = Long.MIN_VALUE;
+
+        // Lazy production: transactions are requested up to this time (guarded by the lazy scheduler)
+        long requested = Long.MIN_VALUE;
+
+        // Transactions starting in this range are written (the window in production; all when parsing eagerly)
+        long windowStart = Long.MIN_VALUE, windowEnd = Long.MAX_VALUE;
+
+        // Transactions written by lazy production, to look up their relations (null if there are none)
+        long[] written;
+        int writtenCount;
+
+        // Relations waiting for the stream of their other transaction (lazy production, guarded by relations); the writer stays open meanwhile
+        int deferredRelations;
+
+        // Scope path of the signal ('/' separated, null for top level) and signal name
+        String scopePath, signalName;
+
         // Event queue for pending transactions
         class Event {
 
             Generator generator;
 
+            // Transaction id
+            long txId;
+
             long time;
 
-            Event prev, next;
+            // Next reusable event of the generator
+            Event next;
 
             int order;
 
-            Map<String, StructMember> members = new LinkedHashMap<>();
+            // Attribute values by slot of the generator layout (raw bits, see Generator.set)
+            long[] values = new long[0];
 
-            StructMember[] memberArray;
+            // Attribute types of the values by slot (may differ from the slot type)
+            int[] types = new int[0];
+
+            // Validity of the slots as bit mask
+            long[] valid = new long[0];
 
             Event(Generator generator) {
                 this.generator = generator;
-                members.put("__origin",
-                        new StructMember(-1, null, "Origin", null, null, null, ISample.DATA_TYPE_ENUM, -1, ISample.FORMAT_DEFAULT, generator.name));
             }
 
             /**
-             * Add a named StructMember to this event.
+             * Store a value in a slot.
              *
-             * @param name
-             *            member name
-             * @param member
-             *            StructMember descriptor and value holder
+             * @param slot
+             *            slot of the generator layout
+             * @param attrType
+             *            attribute type of the value
+             * @param bits
+             *            raw value bits
              */
-            void addMember(String name, StructMember member) {
-                // Add a member to the event's members map
-                members.put(name, member);
-                memberArray = null;
+            void set(int slot, int attrType, long bits) {
+                if (slot >= values.length) {
+                    values = Arrays.copyOf(values, Math.max(slot + 1, values.length * 2));
+                    types = Arrays.copyOf(types, values.length);
+                    valid = Arrays.copyOf(valid, (values.length + 63) >>> 6);
+                }
+                values[slot] = bits;
+                types[slot] = attrType;
+                valid[slot >>> 6] |= 1L << slot;
             }
 
             /**
-             * Return the StructMember array for this event.
-             *
-             * Builds the array from the internal map the first time it is requested.
-             *
-             * @return array of StructMember in insertion order
+             * @param slot
+             *            slot of the generator layout
+             * @return true if a value was set for the slot
              */
-            StructMember[] getMembers() {
-                // Return the member array, creating it if necessary
-                if (memberArray == null) {
-                    memberArray = members.values().toArray(new StructMember[members.size()]);
-                }
-                return memberArray;
+            boolean isValid(int slot) {
+                return slot < values.length && (valid[slot >>> 6] & (1L << slot)) != 0;
             }
 
             /**
-             * Clean internal links and mark members invalid so the Event can be reused.
-             *
-             * Clears prev/next links and invalidates member validity flags.
+             * Clean internal links and invalidate all slots so the Event can be reused.
              */
             void clean() {
                 // clean up relation
-                prev = next = null;
-                // invalidate members
-                if (memberArray != null) {
-                    for (StructMember member : memberArray) {
-                        member.setValid(false);
-                    }
-                }
+                next = null;
+                // invalidate values
+                Arrays.fill(valid, 0);
             }
         }
 
-        Event queueFirst;
-
-        Event queueLast;
+        // Pending events in time order
+        final EventQueue<Event> queue = new EventQueue<>();
 
         class Generator {
 
@@ -522,6 +768,9 @@ public class FtrReader extends AbstractSingleDomainRecordReader implements ISamp
             // Name of this generator
             String name;
 
+            // Whether this generator is excluded by the generator filters
+            boolean excluded;
+
             // Layer value for displaying transactions in UI
             int layer;
 
@@ -542,6 +791,15 @@ public class FtrReader extends AbstractSingleDomainRecordReader implements ISamp
             // begin/end
             Event[] reuse = new Event[2];
 
+            // Attribute layout: slot by dictionary name id (-1 if the attribute did not occur yet)
+            int[] slots = new int[0];
+
+            // Attribute types by slot
+            int[] slotTypes = new int[1];
+
+            // Struct members by slot (stable schema, slot 0 is the origin)
+            StructMember[] members;
+
             /**
              * Constructor for the Generator class.
              *
@@ -555,7 +813,13 @@ public class FtrReader extends AbstractSingleDomainRecordReader implements ISamp
             public Generator(long id, String name) {
                 this.id = id;
                 this.name = name;
-                this.layer = Stream.this.generators.size();
+                // exclude
+                this.excluded = !FilterExpression.matches(includeGenerators, name, true);
+                this.excluded |= FilterExpression.matches(excludeGenerators, name, false);
+                // layer among the included generators
+                this.layer = excluded ? -1 : Stream.this.noOfGenerators++;
+                this.members = new StructMember[] {
+                        new StructMember(-1, null, "Origin", null, null, null, ISample.DATA_TYPE_ENUM, -1, ISample.FORMAT_DEFAULT, name) };
             }
 
             /**
@@ -577,7 +841,10 @@ public class FtrReader extends AbstractSingleDomainRecordReader implements ISamp
 
                 // Create a new writer for this stream if it doesn't exist
                 if (writer == null) {
-                    writer = (IStructSamplesWriter) FtrReader.this.getWriter(Stream.this.signal);
+                    synchronized (recordLock) {
+                        writer = (IStructSamplesWriter) root.getWriter(Stream.this.signal);
+                    }
+                    peakWriters.accumulateAndGet(openWriters.incrementAndGet(), Math::max);
                     writer.open(startTime);
                 }
                 // store transaction information
@@ -592,6 +859,7 @@ public class FtrReader extends AbstractSingleDomainRecordReader implements ISamp
                 } else
                     events[0] = new Event(this);
                 events[0].time = startTime;
+                events[0].txId = txId;
                 if (endTime > startTime) {
                     if (reuse[1] != null) {
                         events[1] = reuse[1];
@@ -600,6 +868,7 @@ public class FtrReader extends AbstractSingleDomainRecordReader implements ISamp
                     } else
                         events[1] = new Event(this);
                     events[1].time = endTime;
+                    events[1].txId = txId;
                     events[0].order = ISample.GO_INITIAL;
                     events[1].order = ISample.GO_FINAL;
                 } else {
@@ -611,120 +880,145 @@ public class FtrReader extends AbstractSingleDomainRecordReader implements ISamp
             /**
              * Set an attribute value for the current transaction.
              *
-             * The attribute is assigned to either the begin or end Event depending on tag. New StructMember is created when the attribute name hasn't
-             * been seen before.
+             * The attribute is assigned to either the begin or end Event depending on tag. Values are stored unboxed in the slot of the attribute
+             * name: booleans as 0/1, integers as is, floats as float bits and strings (enumerations, vectors) as dictionary id. A slot and its
+             * StructMember are created when the attribute name hasn't been seen before by this generator. The type is kept with the value, as the
+             * same name may occur with another type than the one of its slot (see write).
              *
              * @param tag
              *            element tag (begin/record/end)
-             * @param name
-             *            attribute name
-             * @param value
-             *            attribute value
+             * @param nameId
+             *            dictionary id of the attribute name
              * @param attrType
              *            attribute type constant
+             * @param bits
+             *            raw value bits
              * @throws ParseException
              *             on invalid attribute type
              */
-            void set(int tag, String name, Object value, int attrType) throws ParseException {
-                if (name == null || value == null) {
-                    return;
-                }
-                // Check if attribute already exists
+            void set(int tag, int nameId, int attrType, long bits) throws ParseException {
+                int slot = nameId < slots.length ? slots[nameId] : -1;
+                if (slot < 0)
+                    slot = addSlot(nameId, attrType);
                 Event e = events[1] != null && tag != TX_TAG_BEGIN_ATTR ? events[1] : events[0];
-                StructMember member = e.members.get(name);
-                if (member == null) {
-                    e.memberArray = null;
-                    // Create new attribute based on attribute type
-                    // Use auto-incrementing ID for struct members
-                    // Use name as description by default
-                    String description = null;
-                    // No specific icon
-                    String iconId = null;
-                    // No specific tags
-                    String tags = null;
-                    // Use default scale
-                    int scale = ISample.SCALE_DEFAULT;
-                    // Will be overridden for specific types
-                    String format = ISample.FORMAT_DEFAULT;
-                    switch (attrType) {
-                    case ATTRIBUTE_BOOLEAN:
-                        member = new StructMember(-1, null, name, description, iconId, tags, ISample.DATA_TYPE_ENUM, scale, ISample.FORMAT_BOOLEAN,
-                                value);
-                        break;
-                    case ATTRIBUTE_ENUMERATION:
-                        member = new StructMember(-1, null, name, description, iconId, tags, ISample.DATA_TYPE_ENUM, scale, ISample.FORMAT_DEFAULT,
-                                value);
-                        break;
-                    case ATTRIBUTE_INTEGER:
-                        member = new StructMember(-1, null, name, description, iconId, tags, ISample.DATA_TYPE_INTEGER, scale, ISample.FORMAT_DECIMAL,
-                                value);
-                        break;
-                    case ATTRIBUTE_UNSIGNED:
-                        member = new StructMember(-1, null, name, description, iconId, tags, ISample.DATA_TYPE_INTEGER, scale, ISample.FORMAT_DECIMAL,
-                                value);
-                        break;
-                    case ATTRIBUTE_POINTER:
-                        member = new StructMember(-1, null, name, description, iconId, tags, ISample.DATA_TYPE_INTEGER, scale,
-                                ISample.FORMAT_HEXADECIMAL, value);
-                        break;
-                    case ATTRIBUTE_TIME:
-                        member = new StructMember(-1, null, name, description, iconId, tags, ISample.DATA_TYPE_INTEGER, scale, ISample.FORMAT_DEFAULT,
-                                value);
-                        break;
-                    case ATTRIBUTE_FLOATING_POINT_NUMBER:
-                    case ATTRIBUTE_FIXED_POINT_INTEGER:
-                    case ATTRIBUTE_UNSIGNED_FIXED_POINT_INTEGER:
-                        member = new StructMember(-1, null, name, description, iconId, tags, ISample.DATA_TYPE_FLOAT, scale, ISample.FORMAT_DEFAULT,
-                                value);
-                        break;
-                    case ATTRIBUTE_STRING:
-                        member = new StructMember(-1, null, name, description, iconId, tags, /* ISample.DATA_TYPE_TEXT */
-                                ISample.DATA_TYPE_ENUM, scale, ISample.FORMAT_DEFAULT, value);
-                        break;
-                    case ATTRIBUTE_BIT_VECTOR:
-                        member = new StructMember(-1, null, name, description, iconId, tags, ISample.DATA_TYPE_LOGIC, scale, ISample.FORMAT_BINARY,
-                                value);
-                        break;
-                    case ATTRIBUTE_LOGIC_VECTOR:
-                        member = new StructMember(-1, null, name, description, iconId, tags, ISample.DATA_TYPE_LOGIC, scale, ISample.FORMAT_DEFAULT,
-                                value);
-                        break;
-                    default:
-                        // For unknown attribute types, create a text member as fallback
-                        throw new ParseException("Missing attribute type for " + name);
-                    }
-                    // Add the new attribute to the attributes map
-                    e.addMember(name, member);
-                }
-                member.setValue(value);
-                member.setValid(true);
+                e.set(slot, attrType, bits);
             }
 
             /**
-             * Finalize the current transaction and insert prepared events into the stream queue.
+             * Add a slot and its StructMember for a new attribute name.
              *
+             * @param nameId
+             *            dictionary id of the attribute name
+             * @param attrType
+             *            attribute type constant
+             * @return the new slot
              * @throws ParseException
-             *             on queue insertion failure
+             *             on invalid name id or attribute type
              */
-            void end() throws ParseException {
-                insertIntoQueue(events[0]);
-                if (events[1] != null) {
-                    // If there is an end event, insert it into the queue
-                    insertIntoQueue(events[1]);
+            private int addSlot(int nameId, int attrType) throws ParseException {
+                if (nameId < 0 || nameId >= dictionary.size())
+                    throw new ParseException("Invalid attribute name id: " + nameId);
+                String name = dictionary.get(nameId);
+                // Create new attribute based on attribute type
+                // Use name as description by default
+                String description = null;
+                // No specific icon
+                String iconId = null;
+                // No specific tags
+                String tags = null;
+                // Use default scale
+                int scale = ISample.SCALE_DEFAULT;
+                StructMember member;
+                switch (attrType) {
+                case ATTRIBUTE_BOOLEAN:
+                    member = new StructMember(-1, null, name, description, iconId, tags, ISample.DATA_TYPE_ENUM, scale, ISample.FORMAT_BOOLEAN, null);
+                    break;
+                case ATTRIBUTE_ENUMERATION:
+                    member = new StructMember(-1, null, name, description, iconId, tags, ISample.DATA_TYPE_ENUM, scale, ISample.FORMAT_DEFAULT, null);
+                    break;
+                case ATTRIBUTE_INTEGER:
+                case ATTRIBUTE_UNSIGNED:
+                    member = new StructMember(-1, null, name, description, iconId, tags, ISample.DATA_TYPE_INTEGER, scale, ISample.FORMAT_DECIMAL, null);
+                    break;
+                case ATTRIBUTE_POINTER:
+                    member = new StructMember(-1, null, name, description, iconId, tags, ISample.DATA_TYPE_INTEGER, scale, ISample.FORMAT_HEXADECIMAL,
+                            null);
+                    break;
+                case ATTRIBUTE_TIME:
+                    member = new StructMember(-1, null, name, description, iconId, tags, ISample.DATA_TYPE_INTEGER, scale, ISample.FORMAT_DEFAULT, null);
+                    break;
+                case ATTRIBUTE_FLOATING_POINT_NUMBER:
+                case ATTRIBUTE_FIXED_POINT_INTEGER:
+                case ATTRIBUTE_UNSIGNED_FIXED_POINT_INTEGER:
+                    member = new StructMember(-1, null, name, description, iconId, tags, ISample.DATA_TYPE_FLOAT, scale, ISample.FORMAT_DEFAULT, null);
+                    break;
+                case ATTRIBUTE_STRING:
+                    member = new StructMember(-1, null, name, description, iconId, tags, /* ISample.DATA_TYPE_TEXT */
+                            ISample.DATA_TYPE_ENUM, scale, ISample.FORMAT_DEFAULT, null);
+                    break;
+                case ATTRIBUTE_BIT_VECTOR:
+                    member = new StructMember(-1, null, name, description, iconId, tags, ISample.DATA_TYPE_LOGIC, scale, ISample.FORMAT_BINARY, null);
+                    break;
+                case ATTRIBUTE_LOGIC_VECTOR:
+                    member = new StructMember(-1, null, name, description, iconId, tags, ISample.DATA_TYPE_LOGIC, scale, ISample.FORMAT_DEFAULT, null);
+                    break;
+                default:
+                    throw new ParseException("Missing attribute type for " + name);
+                }
+                int slot = members.length;
+                members = Arrays.copyOf(members, slot + 1);
+                members[slot] = member;
+                slotTypes = Arrays.copyOf(slotTypes, slot + 1);
+                slotTypes[slot] = attrType;
+                if (nameId >= slots.length) {
+                    int length = slots.length;
+                    slots = Arrays.copyOf(slots, Math.max(nameId + 1, length * 2));
+                    Arrays.fill(slots, length, slots.length, -1);
                 }
+                slots[nameId] = slot;
+                return slot;
             }
 
             /**
              * Write a prepared Event to the stream writer and recycle the Event for reuse.
              *
+             * The values of the event are boxed into the stable StructMember array of this generator; slots without a value are marked invalid.
+             * Values are boxed by their own type and then converted to the type of the slot (see coerce).
+             *
              * @param event
              *            event to write
              * @throws ParseException
              *             on writer error
              */
             void write(Event event) throws ParseException {
+                // transfer the slots into the struct members (slot 0 is the origin, always valid)
+                for (int slot = 1; slot < members.length; slot++) {
+                    StructMember member = members[slot];
+                    Object value = null;
+                    if (event.isValid(slot)) {
+                        int attrType = event.types[slot];
+                        value = box(event.values[slot], attrType);
+                        if (attrType != slotTypes[slot])
+                            value = coerce(value, slotTypes[slot]);
+                    }
+                    if (value != null) {
+                        member.setValue(value);
+                        member.setValid(true);
+                    } else
+                        member.setValid(false);
+                }
                 // write the event to the structured samples writer
-                writer.write(event.time, 0, event.order, layer, event.getMembers());
+                writer.write(event.time, 0, event.order, layer, members);
+                // locate the transaction by its first sample for relations
+                if (indexRelations && event.order != ISample.GO_FINAL) {
+                    txIndex.put(event.txId, no, samples, event.time);
+                    if (written != null) {
+                        if (writtenCount == written.length)
+                            written = Arrays.copyOf(written, writtenCount * 2);
+                        written[writtenCount++] = event.txId;
+                    }
+                }
+                samples++;
                 // Clean up the event before reusing it
                 event.clean();
                 // store for reuse
@@ -733,6 +1027,20 @@ public class FtrReader extends AbstractSingleDomainRecordReader implements ISamp
                 reuse[n] = event;
                 event.next = e;
             }
+
+            /**
+             * Finalize the current transaction and insert prepared events into the stream queue.
+             *
+             * @throws ParseException
+             *             on queue insertion failure
+             */
+            void end() throws ParseException {
+                insertIntoQueue(events[0]);
+                if (events[1] != null) {
+                    // If there is an end event, insert it into the queue
+                    insertIntoQueue(events[1]);
+                }
+            }
         }
 
         /**
@@ -749,9 +1057,20 @@ public class FtrReader extends AbstractSingleDomainRecordReader implements ISamp
             this.id = id;
             this.name = name;
             this.kind = kind;
+            streamList.add(this);
+            this.no = streamList.size();
             initSignal();
         }
 
+        /**
+         * Gets the URI path of the signal.
+         *
+         * @return The signal URI
+         */
+        String getPath() {
+            return signal != null ? signal.getCellUri() : "";
+        }
+
         void initSignal() {
             // Get path separator from properties (default to '.' if not specified)
             String separator = FtrReader.this.getProperty("hierarchy");
@@ -770,14 +1089,26 @@ public class FtrReader extends AbstractSingleDomainRecordReader implements ISamp
                     }
                     scopePath.append(pathComponents[i]);
                 }
-                // Ensure all parent scopes exist
-                parentScope = FtrReader.this.assertScope(scopePath.toString());
+                this.scopePath = scopePath.toString();
                 // Last component becomes the signal name
                 signalName = pathComponents[pathComponents.length - 1];
             }
-            // Create the signal with the appropriate parent scope and name
-            this.signal = FtrReader.this.addSignal(parentScope, signalName, kind, null, ISample.DATA_TYPE_STRUCT, -1, ISample.FORMAT_DEFAULT,
-                    domainBase);
+            this.signalName = signalName;
+            // parts of a merged record add signals concurrently
+            synchronized (recordLock) {
+                // Ensure all parent scopes exist
+                parentScope = recordScope(this.scopePath);
+                // Create the signal with the appropriate parent scope and name
+                this.signal = root.addSignal(parentScope, signalName, kind, null, ISample.DATA_TYPE_STRUCT, -1, ISample.FORMAT_DEFAULT, domainBase);
+                signalStreams.put(signal, this);
+            }
+        }
+
+        /**
+         * @return the reader of the file of this stream (the parts of a merged record share the lazy scheduler of the root reader)
+         */
+        FtrReader reader() {
+            return FtrReader.this;
         }
 
         /**
@@ -793,64 +1124,13 @@ public class FtrReader extends AbstractSingleDomainRecordReader implements ISamp
         }
 
         /**
-         * Insert an event into the stream's time-ordered queue.
-         *
-         * The insertion keeps the queue sorted by event.time. It typically walks backwards from the tail as recent events are most common insertion
-         * points.
+         * Insert an event into the stream's time-ordered queue. Events with equal times keep their insertion order.
          *
-         * @param Event
+         * @param event
          *            event to be inserted into the queue
          */
-        void insertIntoQueue(Event Event) {
-            // Maintain a time-ordered double-linked queue.
-            // We typically insert near the tail (most recent events) to be efficient,
-            // walking backwards until we find the proper insertion point.
-            if (queueFirst == null) {
-                queueFirst = queueLast = Event;
-            } else {
-                // sort into the queue based on time, start from last
-                Event current = queueLast;
-                while (current != null && current.time > Event.time) {
-                    current = current.prev;
-                }
-                if (current == null) {
-                    // Insert at the beginning
-                    Event.next = queueFirst;
-                    queueFirst.prev = Event;
-                    queueFirst = Event;
-                } else if (current == queueLast) {
-                    // Insert at the end (common case)
-                    current.next = Event;
-                    Event.prev = current;
-                    queueLast = Event;
-                } else {
-                    // Insert in the middle: relink neighbors
-                    Event.prev = current;
-                    Event.next = current.next;
-                    current.next.prev = Event;
-                    current.next = Event;
-                }
-            }
-        }
-
-        /**
-         * Remove and return the first (earliest) event from the queue.
-         *
-         * @return the earliest Event or null if queue is empty
-         */
-        Event removeFirstFromQueue() {
-            if (queueFirst == null) {
-                return null;
-            }
-            Event found = queueFirst;
-            queueFirst = found.next;
-            if (queueFirst != null) {
-                queueFirst.prev = null;
-            } else {
-                // If the queue is now empty, reset last
-                queueLast = null;
-            }
-            return found;
+        void insertIntoQueue(Event event) {
+            queue.add(event.time, event);
         }
 
         /**
@@ -865,29 +1145,66 @@ public class FtrReader extends AbstractSingleDomainRecordReader implements ISamp
          */
         void finish(long untilTime) throws ParseException {
             // Pop events from the queue in chronological order and write them
-            Event event = null;
-            while ((event = removeFirstFromQueue()) != null && event.time <= untilTime) {
+            // Peek before removing: events beyond untilTime stay queued for later chunks
+            while (!queue.isEmpty() && queue.firstTime() <= untilTime) {
+                Event event = queue.poll();
                 event.generator.write(event);
             }
         }
 
         /**
-         * Add a transaction chunk to this stream for later processing.
+         * Add a transaction chunk to this stream for later processing (lazy mode).
          *
-         * In lazy mode the chunk is stored; in eager mode it will be parsed immediately.
+         * The chunk location is always indexed. Without a mapped file the chunk bytes are held on the heap as well, compressed chunks in their
+         * compressed form.
          *
-         * @param chunkData
-         *            CBOR chunk bytes
+         * @param offset
+         *            absolute file offset of the chunk payload
+         * @param length
+         *            payload length in bytes
+         * @param uncompressedSize
+         *            uncompressed size for LZ4 compressed chunks, -1 otherwise
          * @param startTime
          *            start time associated with this chunk
          * @param endTime
          *            end time associated with this chunk
+         * @param data
+         *            CBOR chunk bytes to be held on the heap, or null if the chunk is read from the mapped file
+         */
+        public void addChunk(long offset, long length, long uncompressedSize, long startTime, long endTime, byte[] data) {
+            chunks.add(offset, length, uncompressedSize, startTime, endTime);
+            if (data != null) {
+                // Initialize the chunks pageable if it doesn't exist
+                if (chunkData == null)
+                    chunkData = new BytesPageable();
+                chunkData.set(chunkData.addFragment(), data);
+            }
+        }
+
+        /**
+         * Open a decoder for an indexed chunk.
+         *
+         * Uncompressed chunks are decoded from the heap or straight from the mapped file. Compressed chunks are decompressed on demand through the
+         * chunk cache.
+         *
+         * @param i
+         *            chunk index
+         * @return decoder positioned at the chunk payload
+         * @throws ParseException
+         *             on I/O or decompression error
          */
-        public void addChunk(byte[] chunkData, long startTime, long endTime) {
-            // Initialize the chunks pageable if it doesn't exist
-            if (chunks == null)
-                chunks = new BytesPageable();
-            chunks.set(chunks.addFragment(), chunkData);
+        CborDecoder openChunk(int i) throws ParseException {
+            if (!chunks.isCompressed(i))
+                return chunkData != null ? new CborDecoder(chunkData.get(i)) : new CborDecoder(mappedFile, chunks.offset(i), chunks.length(i));
+            if (chunkData == null)
+                return new CborDecoder(chunkCache.decompress(mappedFile, chunks, i, buffers));
+            // chunk offsets are unique within the file; only the cached copy gets an exactly sized array
+            byte[] data = chunkCache.get(chunks.offset(i));
+            if (data == null) {
+                data = decompressLZ4(chunkData.get(i), chunks.uncompressedSize(i));
+                chunkCache.put(chunks.offset(i), data);
+            }
+            return new CborDecoder(data);
         }
 
         /**
@@ -902,9 +1219,12 @@ public class FtrReader extends AbstractSingleDomainRecordReader implements ISamp
             if (writer != null) {
                 finish(Long.MAX_VALUE);
                 // Close the writer if it exists
-                writer.close(current + 1);
-                signal.update(writer);
+                synchronized (recordLock) {
+                    writer.close(current + 1);
+                    signal.update(writer);
+                }
                 writer = null;
+                openWriters.decrementAndGet();
             }
         }
 
@@ -915,335 +1235,1043 @@ public class FtrReader extends AbstractSingleDomainRecordReader implements ISamp
     }
 
     // ========================================================================================================================
-    // Lazy reading
+    // Parallel decoding
     // ========================================================================================================================
 
     /**
-     * Indicates if reader operates in lazy mode.
-     *
-     * @return true when lazy loading is enabled via properties
+     * Task decoding a transaction chunk.
      */
-    @Override
-    public boolean isLazy() {
-        return getTypedProperty("lazy", Boolean.class) == Boolean.TRUE;
+    interface ChunkTask {
+        void run() throws ParseException;
     }
 
     /**
-     * Notify the reader that a signal should be produced lazily.
+     * ChunkPipeline - Staged import of transaction chunks.
      *
-     * If parsing is complete and lazy mode is enabled the signal is scheduled for deferred parsing and population.
+     * The reading thread only reads raw sections and routes chunks. Compressed chunks pass a pool of LZ4 decompressors, then all chunks are
+     * decoded and written per stream. Streams do not share generators, event queues or writers: each stream drains its pending chunks on at most
+     * one decoding thread at a time, so chunks of a stream are decoded in file order while different streams proceed concurrently.
      *
-     * @param signal
-     *            the signal to produce (IRecord.Signal)
+     * The number of chunks in flight is bounded, which blocks the reading thread when later stages fall behind (backpressure). The first error of a
+     * stage is kept and rethrown on the reading thread. Queue depths and the busy time of each stage are measured and reported by report(), so a
+     * slow disk, decompression or decoding shows up as the stage with the highest load.
      */
-    @Override
-    public void produceSignal(IRecord.Signal signal) {
-        // If parsing is in progress, we cannot produce lazy signals yet
-        if (!parsing && isLazy() && !lazySignals.contains(signal)) {
-            // If lazy mode is enabled and the signal is not already in the lazy signals set
-            lazySignals.add(signal);
-            console.info("produceSignal called for signal: ", signal);
-            synchronized (lazyLoading) {
-                lazyLoading.add(signal);
-            }
-            // creates a thread to handle parsing
-            parseLazy(p -> parseStreams(p));
+    class ChunkPipeline {
+
+        // Pool of decoding/writing threads
+        private final ForkJoinPool decoders;
+
+        // Pool of decompression threads
+        private final ThreadPoolExecutor decompressors;
+
+        // Maximum number of chunks in flight
+        private final int capacity;
+
+        // Permits for chunks in flight
+        private final Semaphore inFlight;
+
+        // Progress for cancellation
+        private final IProgress progress;
+
+        // First error of a stage
+        private volatile Throwable error;
+
+        // Metrics: busy times (ns) of the stages, time the reading thread was blocked by backpressure
+        private final LongAdder decompressBusy = new LongAdder();
+        private final LongAdder decodeBusy = new LongAdder();
+        private long readerStalled;
+        private final long started = System.nanoTime();
+
+        // Metrics: queue depths sampled on each submit
+        private int maxInFlight, maxDecompressQueue;
+        private long sumInFlight, sumDecompressQueue, submits;
+
+        /**
+         * @param threads
+         *            number of decoding threads, also used for the decompressors
+         * @param progress
+         *            progress for cancellation, may be null
+         */
+        ChunkPipeline(int threads, IProgress progress) {
+            this.decoders = new ForkJoinPool(threads);
+            this.capacity = threads * CHUNKS_PER_THREAD;
+            // the in-flight bound keeps the queue from overflowing; running on the caller is a last resort backpressure
+            this.decompressors = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(capacity),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            this.inFlight = new Semaphore(capacity);
+            this.progress = progress;
         }
-    }
 
-    /**
-     * Parses lazy loading streams in a separate thread. This method is called when lazy loading is enabled and signals are produced.
-     *
-     * @param runnable
-     *            The runnable to execute for parsing streams
-     */
-    void parseStreams(IProgress p) {
-        // This method is called to produce all signals in lazy mode
-        console.info("produceSignals called, processing lazy signals");
-        long started = Utils.millies();
-        while (!p.isCanceled()) {
-            IRecord.Signal signal = null;
-            synchronized (lazyLoading) {
-                // Get the next lazy loading stream if available
-                if (!lazyLoading.isEmpty()) {
-                    // Get the first stream from the lazy loading set
-                    signal = lazyLoading.iterator().next();
-                    lazyLoading.remove(signal);
+        /**
+         * Queue an uncompressed chunk for decoding, blocking while the maximum number of chunks is in flight.
+         *
+         * @param stream
+         *            the stream of the chunk
+         * @param task
+         *            the decoding task
+         * @throws ParseException
+         *             if a stage failed or on interruption
+         */
+        void submit(Stream stream, ChunkTask task) throws ParseException {
+            check();
+            acquire();
+            enqueue(stream, task);
+        }
+
+        /**
+         * Queue a compressed chunk for decompression and decoding, blocking while the maximum number of chunks is in flight.
+         *
+         * @param stream
+         *            the stream of the chunk
+         * @param compressed
+         *            LZ4 compressed chunk
+         * @param uncompressedSize
+         *            uncompressed size
+         * @param startTime
+         *            chunk start time (domain units)
+         * @param endTime
+         *            chunk end time (domain units)
+         * @throws ParseException
+         *             if a stage failed or on interruption
+         */
+        void submitCompressed(Stream stream, byte[] compressed, int length, long uncompressedSize, long startTime, long endTime)
+                throws ParseException {
+            check();
+            acquire();
+            CompletableFuture<CborDecoder> data = CompletableFuture.supplyAsync(() -> decompress(compressed, length, uncompressedSize),
+                    decompressors);
+            enqueue(stream, () -> {
+                CborDecoder chunk;
+                try {
+                    chunk = data.join();
+                } catch (CompletionException e) {
+                    throw e.getCause() instanceof ParseException ? (ParseException) e.getCause()
+                            : new ParseException("Failed to decompress transaction chunk: " + e.getCause(), e.getCause());
                 }
-            }
-            if (signal == null) {
-                // No more lazy loading signals to process
-                console.info("No more lazy loading signals to process");
-                break;
-            }
-            // find stream with signal
-            Stream stream = null;
-            if (signal != null)
-                for (Stream s : streams.values()) {
-                    if (s.signal.equals(signal)) {
-                        stream = s;
-                        break;
+                // skipped after an error or cancellation
+                if (chunk != null)
+                    try {
+                        parseTxChunk(chunk, stream, startTime, endTime);
+                    } finally {
+                        buffers.release(chunk.getBuffer());
                     }
-                }
-            if (stream == null) {
-                console.error("No stream found for signal: ", signal.getName());
-                continue;
+            });
+        }
+
+        /**
+         * Take a permit for a chunk in flight and sample the queue depths.
+         */
+        private void acquire() throws ParseException {
+            long t = System.nanoTime();
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ParseException("Interrupted while waiting for decoding threads", e);
+            }
+            readerStalled += System.nanoTime() - t;
+            int depth = capacity - inFlight.availablePermits();
+            int queued = decompressors.getQueue().size();
+            maxInFlight = Math.max(maxInFlight, depth);
+            maxDecompressQueue = Math.max(maxDecompressQueue, queued);
+            sumInFlight += depth;
+            sumDecompressQueue += queued;
+            submits++;
+        }
+
+        /**
+         * Decompress a pooled chunk into a pooled buffer (decompression stage).
+         *
+         * @return decoder on the decompressed chunk, its buffer to be released after decoding, or null if skipped
+         */
+        private CborDecoder decompress(byte[] compressed, int length, long uncompressedSize) {
+            if (error != null || (progress != null && progress.isCanceled())) {
+                buffers.release(compressed);
+                return null;
             }
-            console.info("Processing lazy loading stream: ", stream.name);
+            long t = System.nanoTime();
+            byte[] output = null;
             try {
-                // get the chunks and call parseTxChunk for each
-                if (stream.chunks != null) {
-                    console.log("Processing ", stream.chunks.getFragmentCount(), " chunks  ");
-                    for (int i = 0; i < stream.chunks.getFragmentCount(); i++) {
-                        if (p.isCanceled())
-                            break;
-                        byte[] chunkData = stream.chunks.get(i);
-                        if (chunkData != null && chunkData.length > 0) {
-                            console.log("Parsing chunk ", i, " of size ", chunkData.length);
-                            parseTxChunk(new CborDecoder(chunkData), stream, stream.current, stream.current + chunkData.length);
-                            flushAndSetProgress(progress);
-                        }
-                    }
-                } else {
-                    console.log("No chunks to process for signal: ", signal.getName());
-                }
+                output = buffers.acquire(lz4BufferSize(uncompressedSize));
+                CborDecoder decoder = new CborDecoder(output, 0, decompressLZ4(compressed, 0, length, output));
+                output = null;
+                return decoder;
             } catch (ParseException e) {
-                console.error("Error parsing transaction chunk for signal " + signal.getName() + ": " + e.getMessage());
+                throw new CompletionException(e);
             } finally {
-                try {
-                    stream.close();
-                } catch (ParseException e) {
-                    console.error("Error closing stream: " + e.getMessage());
-                }
+                buffers.release(output);
+                buffers.release(compressed);
+                decompressBusy.add(System.nanoTime() - t);
             }
         }
-        console.major("Used time: ", (Utils.millies() - started), " ms");
-    }
 
-    // ========================================================================================================================
-    // Parser
-    // ====================================================================================================================
-    /**
-     * Parses the input stream and creates a record structure. This implementation follows the FTR format specification.
-     *
-     * @param progress
-     *            Interface for reporting progress and checking for cancellation
-     * @param in
-     *            The input stream containing the data to be read
-     * @throws ParseException
-     *             If an error occurs during parsing
+        /**
+         * Append a task to the pending chunks of a stream and schedule the stream if it is idle.
+         */
+        private void enqueue(Stream stream, ChunkTask task) {
+            boolean schedule;
+            synchronized (stream.pending) {
+                stream.pending.add(() -> {
+                    long t = System.nanoTime();
+                    try {
+                        if (error == null && (progress == null || !progress.isCanceled()))
+                            task.run();
+                    } catch (Throwable e) {
+                        if (error == null)
+                            error = e;
+                    } finally {
+                        decodeBusy.add(System.nanoTime() - t);
+                        inFlight.release();
+                    }
+                });
+                schedule = !stream.decoding;
+                stream.decoding = true;
+            }
+            if (schedule)
+                decoders.execute(() -> drain(stream));
+        }
+
+        /**
+         * Decode the pending chunks of a stream until its queue is empty.
+         *
+         * @param stream
+         *            the stream
+         */
+        private void drain(Stream stream) {
+            while (true) {
+                Runnable next;
+                synchronized (stream.pending) {
+                    next = stream.pending.poll();
+                    if (next == null) {
+                        stream.decoding = false;
+                        return;
+                    }
+                }
+                next.run();
+            }
+        }
+
+        /**
+         * Wait until all queued chunks are decoded.
+         *
+         * @throws ParseException
+         *             if a stage failed
+         */
+        void await() throws ParseException {
+            long t = System.nanoTime();
+            inFlight.acquireUninterruptibly(capacity);
+            inFlight.release(capacity);
+            readerStalled += System.nanoTime() - t;
+            check();
+        }
+
+        /**
+         * Rethrow the first error of a stage.
+         *
+         * @throws ParseException
+         *             the error
+         */
+        void check() throws ParseException {
+            Throwable e = error;
+            if (e instanceof ParseException)
+                throw (ParseException) e;
+            if (e != null)
+                throw new ParseException("Failed to decode transaction chunk: " + e.getMessage(), e);
+        }
+
+        /**
+         * Wait for queued chunks (skipped after an error or cancellation) and stop all stages.
+         */
+        void shutdown() {
+            inFlight.acquireUninterruptibly(capacity);
+            inFlight.release(capacity);
+            decompressors.shutdown();
+            decoders.shutdown();
+        }
+
+        /**
+         * Log queue depths and stage loads. A load is the busy time of a stage relative to the elapsed time (per thread for the pools).
+         */
+        void report() {
+            long elapsed = Math.max(1, System.nanoTime() - started);
+            int threads = decoders.getParallelism();
+            console.major("Pipeline: read ", percent(elapsed - readerStalled, elapsed), "% (stalled ", readerStalled / 1000000, " ms), decompress ",
+                    percent(decompressBusy.sum(), elapsed * threads), "%, decode ", percent(decodeBusy.sum(), elapsed * threads), "% on ", threads,
+                    " threads; in flight avg/max ", submits > 0 ? sumInFlight / submits : 0, "/", maxInFlight, " of ", capacity,
+                    ", decompress queue avg/max ", submits > 0 ? sumDecompressQueue / submits : 0, "/", maxDecompressQueue);
+        }
+
+        private long percent(long part, long total) {
+            return part * 100 / total;
+        }
+    }
+
+    // ========================================================================================================================
+    // Lazy reading
+    // ========================================================================================================================
+
+    /**
+     * Indicates if reader operates in lazy mode.
+     *
+     * @return true when lazy loading is enabled via properties
      */
     @Override
-    protected void parse(IProgress progress, InputStream in) throws ParseException {
-        // Set up console for logging and initialize parsing state
-        long current = 0;
-        console = new ConfiguredConsoleStream(Ide.DEFAULT_CONSOLE, ConfiguredConsoleStream.logging(getProperties()));
-        console.info("Starting FTR file parsing xx");
-        long started = Utils.millies();
-        parsing = true;
+    public boolean isLazy() {
+        return getTypedProperty("lazy", Boolean.class) == Boolean.TRUE;
+    }
+
+    /**
+     * Notify the reader that a signal should be produced lazily.
+     *
+     * If parsing is complete and lazy mode is enabled the stream of the signal is scheduled for deferred parsing and population. Repeated requests
+     * for a signal still waiting are treated as a hint that the signal is visible and move it ahead. With a lazy window, the signal is produced
+     * window by window: the first request produces the transactions starting in the first window, each repeated request for a signal no longer
+     * waiting (e.g. while it is in view) the next one, so only the chunks of the produced windows are decoded.
+     *
+     * @param signal
+     *            the signal to produce (IRecord.Signal)
+     */
+    @Override
+    public void produceSignal(IRecord.Signal signal) {
+        // If parsing is in progress, we cannot produce lazy signals yet
+        if (!parsing && isLazy() && lazyScheduler != null && !overviewSignals.contains(signal)) {
+            Stream stream = signalStreams.get(signal);
+            if (stream == null)
+                console.error("No stream found for signal: ", signal.getName());
+            else
+                lazyScheduler.request(stream, windowDomain > 0 ? lazyScheduler.nextWindow(stream, windowDomain) : Long.MAX_VALUE, false);
+        }
+    }
+
+    /**
+     * Produce a signal lazily up to a time, e.g. as a viewer scrolls through a long stream. The transactions starting up to the time are written,
+     * decoding only the chunks not produced yet (see produceSignal). Production cannot go back: a signal is written in time order.
+     *
+     * @param signal
+     *            the signal to produce (IRecord.Signal)
+     * @param to
+     *            time up to which transactions are produced (domain units)
+     */
+    public void produceSignal(IRecord.Signal signal, long to) {
+        if (!parsing && isLazy() && lazyScheduler != null && !overviewSignals.contains(signal)) {
+            Stream stream = signalStreams.get(signal);
+            if (stream == null)
+                console.error("No stream found for signal: ", signal.getName());
+            else
+                lazyScheduler.request(stream, to, true);
+        }
+    }
+
+    /**
+     * Transaction read on demand (see readTransactions).
+     */
+    public static class Transaction {
+
+        public final long txId;
+
+        public final String generator;
+
+        public final long start;
+
+        public final long end;
+
+        // Attributes: phase (TX_TAG_BEGIN_ATTR, TX_TAG_RECORD_ATTR or TX_TAG_END_ATTR), name and value
+        private final int[] phases;
+        private final String[] names;
+        private final Object[] values;
+
+        Transaction(long txId, String generator, long start, long end, int[] phases, String[] names, Object[] values) {
+            this.txId = txId;
+            this.generator = generator;
+            this.start = start;
+            this.end = end;
+            this.phases = phases;
+            this.names = names;
+            this.values = values;
+        }
+
+        public int getAttributeCount() {
+            return names.length;
+        }
+
+        /**
+         * @return FtrWriter.BEGIN, RECORD or END
+         */
+        public int getAttributePhase(int n) {
+            return phases[n];
+        }
+
+        public String getAttributeName(int n) {
+            return names[n];
+        }
+
+        /**
+         * @return Boolean, Long, Float or String (string, enumeration and bit/logic vector values)
+         */
+        public Object getAttributeValue(int n) {
+            return values[n];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder().append(generator).append(" #").append(txId).append(' ').append(start).append("..").append(end);
+            for (int n = 0; n < names.length; n++)
+                text.append(' ').append(names[n]).append('=').append(values[n]);
+            return text.toString();
+        }
+    }
+
+    /**
+     * Receiver of transactions read on demand. Called on the reading thread, in file order.
+     */
+    public interface ITransactionConsumer {
+        /**
+         * @return false to stop reading
+         */
+        boolean transaction(Transaction transaction);
+    }
+
+    /**
+     * Read the transactions of a signal in a time window on demand, without producing the signal.
+     *
+     * Only the chunks whose time range overlaps the window are read, located by the chunk index of the stream (chunks in front of the window are
+     * scanned once for their largest transaction end, see ChunkIndex): uncompressed chunks are decoded
+     * straight from the mapped file, compressed chunks through the shared chunk cache. No sample is written and nothing but the cache is retained,
+     * so a viewer or script can page through a stream of hundreds of millions of transactions with memory bounded by the chunk cache. Generator
+     * and attribute filters apply. Available after parsing in lazy mode.
+     *
+     * @param signal
+     *            transaction signal of the record
+     * @param from
+     *            window start (domain units)
+     * @param to
+     *            window end (domain units)
+     * @param consumer
+     *            receiver of the transactions overlapping the window
+     * @return number of transactions passed to the consumer
+     * @throws ParseException
+     *             if the signal is no FTR stream of this reader, not in lazy mode, or on format error
+     */
+    public int readTransactions(IRecord.Signal signal, long from, long to, ITransactionConsumer consumer) throws ParseException {
+        Stream stream = signalStreams.get(signal);
+        if (stream == null || overviewSignals.contains(signal))
+            throw new ParseException("No transaction stream for signal: " + signal.getName());
+        if (parsing || !isLazy())
+            throw new ParseException("Transactions are read on demand after parsing in lazy mode only");
+        FtrReader reader = stream.reader();
+        reader.scanTxEnds(stream, from);
+        return reader.readChunks(stream, from, to, consumer);
+    }
+
+    /**
+     * Scan the chunks of a stream starting up to a time for their largest transaction end, so the chunk index selects the chunks of a window
+     * starting at that time exactly (see ChunkIndex). Each chunk is scanned once.
+     *
+     * @param stream
+     *            the stream
+     * @param from
+     *            window start (domain units)
+     * @throws ParseException
+     *             on format error
+     */
+    void scanTxEnds(Stream stream, long from) throws ParseException {
+        ChunkIndex chunks = stream.chunks;
         try {
-            // Parse properties and range settings
-            // range
-            this.startDomain = domainBase.parseMultiple(getProperty("start"), IDomainBase.PARSE_BIG | IDomainBase.PARSE_DOMAINBASE, this.startDomain)
-                    .longValue();
-            this.endDomain = domainBase.parseMultiple(getProperty("end"), IDomainBase.PARSE_BIG | IDomainBase.PARSE_DOMAINBASE, this.endDomain)
-                    .longValue();
-            this.delayDomain = domainBase.parseMultiple(getProperty("delay"), IDomainBase.PARSE_BIG | IDomainBase.PARSE_DOMAINBASE, this.delayDomain)
-                    .longValue();
-            this.scaleDomain = Utils.parseDouble(getProperty("scale"), this.scaleDomain);
-            // exclude/include
-            this.includeSignals = FilterExpression.createList(getProperty("include"), FilterExpression.TYPE_REGULAR | FilterExpression.TYPE_TEXT);
-            this.excludeSignals = FilterExpression.createList(getProperty("excludes"), FilterExpression.TYPE_REGULAR | FilterExpression.TYPE_TEXT);
+            for (int i; (i = chunks.unscanned(from)) >= 0;)
+                chunks.setTxEnd(i, chunks.length(i) > 0 ? scanTxEnd(stream.openChunk(i), timeScaleFactor) : Long.MIN_VALUE);
+        } catch (IOException e) {
+            throw new ParseException("Failed to scan transaction chunk of stream " + stream.name + ": " + e.getMessage(), e);
+        }
+    }
 
-            // Create CBOR decoder and initialize record structure
-            cborDecoder = new CborDecoder(in);
-            // Create empty record structure (we'll add signals later)
-            initRecord("FTR Record", domainBase);
-            changed(CHANGED_RECORD);
-            console.info("Starting FTR parseInput");
-            // Read the initial CBOR tag which should be 55799 (self-describe CBOR)
-            long cborTag = cborDecoder.readTag();
-            console.info("CBOR initial tag: ", cborTag);
-            if (cborTag != CBOR_SELF_DESCRIBE_TAG) {
-                console.error("Invalid CBOR tag: ", cborTag);
-                throw new ParseException("Not a valid FTR file. Expected CBOR tag " + CBOR_SELF_DESCRIBE_TAG + ", found: " + cborTag);
-            }
-            // Read the indefinite-length array
-            long arrayLen = cborDecoder.readArrayLength();
-            console.info("Root array length: ", arrayLen);
-            if (arrayLen != -1) {
-                console.error("Invalid array length: ", arrayLen);
-                throw new ParseException("Expected indefinite-length array, found fixed length: " + arrayLen);
-            }
-            CborType next = cborDecoder.peekType();
-            CborType breakType = CborType.valueOf(0xff);
-            int sectionCount = 0;
-            // Main section parsing loop
-            while ((progress == null || !progress.isCanceled()) && next != null && !breakType.isEqualType(next)) {
-                long tag = cborDecoder.readTag();
-                sectionCount++;
-                console.info("Processing section #", sectionCount, " with tag: ", tag);
-                switch ((int) tag) {
-                case FILE_TAG_INFO: {
-                    // Parse the INFO section: time scale and epoch
-                    console.info("Found INFO section (tag " + FILE_TAG_INFO + ")");
-                    CborDecoder cbd = new CborDecoder(cborDecoder.readByteString());
-                    long sz = cbd.readArrayLength();
-                    if (sz != EXPECTED_INFO_ARRAY_SIZE) {
-                        console.error("Invalid info array size: ", sz);
-                        throw new ParseException("Invalid info section size: " + sz);
-                    }
-                    long timeScale = cbd.readInt();
-                    // Assuming we're using nanoseconds (scale -9) as our base
-                    // Database time scale
-                    long effectiveTimeScale = timeScale - (-9);
-                    timeScaleFactor = calculateTimescaleMultiplier(effectiveTimeScale);
-                    console.info("Time scale: ", timeScale, " effective scale: ", effectiveTimeScale, " multiplier: ", timeScaleFactor);
-                    long epochTag = cbd.readTag();
-                    if (epochTag != CBOR_EPOCH_TIME_TAG) {
-                        console.error("Invalid epoch tag: ", epochTag);
-                        throw new ParseException("Expected epoch tag " + CBOR_EPOCH_TIME_TAG + ", found: " + epochTag);
-                    }
-                    // epoch time
-                    long epoch = cbd.readInt();
-                    console.info("Epoch time: ", epoch);
-                    break;
-                }
-                case FILE_TAG_DICT_UNCOMPRESSED: {
-                    // Parse uncompressed dictionary section
-                    console.info("Found UNCOMPRESSED DICTIONARY section (tag " + FILE_TAG_DICT_UNCOMPRESSED + ")");
-                    byte[] dictBytes = cborDecoder.readByteString();
-                    console.info("Dictionary size: ", dictBytes.length, " bytes");
-                    parseDict(new CborDecoder(dictBytes));
-                    console.info("Dictionary parsed successfully, entries: ", dictionary.size());
-                    break;
-                }
-                case FILE_TAG_DICT_COMPRESSED: {
-                    // Parse compressed dictionary section
-                    console.info("Found COMPRESSED DICTIONARY section (tag " + FILE_TAG_DICT_COMPRESSED + ")");
-                    long sz = cborDecoder.readArrayLength();
-                    if (sz != EXPECTED_COMP_DICT_ARRAY_SIZE) {
-                        console.error("Invalid compressed dictionary array size: ", sz);
-                        throw new ParseException("Invalid compressed dictionary section size: " + sz);
+    /**
+     * @return the transaction signal of a stream by its name in the file, or null
+     */
+    IRecord.Signal getSignal(String streamName) {
+        synchronized (recordLock) {
+            for (Map.Entry<IRecord.Signal, Stream> entry : signalStreams.entrySet())
+                if (entry.getValue().name.equals(streamName) && !overviewSignals.contains(entry.getKey()))
+                    return entry.getKey();
+        }
+        return null;
+    }
+
+    /**
+     * Decode the chunks of a stream overlapping a window and pass their transactions to a consumer (see readTransactions).
+     */
+    private int readChunks(Stream stream, long from, long to, ITransactionConsumer consumer) throws ParseException {
+        ChunkIndex chunks = stream.chunks;
+        TxBuffer tx = new TxBuffer();
+        int count = 0;
+        try {
+            for (int i = chunks.first(from), last = chunks.last(to); i <= last; i++) {
+                if (chunks.length(i) == 0 || !chunks.overlaps(i, from, to))
+                    continue;
+                CborDecoder decoder = stream.openChunk(i);
+                if (decoder.readArrayLength() != -1)
+                    throw new ParseException("Expected indefinite-length array in transaction chunk of stream " + stream.name);
+                long txEnd = Long.MIN_VALUE;
+                while (true) {
+                    int initialByte = decoder.peek();
+                    if (initialByte == CborConstants.BREAK_BYTE)
+                        break;
+                    if (initialByte == -1)
+                        throw new ParseException("Unexpected end of chunk in stream " + stream.name);
+                    tx.clear();
+                    decodeTransaction(decoder, tx);
+                    if (tx.size > 0 && tx.data[0] == TX_TAG_CORE)
+                        txEnd = Math.max(txEnd, tx.data[4]);
+                    Transaction transaction = toTransaction(tx, stream, from, to);
+                    if (transaction != null) {
+                        count++;
+                        if (!consumer.transaction(transaction))
+                            return count;
                     }
-                    long uncompressedSize = cborDecoder.readInt();
-                    console.info("Dictionary uncompressed size: ", uncompressedSize);
-                    byte[] compressedDict = cborDecoder.readByteString();
-                    console.info("Dictionary compressed size: ", compressedDict.length, " bytes");
-                    parseDict(new CborDecoder(decompressLZ4(compressedDict, uncompressedSize)));
-                    console.info("Compressed dictionary parsed successfully, entries: ", dictionary.size());
-                    break;
-                }
-                case FILE_TAG_DIR_UNCOMPRESSED: {
-                    // Parse uncompressed directory section
-                    console.info("Found UNCOMPRESSED DIRECTORY section (tag " + FILE_TAG_DIR_UNCOMPRESSED + ")");
-                    byte[] dirBytes = cborDecoder.readByteString();
-                    console.info("Directory size: ", dirBytes.length, " bytes");
-                    parseDir(new CborDecoder(dirBytes));
-                    console.info("Directory parsed successfully");
-                    break;
                 }
-                case FILE_TAG_DIR_COMPRESSED: {
-                    // Parse compressed directory section
-                    console.info("Found COMPRESSED DIRECTORY section (tag " + FILE_TAG_DIR_COMPRESSED + ")");
-                    long sz = cborDecoder.readArrayLength();
-                    if (sz != EXPECTED_COMP_DIR_ARRAY_SIZE) {
-                        console.error("Invalid compressed directory array size: ", sz);
-                        throw new ParseException("Invalid compressed directory section size: " + sz);
-                    }
-                    long uncompressedSize = cborDecoder.readInt();
-                    console.info("Directory uncompressed size: ", uncompressedSize);
-                    byte[] compressedDir = cborDecoder.readByteString();
-                    console.info("Directory compressed size: ", compressedDir.length, " bytes");
-                    parseDir(new CborDecoder(decompressLZ4(compressedDir, uncompressedSize)));
-                    console.info("Compressed directory parsed successfully");
-                    break;
+                // decoded completely: the index knows the chunk's extent now
+                if (chunks.txEnd(i) == Long.MAX_VALUE)
+                    chunks.setTxEnd(i, txEnd);
+            }
+        } catch (IOException e) {
+            throw new ParseException("Failed to read transactions of stream " + stream.name + ": " + e.getMessage(), e);
+        }
+        return count;
+    }
+
+    /**
+     * Create a Transaction from a decoded transaction, or null if its generator is excluded or it does not overlap the window.
+     */
+    private Transaction toTransaction(TxBuffer tx, Stream stream, long from, long to) throws ParseException {
+        long[] data = tx.data;
+        if (tx.size == 0 || data[0] != TX_TAG_CORE)
+            throw new ParseException("Transaction without core info in stream " + stream.name);
+        long txId = data[1], genId = data[2], start = data[3], end = data[4];
+        Stream.Generator generator = stream.generators.get(genId);
+        if (generator == null)
+            throw new ParseException("Generator ID " + genId + " not found in stream " + stream.id);
+        if (generator.excluded || end < from || start > to)
+            return null;
+        // core, attributes, end
+        int attributes = tx.size / TxBuffer.ELEMENT_SIZE - 2;
+        int[] phases = new int[attributes];
+        String[] names = new String[attributes];
+        Object[] values = new Object[attributes];
+        for (int n = 0; n < attributes; n++) {
+            int i = (n + 1) * TxBuffer.ELEMENT_SIZE;
+            long bits = data[i + 3];
+            phases[n] = (int) data[i];
+            names[n] = dictionary.get((int) data[i + 1]);
+            switch ((int) data[i + 2]) {
+            case ATTRIBUTE_BOOLEAN:
+                values[n] = bits != 0;
+                break;
+            case ATTRIBUTE_FLOATING_POINT_NUMBER:
+            case ATTRIBUTE_FIXED_POINT_INTEGER:
+            case ATTRIBUTE_UNSIGNED_FIXED_POINT_INTEGER:
+                values[n] = Float.intBitsToFloat((int) bits);
+                break;
+            case ATTRIBUTE_ENUMERATION:
+            case ATTRIBUTE_BIT_VECTOR:
+            case ATTRIBUTE_LOGIC_VECTOR:
+            case ATTRIBUTE_STRING:
+                values[n] = dictionary.get((int) bits);
+                break;
+            default:
+                values[n] = bits;
+            }
+        }
+        return new Transaction(txId, generator.name, start, end, phases, names, values);
+    }
+
+    /**
+     * Hit rate of the chunk cache shared by all FTR readers of the JVM.
+     *
+     * @return hits per lookup (0..1), 0 if there was no lookup yet
+     */
+    public static double getChunkCacheHitRate() {
+        long hits = ChunkCache.SHARED.getHits(), lookups = hits + ChunkCache.SHARED.getMisses();
+        return lookups > 0 ? (double) hits / lookups : 0;
+    }
+
+    /**
+     * Resident size of the chunk cache shared by all FTR readers of the JVM.
+     *
+     * @return decompressed chunk bytes held by the cache
+     */
+    public static long getChunkCacheResident() {
+        return ChunkCache.SHARED.getResident();
+    }
+
+    /**
+     * Set the capacity of the chunk cache shared by all FTR readers of the JVM, evicting least recently used chunks if it shrinks. The initial
+     * capacity is taken from the system property de.toem.impulse.ftr.chunkCache (MB, default 64); readers only raise it (property "chunkCache").
+     *
+     * @param megabytes
+     *            capacity in MB
+     */
+    public static void setChunkCacheCapacity(int megabytes) {
+        ChunkCache.SHARED.setCapacity(megabytes * 1024L * 1024L);
+    }
+
+    /**
+     * LazyScheduler - Bounded, deduplicating scheduler for lazily produced streams.
+     *
+     * Requests are kept once per stream in a priority queue: visible streams first, then in request order. At most a fixed number of lazy parse
+     * tasks take streams from the queue, so opening a large view loads signals in parallel without starting a task per signal. Each stream is
+     * produced once, at once or window by window: a request up to a later time than produced continues the stream, by the worker producing it or
+     * a new request. A repeated produceSignal() for a waiting stream marks it as visible; when a lazy parse task is canceled (e.g. the view was
+     * closed), the requests not yet taken are withdrawn and a later produceSignal() requests them again.
+     */
+    class LazyScheduler {
+
+        /**
+         * Request to produce a stream.
+         */
+        class Request implements Comparable<Request> {
+
+            final Stream stream;
+
+            boolean visible;
+
+            long sequence;
+
+            Request(Stream stream, boolean visible) {
+                this.stream = stream;
+                this.visible = visible;
+                this.sequence = sequences++;
+            }
+
+            @Override
+            public int compareTo(Request other) {
+                if (visible != other.visible)
+                    return visible ? -1 : 1;
+                return Long.compare(sequence, other.sequence);
+            }
+        }
+
+        // Waiting requests, most urgent first
+        private final PriorityQueue<Request> queue = new PriorityQueue<>();
+
+        // Waiting requests by stream
+        private final HashMap<Stream, Request> waiting = new HashMap<>();
+
+        // Streams taken by a worker (produced or in production)
+        private final HashSet<Stream> taken = new HashSet<>();
+
+        // Streams in production
+        private final HashSet<Stream> busy = new HashSet<>();
+
+        // Maximum number of concurrent workers
+        private final int workers;
+
+        // Number of running workers
+        private int running;
+
+        // Request counter (request order)
+        private long sequences;
+
+        /**
+         * @param workers
+         *            maximum number of concurrent workers
+         */
+        LazyScheduler(int workers) {
+            this.workers = Math.max(1, workers);
+        }
+
+        /**
+         * Request a stream up to a time. Duplicate requests only raise the priority of the waiting request.
+         *
+         * @param stream
+         *            the stream
+         * @param to
+         *            time up to which transactions are produced (Long.MAX_VALUE: all)
+         * @param visible
+         *            true if the signal is visible
+         */
+        void request(Stream stream, long to, boolean visible) {
+            synchronized (this) {
+                Request request = waiting.get(stream);
+                if (request != null) {
+                    // a repeated request marks the signal as visible
+                    queue.remove(request);
+                    request.visible = true;
+                    request.sequence = sequences++;
+                    queue.add(request);
+                    stream.requested = Math.max(stream.requested, to);
+                    return;
                 }
-                case FILE_TAG_TX_UNCOMPRESSED: {
-                    // Parse uncompressed transaction chunk
-                    console.info("Found UNCOMPRESSED TRANSACTION CHUNK section (tag " + FILE_TAG_TX_UNCOMPRESSED + ")");
-                    long len = cborDecoder.readArrayLength();
-                    if (len != EXPECTED_TX_ARRAY_SIZE) {
-                        console.error("Invalid transaction chunk array size: ", len);
-                        throw new ParseException("Invalid transaction chunk size: " + len);
-                    }
-                    long streamId = cborDecoder.readInt();
-                    long startTime = cborDecoder.readInt() * timeScaleFactor;
-                    long endTime = cborDecoder.readInt() * timeScaleFactor;
-                    console.info("Transaction chunk for stream ID: ", streamId, " time range: ", startTime, endTime);
-                    // Process transaction chunk data
-                    byte[] chunkData = cborDecoder.readByteString();
-                    console.info("Transaction chunk size: ", chunkData.length, " bytes");
-                    Stream stream = streams.get(streamId);
-                    if (stream != null) {
-                        if (isLazy())
-                            stream.addChunk(chunkData, startTime, endTime);
-                        else
-                            parseTxChunk(new CborDecoder(chunkData), stream, startTime, endTime);
-                        console.info("Transaction chunk parsed successfully");
+                if (to <= stream.requested)
+                    return;
+                stream.requested = to;
+                // a stream in production is continued by its worker (see produce)
+                if (busy.contains(stream))
+                    return;
+                request = new Request(stream, visible);
+                waiting.put(stream, request);
+                queue.add(request);
+                console.info("Requested lazy stream: ", stream.name, " (waiting: ", queue.size(), ", workers: ", running, ")");
+                if (running >= workers)
+                    return;
+                running++;
+            }
+            // creates a thread to handle parsing (the worker is retired when the task ends, see work, or if it could not be started)
+            AtomicBoolean started = new AtomicBoolean();
+            try {
+                parseLazy(p -> {
+                    started.set(true);
+                    work(p);
+                });
+            } catch (RuntimeException e) {
+                if (!started.get())
+                    retire();
+                throw e;
+            }
+        }
+
+        /**
+         * End of the next window of a stream produced window by window.
+         *
+         * @param stream
+         *            the stream
+         * @param window
+         *            window length (domain units)
+         * @return end of the first window after the requested ones
+         */
+        synchronized long nextWindow(Stream stream, long window) {
+            // a waiting request is not extended
+            if (waiting.containsKey(stream))
+                return stream.requested;
+            long from = stream.requested;
+            if (from == Long.MIN_VALUE) {
+                long start = stream.reader().startDomain;
+                from = start != Long.MIN_VALUE || stream.chunks.size() == 0 ? start : stream.chunks.start(0);
+            }
+            return from > Long.MAX_VALUE - window ? Long.MAX_VALUE : from + window;
+        }
+
+        /**
+         * Take the next stream. A canceled task withdraws all waiting requests.
+         *
+         * @return the stream, or null if there is none
+         */
+        private synchronized Stream next(IProgress p) {
+            if (p.isCanceled()) {
+                if (!queue.isEmpty())
+                    console.info("Withdrawn lazy stream requests: ", queue.size());
+                for (Request request : queue)
+                    request.stream.requested = request.stream.produced;
+                queue.clear();
+                waiting.clear();
+                return null;
+            }
+            Request request = queue.poll();
+            if (request == null)
+                return null;
+            waiting.remove(request.stream);
+            taken.add(request.stream);
+            busy.add(request.stream);
+            return request.stream;
+        }
+
+        /**
+         * Produce a stream up to the time requested, also if requested further while in production.
+         */
+        private void produce(Stream stream, IProgress p) {
+            while (true) {
+                long to;
+                synchronized (this) {
+                    to = stream.requested;
+                    if (to <= stream.produced || p.isCanceled()) {
+                        // canceled: a later request continues from the produced time
+                        stream.requested = stream.produced;
+                        busy.remove(stream);
+                        return;
                     }
-                    break;
                 }
-                case FILE_TAG_TX_COMPRESSED: {
-                    // Parse compressed transaction chunk
-                    console.info("Found COMPRESSED TRANSACTION CHUNK section (tag " + FILE_TAG_TX_COMPRESSED + ")");
-                    long len = cborDecoder.readArrayLength();
-                    if (len != EXPECTED_COMP_TX_ARRAY_SIZE) {
-                        console.error("Invalid compressed transaction chunk array size: ", len);
-                        throw new ParseException("Invalid compressed transaction chunk size: " + len);
-                    }
-                    long streamId = cborDecoder.readInt();
-                    long startTime = cborDecoder.readInt() * timeScaleFactor;
-                    long endTime = cborDecoder.readInt() * timeScaleFactor;
-                    long uncompressedSize = cborDecoder.readInt();
-                    console.info("Compressed transaction chunk for stream ID: ", streamId, ", time range: ", startTime, " - ", endTime,
-                            ", uncompressed size: ", uncompressedSize);
-                    // Process compressed transaction chunk data
-                    byte[] compressedData = cborDecoder.readByteString();
-                    console.info("Compressed transaction chunk size: ", compressedData.length, " bytes");
-                    Stream stream = streams.get(streamId);
-                    if (stream != null) {
-                        if (isLazy())
-                            stream.addChunk(decompressLZ4(compressedData, uncompressedSize), startTime, endTime);
-                        else
-                            parseTxChunk(new CborDecoder(decompressLZ4(compressedData, uncompressedSize)), stream, startTime, endTime);
-                        console.info("Compressed transaction chunk parsed successfully");
-                    }
-                    break;
-                }
-                case FILE_TAG_REL_UNCOMPRESSED: {
-                    // Parse uncompressed relations section
-                    console.info("Found UNCOMPRESSED RELATIONS section (tag " + FILE_TAG_REL_UNCOMPRESSED + ")");
-                    byte[] relBytes = cborDecoder.readByteString();
-                    console.info("Relations size: ", relBytes.length, " bytes");
-                    parseRel(new CborDecoder(relBytes));
-                    console.info("Relations parsed successfully");
-                    break;
+                stream.reader().parseStream(stream, to, p);
+            }
+        }
+
+        /**
+         * Release the slot of a worker.
+         */
+        private synchronized void retire() {
+            running--;
+        }
+
+        /**
+         * Worker: produce streams until no request is waiting.
+         */
+        private void work(IProgress p) {
+            long started = Utils.millies();
+            Stream stream;
+            try {
+                while ((stream = next(p)) != null)
+                    produce(stream, p);
+            } finally {
+                retire();
+            }
+            // idle: stop waiting for relations to streams that are not requested
+            if (isIdle())
+                releaseRelations();
+            console.major("Used time: ", (Utils.millies() - started), " ms, ", chunkCache);
+        }
+
+        /**
+         * @return true if no worker is running and no request is waiting
+         */
+        private synchronized boolean isIdle() {
+            return running == 0 && queue.isEmpty();
+        }
+
+        /**
+         * Close the produced streams still waiting for relations (see FtrReader.releaseRelations).
+         */
+        private void releaseRelations() {
+            ArrayList<Stream> produced;
+            synchronized (this) {
+                produced = new ArrayList<>(taken);
+            }
+            for (Stream stream : produced)
+                try {
+                    stream.reader().releaseRelations(stream);
+                } catch (ParseException e) {
+                    console.error("Error closing stream: " + e.getMessage());
                 }
-                case FILE_TAG_REL_COMPRESSED: {
-                    // Parse compressed relations section
-                    console.info("Found COMPRESSED RELATIONS section (tag " + FILE_TAG_REL_COMPRESSED + ")");
-                    long sz = cborDecoder.readArrayLength();
-                    if (sz != EXPECTED_COMP_DICT_ARRAY_SIZE) {
-                        console.error("Invalid compressed relations array size: ", sz);
-                        throw new ParseException("Invalid compressed relations section size: " + sz);
+        }
+    }
+
+    /**
+     * Parses a lazy loading stream up to a time. Called by the workers of the lazy scheduler, concurrently for different streams.
+     *
+     * The first window selects the chunks overlapping the start/end window by the chunk index, as readTransactions does: chunks starting before
+     * the start are scanned once for transactions running into it. Later windows (see produceSignal) continue with the chunks of the transactions
+     * starting after the produced time; events up to the window end are written, the ends of transactions still running stay queued. The stream
+     * is closed when it is produced completely; its relations are attached then. A canceled production stops at a chunk boundary and leaves the
+     * stream open, produced up to that boundary, so a later request continues from there; only a format error closes the stream early.
+     *
+     * @param stream
+     *            The stream to produce
+     * @param to
+     *            time up to which transactions are produced (Long.MAX_VALUE: all)
+     * @param p
+     *            progress of the lazy parse task
+     */
+    void parseStream(Stream stream, long to, IProgress p) {
+        console.info("Processing lazy loading stream: ", stream.name);
+        boolean first = stream.produced == Long.MIN_VALUE;
+        // collect the written transactions to attach their relations
+        if (first) {
+            stream.written = relations.size() > 0 && !excludeAllRelation ? new long[256] : null;
+            stream.writtenCount = 0;
+        }
+        ChunkIndex chunks = stream.chunks;
+        long from = first ? startDomain : stream.produced + 1;
+        long until = Math.min(to, endDomain);
+        boolean complete = until == endDomain || chunks.size() == 0 || until >= chunks.maxEnd();
+        boolean deferred = false, canceled = false;
+        // transactions starting up to this time are queued or written
+        long parsed = first ? Long.MIN_VALUE : stream.produced;
+        try {
+            stream.windowStart = first ? Long.MIN_VALUE : from;
+            stream.windowEnd = until;
+            // get the chunks of the window and call parseTxChunk for each
+            if (chunks.size() > 0) {
+                if (first)
+                    scanTxEnds(stream, from);
+                int firstChunk = chunks.first(from);
+                int last = chunks.last(until);
+                console.log("Processing chunks ", firstChunk, " to ", last, " of ", chunks.size());
+                for (int i = firstChunk; i <= last; i++) {
+                    // later windows: chunks of the transactions starting in the window (the header range covers the starts)
+                    if (chunks.length(i) > 0 && (first ? chunks.overlaps(i, from, until) : chunks.startsIn(i, from, until))) {
+                        // canceled: stop at a chunk boundary no transaction start crosses, so a later request continues from there exactly
+                        if (p.isCanceled() && chunks.start(i) > parsed) {
+                            canceled = true;
+                            break;
+                        }
+                        console.log("Parsing chunk ", i, " of size ", chunks.length(i));
+                        parseTxChunk(stream.openChunk(i), stream, chunks.start(i), Math.min(chunks.end(i), until));
+                        parsed = Math.min(chunks.end(i), until);
+                        synchronized (recordLock) {
+                            root.flushAndSetProgress(root.progress);
+                        }
                     }
-                    long uncompressedSize = cborDecoder.readInt();
-                    console.info("Relations uncompressed size: ", uncompressedSize);
-                    byte[] compressedRel = cborDecoder.readByteString();
-                    console.info("Relations compressed size: ", compressedRel.length, " bytes");
-                    parseRel(new CborDecoder(decompressLZ4(compressedRel, uncompressedSize)));
-                    console.info("Compressed relations parsed successfully");
-                    break;
                 }
-                default:
-                    // Unknown tag encountered
-                    console.warning("Unknown tag in FTR file: ", tag);
-                    throw new ParseException("Unknown tag in FTR file: " + tag);
+            } else {
+                console.log("No chunks to process for signal: ", stream.signal.getName());
+            }
+            if (canceled) {
+                // the stream stays open: produced up to the last parsed chunk (unchanged if none), the next window continues from there
+                complete = false;
+                if (parsed != Long.MIN_VALUE) {
+                    stream.finish(parsed);
+                    stream.produced = parsed;
+                }
+            } else if (!complete) {
+                // all transactions starting up to the window end are queued
+                stream.finish(until);
+                stream.produced = until;
+            } else {
+                // attach relations to the streams produced so far, defer the others
+                stream.finish(Long.MAX_VALUE);
+                deferred = resolveRelations(stream);
+            }
+        } catch (ParseException e) {
+            console.error("Error parsing transaction chunk for signal " + stream.signal.getName() + ": " + e.getMessage());
+            complete = true;
+        } finally {
+            if (complete) {
+                stream.produced = Long.MAX_VALUE;
+                stream.written = null;
+                // a stream with deferred relations is closed when they are attached or production is idle (see releaseRelations)
+                if (!deferred)
+                    try {
+                        stream.close();
+                    } catch (ParseException e) {
+                        console.error("Error closing stream: " + e.getMessage());
+                    }
+            }
+        }
+    }
+
+    // ========================================================================================================================
+    // Parser
+    // ====================================================================================================================
+    /**
+     * Parses the input stream and creates a record structure. This implementation follows the FTR format specification.
+     *
+     * @param progress
+     *            Interface for reporting progress and checking for cancellation
+     * @param in
+     *            The input stream containing the data to be read
+     * @throws ParseException
+     *             If an error occurs during parsing
+     */
+    @Override
+    protected void parse(IProgress progress, InputStream in) throws ParseException {
+        // Set up console for logging and initialize parsing state
+        long current = 0;
+        console = new ConfiguredConsoleStream(Ide.DEFAULT_CONSOLE, ConfiguredConsoleStream.logging(getProperties()));
+        console.info("Starting FTR file parsing xx");
+        long started = Utils.millies();
+        parsing = true;
+        List<CompletableFuture<Void>> parts = Collections.emptyList();
+        try {
+            // domain units: ps, or fs if the opened or a merged file has a finer time scale (parts use the units of the root)
+            if (root == this)
+                selectDomain();
+            // Parse properties and range settings
+            // range
+            this.startDomain = domainBase.parseMultiple(getProperty("start"), IDomainBase.PARSE_BIG | IDomainBase.PARSE_DOMAINBASE, this.startDomain)
+                    .longValue();
+            this.endDomain = domainBase.parseMultiple(getProperty("end"), IDomainBase.PARSE_BIG | IDomainBase.PARSE_DOMAINBASE, this.endDomain)
+                    .longValue();
+            this.delayDomain = domainBase.parseMultiple(getProperty("delay"), IDomainBase.PARSE_BIG | IDomainBase.PARSE_DOMAINBASE, this.delayDomain)
+                    .longValue();
+            this.windowDomain = domainBase.parseMultiple(getProperty("window"), IDomainBase.PARSE_BIG | IDomainBase.PARSE_DOMAINBASE, this.windowDomain)
+                    .longValue();
+            this.scaleDomain = Utils.parseDouble(getProperty("scale"), this.scaleDomain);
+            // exclude/include
+            this.includeSignals = FilterExpression.createList(getProperty("include"), FilterExpression.TYPE_REGULAR | FilterExpression.TYPE_TEXT);
+            this.excludeSignals = FilterExpression.createList(getProperty("exclude"), FilterExpression.TYPE_REGULAR | FilterExpression.TYPE_TEXT);
+            this.includeGenerators = FilterExpression.createList(getProperty("includeGenerators"),
+                    FilterExpression.TYPE_REGULAR | FilterExpression.TYPE_TEXT);
+            this.excludeGenerators = FilterExpression.createList(getProperty("excludeGenerators"),
+                    FilterExpression.TYPE_REGULAR | FilterExpression.TYPE_TEXT);
+            this.includeAttributes = FilterExpression.createList(getProperty("includeAttributes"),
+                    FilterExpression.TYPE_REGULAR | FilterExpression.TYPE_TEXT);
+            this.excludeAttributes = FilterExpression.createList(getProperty("excludeAttributes"),
+                    FilterExpression.TYPE_REGULAR | FilterExpression.TYPE_TEXT);
+            // mapping
+            this.mapped = getTypedProperty("mapped", Boolean.class) == Boolean.TRUE;
+            this.index = getTypedProperty("index", Boolean.class) == Boolean.TRUE;
+            // follow mode: wait for appended data until the file is closed (not with lazy streams, which are produced after parsing)
+            this.follow = getTypedProperty("follow", Boolean.class) == Boolean.TRUE && !isLazy();
+            this.overview = getTypedProperty("overview", Boolean.class) == Boolean.TRUE;
+            // parallel decoding (eager mode only, lazy streams are decoded on demand)
+            this.threads = Utils.parseInt(getProperty("threads"), 0);
+            // relations
+            this.excludeAllRelation = Boolean.TRUE == getTypedProperty("excludeAllRelation");
+            // relation sections may follow any chunk of a stream: known in advance in eager mapped mode (see countChunks), after the index pass in
+            // lazy mode
+            this.indexRelations = !excludeAllRelation && !isLazy();
+            this.chunkPipeline = threads > 1 && !isLazy() ? new ChunkPipeline(threads, progress) : null;
+            // lazy streams are produced by up to 'threads' workers (default: one per processor)
+            // (shared by the parts of a merged record)
+            this.lazyScheduler = root != this ? root.lazyScheduler
+                    : isLazy() ? new LazyScheduler(threads > 0 ? threads : Runtime.getRuntime().availableProcessors()) : null;
+            // large chunks are split into ranges decoded by the chunk decoders (lazy mode: the shared pool, unless limited to one thread)
+            this.rangeDecoders = chunkPipeline != null ? chunkPipeline.decoders
+                    : isLazy() && threads != 1 && Runtime.getRuntime().availableProcessors() > 1 ? LAZY_RANGE_DECODERS : null;
+            // a compressed and a decompressed buffer per chunk in flight
+            this.buffers = new BufferPool(chunkPipeline != null ? 2 * threads * CHUNKS_PER_THREAD : 2);
+
+            // Create CBOR decoder (on the mapped file if available) and initialize record structure
+            // (a growing file is read as a stream)
+            mappedFile = mapped && !follow ? mapFile(in) : null;
+            // eager mapped mode: count the chunks of each stream in advance to close its writer after the last one
+            chunkCounts = mappedFile != null && !isLazy() ? countChunks() : null;
+            // relation sections are skipped unread if all relations are excluded
+            sections = new SectionReader(mappedFile != null ? new CborDecoder(mappedFile, 0, mappedFile.size())
+                    : new CborDecoder(follow ? new FollowInputStream(in, progress, FOLLOW_POLL_INTERVAL) : in), mappedFile, buffers, dictionary,
+                    !excludeAllRelation);
+            // chunk cache (lazy mode): shared by all readers, chunks of a mapped file are keyed by the file identity; a reader only raises the
+            // process-wide capacity, so its default never evicts the chunks of readers that asked for more
+            if (isLazy()) {
+                ChunkCache.SHARED.raiseCapacity(Utils.parseInt(getProperty("chunkCache"), DEFAULT_CHUNK_CACHE) * 1024L * 1024L);
+                this.chunkCache = ChunkCache.SHARED.view(mappedFile != null && contentName != null && new File(contentName).isFile()
+                        ? ChunkCache.fileKey(new File(contentName))
+                        : null);
+            }
+            // Create empty record structure (we'll add signals later); parts of a merged record use the record of the root reader
+            if (root == this) {
+                initRecord("FTR Record", domainBase);
+                changed(CHANGED_RECORD);
+                // merged record: the other files are parsed concurrently, each into the scope of its file
+                parts = startParts(progress);
+            }
+            console.info("Starting FTR parseInput");
+            // Sidecar index: reopening a lazy, mapped file only reads the index and the non-chunk sections
+            File indexFile = index && isLazy() && mappedFile != null && contentName != null && new File(contentName).isFile()
+                    ? SidecarIndex.fileOf(new File(contentName))
+                    : null;
+            SidecarIndex sidecar = indexFile != null ? SidecarIndex.read(indexFile, new File(contentName), mappedFile) : null;
+            if (indexFile != null && sidecar == null)
+                console.info("No valid sidecar index ", indexFile, ", scanning the file");
+            indexBuilder = indexFile != null && sidecar == null ? new SidecarIndex(new File(contentName), mappedFile) : null;
+            int sectionCount = sidecar != null ? replayIndex(sidecar, progress) : parseSections(progress);
+            // density overview from the chunk headers, once they are read (eager mapped mode: published with each stream)
+            if (overview && overviewChunks == null && (progress == null || !progress.isCanceled()))
+                createOverview();
+            if (indexBuilder != null && (progress == null || !progress.isCanceled()))
+                try {
+                    indexBuilder.write(indexFile);
+                    console.info("Wrote sidecar index: ", indexFile, " (", indexBuilder.size(), " entries)");
+                } catch (IOException e) {
+                    console.warning("Could not write sidecar index: ", e.getMessage());
                 }
-                next = cborDecoder.peekType();
-                flushAndSetProgress(progress);
+            indexBuilder = null;
+            if (chunkPipeline != null) {
+                chunkPipeline.await();
+                chunkPipeline.report();
+            }
+            // attach relations (lazy streams attach their relations when produced)
+            if (!isLazy() && (progress == null || !progress.isCanceled()))
+                resolveRelations();
+            else if (isLazy()) {
+                relations.index();
+                indexRelations = !excludeAllRelation && relations.size() > 0;
             }
+            // the record is complete when all merged files are
+            for (CompletableFuture<Void> part : parts)
+                try {
+                    part.join();
+                } catch (CompletionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            if (!isLazy())
+                console.info("Stream writers: at most ", peakWriters.get(), " of ", streamList.size(), " open at a time");
             console.info("FTR parsing complete. Total sections processed: ", sectionCount);
         } catch (Exception e) {
             // Handle and wrap exceptions
@@ -1252,9 +2280,20 @@ public class FtrReader extends AbstractSingleDomainRecordReader implements ISamp
             console.error("Error during FTR parsing: ", e);
             throw (ParseException) e;
         } finally {
+            // Stop decoding threads before the streams are closed
+            if (chunkPipeline != null) {
+                chunkPipeline.shutdown();
+                chunkPipeline = null;
+                rangeDecoders = null;
+            }
+            // Merged files end before the record is released (also after a failure)
+            for (CompletableFuture<Void> part : parts)
+                part.handle((result, failure) -> null).join();
+            // Release pooled buffers (lazy production keeps a small pool)
+            buffers = new BufferPool(2);
             // Close streams and log timing
             if (!isLazy())
-                for (Stream stream : streams.values())
+                for (Stream stream : streamList)
                     stream.close();
             console.major("Used time: ", (Utils.millies() - started), " ms");
             parsing = false;
@@ -1269,1051 +2308,4501 @@ public class FtrReader extends AbstractSingleDomainRecordReader implements ISamp
     }
 
     /**
-     * Calculate time scale multiplier based on the power of 10
+     * Count the transaction chunks of each stream from the section headers of the mapped file; payloads are skipped, so this costs a walk over the
+     * headers only. With the density overview, the chunk headers are kept as well, so the overview of each stream is published as soon as the
+     * stream is defined, before its chunks are decoded.
+     *
+     * Relations are attached to the open writers after all sections are read, so writers are not closed early if the file contains relations that
+     * are imported.
+     *
+     * Transactions are only located by id for relations if the walk finds relation sections (see indexRelations).
+     *
+     * @return chunk counts by stream id, or null if writers stay open (relations, or the file cannot be walked: the parser reports the error)
+     */
+    private IdTable<int[]> countChunks() {
+        IdTable<int[]> counts = new IdTable<>();
+        IdTable<ChunkIndex> headers = overview ? new IdTable<>() : null;
+        long from = Long.MAX_VALUE, to = Long.MIN_VALUE;
+        boolean relationSections = false;
+        try {
+            CborDecoder decoder = new CborDecoder(mappedFile, 0, mappedFile.size());
+            if (decoder.readTag() != CBOR_SELF_DESCRIBE_TAG || decoder.readArrayLength() != -1)
+                return null;
+            while (decoder.hasMore() && !decoder.isBreak()) {
+                long tag = decoder.readTag();
+                if (tag == FILE_TAG_TX_UNCOMPRESSED || tag == FILE_TAG_TX_COMPRESSED) {
+                    long len = decoder.readArrayLength();
+                    long streamId = decoder.readInt();
+                    if (headers != null && len == (tag == FILE_TAG_TX_COMPRESSED ? EXPECTED_COMP_TX_ARRAY_SIZE : EXPECTED_TX_ARRAY_SIZE)) {
+                        // keep the header for the overview (the time scale is not known before the info section is parsed)
+                        long start = decoder.readInt(), end = decoder.readInt();
+                        long uncompressedSize = tag == FILE_TAG_TX_COMPRESSED ? decoder.readInt() : -1;
+                        long length = decoder.readByteStringLength();
+                        ChunkIndex chunks = headers.get(streamId);
+                        if (chunks == null)
+                            headers.put(streamId, chunks = new ChunkIndex());
+                        chunks.add(decoder.getPos(), length, uncompressedSize, start, end);
+                        from = Math.min(from, start);
+                        to = Math.max(to, end);
+                        decoder.skip(length);
+                    } else
+                        for (long i = 1; i < len; i++)
+                            decoder.skipItem();
+                    int[] count = counts.get(streamId);
+                    if (count == null)
+                        counts.put(streamId, count = new int[1]);
+                    count[0]++;
+                } else {
+                    relationSections |= tag == FILE_TAG_REL_UNCOMPRESSED || tag == FILE_TAG_REL_COMPRESSED;
+                    decoder.skipItem();
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        overviewChunks = headers;
+        overviewFrom = from;
+        overviewTo = to;
+        if (relationSections && !excludeAllRelation)
+            return null;
+        indexRelations = false;
+        return counts;
+    }
+
+    /**
+     * Count a read (decoded or skipped) chunk of a stream when parsing eagerly. After the last chunk of the stream, its writer is closed, in
+     * parallel mode after the pending chunks of the stream are decoded. Writers are thereby only open from the first to the last chunk of their
+     * stream.
+     *
+     * @param stream
+     *            the stream of the chunk, or null
+     * @throws ParseException
+     *             on writer error
+     */
+    private void chunkRead(Stream stream) throws ParseException {
+        if (stream == null || isLazy() || stream.remainingChunks <= 0 || --stream.remainingChunks > 0)
+            return;
+        if (chunkPipeline != null)
+            chunkPipeline.submit(stream, stream::close);
+        else
+            stream.close();
+    }
+
+    /**
+     * Assert a scope of the record. The scopes of a file of a merged record are created below the scope of the file.
+     *
+     * @param path
+     *            scope path ('/' separated), or null for the top level
+     * @return the scope, or null for the top level of a single file
+     */
+    private IRecord.Scope recordScope(String path) {
+        if (fileScope != null)
+            path = path != null ? fileScope + "/" + path : fileScope;
+        return path != null ? root.assertScope(path) : null;
+    }
+
+    /**
+     * Start parsing the files merged into the record of this reader (property "files").
+     *
+     * Each file is parsed by an own reader (a part) in parallel to this reader, with the same properties, into a top level scope named after the
+     * file; this reader's file gets its scope as well. Each part converts its times with the time scale of its file, so all files share the domain
+     * units of the record. Lazy streams of all parts are produced by the scheduler of this reader.
+     *
+     * @param progress
+     *            progress and cancellation
+     * @return the running parts (empty if no files are merged)
+     * @throws ParseException
+     *             if a listed file does not exist
+     */
+    private List<CompletableFuture<Void>> startParts(IProgress progress) throws ParseException {
+        List<File> files = resolveFiles(getProperty("files"));
+        if (files.isEmpty())
+            return Collections.emptyList();
+        HashSet<String> scopes = new HashSet<>();
+        this.fileScope = scopeOf(contentName != null ? new File(contentName).getName() : "FTR", scopes);
+        // the parts get the properties without the file list
+        List<String[]> properties = new ArrayList<>();
+        for (String[] property : getProperties())
+            if (!"files".equals(property[0]))
+                properties.add(property);
+        String[][] partProperties = properties.toArray(new String[properties.size()][]);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(files.size(), Runtime.getRuntime().availableProcessors()));
+        List<CompletableFuture<Void>> parts = new ArrayList<>();
+        for (File file : files) {
+            FtrReader part = new FtrReader(this, file.getPath(), scopeOf(file.getName(), scopes), partProperties);
+            parts.add(CompletableFuture.runAsync(() -> {
+                try {
+                    part.parse(progress, new FileInputStream(file));
+                } catch (IOException | ParseException e) {
+                    throw new CompletionException(new ParseException("Failed to parse merged file " + file + ": " + e.getMessage(), e));
+                }
+            }, pool));
+        }
+        pool.shutdown();
+        console.info("Merging ", files.size(), " FTR files into scopes next to ", fileScope);
+        return parts;
+    }
+
+    /**
+     * Resolve the files to merge: entries separated by ';', each a file or a glob pattern on file names (e.g. "sim_*.ftr"). Relative entries are
+     * resolved against the directory of this reader's file, which is not part of the result.
+     *
+     * @param list
+     *            the file list property
+     * @return the files in list order, matches of a pattern sorted by name
+     * @throws ParseException
+     *             if a listed file does not exist
+     */
+    private List<File> resolveFiles(String list) throws ParseException {
+        LinkedHashSet<File> files = new LinkedHashSet<>();
+        if (list == null || list.trim().isEmpty())
+            return new ArrayList<>(files);
+        File self = contentName != null ? canonical(new File(contentName)) : null;
+        File base = self != null ? self.getParentFile() : null;
+        for (String entry : list.split(";")) {
+            entry = entry.trim();
+            if (entry.isEmpty())
+                continue;
+            File file = new File(entry);
+            if (!file.isAbsolute() && base != null)
+                file = new File(base, entry);
+            List<File> matches = new ArrayList<>();
+            String name = file.getName();
+            if (name.indexOf('*') >= 0 || name.indexOf('?') >= 0 || name.indexOf('[') >= 0 || name.indexOf('{') >= 0) {
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + name);
+                File[] candidates = file.getParentFile() != null ? file.getParentFile().listFiles() : null;
+                if (candidates != null)
+                    for (File candidate : candidates)
+                        if (candidate.isFile() && matcher.matches(candidate.toPath().getFileName()))
+                            matches.add(candidate);
+                Collections.sort(matches);
+            } else if (file.isFile())
+                matches.add(file);
+            else
+                throw new ParseException("Merged FTR file not found: " + file);
+            for (File match : matches) {
+                File canonical = canonical(match);
+                if (!canonical.equals(self))
+                    files.add(canonical);
+            }
+        }
+        return new ArrayList<>(files);
+    }
+
+    private static File canonical(File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException e) {
+            return file.getAbsoluteFile();
+        }
+    }
+
+    /**
+     * Scope name of a merged file: the file name without the ".ftr" extension, made unique.
+     */
+    private static String scopeOf(String fileName, HashSet<String> scopes) {
+        String name = fileName.toLowerCase().endsWith(".ftr") ? fileName.substring(0, fileName.length() - 4) : fileName;
+        String scope = name;
+        for (int n = 2; !scopes.add(scope); n++)
+            scope = name + "_" + n;
+        return scope;
+    }
+
+    /**
+     * Parse the sections of the file from the start.
+     *
+     * @param progress
+     *            progress and cancellation
+     * @return number of sections
+     * @throws IOException
+     *             on I/O error
+     * @throws ParseException
+     *             on format error
+     */
+    private int parseSections(IProgress progress) throws IOException, ParseException {
+        // self-describe CBOR tag and indefinite-length root array
+        sections.readHeader();
+        SectionHandler handler = new SectionHandler();
+        int sectionCount = 0;
+        // Main section parsing loop
+        while ((progress == null || !progress.isCanceled()) && sections.hasMore()) {
+            sectionCount++;
+            sections.readSection(handler);
+            synchronized (recordLock) {
+                root.flushAndSetProgress(progress);
+            }
+        }
+        return sectionCount;
+    }
+
+    /**
+     * Rebuild the record from a sidecar index: the non-chunk sections (info, dictionary, directory, relations) are parsed from their recorded
+     * offsets, chunks are added to the chunk index of their streams without touching the file.
+     *
+     * @param sidecar
+     *            the validated index
+     * @param progress
+     *            progress and cancellation
+     * @return number of sections
+     * @throws IOException
+     *             on I/O error
+     * @throws ParseException
+     *             if the file does not match the index
+     */
+    private int replayIndex(SidecarIndex sidecar, IProgress progress) throws IOException, ParseException {
+        console.major("Using sidecar index with ", sidecar.size(), " entries");
+        SectionHandler handler = new SectionHandler();
+        for (int i = 0; i < sidecar.size() && (progress == null || !progress.isCanceled()); i++) {
+            if (!sections.replaySection(sidecar, i, handler))
+                throw new ParseException("Sidecar index does not match the FTR file (delete " + SidecarIndex.fileOf(new File(contentName)) + ")");
+            if (!sidecar.isChunk(i))
+                synchronized (recordLock) {
+                    root.flushAndSetProgress(progress);
+                }
+        }
+        return sidecar.size();
+    }
+
+    /**
+     * Receiver of the sections read by the section reader: applies the time scale and the filters, creates the streams and generators and imports
+     * or indexes the transaction chunks.
+     */
+    private class SectionHandler implements SectionReader.Handler {
+
+        @Override
+        public void section(long tag, long offset) throws ParseException {
+            console.info("Processing section with tag: ", tag, " at offset: ", offset);
+            // Decoding threads use the time scale, dictionary and directory: wait for them before other sections change these
+            if (chunkPipeline != null && tag != FILE_TAG_TX_UNCOMPRESSED && tag != FILE_TAG_TX_COMPRESSED)
+                chunkPipeline.await();
+            // remember the section location for the sidecar index (chunks are recorded with their headers)
+            if (indexBuilder != null && tag != FILE_TAG_TX_UNCOMPRESSED && tag != FILE_TAG_TX_COMPRESSED)
+                indexBuilder.addSection((int) tag, offset);
+        }
+
+        @Override
+        public void info(long timeScale, long epoch) throws ParseException {
+            // not known in advance for stream input
+            if (timeScale < domainScale)
+                throw new ParseException("Time scale 1e" + timeScale + " s of " + (contentName != null ? contentName : "the FTR file")
+                        + " is finer than the domain units of the record (1e" + domainScale + " s)");
+            timeScaleFactor = timeScaleMultiplier(timeScale, domainScale);
+            console.info("Time scale: ", timeScale, " multiplier: ", timeScaleFactor, " epoch time: ", epoch);
+        }
+
+        @Override
+        public void dictionary(int first) {
+            // match the attribute filters once per dictionary entry
+            if ((includeAttributes != null && !includeAttributes.isEmpty()) || (excludeAttributes != null && !excludeAttributes.isEmpty())) {
+                boolean[] excluded = excludedAttributes != null ? Arrays.copyOf(excludedAttributes, dictionary.size()) : new boolean[dictionary.size()];
+                for (int n = first; n < dictionary.size(); n++) {
+                    String entry = dictionary.decode(n);
+                    excluded[n] = !FilterExpression.matches(includeAttributes, entry, true) || FilterExpression.matches(excludeAttributes, entry, false);
+                }
+                excludedAttributes = excluded;
+            }
+            console.info("Dictionary parsed successfully, entries: ", dictionary.size(), " (", dictionary.bytes(), " bytes)");
+        }
+
+        @Override
+        public void stream(long streamId, long nameId, long kindId) throws ParseException {
+            String streamName = dictionary.get((int) nameId);
+            String streamKind = dictionary.get((int) kindId);
+            // Excluded streams get no signal; their chunks are skipped unread
+            boolean excluded = !FilterExpression.matches(includeSignals, streamName, true);
+            excluded |= FilterExpression.matches(excludeSignals, streamName, false);
+            if (excluded) {
+                console.info("Excluding stream with ID: ", streamId, ", name: ", streamName);
+                excludedStreams.put(streamId, Boolean.TRUE);
+                return;
+            }
+            console.info("Adding stream with ID: ", streamId, ", name: ", streamName, ", kind: ", streamKind);
+            // Create signal for this stream
+            Stream stream = new Stream(streamId, streamName, streamKind);
+            int[] count = chunkCounts != null ? chunkCounts.get(streamId) : null;
+            stream.remainingChunks = count != null ? count[0] : 0;
+            streams.put(streamId, stream);
+            // eager mapped mode: the overview is known from the header walk before the chunks of the stream are decoded
+            ChunkIndex headers = overviewChunks != null ? overviewChunks.get(streamId) : null;
+            if (headers != null)
+                createOverview(stream, headers, timeScaleFactor, overviewFrom * timeScaleFactor, overviewTo * timeScaleFactor);
+        }
+
+        @Override
+        public void generator(long genId, long nameId, long streamId) throws ParseException {
+            String genName = dictionary.get((int) nameId);
+            if (excludedStreams.containsKey(streamId))
+                return;
+            if (!streams.containsKey(streamId)) {
+                throw new ParseException("Generator references unknown stream ID: " + streamId);
+            }
+            console.info("Adding generator with ID: ", genId, ", name: ", genName, ", stream ID: ", streamId);
+            // Create generator signal
+            streams.get(streamId).addGenerator(genId, genName);
+        }
+
+        @Override
+        public void directory() {
+            synchronized (recordLock) {
+                root.changed(CHANGED_RECORD);
+            }
+            console.info("Directory parsed successfully");
+        }
+
+        @Override
+        public void chunk(int tag, long streamId, long start, long end, long uncompressedSize, long offset, long length)
+                throws IOException, ParseException {
+            boolean compressed = tag == FILE_TAG_TX_COMPRESSED;
+            long startTime = start * timeScaleFactor;
+            long endTime = end * timeScaleFactor;
+            console.info(compressed ? "Compressed transaction chunk" : "Transaction chunk", " for stream ID: ", streamId, ", time range: ", startTime,
+                    " - ", endTime, ", size: ", length, " bytes");
+            // the index records the file time units, so it does not depend on the time scale handling
+            if (indexBuilder != null)
+                indexBuilder.addChunk(tag, streamId, offset, length, uncompressedSize, start, end);
+            Stream stream = streams.get(streamId);
+            // lazy streams index all their chunks anyway; when parsing eagerly only the headers are kept for the overview (unless walked before)
+            if (overview && stream != null && !isLazy() && overviewChunks == null)
+                stream.chunks.add(offset, length, uncompressedSize, startTime, endTime);
+            // unknown or excluded streams and, when parsing eagerly, chunks after the start/end window are skipped unread; chunks ending
+            // before it are scanned for long transactions (see parseTxChunk)
+            if (stream == null || (!isLazy() && startTime > endDomain)) {
+                chunkRead(stream);
+                return;
+            }
+            if (isLazy())
+                // index only in mapped mode: the chunk is read (and decompressed through the chunk cache) from the mapping when needed; otherwise
+                // hold the chunk data on the heap, compressed chunks stay compressed
+                stream.addChunk(offset, length, uncompressedSize, startTime, endTime, mappedFile == null ? sections.readBytes(length) : null);
+            else if (compressed) {
+                if (chunkPipeline != null)
+                    chunkPipeline.submitCompressed(stream, sections.payloadPooled(length), (int) length, uncompressedSize, startTime, endTime);
+                else
+                    sections.decompress(length, uncompressedSize, decoder -> parseTxChunk(decoder, stream, startTime, endTime));
+            } else if (chunkPipeline != null) {
+                // the payload is decoded later: a slice of the reading buffer would be overwritten, so it is copied into a pooled buffer
+                byte[] pooled = mappedFile != null ? null : sections.payloadPooled(length);
+                CborDecoder payload = pooled != null ? new CborDecoder(pooled, 0, (int) length) : sections.payload(length);
+                chunkPipeline.submit(stream, () -> {
+                    try {
+                        parseTxChunk(payload, stream, startTime, endTime);
+                    } finally {
+                        buffers.release(pooled);
+                    }
+                });
+            } else
+                parseTxChunk(sections.payload(length), stream, startTime, endTime);
+            chunkRead(stream);
+        }
+
+        @Override
+        public void relations(CborDecoder decoder) throws ParseException {
+            parseRel(decoder);
+            console.info("Relations parsed successfully");
+        }
+    }
+
+    /**
+     * Map the input file into memory.
+     *
+     * The file is located by the content name or taken from the channel of a file input stream. If the file cannot be mapped or does not carry the
+     * FTR signature (e.g. a wrapped/compressed file), null is returned and the reader falls back to stream parsing.
+     *
+     * @param in
+     *            the input stream
+     * @return the mapped file or null
+     */
+    private MappedFile mapFile(InputStream in) {
+        try {
+            File file = contentName != null ? new File(contentName) : null;
+            MappedFile mapped = null;
+            if (file != null && file.isFile())
+                mapped = new MappedFile(file);
+            else if (in instanceof FileInputStream)
+                mapped = new MappedFile(null, ((FileInputStream) in).getChannel());
+            if (mapped != null && mapped.size() >= 4 && mapped.get(0) == 0xD9 && mapped.get(1) == 0xD9 && mapped.get(2) == 0xF7
+                    && mapped.get(3) == 0x9F) {
+                console.info("Mapped FTR file: ", mapped.size(), " bytes");
+                return mapped;
+            }
+        } catch (IOException e) {
+            console.warning("Could not map FTR file: ", e.getMessage());
+        }
+        console.info("FTR file not mappable, using stream parsing");
+        return null;
+    }
+
+    /**
+     * Calculate time scale multiplier based on the power of 10
+     *
+     * @param power
+     *            Power of 10 to calculate
+     * @return The multiplier (10^power)
+     */
+    static long calculateTimescaleMultiplier(long power) {
+        if (power <= 0) {
+            return 1;
+        }
+        // Use Math.pow which is more efficient for large powers
+        return (long) Math.pow(10, power);
+    }
+
+    /**
+     * Multiplier from the time units of a file to domain units.
+     *
+     * @param timeScale
+     *            time scale of the file (power of ten of a second)
+     * @param domainScale
+     *            time scale of the domain units, not coarser than the file time scale
+     * @return the multiplier
+     */
+    static long timeScaleMultiplier(long timeScale, int domainScale) {
+        return calculateTimescaleMultiplier(timeScale - domainScale);
+    }
+
+    /**
+     * Domain units for a file time scale: ps, or fs for finer time scales.
+     *
+     * @param timeScale
+     *            time scale of the file (power of ten of a second)
+     * @return time scale of the domain units
+     * @throws ParseException
+     *             if the time scale is finer than fs
+     */
+    static int domainScale(long timeScale) throws ParseException {
+        if (timeScale < TIME_SCALE_FS)
+            throw new ParseException("Time scale 1e" + timeScale + " s is finer than the finest supported domain unit (fs)");
+        return timeScale < TIME_SCALE_PS ? TIME_SCALE_FS : TIME_SCALE_PS;
+    }
+
+    /**
+     * Select the domain units of the record from the time scales of the opened and the merged files (property "files"): ps, or fs if a file has
+     * a finer time scale, so the times of all files are converted exactly into one domain. The time scales are read ahead from the info
+     * sections; a file whose time scale cannot be read ahead (e.g. stream input) is checked when its info section is parsed.
+     *
+     * @throws ParseException
+     *             if a file has a time scale finer than fs or a merged file does not exist
+     */
+    private void selectDomain() throws ParseException {
+        List<File> files = resolveFiles(getProperty("files"));
+        if (contentName != null && new File(contentName).isFile())
+            files.add(0, new File(contentName));
+        int scale = TIME_SCALE_PS;
+        for (File file : files) {
+            Long timeScale = readTimeScale(file);
+            try {
+                if (timeScale != null)
+                    scale = Math.min(scale, domainScale(timeScale));
+            } catch (ParseException e) {
+                throw new ParseException(file + ": " + e.getMessage(), e);
+            }
+        }
+        domainScale = scale;
+        domainBase = scale == TIME_SCALE_FS ? TimeBase.fs : TimeBase.ps;
+    }
+
+    /**
+     * Read the time scale of an FTR file from its info section, without parsing the rest of the file.
+     *
+     * @param file
+     *            the file
+     * @return the time scale, or null if the file is no readable FTR file or has no info section in front of its first chunk
+     */
+    static Long readTimeScale(File file) {
+        Long[] timeScale = new Long[1];
+        boolean[] chunk = new boolean[1];
+        SectionReader.Handler handler = new SectionReader.Adapter() {
+            @Override
+            public void info(long scale, long epoch) {
+                timeScale[0] = scale;
+            }
+
+            @Override
+            public void chunk(int tag, long streamId, long start, long end, long uncompressedSize, long offset, long length) {
+                chunk[0] = true;
+            }
+        };
+        try (InputStream in = new FileInputStream(file)) {
+            SectionReader sections = new SectionReader(new CborDecoder(in), null, new BufferPool(1), new StringDictionary(), false);
+            sections.readHeader();
+            while (timeScale[0] == null && !chunk[0] && sections.hasMore())
+                sections.readSection(handler);
+        } catch (IOException | ParseException | RuntimeException e) {
+            // not readable as FTR file (e.g. compressed): checked when parsed
+        }
+        return timeScale[0];
+    }
+
+    /**
+     * Parse transaction chunk data for a specific stream.
+     *
+     * Parses indefinite-length CBOR arrays of transactions. Each transaction is a definite-length array of tagged elements. The method dispatches
+     * tags to core transaction handling and attribute setting.
+     *
+     * @param decoder
+     *            CBOR decoder for the chunk payload
+     * @param stream
+     *            target Stream instance
+     * @param startTime
+     *            chunk start time (domain units)
+     * @param endTime
+     *            chunk end time (domain units)
+     * @throws ParseException
+     *             on format or I/O error
+     */
+    private void parseTxChunk(CborDecoder decoder, Stream stream, long startTime, long endTime) throws ParseException {
+        // Parses a CBOR indefinite-length array of transactions for a stream
+        console.info("Parsing transaction chunk for stream ID: ", stream.id, " time range: ", startTime, endTime);
+        try {
+            // the header end is the start of the last transaction: a chunk ending before the start window is dropped when parsing eagerly only if
+            // none of its transactions runs into the window
+            if (!isLazy() && endTime < startDomain && scanTxEnd(decoder.duplicate(), timeScaleFactor) < startDomain)
+                return;
+            // Read outer indefinite array
+            long size = decoder.readArrayLength();
+            if (size != -1) {
+                throw new ParseException("Expected indefinite-length array in transaction chunk, got: " + size);
+            }
+            console.info("Reading indefinite-length transaction array");
+            int txCount = 0;
+            ForkJoinPool pool = rangeDecoders;
+            if (pool != null && decoder.isDirect() && decoder.getBufferLimit() - decoder.getBufferPos() >= PARALLEL_CHUNK_SIZE)
+                // large chunk in memory: decode ranges of transactions in parallel
+                txCount = parseTxRanges(decoder, stream, pool);
+            else {
+                // Process transactions until break is found
+                TxBuffer tx = new TxBuffer();
+                while (true) {
+                    int initialByte = decoder.peek();
+                    if (initialByte == CborConstants.BREAK_BYTE)
+                        break;
+                    if (initialByte == -1) {
+                        throw new ParseException("Unexpected end of stream");
+                    }
+                    tx.clear();
+                    decodeTransaction(decoder, tx);
+                    applyTransactions(tx, stream);
+                    txCount++;
+                }
+            }
+            // Break type
+            decoder.readBreak();
+            console.info("End of transaction chunk reached, processed ", txCount, " transactions");
+            stream.finish(endTime);
+            synchronized (recordLock) {
+                root.changed(CHANGED_SIGNALS);
+            }
+        } catch (IOException e) {
+            throw new ParseException("Failed to parse transaction chunk: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Decode the transactions of a large chunk in parallel.
+     *
+     * A pre-scan finds the start offsets of the transactions from the CBOR headers only (skipItem). Ranges of transactions are then decoded by the
+     * pool into their own buffers and applied to the stream in file order on the calling thread, so the stream's generators, event queue and writer
+     * are only used by one thread. The number of ranges in flight is bounded by twice the pool parallelism.
+     *
+     * @param decoder
+     *            decoder positioned at the first transaction of an in-memory chunk
+     * @param stream
+     *            stream of the chunk
+     * @param pool
+     *            decoding pool
+     * @return number of transactions
+     * @throws IOException
+     *             on format error of the pre-scan
+     * @throws ParseException
+     *             on format or writer error
+     */
+    private int parseTxRanges(CborDecoder decoder, Stream stream, ForkJoinPool pool) throws IOException, ParseException {
+        // pre-scan: transaction start offsets, followed by the offset of the break
+        int[] offsets = new int[1024];
+        int count = 0;
+        while (true) {
+            int initialByte = decoder.peek();
+            if (initialByte == -1)
+                throw new ParseException("Unexpected end of stream");
+            if (count == offsets.length)
+                offsets = Arrays.copyOf(offsets, count * 2);
+            offsets[count] = decoder.getBufferPos();
+            if (initialByte == CborConstants.BREAK_BYTE)
+                break;
+            decoder.skipItem();
+            count++;
+        }
+        byte[] data = decoder.getBuffer();
+        int ranges = (count + RANGE_TRANSACTIONS - 1) / RANGE_TRANSACTIONS;
+        int window = 2 * pool.getParallelism();
+        console.info("Decoding ", count, " transactions in ", ranges, " ranges");
+        ArrayDeque<ForkJoinTask<TxBuffer>> inFlight = new ArrayDeque<>();
+        try {
+            int next = 0;
+            for (int r = 0; r < ranges; r++) {
+                // keep the pool busy with the following ranges
+                for (; next < ranges && next < r + window; next++) {
+                    int from = next * RANGE_TRANSACTIONS, to = Math.min(from + RANGE_TRANSACTIONS, count);
+                    int offset = offsets[from], length = offsets[to] - offset;
+                    ForkJoinTask<TxBuffer> task = ForkJoinTask.adapt(() -> {
+                        CborDecoder range = new CborDecoder(data, offset, length);
+                        TxBuffer tx = new TxBuffer();
+                        for (int i = from; i < to; i++)
+                            decodeTransaction(range, tx);
+                        return tx;
+                    });
+                    if (ForkJoinTask.getPool() == pool)
+                        task.fork();
+                    else
+                        pool.execute(task);
+                    inFlight.add(task);
+                }
+                TxBuffer tx;
+                try {
+                    tx = inFlight.poll().join();
+                } catch (RuntimeException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    if (cause instanceof ParseException)
+                        throw (ParseException) cause;
+                    throw new ParseException("Failed to decode transaction range: " + cause.getMessage(), cause);
+                }
+                applyTransactions(tx, stream);
+            }
+        } finally {
+            for (ForkJoinTask<TxBuffer> task : inFlight)
+                task.cancel(false);
+        }
+        return count;
+    }
+
+    /**
+     * Scan the transactions of a chunk for their largest end time, decoding the core info only (see ChunkIndex.setTxEnd).
+     *
+     * @param decoder
+     *            decoder positioned at the chunk payload
+     * @param timeScaleFactor
+     *            multiplier of the file times to domain units
+     * @return the largest end time, Long.MIN_VALUE if the chunk holds no transaction
+     * @throws IOException
+     *             on decoding error
+     * @throws ParseException
+     *             on format error
+     */
+    static long scanTxEnd(CborDecoder decoder, long timeScaleFactor) throws IOException, ParseException {
+        if (decoder.readArrayLength() != -1)
+            throw new ParseException("Expected indefinite-length array in transaction chunk");
+        long txEnd = Long.MIN_VALUE;
+        while (!decoder.isBreak()) {
+            long elements = decoder.readArrayLength();
+            for (long e = 0; e < elements; e++) {
+                if (decoder.readTag() != TX_TAG_CORE) {
+                    decoder.skipItem();
+                    continue;
+                }
+                if (decoder.readArrayLength() != EXPECTED_TX_INFO_ARRAY_SIZE)
+                    throw new ParseException("Invalid transaction info array length");
+                // id, generator, start
+                decoder.skipItem();
+                decoder.skipItem();
+                decoder.skipItem();
+                txEnd = Math.max(txEnd, decoder.readInt() * timeScaleFactor);
+            }
+        }
+        return txEnd;
+    }
+
+    /**
+     * Decode one transaction into element records (see TxBuffer). Attribute values are converted into raw bits (see Generator.set).
+     *
+     * @param decoder
+     *            decoder positioned at the transaction
+     * @param tx
+     *            buffer receiving the elements
+     * @throws IOException
+     *             on I/O error
+     * @throws ParseException
+     *             on format error
+     */
+    private void decodeTransaction(CborDecoder decoder, TxBuffer tx) throws IOException, ParseException {
+        // Each transaction is a definite-length array
+        long txArrayLen = decoder.readArrayLength();
+        if (txArrayLen < 0) {
+            throw new ParseException("Expected definite-length array for transaction, got: " + txArrayLen);
+        }
+        for (long i = 0; i < txArrayLen; i++) {
+            // Each element starts with a tag
+            long tag = decoder.readTag();
+            switch ((int) tag) {
+            case TX_TAG_CORE: {
+                // Transaction core info: txId, genId, start, end
+                long len = decoder.readArrayLength();
+                if (len != EXPECTED_TX_INFO_ARRAY_SIZE) {
+                    throw new ParseException("Invalid transaction info array length: " + len);
+                }
+                long txId = decoder.readInt();
+                long genId = decoder.readInt();
+                long txStartTime = decoder.readInt() * timeScaleFactor;
+                long txEndTime = decoder.readInt() * timeScaleFactor;
+                tx.add(TX_TAG_CORE, txId, genId, txStartTime, txEndTime);
+                break;
+            }
+            // Begin attribute, record attribute, or end attribute
+            case TX_TAG_BEGIN_ATTR:
+            case TX_TAG_RECORD_ATTR:
+            case TX_TAG_END_ATTR: {
+                // Attribute: name, type, value
+                long len = decoder.readArrayLength();
+                if (len != EXPECTED_ATTR_ARRAY_SIZE) {
+                    throw new ParseException("Invalid attribute array length: " + len);
+                }
+                int nameId = (int) decoder.readInt();
+                // excluded attributes: type and value are skipped undecoded
+                boolean[] excluded = excludedAttributes;
+                if (excluded != null && nameId >= 0 && nameId < excluded.length && excluded[nameId]) {
+                    decoder.skipItem();
+                    decoder.skipItem();
+                    break;
+                }
+                int typeId = (int) decoder.readInt();
+                // raw value bits (see Generator.set)
+                long bits;
+                switch (typeId) {
+                case ATTRIBUTE_BOOLEAN:
+                    bits = decoder.readBoolean() ? 1 : 0;
+                    break;
+                case ATTRIBUTE_INTEGER:
+                case ATTRIBUTE_UNSIGNED:
+                case ATTRIBUTE_POINTER:
+                case ATTRIBUTE_TIME:
+                    bits = decoder.readInt();
+                    break;
+                case ATTRIBUTE_FLOATING_POINT_NUMBER:
+                case ATTRIBUTE_FIXED_POINT_INTEGER:
+                case ATTRIBUTE_UNSIGNED_FIXED_POINT_INTEGER:
+                    bits = Float.floatToRawIntBits(decoder.readFloat());
+                    break;
+                case ATTRIBUTE_ENUMERATION:
+                case ATTRIBUTE_BIT_VECTOR:
+                case ATTRIBUTE_LOGIC_VECTOR:
+                case ATTRIBUTE_STRING:
+                    bits = decoder.readInt();
+                    if (bits < 0 || bits >= dictionary.size())
+                        throw new ParseException("Invalid dictionary id for attribute value: " + bits);
+                    break;
+                default:
+                    throw new ParseException("Unexpected typeId in transaction: " + typeId);
+                }
+                tx.add(tag, nameId, typeId, bits, 0);
+            }
+                break;
+            default:
+                throw new ParseException("Unexpected tag in transaction: " + tag);
+            }
+        }
+        tx.add(TxBuffer.END, 0, 0, 0, 0);
+    }
+
+    /**
+     * Apply decoded transactions to the generators of a stream, in decoding order.
+     *
+     * @param tx
+     *            decoded transactions
+     * @param stream
+     *            the stream
+     * @throws ParseException
+     *             on unknown generator or writer error
+     */
+    private void applyTransactions(TxBuffer tx, Stream stream) throws ParseException {
+        long[] data = tx.data;
+        Stream.Generator generator = null;
+        for (int i = 0; i < tx.size; i += TxBuffer.ELEMENT_SIZE) {
+            int tag = (int) data[i];
+            switch (tag) {
+            case TxBuffer.END:
+                if (generator != null)
+                    generator.end();
+                generator = null;
+                break;
+            case TX_TAG_CORE: {
+                long txId = data[i + 1], genId = data[i + 2], txStartTime = data[i + 3], txEndTime = data[i + 4];
+                // Get generator for this transaction
+                generator = stream.generators.get(genId);
+                if (generator == null)
+                    throw new ParseException("Generator ID " + genId + " not found in stream " + stream.id);
+                // Skip transactions of excluded generators or outside the start/end window (attributes are ignored without generator)
+                if (generator.excluded || txEndTime < startDomain || txStartTime > endDomain || txStartTime < stream.windowStart
+                        || txStartTime > stream.windowEnd)
+                    generator = null;
+                else
+                    generator.begin(txId, txStartTime, txEndTime);
+                break;
+            }
+            default:
+                if (generator != null)
+                    generator.set(tag, (int) data[i + 1], (int) data[i + 2], data[i + 3]);
+            }
+        }
+    }
+
+    /**
+     * Parse relations section containing arrays of relation descriptors.
+     *
+     * Supports both short and long relation array shapes (with or without fiber info).
+     *
+     * @param decoder
+     *            CBOR decoder positioned at the relations array
+     * @throws ParseException
+     *             on format or I/O error
+     */
+    private void parseRel(CborDecoder decoder) throws ParseException {
+        // Parses a CBOR indefinite-length array of relations
+        if (excludeAllRelation)
+            return;
+        try {
+            long size = decoder.readArrayLength();
+            if (size != -1) {
+                throw new ParseException("Expected indefinite-length array for relations");
+            }
+            while (decoder.hasMore() && !decoder.isBreak()) {
+                long sz = decoder.readArrayLength();
+                if (sz != EXPECTED_REL_ARRAY_SIZE_LONG && sz != EXPECTED_REL_ARRAY_SIZE_SHORT) {
+                    throw new ParseException("Invalid relation structure, expected array length " + EXPECTED_REL_ARRAY_SIZE_LONG + " or "
+                            + EXPECTED_REL_ARRAY_SIZE_SHORT + ", found: " + sz);
+                }
+                long typeId = decoder.readInt();
+                long fromId = decoder.readInt();
+                long toId = decoder.readInt();
+                // Read fiber information if present
+                if (sz > EXPECTED_REL_ARRAY_SIZE_SHORT) {
+                    long fromFiber = decoder.readInt();
+                    long toFiber = decoder.readInt();
+                    // Store relation with fiber info
+                    createRelation(typeId, fromId, toId, fromFiber, toFiber);
+                } else {
+                    // Store relation without fiber info
+                    createRelation(typeId, fromId, toId);
+                }
+            }
+        } catch (IOException e) {
+            throw new ParseException("Failed to parse relations: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Create a relation between transactions
+     *
+     * @param typeId
+     *            Type ID of the relation
+     * @param fromId
+     *            Source transaction ID
+     * @param toId
+     *            Target transaction ID
+     */
+    private void createRelation(long typeId, long fromId, long toId) {
+        createRelation(typeId, fromId, toId, -1, -1);
+    }
+
+    /**
+     * Create a relation between transactions with fiber information
+     *
+     * The relation is stored and attached when both transactions have been written (see resolveRelations). Fibers are not represented in impulse.
+     *
+     * @param typeId
+     *            Type ID of the relation
+     * @param fromId
+     *            Source transaction ID
+     * @param toId
+     *            Target transaction ID
+     * @param fromFiber
+     *            Source fiber
+     * @param toFiber
+     *            Target fiber
+     */
+    private void createRelation(long typeId, long fromId, long toId, long fromFiber, long toFiber) {
+        relations.add(fromId, toId, (int) typeId);
+    }
+
+    /**
+     * Attach the stored relations to the written samples (eager mode).
+     *
+     * Like the SCV reader, a relation is attached to both transactions: to the source with the target as forward relation and to the target with the
+     * source as reverse relation. Relations to transactions that have not been written (excluded or outside the range) are skipped.
+     *
+     * @throws ParseException
+     *             on writer error
+     */
+    private void resolveRelations() throws ParseException {
+        int attached = 0;
+        for (int i = 0; i < relations.size(); i++) {
+            long from = relations.from(i), to = relations.to(i);
+            int fromNo = txIndex.stream(from), toNo = txIndex.stream(to);
+            if (fromNo == 0 || toNo == 0)
+                continue;
+            Stream fromStream = streamList.get(fromNo - 1), toStream = streamList.get(toNo - 1);
+            String label = relationLabel(i);
+            if (fromStream.writer != null) {
+                insertRelation(fromStream, from, toStream, to, label, false);
+                attached++;
+            }
+            if (toStream.writer != null) {
+                insertRelation(toStream, to, fromStream, from, label, true);
+                attached++;
+            }
+        }
+        console.info("Attached relations: ", attached);
+    }
+
+    /**
+     * Attach the relations of a lazily produced stream (lazy mode).
+     *
+     * The relations of the written transactions are looked up in the relation index. A relation whose other transaction is in a stream produced
+     * before is attached to both ends, if that stream still waits for it; relations to streams not produced yet are deferred, and the writer of
+     * this stream stays open until the other stream attaches them or production is idle (see releaseRelations). A relation whose other
+     * transaction is never written (excluded or outside the range) is deferred until then.
+     *
+     * @param stream
+     *            the produced stream, all its transactions are written
+     * @return true if relations were deferred (the caller keeps the writer open)
+     * @throws ParseException
+     *             on writer error
+     */
+    private boolean resolveRelations(Stream stream) throws ParseException {
+        int attached = 0, deferred = 0;
+        ArrayList<Stream> completed = new ArrayList<>();
+        synchronized (relations) {
+            stream.indexed = true;
+            for (int n = 0; n < stream.writtenCount; n++) {
+                long txId = stream.written[n];
+                for (int reverse = 0; reverse < 2; reverse++) {
+                    for (int position = relations.first(txId, reverse != 0), i; (i = relations.at(position, txId, reverse != 0)) >= 0; position++) {
+                        long other = reverse != 0 ? relations.from(i) : relations.to(i);
+                        int otherNo = txIndex.stream(other);
+                        Stream target = otherNo > 0 ? streamList.get(otherNo - 1) : null;
+                        if (target == null || !target.indexed) {
+                            deferred++;
+                            continue;
+                        }
+                        String label = relationLabel(i);
+                        insertRelation(stream, txId, target, other, label, reverse != 0);
+                        attached++;
+                        // the other end (relations within the stream are visited from both ends)
+                        if (target != stream && target.deferredRelations > 0) {
+                            insertRelation(target, other, stream, txId, label, reverse == 0);
+                            attached++;
+                            if (--target.deferredRelations == 0)
+                                completed.add(target);
+                        }
+                    }
+                }
+            }
+            stream.deferredRelations = deferred;
+        }
+        // streams whose relations are all attached
+        for (Stream target : completed)
+            target.close();
+        console.info("Attached relations: ", attached, ", deferred: ", deferred);
+        return deferred > 0;
+    }
+
+    /**
+     * Stop waiting for the deferred relations of a stream and close its writer. Called when lazy production is idle: the remaining relations
+     * point to transactions that are not written or to streams not requested yet, which attach their side when produced.
+     *
+     * @param stream
+     *            a produced stream
+     * @throws ParseException
+     *             on writer error
+     */
+    void releaseRelations(Stream stream) throws ParseException {
+        synchronized (relations) {
+            if (stream.deferredRelations == 0)
+                return;
+            stream.deferredRelations = 0;
+        }
+        stream.close();
+    }
+
+    /**
+     * @return the label of a relation: its type from the dictionary
+     */
+    private String relationLabel(int i) {
+        int type = relations.type(i);
+        return type >= 0 && type < dictionary.size() ? dictionary.get(type).replace("/", "_") : "relation";
+    }
+
+    /**
+     * Insert a relation at the first sample of a written transaction.
+     *
+     * @param stream
+     *            stream of the transaction
+     * @param txId
+     *            the transaction
+     * @param target
+     *            stream of the related transaction
+     * @param targetTxId
+     *            the related transaction
+     * @param label
+     *            relation label
+     * @param reverse
+     *            true if the transaction is the target of the relation
+     * @throws ParseException
+     *             on writer error
+     */
+    private void insertRelation(Stream stream, long txId, Stream target, long targetTxId, String label, boolean reverse) throws ParseException {
+        long delta = txIndex.time(targetTxId) - txIndex.time(txId);
+        if (!stream.writer.insertRelationAt(txIndex.sample(txId),
+                (reverse ? ISample.AT_RELATION_DELTA_POS_REV : ISample.AT_RELATION_DELTA_POS) | ISample.AT_RELATION_CONTENT_FLAG, target.getPath(),
+                label, delta, null, ISample.CONTENT_SAMPLE, txIndex.sample(targetTxId)))
+            throw new ParseException("Could not insert relation into stream! :" + stream.writer.getId());
+    }
+
+    /**
+     * Create the density overview: one float signal per stream under the overview scope, giving the amount of transaction data (uncompressed
+     * bytes) per interval of the file's time range. It is computed from the chunk headers only; the bytes of a chunk are spread evenly over its
+     * time range.
+     *
+     * @throws ParseException
+     *             on writer error
+     */
+    private void createOverview() throws ParseException {
+        // time range of all chunks
+        long from = Long.MAX_VALUE, to = Long.MIN_VALUE;
+        for (Stream stream : streamList)
+            for (int i = 0; i < stream.chunks.size(); i++) {
+                from = Math.min(from, stream.chunks.start(i));
+                to = Math.max(to, stream.chunks.end(i));
+            }
+        if (from > to)
+            return;
+        for (Stream stream : streamList)
+            createOverview(stream, stream.chunks, 1, from, to);
+        console.info("Created density overview of ", streamList.size(), " streams");
+    }
+
+    /**
+     * Create the density overview signal of a stream.
+     *
+     * @param stream
+     *            the stream
+     * @param chunks
+     *            the chunk headers of the stream
+     * @param factor
+     *            time scale factor of the header times
+     * @param from
+     *            start of the overview (domain units)
+     * @param to
+     *            end of the overview (domain units)
+     * @throws ParseException
+     *             on writer error
+     */
+    private void createOverview(Stream stream, ChunkIndex chunks, long factor, long from, long to) throws ParseException {
+        if (chunks.size() == 0 || from > to)
+            return;
+        double width = Math.max(1.0, (double) (to - from + 1) / OVERVIEW_BINS);
+        int bins = (int) Math.min(OVERVIEW_BINS, Math.ceil((to - from + 1) / width));
+        double[] bytes = new double[bins];
+        for (int i = 0; i < chunks.size(); i++) {
+            long start = chunks.start(i) * factor, end = Math.max(start, chunks.end(i) * factor);
+            long size = chunks.isCompressed(i) ? chunks.uncompressedSize(i) : chunks.length(i);
+            int first = Math.min(bins - 1, (int) ((start - from) / width)), last = Math.min(bins - 1, (int) ((end - from) / width));
+            if (first == last) {
+                bytes[first] += size;
+                continue;
+            }
+            // spread by overlap with each interval
+            double duration = end - start;
+            for (int b = first; b <= last; b++) {
+                double binStart = from + b * width, binEnd = binStart + width;
+                bytes[b] += size * (Math.min(end, binEnd) - Math.max(start, binStart)) / duration;
+            }
+        }
+        IRecord.Signal signal;
+        IFloatSamplesWriter writer;
+        synchronized (recordLock) {
+            IRecord.Scope scope = recordScope(stream.scopePath != null ? OVERVIEW_SCOPE + "/" + stream.scopePath : OVERVIEW_SCOPE);
+            signal = root.addSignal(scope, stream.signalName, "Transaction data per interval (bytes, from chunk headers)", null,
+                    ISample.DATA_TYPE_FLOAT, -1, ISample.FORMAT_DEFAULT, domainBase);
+            overviewSignals.add(signal);
+            writer = (IFloatSamplesWriter) root.getWriter(signal);
+        }
+        writer.open(from);
+        for (int b = 0; b < bins; b++)
+            if (!writer.write(from + (long) (b * width), false, bytes[b]))
+                throw new ParseException("Could not write overview of stream " + stream.name);
+        writer.close(to + 1);
+        synchronized (recordLock) {
+            signal.update(writer);
+            root.changed(CHANGED_SIGNALS);
+        }
+    }
+
+    /**
+     * @return true for attribute types stored as float bits
+     */
+    static boolean isFloat(int attrType) {
+        return attrType == ATTRIBUTE_FLOATING_POINT_NUMBER || attrType == ATTRIBUTE_FIXED_POINT_INTEGER
+                || attrType == ATTRIBUTE_UNSIGNED_FIXED_POINT_INTEGER;
+    }
+
+    /**
+     * @return true for attribute types stored as dictionary id
+     */
+    static boolean isString(int attrType) {
+        return attrType == ATTRIBUTE_ENUMERATION || attrType == ATTRIBUTE_BIT_VECTOR || attrType == ATTRIBUTE_LOGIC_VECTOR
+                || attrType == ATTRIBUTE_STRING;
+    }
+
+    /**
+     * Box the raw bits of an attribute value for a StructMember.
+     *
+     * @param bits
+     *            raw value bits
+     * @param attrType
+     *            attribute type constant
+     * @return the value object
+     */
+    private Object box(long bits, int attrType) {
+        if (attrType == ATTRIBUTE_BOOLEAN)
+            return bits != 0;
+        if (isFloat(attrType))
+            return Float.intBitsToFloat((int) bits);
+        if (isString(attrType))
+            return dictionary.get((int) bits);
+        return bits;
+    }
+
+    /**
+     * Convert a boxed attribute value to the type of the slot it is written to, for attributes that occur with different types under the same
+     * name. Numbers and booleans are converted into each other, strings of a number slot are parsed and numbers of a string slot are written as
+     * text.
+     *
+     * @param value
+     *            value boxed by its own type (see box)
+     * @param slotType
+     *            attribute type of the slot
+     * @return the converted value, or null if a string isn't a valid value of the slot type
+     */
+    static Object coerce(Object value, int slotType) {
+        if (isString(slotType))
+            return value instanceof String ? value : String.valueOf(value);
+        if (value instanceof String) {
+            String text = ((String) value).trim();
+            if (slotType == ATTRIBUTE_BOOLEAN)
+                return "true".equalsIgnoreCase(text) || "1".equals(text) ? Boolean.TRUE
+                        : "false".equalsIgnoreCase(text) || "0".equals(text) ? Boolean.FALSE : null;
+            try {
+                if (isFloat(slotType))
+                    return Float.parseFloat(text);
+                return Long.parseLong(text);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        if (value instanceof Boolean)
+            value = (Boolean) value ? 1L : 0L;
+        Number number = (Number) value;
+        if (slotType == ATTRIBUTE_BOOLEAN)
+            return number.doubleValue() != 0;
+        if (isFloat(slotType))
+            return number.floatValue();
+        return number.longValue();
+    }
+
+    /**
+     * Helper method to decompress LZ4 data and return the decompressed byte array
+     *
+     * Decompresses into a pooled buffer and copies the result into an exactly sized array. Use this only where the data is retained (e.g. the chunk
+     * cache); otherwise decode the pooled buffer directly (see decompressLZ4 with destination).
+     *
+     * @param compressedData
+     *            The LZ4 compressed data
+     * @param uncompressedSize
+     *            The expected uncompressed size
+     * @return byte array containing the decompressed data
+     * @throws ParseException
+     *             If decompression fails
+     */
+    private byte[] decompressLZ4(byte[] compressedData, long uncompressedSize) throws ParseException {
+        byte[] output = buffers.acquire(lz4BufferSize(uncompressedSize));
+        try {
+            return Arrays.copyOf(output, decompressLZ4(compressedData, 0, compressedData.length, output));
+        } finally {
+            buffers.release(output);
+        }
+    }
+
+    /**
+     * Decompress LZ4 data into a given buffer, using the codec of the current thread.
+     *
+     * @param compressedData
+     *            buffer holding the LZ4 compressed data
+     * @param offset
+     *            start of the compressed data
+     * @param length
+     *            length of the compressed data
+     * @param output
+     *            destination buffer, at least lz4BufferSize(uncompressedSize) bytes
+     * @return number of decompressed bytes (starting at output[0])
+     * @throws ParseException
+     *             If decompression fails
+     */
+    static int decompressLZ4(byte[] compressedData, int offset, int length, byte[] output) throws ParseException {
+        // Decompresses LZ4-compressed data using the kanzi LZ4Codec
+        try {
+            LZ4Codec codec = LZ4_CODEC.get();
+            codec.setSize(length);
+            // Setup source and destination arrays
+            IndexedByteArray source = new IndexedByteArray(compressedData, offset);
+            IndexedByteArray destination = new IndexedByteArray(output, 0);
+            // Single-shot decompression
+            if (!codec.inverse(source, destination)) {
+                throw new ParseException("LZ4 decompression failed");
+            }
+            return destination.index;
+        } catch (ParseException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ParseException("Error during LZ4 decompression: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Compress data with LZ4, using the codec of the current thread (counterpart of decompressLZ4, used by FtrWriter).
+     *
+     * @param data
+     *            buffer holding the uncompressed data
+     * @param offset
+     *            start of the data
+     * @param length
+     *            length of the data
+     * @param output
+     *            destination buffer, at least LZ4Codec.getMaxEncodedLength(length) bytes
+     * @return number of compressed bytes (starting at output[0]), or -1 if the codec failed
+     */
+    static int compressLZ4(byte[] data, int offset, int length, byte[] output) {
+        LZ4Codec codec = LZ4_CODEC.get();
+        codec.setSize(length);
+        IndexedByteArray source = new IndexedByteArray(data, offset);
+        IndexedByteArray destination = new IndexedByteArray(output, 0);
+        if (!codec.forward(source, destination))
+            return -1;
+        return destination.index;
+    }
+
+    /**
+     * Return the maximum size of LZ4 compressed data.
+     *
+     * @param length
+     *            uncompressed length
+     * @return size of the output buffer for compressLZ4
+     */
+    static int lz4MaxCompressedSize(int length) {
+        return LZ4_CODEC.get().getMaxEncodedLength(length);
+    }
+
+    /**
+     * Return the buffer size for decompressing LZ4 data: the expected uncompressed size with a 10% safety margin in case the size estimate is
+     * slightly off.
+     *
+     * @param uncompressedSize
+     *            The expected uncompressed size
+     * @return the buffer size
+     * @throws ParseException
+     *             if the size exceeds the maximum array size
+     */
+    static int lz4BufferSize(long uncompressedSize) throws ParseException {
+        if (uncompressedSize < 0 || uncompressedSize > Integer.MAX_VALUE - 8)
+            throw new ParseException("Uncompressed size of " + uncompressedSize + " bytes exceeds the maximum array size");
+        return (int) Math.min(Integer.MAX_VALUE - 8, uncompressedSize + uncompressedSize / 10);
+    }
+}
+
+// ========================================================================================================================
+// CBOR Decoder
+// ========================================================================================================================
+/**
+ * CBOR Constants - constant values used by the CBOR format.
+ */
+class CborConstants {
+
+    // Major type 0: unsigned integers.
+    static final int TYPE_UNSIGNED_INTEGER = 0x00;
+
+    // Major type 1: negative integers.
+    static final int TYPE_NEGATIVE_INTEGER = 0x01;
+
+    // Major type 2: byte string.
+    static final int TYPE_BYTE_STRING = 0x02;
+
+    // Major type 3: text/UTF8 string.
+    static final int TYPE_TEXT_STRING = 0x03;
+
+    // Major type 4: array of items.
+    static final int TYPE_ARRAY = 0x04;
+
+    // Major type 5: map of pairs.
+    static final int TYPE_MAP = 0x05;
+
+    // Major type 6: semantic tags.
+    static final int TYPE_TAG = 0x06;
+
+    // Major type 7: floating point, simple data types.
+    static final int TYPE_FLOAT_SIMPLE = 0x07;
+
+    // Denotes a one-byte value (uint8).
+    static final int ONE_BYTE = 0x18;
+
+    // Denotes a two-byte value (uint16).
+    static final int TWO_BYTES = 0x19;
+
+    // Denotes a four-byte value (uint32).
+    static final int FOUR_BYTES = 0x1a;
+
+    // Denotes a eight-byte value (uint64).
+    static final int EIGHT_BYTES = 0x1b;
+
+    // The CBOR-encoded boolean false value.
+    static final int FALSE = 0x14;
+
+    // The CBOR-encoded boolean true value.
+    static final int TRUE = 0x15;
+
+    // The CBOR-encoded null value.
+    static final int NULL = 0x16;
+
+    // The CBOR-encoded "undefined" value.
+    static final int UNDEFINED = 0x17;
+
+    // Denotes a half-precision float (two-byte IEEE 754)
+    static final int HALF_PRECISION_FLOAT = 0x19;
+
+    // Denotes a single-precision float (four-byte IEEE 754)
+    static final int SINGLE_PRECISION_FLOAT = 0x1a;
+
+    // Denotes a double-precision float (eight-byte IEEE 754)
+    static final int DOUBLE_PRECISION_FLOAT = 0x1b;
+
+    // The CBOR-encoded "break" stop code for unlimited arrays/maps.
+    static final int BREAK = 0x1f;
+
+    // The complete initial byte of a "break" stop code.
+    static final int BREAK_BYTE = 0xff;
+
+    // Semantic tag values
+    static final int TAG_STANDARD_DATE_TIME = 0;
+
+    static final int TAG_EPOCH_DATE_TIME = 1;
+
+    static final int TAG_POSITIVE_BIGINT = 2;
+
+    static final int TAG_NEGATIVE_BIGINT = 3;
+
+    static final int TAG_DECIMAL_FRACTION = 4;
+
+    static final int TAG_CBOR_ENCODED = 24;
+}
+
+/**
+ * CborType - Represents the various major types in CBOR
+ */
+class CborType {
+
+    private final int major;
+
+    private final int additional;
+
+    private CborType(int major, int additional) {
+        this.major = major;
+        this.additional = additional;
+    }
+
+    /**
+     * Returns a descriptive string for the given major type.
+     */
+    public static String getName(int mt) {
+        // Handle break type (0xff) as a special case
+        if ((mt & 0xff) == 0xff) {
+            return "break";
+        }
+        // Get only the major type bits
+        int majorType = mt & 0x07;
+        switch (majorType) {
+        case CborConstants.TYPE_ARRAY:
+            return "array";
+        case CborConstants.TYPE_BYTE_STRING:
+            return "byte string";
+        case CborConstants.TYPE_FLOAT_SIMPLE:
+            return "float/simple value";
+        case CborConstants.TYPE_MAP:
+            return "map";
+        case CborConstants.TYPE_NEGATIVE_INTEGER:
+            return "negative integer";
+        case CborConstants.TYPE_TAG:
+            return "tag";
+        case CborConstants.TYPE_TEXT_STRING:
+            return "text string";
+        case CborConstants.TYPE_UNSIGNED_INTEGER:
+            return "unsigned integer";
+        default:
+            throw new IllegalArgumentException("Invalid major type: " + mt);
+        }
+    }
+
+    /**
+     * Decodes a given byte value to a {@link CborType} value.
+     */
+    public static CborType valueOf(int i) {
+        // Handle break type (0xff) specially to avoid major type calculation issues
+        if ((i & 0xff) == 0xff) {
+            return new CborType(CborConstants.TYPE_FLOAT_SIMPLE, CborConstants.BREAK);
+        }
+        return new CborType((i & 0xff) >>> 5, i & 0x1f);
+    }
+
+    /**
+     * @return the major type, as integer value from [0..7].
+     */
+    public int getMajorType() {
+        return major;
+    }
+
+    /**
+     * @return the additional information of this type, as integer value from [0..31].
+     */
+    public int getAdditionalInfo() {
+        return additional;
+    }
+
+    /**
+     * @return <code>true</code> if this type allows for an infinite-length payload
+     */
+    public boolean isBreakAllowed() {
+        return major == CborConstants.TYPE_ARRAY || major == CborConstants.TYPE_BYTE_STRING || major == CborConstants.TYPE_MAP
+                || major == CborConstants.TYPE_TEXT_STRING;
+    }
+
+    /**
+     * Determines whether the major type of a given {@link CborType} equals the major type of this one
+     */
+    public boolean isEqualType(CborType other) {
+        if (other == null) {
+            throw new IllegalArgumentException("Parameter cannot be null!");
+        }
+        return major == other.major;
+    }
+
+    /**
+     * Determines whether the major type of a given byte value equals the major type of this one
+     */
+    public boolean isEqualType(int encoded) {
+        return major == ((encoded & 0xff) >>> 5);
+    }
+
+    @Override
+    public String toString() {
+        return getName(major) + "(" + additional + ")";
+    }
+}
+
+class CborDecoder {
+
+    // ---------------------------------------------------------------------
+    // Fields / construction
+    // ---------------------------------------------------------------------
+    private final PushbackInputStream inputStream;
+
+    // Memory mapped source (null if reading from a stream or a byte array)
+    private final MappedFile mappedFile;
+
+    // Next mapped file position to be transferred into the buffer
+    private long mappedPos;
+
+    // End of the mapped region (exclusive)
+    private long mappedLimit;
+
+    private byte[] buffer;
+
+    private int pos = 0;
+
+    private int bufferSize = 0;
+
+    // Absolute source position of buffer[0]
+    private long base = 0;
+
+    // 64KB maximum chunk size
+    private static final int MAX_CHUNK_SIZE = 65536;
+
+    // Largest byte array the decoder will allocate
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private boolean endOfInput = false;
+
+    // Flag to indicate if we're using a direct byte array
+    private boolean directBuffer = false;
+
+    /**
+     * Creates a new decoder that reads data in chunks from the input stream.
+     */
+    public CborDecoder(InputStream is) throws IOException {
+        if (is == null)
+            throw new IllegalArgumentException("InputStream cannot be null!");
+        this.inputStream = is instanceof PushbackInputStream ? (PushbackInputStream) is : new PushbackInputStream(is, 1);
+        this.mappedFile = null;
+        this.buffer = new byte[MAX_CHUNK_SIZE];
+        this.directBuffer = false;
+        // Initialize with first chunk of data
+        readMoreData();
+    }
+
+    /**
+     * Creates a new decoder that reads data directly from a byte array. This constructor is more efficient when all data is already available.
+     *
+     * @param data
+     *            The byte array containing CBOR data
+     */
+    public CborDecoder(byte[] data) {
+        if (data == null)
+            throw new IllegalArgumentException("Data byte array cannot be null!");
+        // No input stream is needed
+        this.inputStream = null;
+        this.mappedFile = null;
+        this.buffer = data;
+        this.bufferSize = data.length;
+        // We're using the array directly
+        this.directBuffer = true;
+        this.pos = 0;
+    }
+
+    /**
+     * Creates a new decoder that reads a region of a byte array without copying it. Positions are relative to the region start.
+     *
+     * @param data
+     *            The byte array containing CBOR data
+     * @param offset
+     *            Start of the region
+     * @param length
+     *            Length of the region in bytes
+     */
+    public CborDecoder(byte[] data, int offset, int length) {
+        if (data == null)
+            throw new IllegalArgumentException("Data byte array cannot be null!");
+        if (offset < 0 || length < 0 || offset + length > data.length)
+            throw new IllegalArgumentException("Invalid region " + offset + "+" + length);
+        this.inputStream = null;
+        this.mappedFile = null;
+        this.buffer = data;
+        this.pos = offset;
+        this.bufferSize = offset + length;
+        this.base = -offset;
+        this.directBuffer = true;
+    }
+
+    /**
+     * Creates a new decoder that reads a region of a memory mapped file. Data is transferred window by window from the mapping, so regions of any size
+     * (also beyond 2GB) can be decoded without holding them on the heap.
+     *
+     * @param file
+     *            The mapped file
+     * @param offset
+     *            Absolute start position of the region
+     * @param length
+     *            Length of the region in bytes
+     */
+    public CborDecoder(MappedFile file, long offset, long length) {
+        if (file == null)
+            throw new IllegalArgumentException("Mapped file cannot be null!");
+        if (offset < 0 || length < 0 || offset + length > file.size())
+            throw new IllegalArgumentException("Invalid mapped region " + offset + "+" + length);
+        this.inputStream = null;
+        this.mappedFile = file;
+        this.mappedPos = offset;
+        this.mappedLimit = offset + length;
+        this.base = offset;
+        this.buffer = new byte[(int) Math.min(MAX_CHUNK_SIZE, Math.max(length, 16))];
+        this.directBuffer = false;
+    }
+
+    /**
+     * Attempts to read more data from the input stream into the buffer. Returns true if data was read, false if end of stream was reached. When using
+     * a direct byte array (directBuffer=true), this method returns false as no more data needs to be read.
+     */
+    private boolean readMoreData() throws IOException {
+        // Fill buffer when using a streaming or mapped input. If directBuffer (byte[] provided) is used,
+        // reading more is not necessary. When data remains in buffer move it to start to free space.
+        if (directBuffer || endOfInput)
+            return false;
+        // If there's data left in the buffer, move it to the beginning
+        if (pos > 0 && pos < bufferSize) {
+            System.arraycopy(buffer, pos, buffer, 0, bufferSize - pos);
+            bufferSize -= pos;
+            base += pos;
+            pos = 0;
+        } else if (pos >= bufferSize) {
+            // Reset buffer if all data has been consumed
+            base += bufferSize;
+            bufferSize = 0;
+            pos = 0;
+        }
+        if (bufferSize == buffer.length)
+            return false;
+        // Transfer the next window from the mapping
+        if (mappedFile != null) {
+            int n = (int) Math.min(buffer.length - bufferSize, mappedLimit - mappedPos);
+            if (n <= 0) {
+                endOfInput = true;
+                return false;
+            }
+            mappedFile.get(mappedPos, buffer, bufferSize, n);
+            mappedPos += n;
+            bufferSize += n;
+            return true;
+        }
+        // Read more data into the buffer
+        int bytesRead = inputStream.read(buffer, bufferSize, buffer.length - bufferSize);
+        if (bytesRead == -1) {
+            endOfInput = true;
+            return false;
+        }
+        bufferSize += bytesRead;
+        return true;
+    }
+
+    // ---------------------------------------------------------------------
+    // Position helpers
+    // ---------------------------------------------------------------------
+    /**
+     * Return the current read position as absolute byte offset of the source (stream, mapped file or byte array).
+     *
+     * @return current byte position
+     */
+    public long getPos() {
+        return base + pos;
+    }
+
+    /**
+     * Ensures that at least n bytes are available in the buffer. Tries to read more data if needed and fails if not enough data is available.
+     *
+     * @param n
+     *            Number of bytes needed
+     * @throws IOException
+     *             if an I/O error occurs or if there's not enough data
+     */
+    private void ensureData(long n) throws IOException {
+        // Ensure 'n' bytes available in buffer; try to read more chunks if needed.
+        if (pos + n <= bufferSize)
+            return;
+        // Grow the window if the requested item is larger than the buffer
+        if (!directBuffer && n > buffer.length) {
+            if (n > MAX_ARRAY_SIZE)
+                fail("Item of " + n + " bytes exceeds the maximum array size");
+            byte[] grown = new byte[(int) Math.min(MAX_ARRAY_SIZE, Math.max(n, 2L * buffer.length))];
+            System.arraycopy(buffer, pos, grown, 0, bufferSize - pos);
+            base += pos;
+            bufferSize -= pos;
+            pos = 0;
+            buffer = grown;
+        }
+        // Try to read more data
+        while (pos + n > bufferSize && readMoreData())
+            ;
+        // Fail if we still don't have enough data
+        if (pos + n > bufferSize) {
+            // If still not enough data, this is an unexpected EOF
+            fail("Unexpected end of input, needed " + n + " more bytes");
+        }
+    }
+
+    /**
+     * Read a single byte from the buffer, advancing the position.
+     *
+     * Ensures at least one byte is available, reading more from the underlying stream if necessary.
+     *
+     * @return unsigned byte value in range [0..255]
+     * @throws IOException
+     *             on I/O or EOF
+     */
+    private int readByte() throws IOException {
+        ensureData(1);
+        return buffer[pos++] & 0xff;
+    }
+
+    /**
+     * Unread the last consumed byte (move position back by one) or push it back to the stream when at the buffer beginning.
+     *
+     * Note: this method assumes the previously returned byte is the one to unread.
+     */
+    private void unreadByte() {
+        if (pos == 0) {
+            try {
+                // If we're at the start of the buffer, use the PushbackInputStream
+                inputStream.unread(buffer[0] & 0xff);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot unread byte", e);
+            }
+        } else {
+            // Simply move back one position in our buffer
+            --pos;
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // Public high‑level API
+    // ---------------------------------------------------------------------
+
+    /**
+     * Look at, but do not consume, the next major type.
+     */
+    public CborType peekType() throws IOException {
+        int b = peek();
+        return b < 0 ? null : CborType.valueOf(b);
+    }
+
+    /**
+     * Look at, but do not consume, the next initial byte.
+     *
+     * @return initial byte in [0..255] or -1 at the end of input
+     * @throws IOException
+     *             on I/O error
+     */
+    public int peek() throws IOException {
+        if (pos >= bufferSize && !readMoreData())
+            return -1;
+        return buffer[pos] & 0xff;
+    }
+
+    /**
+     * Look at, but do not consume, the major type of the next item.
+     *
+     * @return major type in [0..7] or -1 at the end of input
+     * @throws IOException
+     *             on I/O error
+     */
+    public int peekMajorType() throws IOException {
+        int b = peek();
+        return b < 0 ? -1 : b >>> 5;
+    }
+
+    /**
+     * Check whether the next byte is the break code of an indefinite-length item. The break is not consumed.
+     *
+     * @return true if the next byte is a break
+     * @throws IOException
+     *             on I/O error
+     */
+    public boolean isBreak() throws IOException {
+        return peek() == CborConstants.BREAK_BYTE;
+    }
+
+    /**
+     * Check whether more input is available.
+     *
+     * @return true if at least one more byte can be read
+     * @throws IOException
+     *             on I/O error
+     */
+    public boolean hasMore() throws IOException {
+        return peek() >= 0;
+    }
+
+    /**
+     * Consume the break code of an indefinite-length item.
+     *
+     * @throws IOException
+     *             on I/O error or if the next byte is not a break
+     */
+    public void readBreak() throws IOException {
+        if (readByte() != CborConstants.BREAK_BYTE)
+            fail("Expected break");
+    }
+
+    /**
+     * Skip a complete item including nested items and tags, without materializing it.
+     *
+     * @throws IOException
+     *             on I/O or format error
+     */
+    public void skipItem() throws IOException {
+        int ib = readByte();
+        int major = ib >>> 5;
+        int ai = ib & 0x1f;
+        switch (major) {
+        case CborConstants.TYPE_UNSIGNED_INTEGER:
+        case CborConstants.TYPE_NEGATIVE_INTEGER:
+            readUInt(ai, false);
+            break;
+        case CborConstants.TYPE_BYTE_STRING:
+        case CborConstants.TYPE_TEXT_STRING: {
+            long len = readUInt(ai, true);
+            if (len >= 0)
+                skip(len);
+            else {
+                // indefinite-length: definite-length chunks until break
+                while (!isBreak())
+                    skipItem();
+                readBreak();
+            }
+            break;
+        }
+        case CborConstants.TYPE_ARRAY:
+        case CborConstants.TYPE_MAP: {
+            long len = readUInt(ai, true);
+            if (len >= 0) {
+                long items = major == CborConstants.TYPE_MAP ? len * 2 : len;
+                for (long i = 0; i < items; i++)
+                    skipItem();
+            } else {
+                while (!isBreak())
+                    skipItem();
+                readBreak();
+            }
+            break;
+        }
+        case CborConstants.TYPE_TAG:
+            readUInt(ai, false);
+            skipItem();
+            break;
+        default:
+            // simple values and floats
+            switch (ai) {
+            case CborConstants.ONE_BYTE:
+                skip(1);
+                break;
+            case CborConstants.HALF_PRECISION_FLOAT:
+                skip(2);
+                break;
+            case CborConstants.SINGLE_PRECISION_FLOAT:
+                skip(4);
+                break;
+            case CborConstants.DOUBLE_PRECISION_FLOAT:
+                skip(8);
+                break;
+            case CborConstants.BREAK:
+                fail("Unexpected break");
+            }
+        }
+    }
+
+    /**
+     * Read the length of an array major type (returns -1 for indefinite-length).
+     *
+     * @return length of the array or -1 for indefinite-length arrays
+     * @throws IOException
+     *             on I/O or format error
+     */
+    public long readArrayLength() throws IOException {
+        return readMajorTypeWithSize(CborConstants.TYPE_ARRAY);
+    }
+
+    /**
+     * Read the length of a map major type (returns -1 for indefinite-length).
+     *
+     * @return length of the map or -1 for indefinite-length maps
+     * @throws IOException
+     *             on I/O or format error
+     */
+    public long readMapLength() throws IOException {
+        return readMajorTypeWithSize(CborConstants.TYPE_MAP);
+    }
+
+    /**
+     * Read a text (UTF-8) string value.
+     *
+     * Supports only definite-length strings; indefinite-length text strings are rejected.
+     *
+     * @return decoded Java String
+     * @throws IOException
+     *             on I/O or format error
+     */
+    public String readTextString() throws IOException {
+        long len = readMajorTypeWithSize(CborConstants.TYPE_TEXT_STRING);
+        if (len < 0)
+            fail("Indefinite‑length text not supported");
+        if (len > MAX_ARRAY_SIZE)
+            fail("Text string of " + len + " bytes exceeds the maximum array size");
+        ensureData(len);
+        String s = new String(buffer, pos, (int) len, StandardCharsets.UTF_8);
+        pos += (int) len;
+        return s;
+    }
+
+    /**
+     * Read the header of a text string and return its length in bytes. The UTF-8 payload can then be read undecoded with readSlice().
+     *
+     * Supports only definite-length strings; indefinite-length text strings are rejected.
+     *
+     * @return payload length in bytes
+     * @throws IOException
+     *             on I/O or format error
+     */
+    public long readTextStringLength() throws IOException {
+        long len = readMajorTypeWithSize(CborConstants.TYPE_TEXT_STRING);
+        if (len < 0)
+            fail("Indefinite‑length text not supported");
+        return len;
+    }
+
+    /**
+     * Read a byte string (raw bytes).
+     *
+     * Supports only definite-length byte strings; indefinite-length byte strings are rejected.
+     *
+     * @return byte[] with the requested bytes
+     * @throws IOException
+     *             on I/O or format error
+     */
+    public byte[] readByteString() throws IOException {
+        return readBytes(readByteStringLength());
+    }
+
+    /**
+     * Read the header of a byte string and return its length. The decoder is positioned at the first payload byte, so the payload can either be
+     * read with readBytes() or passed over with skip().
+     *
+     * Supports only definite-length byte strings; indefinite-length byte strings are rejected.
+     *
+     * @return payload length in bytes
+     * @throws IOException
+     *             on I/O or format error
+     */
+    public long readByteStringLength() throws IOException {
+        long len = readMajorTypeWithSize(CborConstants.TYPE_BYTE_STRING);
+        if (len < 0)
+            fail("Indefinite‑length byte string not supported");
+        return len;
+    }
+
+    /**
+     * Read the payload of a byte string as a slice of the backing buffer without copying it. The slice starts at the returned offset of
+     * getBuffer() and is valid until the next read from this decoder.
+     *
+     * @param len
+     *            payload length in bytes (see readByteStringLength())
+     * @return offset of the slice in getBuffer()
+     * @throws IOException
+     *             on I/O or EOF
+     */
+    public int readSlice(long len) throws IOException {
+        if (len > MAX_ARRAY_SIZE)
+            fail("Byte string of " + len + " bytes exceeds the maximum array size");
+        ensureData(len);
+        int offset = pos;
+        pos += (int) len;
+        return offset;
+    }
+
+    /**
+     * Return the backing buffer for slices returned by readSlice().
+     *
+     * @return the backing buffer
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return true if the decoder reads a byte array completely held in memory (see getBufferPos(), getBufferLimit())
+     */
+    public boolean isDirect() {
+        return directBuffer;
+    }
+
+    /**
+     * @return the read position in the backing buffer
+     */
+    public int getBufferPos() {
+        return pos;
+    }
+
+    /**
+     * @return the end of the readable data in the backing buffer
+     */
+    public int getBufferLimit() {
+        return bufferSize;
+    }
+
+    /**
+     * Create a decoder of the remaining data, so it can be read twice. Only for decoders of byte arrays and mapped regions.
+     *
+     * @return decoder positioned at the current position
+     */
+    public CborDecoder duplicate() {
+        if (directBuffer)
+            return new CborDecoder(buffer, pos, bufferSize - pos);
+        if (mappedFile != null)
+            return new CborDecoder(mappedFile, base + pos, mappedLimit - base - pos);
+        throw new IllegalStateException("Stream decoder can not be duplicated");
+    }
+
+    /**
+     * Read the given number of raw bytes.
+     *
+     * @param len
+     *            number of bytes
+     * @return byte[] with the requested bytes
+     * @throws IOException
+     *             on I/O or EOF
+     */
+    public byte[] readBytes(long len) throws IOException {
+        if (len > MAX_ARRAY_SIZE)
+            fail("Byte string of " + len + " bytes exceeds the maximum array size");
+        ensureData(len);
+        // Use Arrays.copyOfRange for cleaner code and potentially better optimization
+        byte[] out = Arrays.copyOfRange(buffer, pos, pos + (int) len);
+        pos += (int) len;
+        return out;
+    }
+
+    /**
+     * Skip the given number of raw bytes without transferring them. With a mapped source the skipped range is never touched.
+     *
+     * @param n
+     *            number of bytes to skip
+     * @throws IOException
+     *             on I/O or EOF
+     */
+    public void skip(long n) throws IOException {
+        // consume from the buffer first
+        int inBuffer = (int) Math.min(n, bufferSize - pos);
+        pos += inBuffer;
+        long remaining = n - inBuffer;
+        if (remaining <= 0)
+            return;
+        // the buffer is drained now: continue at the source
+        base += bufferSize;
+        pos = bufferSize = 0;
+        if (mappedFile != null) {
+            if (remaining > mappedLimit - mappedPos)
+                fail("Unexpected end of input, skipping " + remaining + " bytes");
+            mappedPos += remaining;
+            base += remaining;
+        } else if (inputStream != null) {
+            while (remaining > 0) {
+                long skipped = inputStream.skip(remaining);
+                if (skipped <= 0) {
+                    // skip is not guaranteed to make progress; fall back to reading
+                    if (inputStream.read() < 0)
+                        fail("Unexpected end of input, skipping " + remaining + " bytes");
+                    skipped = 1;
+                }
+                remaining -= skipped;
+                base += skipped;
+            }
+        } else
+            fail("Unexpected end of input, skipping " + remaining + " bytes");
+    }
+
+    /**
+     * Read a semantic tag value.
+     *
+     * @return tag value as unsigned long
+     * @throws IOException
+     *             on I/O or format error
+     */
+    public long readTag() throws IOException {
+        return readUInt(readMajorType(CborConstants.TYPE_TAG), false);
+    }
+
+    /**
+     * Read an integer value (positive or negative).
+     *
+     * This is a fast path that verifies major type and dispatches to readUInt.
+     *
+     * @return decoded integer (negative integers returned as negative numbers)
+     * @throws IOException
+     *             on I/O or format error
+     */
+    public long readInt() throws IOException {
+        int ib = readByte();
+        int major = (ib >>> 5) & 0x07;
+        int ai = ib & 0x1f;
+        if (major != CborConstants.TYPE_UNSIGNED_INTEGER && major != CborConstants.TYPE_NEGATIVE_INTEGER)
+            fail("Expected integer major type, got " + CborType.getName(major));
+        long n = readUInt(ai, false);
+        return (major == CborConstants.TYPE_UNSIGNED_INTEGER) ? n : -1L - n;
+    }
+
+    /**
+     * Read a CBOR boolean value.
+     *
+     * @return true or false
+     * @throws IOException
+     *             on I/O or format error
+     */
+    public boolean readBoolean() throws IOException {
+        int ib = readByte();
+        int major = (ib >>> 5) & 0x07;
+        if (major != CborConstants.TYPE_FLOAT_SIMPLE)
+            fail("Expected simple value, got " + CborType.getName(major));
+        int ai = ib & 0x1f;
+        if (ai == CborConstants.TRUE)
+            return true;
+        if (ai == CborConstants.FALSE)
+            return false;
+        fail("Additional‑info " + ai + " is not a boolean");
+        // unreachable
+        return false;
+    }
+
+    /**
+     * Read a floating-point value (half/single/double) or integer coerced to float.
+     *
+     * @return float value
+     * @throws IOException
+     *             on I/O or format error
+     */
+    public float readFloat() throws IOException {
+        int ib = readByte();
+        int major = (ib >>> 5) & 0x07;
+        int ai = ib & 0x1f;
+        if (major == CborConstants.TYPE_FLOAT_SIMPLE) {
+            switch (ai) {
+            case CborConstants.HALF_PRECISION_FLOAT:
+                return halfToFloat(readUInt16());
+            case CborConstants.SINGLE_PRECISION_FLOAT:
+                return Float.intBitsToFloat((int) readUInt32());
+            case CborConstants.DOUBLE_PRECISION_FLOAT:
+                return (float) Double.longBitsToDouble(readUInt64());
+            default:
+                fail("Unexpected additional‑info " + ai + " for float");
+            }
+        } else if (major == CborConstants.TYPE_UNSIGNED_INTEGER || major == CborConstants.TYPE_NEGATIVE_INTEGER) {
+            unreadByte();
+            return (float) readInt();
+        }
+        fail("Expected float/int, got " + CborType.getName(major));
+        // unreachable
+        return 0f;
+    }
+
+    /**
+     * Read a raw byte from the stream (unsigned).
+     *
+     * @return byte value in [0..255]
+     * @throws IOException
+     *             on I/O or format error
+     */
+    public int readRawByte() throws IOException {
+        return readByte();
+    }
+
+    /**
+     * Unread a raw byte value (compatibility API).
+     *
+     * This simply calls the internal unreadByte() helper.
+     *
+     * @param b
+     *            ignored (kept for API compatibility)
+     */
+    public void unreadByte(int b) {
+        unreadByte();
+    }
+
+    // ---------------------------------------------------------------------
+    // Low‑level helpers
+    // ---------------------------------------------------------------------
+
+    /**
+     * Signal a parsing failure by throwing an IOException with position info.
+     *
+     * @param message
+     *            failure message
+     * @throws IOException
+     *             always
+     */
+    private void fail(String message) throws IOException {
+        throw new IOException(message + " @pos=" + getPos());
+    }
+
+    /**
+     * Read and validate major type byte, returning the additional-info field.
+     *
+     * @param expectedMajor
+     *            expected major type constant
+     * @return additional-info value
+     * @throws IOException
+     *             on I/O or unexpected major type
+     */
+    private int readMajorType(int expectedMajor) throws IOException {
+        int ib = readByte();
+        int major = (ib >>> 5) & 0x07;
+        if (major != expectedMajor)
+            fail("Unexpected major " + CborType.getName(major) + ", expected " + CborType.getName(expectedMajor));
+        return ib & 0x1f;
+    }
+
+    /**
+     * Read major type and interpret size information, supporting indefinite-length.
+     *
+     * @param major
+     *            expected major type constant
+     * @return length or -1 for indefinite-length
+     * @throws IOException
+     *             on I/O or format error
+     */
+    private long readMajorTypeWithSize(int major) throws IOException {
+        return readUInt(readMajorType(major), true);
+    }
+
+    /**
+     * Decode an unsigned integer value from additional-info and following bytes.
+     *
+     * Supports the CBOR "break" additional-info (returns -1 when breakAllowed==true).
+     *
+     * @param ai
+     *            additional-info nibble
+     * @param breakAllowed
+     *            permit break code to return -1
+     * @return decoded unsigned integer or -1 if break encountered and allowed
+     * @throws IOException
+     *             on I/O or format error
+     */
+    private long readUInt(int ai, boolean breakAllowed) throws IOException {
+        if (ai < CborConstants.ONE_BYTE) {
+            return ai;
+        }
+        switch (ai) {
+        case CborConstants.ONE_BYTE:
+            return readByte();
+        case CborConstants.TWO_BYTES:
+            return readUInt16();
+        case CborConstants.FOUR_BYTES:
+            return readUInt32();
+        case CborConstants.EIGHT_BYTES:
+            return readUInt64();
+        case CborConstants.BREAK:
+            if (breakAllowed)
+                return -1;
+        }
+        fail("Illegal additional‑info value " + ai);
+        // unreachable
+        return 0;
+    }
+
+    /**
+     * Read a 16-bit unsigned integer.
+     *
+     * @return value in range [0..65535]
+     * @throws IOException
+     *             on I/O or EOF
+     */
+    private int readUInt16() throws IOException {
+        ensureData(2);
+        // Combine operations to reduce variable assignments
+        int result = ((buffer[pos] & 0xff) << 8) | (buffer[pos + 1] & 0xff);
+        pos += 2;
+        return result;
+    }
+
+    /**
+     * Read a 32-bit unsigned integer and return as long.
+     *
+     * @return unsigned 32-bit value as long
+     * @throws IOException
+     *             on I/O or EOF
+     */
+    private long readUInt32() throws IOException {
+        // Read 4 bytes as unsigned 32-bit integer; use local vars for faster JIT optimization
+        ensureData(4);
+        int p = pos;
+        byte[] buf = buffer;
+        long result = ((buf[p] & 0xffL) << 24) | ((buf[p + 1] & 0xffL) << 16) | ((buf[p + 2] & 0xffL) << 8) | (buf[p + 3] & 0xffL);
+        pos = p + 4;
+        return result & 0xffffffffL;
+    }
+
+    /**
+     * Read a 64-bit unsigned integer.
+     *
+     * @return 64-bit value
+     * @throws IOException
+     *             on I/O or EOF
+     */
+    private long readUInt64() throws IOException {
+        // Read 8 bytes as unsigned 64-bit integer; same optimization pattern as readUInt32
+        ensureData(8);
+        int p = pos;
+        byte[] buf = buffer;
+        long result = ((buf[p] & 0xffL) << 56) | ((buf[p + 1] & 0xffL) << 48) | ((buf[p + 2] & 0xffL) << 40) | ((buf[p + 3] & 0xffL) << 32)
+                | ((buf[p + 4] & 0xffL) << 24) | ((buf[p + 5] & 0xffL) << 16) | ((buf[p + 6] & 0xffL) << 8) | (buf[p + 7] & 0xffL);
+        pos = p + 8;
+        return result;
+    }
+
+    /**
+     * Convert a CBOR half-precision float (16-bit) to Java float.
+     *
+     * Handles zero, subnormal, normal, infinity and NaN cases.
+     *
+     * @param bits
+     *            16-bit half float bits
+     * @return 32-bit IEEE float value
+     */
+    private static float halfToFloat(int bits) {
+        // Convert 16-bit IEEE754-half to 32-bit float.
+        // Handles zero, subnormal, normalized and special cases (Inf/NaN).
+        int s = (bits >>> 15) & 0x1;
+        int e = (bits >>> 10) & 0x1f;
+        int f = bits & 0x3ff;
+        if (e == 0) {
+            // ±0 or subnormal numbers
+            if (f == 0)
+                return s == 1 ? -0.0f : 0.0f;
+            return (float) ((s == 1 ? -1 : 1) * f * Math.pow(2, -24)); // subnormal scaling
+        }
+        if (e == 31) {
+            // infinity or NaN
+            return f == 0 ? (s == 1 ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY) : Float.NaN;
+        }
+        // Normalized value
+        return (float) ((s == 1 ? -1 : 1) * (1 + f / 1024.0) * Math.pow(2, e - 15));
+    }
+}
+// ========================================================================================================================
+// Mapped File
+// ========================================================================================================================
+/**
+ * MappedFile - Read-only memory mapping of a (possibly huge) file.
+ *
+ * A single MappedByteBuffer is limited to 2GB, so the file is mapped in segments of 1GB. Reads spanning a segment border are split transparently.
+ * The mapping stays valid after the file channel has been closed.
+ */
+class MappedFile {
+
+    // Segment size as power of 2 (1GB)
+    private static final int SEGMENT_SHIFT = 30;
+
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    // Mapped file (may be null if mapped from a channel only)
+    private final File file;
+
+    // Mapped size in bytes
+    private final long size;
+
+    // Mapped segments
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * Maps the given file.
+     *
+     * @param file
+     *            the file to map
+     * @throws IOException
+     *             if the file cannot be opened or mapped
+     */
+    MappedFile(File file) throws IOException {
+        this(file, FileChannel.open(file.toPath(), StandardOpenOption.READ));
+    }
+
+    /**
+     * Maps the content of the given channel. The channel is closed after mapping.
+     *
+     * @param file
+     *            the file behind the channel (optional)
+     * @param channel
+     *            the channel to map
+     * @throws IOException
+     *             if the channel cannot be mapped
+     */
+    MappedFile(File file, FileChannel channel) throws IOException {
+        this.file = file;
+        try {
+            this.size = channel.size();
+            int count = (int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+            this.segments = new MappedByteBuffer[count];
+            for (int n = 0; n < count; n++) {
+                long start = (long) n << SEGMENT_SHIFT;
+                segments[n] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return the mapped file or null if unknown
+     */
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the mapped size in bytes
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Read a single byte.
+     *
+     * @param pos
+     *            absolute position
+     * @return unsigned byte value in range [0..255]
+     */
+    int get(long pos) {
+        return segments[(int) (pos >>> SEGMENT_SHIFT)].get((int) (pos & SEGMENT_MASK)) & 0xff;
+    }
+
+    /**
+     * Copy a range of the mapping into a byte array.
+     *
+     * @param pos
+     *            absolute position
+     * @param dst
+     *            destination array
+     * @param offset
+     *            destination offset
+     * @param length
+     *            number of bytes to copy
+     */
+    void get(long pos, byte[] dst, int offset, int length) {
+        while (length > 0) {
+            // duplicate to keep the shared segment position untouched (thread safety)
+            ByteBuffer segment = segments[(int) (pos >>> SEGMENT_SHIFT)].duplicate();
+            int segmentPos = (int) (pos & SEGMENT_MASK);
+            int n = Math.min(length, segment.limit() - segmentPos);
+            segment.position(segmentPos);
+            segment.get(dst, offset, n);
+            pos += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Copy a range of the mapping into a new byte array.
+     *
+     * @param pos
+     *            absolute position
+     * @param length
+     *            number of bytes
+     * @return the bytes
+     * @throws IOException
+     *             if the range is invalid or too large for an array
+     */
+    byte[] read(long pos, long length) throws IOException {
+        if (pos < 0 || length < 0 || pos + length > size)
+            throw new IOException("Invalid mapped range " + pos + "+" + length);
+        if (length > Integer.MAX_VALUE - 8)
+            throw new IOException("Mapped range of " + length + " bytes exceeds the maximum array size");
+        byte[] bytes = new byte[(int) length];
+        get(pos, bytes, 0, (int) length);
+        return bytes;
+    }
+}
+
+// ========================================================================================================================
+// Id Table
+// ========================================================================================================================
+/**
+ * IdTable - Table of objects by FTR id (stream or generator id).
+ *
+ * FTR writers number streams and generators densely, so ids index an array directly, without boxing the id on each lookup and without a map
+ * entry per object; the array grows with the largest id. Ids far beyond the number of entries (sparse numbering) or beyond the array limit are
+ * kept in a map, so a few large ids do not allocate a huge array.
+ *
+ * @param <T>
+ *            object type
+ */
+class IdTable<T> {
+
+    // Largest dense array length
+    private static final int MAX_DENSE = 1 << 26;
+
+    // Slack of the dense array beyond the number of entries
+    private static final int DENSE_SLACK = 1024;
+
+    private static final Object[] EMPTY = new Object[0];
+
+    // Objects by id (dense ids)
+    private Object[] dense = EMPTY;
+
+    // Objects by id (sparse ids), or null
+    private HashMap<Long, T> sparse;
+
+    // Number of entries
+    private int size;
+
+    /**
+     * @param id
+     *            the id
+     * @return the object or null
+     */
+    @SuppressWarnings("unchecked")
+    T get(long id) {
+        if (id >= 0 && id < dense.length)
+            return (T) dense[(int) id];
+        return sparse != null ? sparse.get(id) : null;
+    }
+
+    /**
+     * @param id
+     *            the id
+     * @return true if an object is stored for the id
+     */
+    boolean containsKey(long id) {
+        return get(id) != null;
+    }
+
+    /**
+     * Store an object.
+     *
+     * @param id
+     *            the id
+     * @param value
+     *            the object (not null)
+     */
+    void put(long id, T value) {
+        if (id >= dense.length && id >= 0 && id < MAX_DENSE && id < 2L * size + DENSE_SLACK)
+            dense = Arrays.copyOf(dense, (int) Math.min(MAX_DENSE, Math.max(id + 1, 2L * dense.length)));
+        if (id >= 0 && id < dense.length) {
+            if (dense[(int) id] == null)
+                size++;
+            dense[(int) id] = value;
+        } else {
+            if (sparse == null)
+                sparse = new HashMap<>();
+            if (sparse.put(id, value) == null)
+                size++;
+        }
+    }
+
+    /**
+     * @return number of entries
+     */
+    int size() {
+        return size;
+    }
+}
+
+// ========================================================================================================================
+// String Dictionary
+// ========================================================================================================================
+/**
+ * StringDictionary - String dictionary of an FTR file, stored as UTF-8 bytes in one arena.
+ *
+ * Entries are appended undecoded with an offset table, so an entry costs its UTF-8 bytes plus a few bytes of table instead of a String object.
+ * An entry is decoded when it is first asked for (stream, generator and attribute names, enumeration and string values that are written) and the
+ * String is kept, so a dictionary id always maps to the same String instance: writers mapping values to enumerations hash each distinct value only
+ * once. Entries of filtered streams, attributes or values that never occur are never decoded.
+ *
+ * Entries are only added while no decoding thread reads the dictionary. Decoded strings are cached without locking; a racing decode of the same
+ * entry creates an equal String.
+ */
+class StringDictionary {
+
+    // UTF-8 bytes of all entries
+    private byte[] arena = new byte[4096];
+
+    // Start of each entry in the arena (offsets[size] is the end of the last entry)
+    private int[] offsets = new int[257];
+
+    // Decoded entries (null until asked for)
+    private String[] strings = new String[256];
+
+    // Number of entries
+    private int size;
+
+    /**
+     * @return number of entries
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return bytes held by the arena
+     */
+    long bytes() {
+        return offsets[size];
+    }
+
+    /**
+     * Append an entry.
+     *
+     * @param utf8
+     *            buffer with the UTF-8 bytes of the entry
+     * @param offset
+     *            start of the entry in the buffer
+     * @param length
+     *            entry length in bytes
+     * @throws ParseException
+     *             if the arena exceeds the maximum array size
+     */
+    void add(byte[] utf8, int offset, int length) throws ParseException {
+        int end = offsets[size];
+        if ((long) end + length > Integer.MAX_VALUE - 8)
+            throw new ParseException("String dictionary exceeds the maximum array size");
+        if (end + length > arena.length)
+            arena = Arrays.copyOf(arena, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(end + length, (long) arena.length * 2)));
+        if (size + 1 >= offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            strings = Arrays.copyOf(strings, offsets.length - 1);
+        }
+        System.arraycopy(utf8, offset, arena, end, length);
+        offsets[++size] = end + length;
+    }
+
+    /**
+     * Remove the entries from the given size on (e.g. of a dictionary section that failed to parse).
+     *
+     * @param size
+     *            new number of entries
+     */
+    void truncate(int size) {
+        if (size < this.size) {
+            Arrays.fill(strings, size, this.size, null);
+            this.size = size;
+        }
+    }
+
+    /**
+     * Get an entry, decoding it on first use.
+     *
+     * @param id
+     *            dictionary id
+     * @return the entry
+     */
+    String get(int id) {
+        String s = strings[check(id)];
+        if (s == null)
+            strings[id] = s = decode(id);
+        return s;
+    }
+
+    /**
+     * Decode an entry without keeping the String (e.g. to match filters once per entry).
+     *
+     * @param id
+     *            dictionary id
+     * @return the entry
+     */
+    String decode(int id) {
+        String s = strings[check(id)];
+        return s != null ? s : new String(arena, offsets[id], offsets[id + 1] - offsets[id], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compare an entry with UTF-8 bytes without decoding it.
+     *
+     * @param id
+     *            dictionary id
+     * @param utf8
+     *            UTF-8 bytes
+     * @return true if equal
+     */
+    boolean equals(int id, byte[] utf8) {
+        int start = offsets[check(id)], length = offsets[id + 1] - start;
+        if (length != utf8.length)
+            return false;
+        for (int n = 0; n < length; n++)
+            if (arena[start + n] != utf8[n])
+                return false;
+        return true;
+    }
+
+    private int check(int id) {
+        if (id < 0 || id >= size)
+            throw new IndexOutOfBoundsException("Dictionary id: " + id + ", size: " + size);
+        return id;
+    }
+}
+
+// ========================================================================================================================
+// Chunk Index
+// ========================================================================================================================
+/**
+ * ChunkIndex - Compact index of the transaction chunks of a stream.
+ *
+ * Stores only the location of each chunk payload in the file (offset/length), its compression and its time range in primitive arrays, so the
+ * index of huge files costs a few bytes per chunk instead of the chunk data.
+ *
+ * The time ranges form an interval index: a running maximum of the transaction end times allows a binary search for the first chunk that may
+ * overlap a window, and as long as chunks are added in order of their start times, the last one is found the same way. Chunks in between are
+ * checked with overlaps().
+ *
+ * The end time of a chunk header is no bound of its transactions: writers give the start of the last transaction (all events up to it are
+ * complete after the chunk), so a long transaction may run far beyond it, into a window starting after the header end. The largest transaction
+ * end of a chunk is only known once its transactions are scanned (see FtrReader.scanTxEnd); chunks not scanned yet are assumed to reach any
+ * window. Before selecting the chunks of a window starting at a time, the chunks starting up to it are scanned once (see unscanned/setTxEnd); a
+ * chunk starting later can only overlap the window by its start.
+ */
+class ChunkIndex {
+
+    // Initial capacity of the index arrays (allocated with the first chunk: streams without chunks cost no arrays)
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final long[] EMPTY = new long[0];
+
+    // Number of indexed chunks
+    private int size;
+
+    // Absolute file offsets of the chunk payloads
+    private long[] offsets = EMPTY;
+
+    // Payload lengths in bytes (as stored in the file)
+    private long[] lengths = EMPTY;
+
+    // Uncompressed sizes, -1 for uncompressed chunks
+    private long[] uncompressed = EMPTY;
+
+    // Chunk start times (domain units)
+    private long[] starts = EMPTY;
+
+    // Chunk end times of the headers (domain units)
+    private long[] ends = EMPTY;
+
+    // Largest transaction end times, UNKNOWN if the chunk is not scanned yet
+    private long[] txEnds = EMPTY;
+
+    // Running maximum of the transaction end times of the chunks before scanned (non-decreasing)
+    private long[] maxTxEnds = EMPTY;
+
+    // Number of leading chunks with a known transaction end time
+    private int scanned;
+
+    // Largest header end time
+    private long maxEnd = Long.MIN_VALUE;
+
+    // Transaction end time of a chunk not scanned yet
+    private static final long UNKNOWN = Long.MAX_VALUE;
+
+    // True as long as chunks were added with non-decreasing start times
+    private boolean ordered = true;
+
+    /**
+     * Add a chunk to the index.
+     *
+     * @param offset
+     *            absolute file offset of the payload
+     * @param length
+     *            payload length in bytes
+     * @param uncompressedSize
+     *            uncompressed size for LZ4 compressed chunks, -1 otherwise
+     * @param start
+     *            chunk start time
+     * @param end
+     *            chunk end time
+     * @return index of the added chunk
+     */
+    synchronized int add(long offset, long length, long uncompressedSize, long start, long end) {
+        if (size == offsets.length) {
+            int capacity = Math.max(INITIAL_CAPACITY, size * 2);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            uncompressed = Arrays.copyOf(uncompressed, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            txEnds = Arrays.copyOf(txEnds, capacity);
+            maxTxEnds = Arrays.copyOf(maxTxEnds, capacity);
+        }
+        offsets[size] = offset;
+        lengths[size] = length;
+        uncompressed[size] = uncompressedSize;
+        starts[size] = start;
+        ends[size] = end;
+        maxEnd = Math.max(maxEnd, end);
+        txEnds[size] = UNKNOWN;
+        if (size > 0 && start < starts[size - 1])
+            ordered = false;
+        return size++;
+    }
+
+    /**
+     * Set the largest transaction end time of a scanned chunk.
      *
-     * @param power
-     *            Power of 10 to calculate
-     * @return The multiplier (10^power)
+     * @param i
+     *            chunk index
+     * @param txEnd
+     *            largest end time of the transactions of the chunk (Long.MIN_VALUE if it holds none)
      */
-    private static long calculateTimescaleMultiplier(long power) {
-        if (power <= 0) {
-            return 1;
+    synchronized void setTxEnd(int i, long txEnd) {
+        txEnds[i] = Math.max(txEnd, ends[i]);
+        while (scanned < size && txEnds[scanned] != UNKNOWN) {
+            maxTxEnds[scanned] = scanned > 0 ? Math.max(maxTxEnds[scanned - 1], txEnds[scanned]) : txEnds[scanned];
+            scanned++;
         }
-        // Use Math.pow which is more efficient for large powers
-        return (long) Math.pow(10, power);
     }
 
     /**
-     * Parse string dictionary section.
+     * Find the next chunk to be scanned (see setTxEnd) before first() is exact for a window starting at the given time.
      *
-     * Reads a CBOR map mapping indices to text strings and appends them to the internal dictionary.
-     *
-     * @param decoder
-     *            CBOR decoder positioned at the dictionary map
-     * @throws ParseException
-     *             on I/O or format error
+     * @param from
+     *            window start (domain units)
+     * @return index of a chunk starting at or before from whose transaction end time is unknown, or -1 if there is none
      */
-    private void parseDict(CborDecoder decoder) throws ParseException {
-        // Reads a CBOR map of index->string and adds to the dictionary list
-        try {
-            long size = decoder.readMapLength();
-            ArrayList<String> list = new ArrayList<>((int) size);
-            for (long i = 0; i < size; ++i) {
-                long idx = decoder.readInt();
-                if (idx != dictionary.size() + list.size()) {
-                    throw new ParseException("Dictionary index mismatch. Expected: " + (dictionary.size() + list.size()) + ", found: " + idx);
-                }
-                list.add(decoder.readTextString());
-            }
-            dictionary.addAll(list);
-        } catch (IOException e) {
-            throw new ParseException("Failed to parse dictionary: " + e.getMessage(), e);
-        }
+    synchronized int unscanned(long from) {
+        int i = scanned;
+        while (i < size && txEnds[i] != UNKNOWN)
+            i++;
+        return i < size && i <= last(from) ? i : -1;
     }
 
     /**
-     * Parse directory section containing stream and generator definitions.
+     * Find the first chunk that may overlap a window starting at the given time. Chunks not scanned yet are assumed to overlap.
      *
-     * @param decoder
-     *            CBOR decoder positioned at the directory array
-     * @throws ParseException
-     *             on I/O or format error
+     * @param from
+     *            window start (domain units)
+     * @return index of the first chunk with a transaction end time >= from, or size() if none
      */
-    private void parseDir(CborDecoder decoder) throws ParseException {
-        // Reads a CBOR array of stream/generator definitions and adds them to the model
-        try {
-            long size = decoder.readArrayLength();
-            CborType breakType = CborType.valueOf(0xff);
-            if (size < 0) {
-                // Indefinite-length array
-                CborType next = decoder.peekType();
-                while (next != null && !breakType.isEqualType(next)) {
-                    parseDirEntry(decoder);
-                    next = decoder.peekType();
-                }
-            } else {
-                // Fixed-length array
-                for (long i = 0; i < size; ++i) {
-                    parseDirEntry(decoder);
-                }
-            }
-            FtrReader.this.changed(CHANGED_RECORD);
-        } catch (IOException e) {
-            throw new ParseException("Failed to parse directory: " + e.getMessage(), e);
+    synchronized int first(long from) {
+        int lo = 0, hi = scanned;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (maxTxEnds[mid] < from)
+                lo = mid + 1;
+            else
+                hi = mid;
         }
+        return lo;
     }
 
     /**
-     * Parse a single directory entry (stream or generator).
+     * Find the last chunk that may overlap a window ending at the given time.
      *
-     * @param decoder
-     *            CBOR decoder positioned at a directory entry tag
-     * @throws ParseException
-     *             on format error
+     * @param to
+     *            window end (domain units)
+     * @return index of the last chunk with a start time <= to (size() - 1 if chunks are not ordered by start time), or -1 if none
      */
-    private void parseDirEntry(CborDecoder decoder) throws ParseException {
-        // Reads a stream or generator definition and adds it to the model
-        try {
-            long id = decoder.readTag();
-            if (id == DIR_TAG_STREAM) {
-                // Stream definition
-                long len = decoder.readArrayLength();
-                if (len != EXPECTED_STREAM_DEF_ARRAY_SIZE) {
-                    throw new ParseException(
-                            "Invalid stream definition, expected array length " + EXPECTED_STREAM_DEF_ARRAY_SIZE + ", found: " + len);
-                }
-                long streamId = decoder.readInt();
-                long nameId = decoder.readInt();
-                long kindId = decoder.readInt();
-                // Create signal for this stream
-                String streamName = dictionary.get((int) nameId);
-                String streamKind = dictionary.get((int) kindId);
-                console.info("Adding stream with ID: ", streamId, ", name: ", streamName, ", kind: ", streamKind);
-                streams.put(streamId, new Stream(streamId, streamName, streamKind));
-            } else if (id == DIR_TAG_GENERATOR) {
-                // Generator definition
-                long len = decoder.readArrayLength();
-                if (len != EXPECTED_GENERATOR_DEF_ARRAY_SIZE) {
-                    throw new ParseException(
-                            "Invalid generator definition, expected array length " + EXPECTED_GENERATOR_DEF_ARRAY_SIZE + ", found: " + len);
-                }
-                long genId = decoder.readInt();
-                long nameId = decoder.readInt();
-                long streamId = decoder.readInt();
-                // Create generator signal
-                String genName = dictionary.get((int) nameId);
-                if (!streams.containsKey(streamId)) {
-                    throw new ParseException("Generator references unknown stream ID: " + streamId);
-                }
-                console.info("Adding generator with ID: ", genId, ", name: ", genName, ", stream ID: ", streamId);
-                streams.get(streamId).addGenerator(genId, genName);
-            } else {
-                throw new ParseException("Invalid directory entry tag: " + id);
-            }
-        } catch (IOException e) {
-            throw new ParseException("Failed to parse directory entry: " + e.getMessage(), e);
+    int last(long to) {
+        if (!ordered)
+            return size - 1;
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] <= to)
+                lo = mid + 1;
+            else
+                hi = mid;
         }
+        return lo - 1;
     }
 
     /**
-     * Parse transaction chunk data for a specific stream.
+     * Check whether a chunk overlaps a window.
      *
-     * Parses indefinite-length CBOR arrays of transactions. Each transaction is a definite-length array of tagged elements. The method dispatches
-     * tags to core transaction handling and attribute setting.
+     * @param i
+     *            chunk index
+     * @param from
+     *            window start (domain units)
+     * @param to
+     *            window end (domain units)
+     * @return true if the chunk may hold a transaction intersecting [from, to]
+     */
+    boolean overlaps(int i, long from, long to) {
+        return txEnds[i] >= from && starts[i] <= to;
+    }
+
+    /**
+     * Check whether transactions of a chunk may start in a window, by the header time range (from the first to the last transaction start).
      *
-     * @param decoder
-     *            CBOR decoder for the chunk payload
-     * @param stream
-     *            target Stream instance
-     * @param startTime
-     *            chunk start time (domain units)
-     * @param endTime
-     *            chunk end time (domain units)
-     * @throws ParseException
-     *             on format or I/O error
+     * @param i
+     *            chunk index
+     * @param from
+     *            window start (domain units)
+     * @param to
+     *            window end (domain units)
+     * @return true if the chunk header range intersects [from, to]
      */
-    private void parseTxChunk(CborDecoder decoder, Stream stream, long startTime, long endTime) throws ParseException {
-        // Parses a CBOR indefinite-length array of transactions for a stream
-        console.info("Parsing transaction chunk for stream ID: ", stream.id, " time range: ", startTime, endTime);
-        try {
-            // Read outer indefinite array
-            long size = decoder.readArrayLength();
-            if (size != -1) {
-                throw new ParseException("Expected indefinite-length array in transaction chunk, got: " + size);
+    boolean startsIn(int i, long from, long to) {
+        return ends[i] >= from && starts[i] <= to;
+    }
+
+    /**
+     * @return the largest header end time, Long.MIN_VALUE if there is no chunk
+     */
+    synchronized long maxEnd() {
+        return maxEnd;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long offset(int i) {
+        return offsets[i];
+    }
+
+    long length(int i) {
+        return lengths[i];
+    }
+
+    boolean isCompressed(int i) {
+        return uncompressed[i] >= 0;
+    }
+
+    long uncompressedSize(int i) {
+        return uncompressed[i];
+    }
+
+    long start(int i) {
+        return starts[i];
+    }
+
+    long end(int i) {
+        return ends[i];
+    }
+
+    /**
+     * @return the largest transaction end time of a chunk, or Long.MAX_VALUE if it is not scanned yet
+     */
+    long txEnd(int i) {
+        return txEnds[i];
+    }
+}
+
+// ========================================================================================================================
+// Chunk Cache
+// ========================================================================================================================
+/**
+ * ChunkCache - Process-wide, size bounded LRU cache of decompressed transaction chunks.
+ *
+ * One cache is shared by all readers of the JVM, so a file opened in several views or reopened after a reload decompresses each chunk only once.
+ * Chunks are keyed by the identity of their file (canonical path, size and modification time) and the file offset of their payload; a modified
+ * file gets new keys and its old chunks age out. Readers without a file identity (e.g. stream input) use keys private to the reader. When the
+ * resident size exceeds the capacity, least recently used chunks are evicted, regardless of their reader. The capacity is process-wide: it starts
+ * at the system property de.toem.impulse.ftr.chunkCache (MB), readers only raise it, and only FtrReader.setChunkCacheCapacity() shrinks it.
+ *
+ * Readers access the cache through a View, which counts its own hits and misses; the cache counts hits, misses and evictions of all readers to
+ * allow sizing it.
+ */
+class ChunkCache {
+
+    // System property with the initial capacity of the shared cache in MB
+    static final String CAPACITY_PROPERTY = "de.toem.impulse.ftr.chunkCache";
+
+    // Default capacity of the shared cache in MB
+    static final long DEFAULT_CAPACITY = 64;
+
+    // The cache shared by all readers
+    static final ChunkCache SHARED = new ChunkCache(Long.getLong(CAPACITY_PROPERTY, DEFAULT_CAPACITY) * 1024L * 1024L);
+
+    /**
+     * Key of a cached chunk.
+     */
+    static final class Key {
+
+        final Object file;
+
+        final long offset;
+
+        Key(Object file, long offset) {
+            this.file = file;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && ((Key) obj).offset == offset && ((Key) obj).file.equals(file);
+        }
+
+        @Override
+        public int hashCode() {
+            return file.hashCode() * 31 + Long.hashCode(offset);
+        }
+    }
+
+    /**
+     * Access of one reader to the cache.
+     */
+    class View {
+
+        // File identity (or private key)
+        private final Object file;
+
+        // Statistics of this reader
+        private long hits, misses;
+
+        View(Object file) {
+            this.file = file;
+        }
+
+        /**
+         * Look up a decompressed chunk.
+         *
+         * @param offset
+         *            file offset of the chunk payload
+         * @return the decompressed chunk or null
+         */
+        byte[] get(long offset) {
+            synchronized (ChunkCache.this) {
+                byte[] data = ChunkCache.this.get(new Key(file, offset));
+                if (data != null)
+                    hits++;
+                else
+                    misses++;
+                return data;
             }
-            console.info("Reading indefinite-length transaction array");
-            int txCount = 0;
-            // Process transactions until break is found
-            while (true) {
-                int initialByte = decoder.readRawByte();
-                if (initialByte == 0xff) {
-                    // Break type
-                    console.info("End of transaction chunk reached, processed ", txCount, " transactions");
-                    break;
-                }
-                if (initialByte == -1) {
-                    throw new ParseException("Unexpected end of stream");
-                }
-                decoder.unreadByte(initialByte);
-                // Each transaction is a definite-length array
-                long txArrayLen = decoder.readArrayLength();
-                if (txArrayLen < 0) {
-                    throw new ParseException("Expected definite-length array for transaction, got: " + txArrayLen);
-                }
-                console.log("Transaction #", txCount + 1, " with ", txArrayLen, " elements");
-                txCount++;
-                Stream.Generator generator = null;
-                for (long i = 0; i < txArrayLen; i++) {
-                    // Each element starts with a tag
-                    long tag = decoder.readTag();
-                    console.log("  Transaction element #", i, " with tag: ", tag);
-                    switch ((int) tag) {
-                    case TX_TAG_CORE: {
-                        // Transaction core info: txId, genId, start, end
-                        long len = decoder.readArrayLength();
-                        if (len != EXPECTED_TX_INFO_ARRAY_SIZE) {
-                            throw new ParseException("Invalid transaction info array length: " + len);
-                        }
-                        long txId = decoder.readInt();
-                        long genId = decoder.readInt();
-                        long txStartTime = decoder.readInt() * timeScaleFactor;
-                        long txEndTime = decoder.readInt() * timeScaleFactor;
-                        // Get generator for this transaction
-                        generator = stream.generators.get(genId);
-                        if (generator != null)
-                            generator.begin(txId, txStartTime, txEndTime);
-                        else
-                            throw new ParseException("Generator ID " + genId + " not found in stream " + stream.id);
-                        console.log("  Transaction core: ID=", txId, " genID=", genId, " time= ", txStartTime, txEndTime);
-                        break;
-                    }
-                    // Begin attribute, record attribute, or end attribute
-                    case TX_TAG_BEGIN_ATTR:
-                    case TX_TAG_RECORD_ATTR:
-                    case TX_TAG_END_ATTR: {
-                        // Attribute: name, type, value
-                        long len = decoder.readArrayLength();
-                        if (len != EXPECTED_ATTR_ARRAY_SIZE) {
-                            throw new ParseException("Invalid attribute array length: " + len);
-                        }
-                        long nameId = decoder.readInt();
-                        long typeId = decoder.readInt();
-                        String attrName = dictionary.get((int) nameId);
-                        console.log("  Attribute: name=", attrName, " type=", typeId);
-                        Object val = null;
-                        switch ((int) typeId) {
-                        case ATTRIBUTE_BOOLEAN:
-                            val = decoder.readBoolean();
-                            break;
-                        case ATTRIBUTE_INTEGER:
-                        case ATTRIBUTE_UNSIGNED:
-                        case ATTRIBUTE_POINTER:
-                        case ATTRIBUTE_TIME:
-                            val = decoder.readInt();
-                            break;
-                        case ATTRIBUTE_FLOATING_POINT_NUMBER:
-                        case ATTRIBUTE_FIXED_POINT_INTEGER:
-                        case ATTRIBUTE_UNSIGNED_FIXED_POINT_INTEGER:
-                            val = decoder.readFloat();
-                            break;
-                        case ATTRIBUTE_ENUMERATION:
-                        case ATTRIBUTE_BIT_VECTOR:
-                        case ATTRIBUTE_LOGIC_VECTOR:
-                        case ATTRIBUTE_STRING:
-                            val = dictionary.get((int) decoder.readInt());
-                            break;
-                        default:
-                            throw new ParseException("Unexpected typeId in transaction: " + typeId);
-                        }
-                        if (generator != null)
-                            generator.set((int) tag, attrName, val, (int) typeId);
-                    }
-                        break;
-                    default:
-                        throw new ParseException("Unexpected tag in transaction: " + tag);
-                    }
-                }
-                if (generator != null)
-                    generator.end();
+        }
+
+        /**
+         * Add a decompressed chunk.
+         *
+         * @param offset
+         *            file offset of the chunk payload
+         * @param data
+         *            the decompressed chunk
+         */
+        void put(long offset, byte[] data) {
+            ChunkCache.this.put(new Key(file, offset), data);
+        }
+
+        /**
+         * Look up a compressed chunk of a mapped file, reading and decompressing it into the cache if missing.
+         *
+         * @param mappedFile
+         *            the mapped file
+         * @param chunks
+         *            chunk index of the stream
+         * @param i
+         *            chunk index
+         * @param buffers
+         *            pool of buffers for the compressed and the decompressed chunk
+         * @return the decompressed chunk
+         * @throws ParseException
+         *             on decompression error
+         */
+        byte[] decompress(MappedFile mappedFile, ChunkIndex chunks, int i, BufferPool buffers) throws ParseException {
+            // chunk offsets are unique within the file
+            byte[] data = get(chunks.offset(i));
+            if (data != null)
+                return data;
+            byte[] compressed = buffers.acquire((int) chunks.length(i));
+            byte[] output = null;
+            try {
+                mappedFile.get(chunks.offset(i), compressed, 0, (int) chunks.length(i));
+                output = buffers.acquire(FtrReader.lz4BufferSize(chunks.uncompressedSize(i)));
+                // only the cached copy gets an exactly sized array
+                data = Arrays.copyOf(output, FtrReader.decompressLZ4(compressed, 0, (int) chunks.length(i), output));
+            } finally {
+                buffers.release(output);
+                buffers.release(compressed);
+            }
+            put(chunks.offset(i), data);
+            return data;
+        }
+
+        @Override
+        public String toString() {
+            synchronized (ChunkCache.this) {
+                return "chunk cache: " + hits + " hits, " + misses + " misses (shared " + ChunkCache.this + ")";
             }
-            stream.finish(endTime);
-            FtrReader.this.changed(CHANGED_SIGNALS);
-        } catch (IOException e) {
-            throw new ParseException("Failed to parse transaction chunk: " + e.getMessage(), e);
         }
     }
 
+    // Capacity in bytes
+    private long capacity;
+
+    // Cached chunks in access order
+    private final LinkedHashMap<Key, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Resident size in bytes
+    private long resident;
+
+    // Statistics
+    private long hits, misses, evictions;
+
+    /**
+     * @param capacity
+     *            capacity in bytes
+     */
+    ChunkCache(long capacity) {
+        this.capacity = capacity;
+    }
+
     /**
-     * Parse relations section containing arrays of relation descriptors.
-     *
-     * Supports both short and long relation array shapes (with or without fiber info).
+     * Identity of a file for chunk keys.
      *
-     * @param decoder
-     *            CBOR decoder positioned at the relations array
-     * @throws ParseException
-     *             on format or I/O error
+     * @param file
+     *            the file
+     * @return the identity (canonical path, size and modification time)
      */
-    private void parseRel(CborDecoder decoder) throws ParseException {
-        // Parses a CBOR indefinite-length array of relations
+    static Object fileKey(File file) {
+        String path;
         try {
-            CborType breakType = CborType.valueOf(0xff);
-            long size = decoder.readArrayLength();
-            if (size != -1) {
-                throw new ParseException("Expected indefinite-length array for relations");
-            }
-            CborType next = decoder.peekType();
-            while (next != null && !breakType.isEqualType(next)) {
-                long sz = decoder.readArrayLength();
-                if (sz != EXPECTED_REL_ARRAY_SIZE_LONG && sz != EXPECTED_REL_ARRAY_SIZE_SHORT) {
-                    throw new ParseException("Invalid relation structure, expected array length " + EXPECTED_REL_ARRAY_SIZE_LONG + " or "
-                            + EXPECTED_REL_ARRAY_SIZE_SHORT + ", found: " + sz);
-                }
-                long typeId = decoder.readInt();
-                long fromId = decoder.readInt();
-                long toId = decoder.readInt();
-                // Read fiber information if present
-                if (sz > EXPECTED_REL_ARRAY_SIZE_SHORT) {
-                    long fromFiber = decoder.readInt();
-                    long toFiber = decoder.readInt();
-                    // Store relation with fiber info
-                    createRelation(typeId, fromId, toId, fromFiber, toFiber);
-                } else {
-                    // Store relation without fiber info
-                    createRelation(typeId, fromId, toId);
-                }
-                next = decoder.peekType();
-            }
+            path = file.getCanonicalPath();
         } catch (IOException e) {
-            throw new ParseException("Failed to parse relations: " + e.getMessage(), e);
+            path = file.getAbsolutePath();
         }
+        return path + '|' + file.length() + '|' + file.lastModified();
     }
 
     /**
-     * Create a relation between transactions
+     * Create the view of a reader.
      *
-     * @param typeId
-     *            Type ID of the relation
-     * @param fromId
-     *            Source transaction ID
-     * @param toId
-     *            Target transaction ID
+     * @param file
+     *            file identity (see fileKey()), or null for keys private to the reader
+     * @return the view
      */
-    private void createRelation(long typeId, long fromId, long toId) {
-        createRelation(typeId, fromId, toId, -1, -1);
+    View view(Object file) {
+        return new View(file != null ? file : new Object());
     }
 
     /**
-     * Create a relation between transactions with fiber information
+     * Set the capacity, evicting least recently used chunks if it shrinks.
      *
-     * @param typeId
-     *            Type ID of the relation
-     * @param fromId
-     *            Source transaction ID
-     * @param toId
-     *            Target transaction ID
-     * @param fromFiber
-     *            Source fiber
-     * @param toFiber
-     *            Target fiber
+     * @param capacity
+     *            capacity in bytes
      */
-    private void createRelation(long typeId, long fromId, long toId, long fromFiber, long toFiber) {
-        // In a real implementation, this would create a relation in the impulse record
-        // Placeholder implementation - to be completed based on impulse API requirements
+    synchronized void setCapacity(long capacity) {
+        this.capacity = capacity;
+        evict();
     }
 
     /**
-     * Helper method to decompress LZ4 data and return the decompressed byte array
+     * Raise the capacity to at least the given size; a smaller size leaves the capacity unchanged.
      *
-     * @param compressedData
-     *            The LZ4 compressed data
-     * @param uncompressedSize
-     *            The expected uncompressed size
-     * @return byte array containing the decompressed data
-     * @throws ParseException
-     *             If decompression fails
+     * @param capacity
+     *            capacity in bytes
      */
-    private byte[] decompressLZ4(byte[] compressedData, long uncompressedSize) throws ParseException {
-        // Decompresses LZ4-compressed data using the kanzi LZ4Codec
-        try {
-            console.info("Decompressing ", compressedData.length, " bytes (expected uncompressed size: ", uncompressedSize, ")");
-            // Create the codec for decompression
-            LZ4Codec codec = new LZ4Codec();
-            // Allocate a buffer with the expected uncompressed size
-            // Add a 10% safety margin in case the size estimate is slightly off
-            int bufferSize = Math.max((int) uncompressedSize + (int) (uncompressedSize / 10), 65536);
-            console.info("Using buffer size: ", bufferSize, " bytes");
-            byte[] output = new byte[bufferSize];
-            // Setup source and destination arrays
-            IndexedByteArray source = new IndexedByteArray(compressedData, 0);
-            IndexedByteArray destination = new IndexedByteArray(output, 0);
-            // Single-shot decompression
-            if (!codec.inverse(source, destination)) {
-                throw new ParseException("LZ4 decompression failed");
-            }
-            // Create a properly sized array with just the decompressed data
-            byte[] result = new byte[destination.index];
-            System.arraycopy(output, 0, result, 0, destination.index);
-            console.info("Successfully decompressed ", compressedData.length, " bytes to ", destination.index, " bytes");
-            return result;
-        } catch (Exception e) {
-            throw new ParseException("Error during LZ4 decompression: " + e.getMessage(), e);
+    synchronized void raiseCapacity(long capacity) {
+        if (capacity > this.capacity)
+            this.capacity = capacity;
+    }
+
+    private synchronized byte[] get(Key key) {
+        byte[] data = entries.get(key);
+        if (data != null)
+            hits++;
+        else
+            misses++;
+        return data;
+    }
+
+    /**
+     * Add a decompressed chunk, evicting least recently used chunks as needed. Chunks larger than the capacity are not cached.
+     */
+    private synchronized void put(Key key, byte[] data) {
+        if (data.length > capacity)
+            return;
+        byte[] replaced = entries.put(key, data);
+        if (replaced != null)
+            resident -= replaced.length;
+        resident += data.length;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<byte[]> iterator = entries.values().iterator();
+        while (resident > capacity && iterator.hasNext()) {
+            resident -= iterator.next().length;
+            iterator.remove();
+            evictions++;
         }
     }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized long getResident() {
+        return resident;
+    }
+
+    synchronized long getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        return hits + " hits, " + misses + " misses, " + (lookups > 0 ? hits * 100 / lookups : 0) + "% hit rate, " + evictions + " evictions, "
+                + (resident >> 10) + " of " + (capacity >> 10) + " KB resident";
+    }
 }
 
 // ========================================================================================================================
-// CBOR Decoder
+// Transaction Index
 // ========================================================================================================================
 /**
- * CBOR Constants - constant values used by the CBOR format.
+ * TxIndex - Off-heap index of written transactions.
+ *
+ * Maps a transaction id to the stream number, the index of its first sample and its time. FTR transaction ids are dense counters, so the id
+ * directly addresses a 16 byte entry in direct memory pages of 64K entries that are allocated on demand. Files with hundreds of millions of
+ * transactions thereby cost no heap and no boxed map entries. Entries of different transactions can be written concurrently.
  */
-class CborConstants {
-
-    // Major type 0: unsigned integers.
-    static final int TYPE_UNSIGNED_INTEGER = 0x00;
+class TxIndex {
 
-    // Major type 1: negative integers.
-    static final int TYPE_NEGATIVE_INTEGER = 0x01;
+    // Entries per page (2^PAGE_BITS)
+    private static final int PAGE_BITS = 16;
 
-    // Major type 2: byte string.
-    static final int TYPE_BYTE_STRING = 0x02;
+    // Bytes per entry: stream number (int), sample index (int), time (long)
+    private static final int ENTRY_SIZE = 16;
 
-    // Major type 3: text/UTF8 string.
-    static final int TYPE_TEXT_STRING = 0x03;
+    // Largest supported transaction id
+    private static final long MAX_ID = (1L << 40) - 1;
 
-    // Major type 4: array of items.
-    static final int TYPE_ARRAY = 0x04;
+    // Pages of entries, null if not allocated
+    private ByteBuffer[] pages = new ByteBuffer[16];
 
-    // Major type 5: map of pairs.
-    static final int TYPE_MAP = 0x05;
+    /**
+     * Return the page of a transaction.
+     *
+     * @param txId
+     *            transaction id
+     * @param create
+     *            allocate the page if missing
+     * @return the page or null
+     */
+    private synchronized ByteBuffer page(long txId, boolean create) {
+        if (txId < 0 || txId > MAX_ID)
+            return null;
+        int p = (int) (txId >>> PAGE_BITS);
+        if (p >= pages.length) {
+            if (!create)
+                return null;
+            pages = Arrays.copyOf(pages, Math.max(p + 1, pages.length * 2));
+        }
+        if (pages[p] == null && create)
+            pages[p] = ByteBuffer.allocateDirect(ENTRY_SIZE << PAGE_BITS);
+        return pages[p];
+    }
 
-    // Major type 6: semantic tags.
-    static final int TYPE_TAG = 0x06;
+    /**
+     * Store the location of a transaction. Transaction ids out of range are ignored.
+     *
+     * @param txId
+     *            transaction id
+     * @param stream
+     *            stream number (1..n)
+     * @param sample
+     *            index of the first sample of the transaction
+     * @param time
+     *            time of the first sample
+     */
+    void put(long txId, int stream, int sample, long time) {
+        ByteBuffer page = page(txId, true);
+        if (page == null)
+            return;
+        int at = (int) (txId & ((1 << PAGE_BITS) - 1)) * ENTRY_SIZE;
+        page.putInt(at + 4, sample);
+        page.putLong(at + 8, time);
+        page.putInt(at, stream);
+    }
 
-    // Major type 7: floating point, simple data types.
-    static final int TYPE_FLOAT_SIMPLE = 0x07;
+    /**
+     * @return the stream number of a transaction, 0 if unknown
+     */
+    int stream(long txId) {
+        ByteBuffer page = page(txId, false);
+        return page != null ? page.getInt((int) (txId & ((1 << PAGE_BITS) - 1)) * ENTRY_SIZE) : 0;
+    }
 
-    // Denotes a one-byte value (uint8).
-    static final int ONE_BYTE = 0x18;
+    /**
+     * @return the index of the first sample of a known transaction
+     */
+    int sample(long txId) {
+        return page(txId, false).getInt((int) (txId & ((1 << PAGE_BITS) - 1)) * ENTRY_SIZE + 4);
+    }
 
-    // Denotes a two-byte value (uint16).
-    static final int TWO_BYTES = 0x19;
+    /**
+     * @return the time of the first sample of a known transaction
+     */
+    long time(long txId) {
+        return page(txId, false).getLong((int) (txId & ((1 << PAGE_BITS) - 1)) * ENTRY_SIZE + 8);
+    }
+}
 
-    // Denotes a four-byte value (uint32).
-    static final int FOUR_BYTES = 0x1a;
+// ========================================================================================================================
+// Relation Table
+// ========================================================================================================================
+/**
+ * RelationTable - Relations between transactions in primitive arrays.
+ */
+class RelationTable {
 
-    // Denotes a eight-byte value (uint64).
-    static final int EIGHT_BYTES = 0x1b;
+    // Initial capacity of the arrays
+    private static final int INITIAL_CAPACITY = 64;
 
-    // The CBOR-encoded boolean false value.
-    static final int FALSE = 0x14;
+    // Number of relations
+    private int size;
 
-    // The CBOR-encoded boolean true value.
-    static final int TRUE = 0x15;
+    // Source transaction ids
+    private long[] from = new long[INITIAL_CAPACITY];
 
-    // The CBOR-encoded null value.
-    static final int NULL = 0x16;
+    // Target transaction ids
+    private long[] to = new long[INITIAL_CAPACITY];
 
-    // The CBOR-encoded "undefined" value.
-    static final int UNDEFINED = 0x17;
+    // Relation types (dictionary ids)
+    private int[] types = new int[INITIAL_CAPACITY];
 
-    // Denotes a half-precision float (two-byte IEEE 754)
-    static final int HALF_PRECISION_FLOAT = 0x19;
+    /**
+     * Add a relation.
+     *
+     * @param fromId
+     *            source transaction id
+     * @param toId
+     *            target transaction id
+     * @param type
+     *            relation type (dictionary id)
+     */
+    void add(long fromId, long toId, int type) {
+        if (size == from.length) {
+            from = Arrays.copyOf(from, size * 2);
+            to = Arrays.copyOf(to, size * 2);
+            types = Arrays.copyOf(types, size * 2);
+        }
+        from[size] = fromId;
+        to[size] = toId;
+        types[size] = type;
+        size++;
+    }
 
-    // Denotes a single-precision float (four-byte IEEE 754)
-    static final int SINGLE_PRECISION_FLOAT = 0x1a;
+    int size() {
+        return size;
+    }
 
-    // Denotes a double-precision float (eight-byte IEEE 754)
-    static final int DOUBLE_PRECISION_FLOAT = 0x1b;
+    long from(int i) {
+        return from[i];
+    }
 
-    // The CBOR-encoded "break" stop code for unlimited arrays/maps.
-    static final int BREAK = 0x1f;
+    long to(int i) {
+        return to[i];
+    }
 
-    // Semantic tag values
-    static final int TAG_STANDARD_DATE_TIME = 0;
+    int type(int i) {
+        return types[i];
+    }
 
-    static final int TAG_EPOCH_DATE_TIME = 1;
+    // Relation numbers ordered by source and by target transaction (see index)
+    private int[] bySource, byTarget;
 
-    static final int TAG_POSITIVE_BIGINT = 2;
+    /**
+     * Order the relations by source and target transaction, so the relations of a transaction are found by binary search. Called once after
+     * all relation sections are read.
+     */
+    void index() {
+        bySource = order(from);
+        byTarget = order(to);
+    }
 
-    static final int TAG_NEGATIVE_BIGINT = 3;
+    /**
+     * @return relation numbers ordered by the given transaction ids (stable merge sort on primitive arrays)
+     */
+    private int[] order(long[] ids) {
+        int[] order = new int[size], work = new int[size];
+        for (int i = 0; i < size; i++)
+            order[i] = i;
+        for (int width = 1; width < size; width *= 2) {
+            for (int low = 0; low < size; low += 2 * width) {
+                int middle = Math.min(low + width, size), high = Math.min(low + 2 * width, size);
+                int a = low, b = middle, n = low;
+                while (a < middle && b < high)
+                    work[n++] = ids[order[b]] < ids[order[a]] ? order[b++] : order[a++];
+                while (a < middle)
+                    work[n++] = order[a++];
+                while (b < high)
+                    work[n++] = order[b++];
+            }
+            int[] swap = order;
+            order = work;
+            work = swap;
+        }
+        return order;
+    }
 
-    static final int TAG_DECIMAL_FRACTION = 4;
+    /**
+     * Relations of a transaction: the relation numbers at positions first(txId, reverse) .. n of the order, as long as source(n)/target(n)
+     * equals the transaction.
+     *
+     * @param txId
+     *            transaction id
+     * @param reverse
+     *            false for the relations with the transaction as source, true as target
+     * @return first position in the order
+     */
+    int first(long txId, boolean reverse) {
+        int[] order = reverse ? byTarget : bySource;
+        long[] ids = reverse ? to : from;
+        int low = 0, high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (ids[order[middle]] < txId)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
 
-    static final int TAG_CBOR_ENCODED = 24;
+    /**
+     * @return the relation number at a position of the source (reverse: target) order, -1 if the position is beyond the relations of txId
+     */
+    int at(int position, long txId, boolean reverse) {
+        if (position >= size)
+            return -1;
+        int i = (reverse ? byTarget : bySource)[position];
+        return (reverse ? to : from)[i] == txId ? i : -1;
+    }
 }
 
+// ========================================================================================================================
+// Buffer Pool
+// ========================================================================================================================
 /**
- * CborType - Represents the various major types in CBOR
+ * BufferPool - Pool of reusable byte buffers for compressed and decompressed sections.
+ *
+ * Buffers are handed out with at least the requested size; pooled buffers that are too small are dropped and replaced by a larger one, so the pool
+ * adapts to the chunk sizes of a file. At most capacity buffers are kept. Acquire and release may be called from any thread.
  */
-class CborType {
+class BufferPool {
 
-    private final int major;
+    // Smallest buffer allocated
+    private static final int MIN_SIZE = 65536;
 
-    private final int additional;
+    // Free buffers
+    private final ConcurrentLinkedQueue<byte[]> free = new ConcurrentLinkedQueue<>();
 
-    private CborType(int major, int additional) {
-        this.major = major;
-        this.additional = additional;
-    }
+    // Number of free buffers
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    // Maximum number of free buffers
+    private final int capacity;
 
     /**
-     * Returns a descriptive string for the given major type.
+     * @param capacity
+     *            maximum number of free buffers kept
      */
-    public static String getName(int mt) {
-        // Handle break type (0xff) as a special case
-        if ((mt & 0xff) == 0xff) {
-            return "break";
-        }
-        // Get only the major type bits
-        int majorType = mt & 0x07;
-        switch (majorType) {
-        case CborConstants.TYPE_ARRAY:
-            return "array";
-        case CborConstants.TYPE_BYTE_STRING:
-            return "byte string";
-        case CborConstants.TYPE_FLOAT_SIMPLE:
-            return "float/simple value";
-        case CborConstants.TYPE_MAP:
-            return "map";
-        case CborConstants.TYPE_NEGATIVE_INTEGER:
-            return "negative integer";
-        case CborConstants.TYPE_TAG:
-            return "tag";
-        case CborConstants.TYPE_TEXT_STRING:
-            return "text string";
-        case CborConstants.TYPE_UNSIGNED_INTEGER:
-            return "unsigned integer";
-        default:
-            throw new IllegalArgumentException("Invalid major type: " + mt);
-        }
+    BufferPool(int capacity) {
+        this.capacity = capacity;
     }
 
     /**
-     * Decodes a given byte value to a {@link CborType} value.
+     * Take a buffer from the pool or allocate a new one.
+     *
+     * @param size
+     *            minimum size
+     * @return a buffer of at least size bytes
      */
-    public static CborType valueOf(int i) {
-        // Handle break type (0xff) specially to avoid major type calculation issues
-        if ((i & 0xff) == 0xff) {
-            return new CborType(CborConstants.TYPE_FLOAT_SIMPLE, CborConstants.BREAK);
+    byte[] acquire(int size) {
+        byte[] buffer = free.poll();
+        if (buffer != null) {
+            pooled.decrementAndGet();
+            if (buffer.length >= size)
+                return buffer;
         }
-        return new CborType((i & 0xff) >>> 5, i & 0x1f);
+        return new byte[Math.max(size, MIN_SIZE)];
     }
 
     /**
-     * @return the major type, as integer value from [0..7].
+     * Return a buffer to the pool.
+     *
+     * @param buffer
+     *            the buffer, may be null
      */
-    public int getMajorType() {
-        return major;
+    void release(byte[] buffer) {
+        if (buffer == null)
+            return;
+        if (pooled.incrementAndGet() <= capacity)
+            free.offer(buffer);
+        else
+            pooled.decrementAndGet();
     }
+}
 
-    /**
-     * @return the additional information of this type, as integer value from [0..31].
-     */
-    public int getAdditionalInfo() {
-        return additional;
-    }
+// ========================================================================================================================
+// Section Reader
+// ========================================================================================================================
+/**
+ * SectionReader - The header and directory pass over the sections of an FTR file, shared by FtrReader and FtrQuery.
+ *
+ * Checks the file header and reads the sections of the root array one at a time, or replays them from a sidecar index. The info, dictionary
+ * and directory sections are decoded here: the dictionary is appended to a StringDictionary, the time scale and the directory entries are passed
+ * to a handler. Transaction chunks are passed to the handler with their header (times in file time units), relation sections with their payload.
+ * Payloads are read straight from the mapping or, when streaming, as a slice of the decoder buffer; compressed sections are decompressed into
+ * pooled buffers.
+ */
+class SectionReader {
 
     /**
-     * @return <code>true</code> if this type allows for an infinite-length payload
+     * Receiver of the sections.
      */
-    public boolean isBreakAllowed() {
-        return major == CborConstants.TYPE_ARRAY || major == CborConstants.TYPE_BYTE_STRING || major == CborConstants.TYPE_MAP
-                || major == CborConstants.TYPE_TEXT_STRING;
+    interface Handler {
+
+        /**
+         * A section of the root array starts (not called for sections replayed from an index).
+         *
+         * @param tag
+         *            section tag
+         * @param offset
+         *            file offset of the section tag
+         */
+        void section(long tag, long offset) throws ParseException;
+
+        /**
+         * Info section.
+         *
+         * @param timeScale
+         *            time scale of the file (power of ten of a second, e.g. -9 for ns)
+         * @param epoch
+         *            epoch time
+         */
+        void info(long timeScale, long epoch) throws ParseException;
+
+        /**
+         * Dictionary section.
+         *
+         * @param first
+         *            index of the first entry added to the dictionary
+         */
+        void dictionary(int first) throws ParseException;
+
+        /**
+         * Stream definition of a directory section.
+         */
+        void stream(long id, long nameId, long kindId) throws ParseException;
+
+        /**
+         * Generator definition of a directory section.
+         */
+        void generator(long id, long nameId, long streamId) throws ParseException;
+
+        /**
+         * End of a directory section.
+         */
+        void directory() throws ParseException;
+
+        /**
+         * Transaction chunk. The payload may be read with payload(), payloadPooled(), readBytes() or decompress(); a payload left unread is
+         * skipped. Chunks replayed from an index have no payload to read.
+         *
+         * @param tag
+         *            FILE_TAG_TX_UNCOMPRESSED or FILE_TAG_TX_COMPRESSED
+         * @param streamId
+         *            stream id
+         * @param start
+         *            chunk start time (file time units)
+         * @param end
+         *            chunk end time: start of the last transaction (file time units)
+         * @param uncompressedSize
+         *            uncompressed size for LZ4 compressed chunks, -1 otherwise
+         * @param offset
+         *            file offset of the payload
+         * @param length
+         *            payload length in bytes
+         */
+        void chunk(int tag, long streamId, long start, long end, long uncompressedSize, long offset, long length) throws IOException, ParseException;
+
+        /**
+         * Relation section (only if relations are read).
+         *
+         * @param decoder
+         *            decoder positioned at the relations array
+         */
+        void relations(CborDecoder decoder) throws ParseException;
     }
 
     /**
-     * Determines whether the major type of a given {@link CborType} equals the major type of this one
+     * Handler ignoring all sections; override the sections of interest.
      */
-    public boolean isEqualType(CborType other) {
-        if (other == null) {
-            throw new IllegalArgumentException("Parameter cannot be null!");
+    static class Adapter implements Handler {
+
+        @Override
+        public void section(long tag, long offset) throws ParseException {
+        }
+
+        @Override
+        public void info(long timeScale, long epoch) throws ParseException {
+        }
+
+        @Override
+        public void dictionary(int first) throws ParseException {
+        }
+
+        @Override
+        public void stream(long id, long nameId, long kindId) throws ParseException {
+        }
+
+        @Override
+        public void generator(long id, long nameId, long streamId) throws ParseException {
+        }
+
+        @Override
+        public void directory() throws ParseException {
+        }
+
+        @Override
+        public void chunk(int tag, long streamId, long start, long end, long uncompressedSize, long offset, long length)
+                throws IOException, ParseException {
+        }
+
+        @Override
+        public void relations(CborDecoder decoder) throws ParseException {
         }
-        return major == other.major;
     }
 
     /**
-     * Determines whether the major type of a given byte value equals the major type of this one
+     * Parser of a section payload.
      */
-    public boolean isEqualType(int encoded) {
-        return major == ((encoded & 0xff) >>> 5);
-    }
-
-    @Override
-    public String toString() {
-        return getName(major) + "(" + additional + ")";
+    interface SectionParser {
+        void parse(CborDecoder decoder) throws ParseException;
     }
-}
-
-class CborDecoder {
 
-    // ---------------------------------------------------------------------
-    // Fields / construction
-    // ---------------------------------------------------------------------
-    private final PushbackInputStream inputStream;
+    // Decoder of the root array (replaced per section when replaying an index)
+    private CborDecoder decoder;
 
-    private byte[] buffer;
+    // Mapped file content, or null when streaming
+    private final MappedFile mappedFile;
 
-    private int pos = 0;
+    // Pool of buffers for compressed and decompressed sections
+    private final BufferPool buffers;
 
-    private int bufferSize = 0;
+    // Dictionary the dictionary sections are appended to
+    private final StringDictionary dictionary;
 
-    // 64KB maximum chunk size
-    private static final int MAX_CHUNK_SIZE = 65536;
+    // Relation sections are read (otherwise skipped unread)
+    private final boolean relations;
 
-    private boolean endOfInput = false;
+    /**
+     * @param decoder
+     *            decoder at the start of the file
+     * @param mappedFile
+     *            the mapped file content, or null when streaming (required to replay an index)
+     * @param buffers
+     *            pool of buffers for compressed and pooled payloads
+     * @param dictionary
+     *            the dictionary to append to
+     * @param relations
+     *            read relation sections, otherwise they are skipped unread
+     */
+    SectionReader(CborDecoder decoder, MappedFile mappedFile, BufferPool buffers, StringDictionary dictionary, boolean relations) {
+        this.decoder = decoder;
+        this.mappedFile = mappedFile;
+        this.buffers = buffers;
+        this.dictionary = dictionary;
+        this.relations = relations;
+    }
 
-    // Flag to indicate if we're using a direct byte array
-    private boolean directBuffer = false;
+    /**
+     * Read the self-describe tag and the start of the root array.
+     *
+     * @throws ParseException
+     *             if the file is not an FTR file
+     */
+    void readHeader() throws IOException, ParseException {
+        long tag = decoder.readTag();
+        if (tag != FtrReader.CBOR_SELF_DESCRIBE_TAG)
+            throw new ParseException("Not a valid FTR file. Expected CBOR tag " + FtrReader.CBOR_SELF_DESCRIBE_TAG + ", found: " + tag);
+        long length = decoder.readArrayLength();
+        if (length != -1)
+            throw new ParseException("Expected indefinite-length array, found fixed length: " + length);
+    }
 
     /**
-     * Creates a new decoder that reads data in chunks from the input stream.
+     * @return true if another section follows in the root array
      */
-    public CborDecoder(InputStream is) throws IOException {
-        if (is == null)
-            throw new IllegalArgumentException("InputStream cannot be null!");
-        this.inputStream = is instanceof PushbackInputStream ? (PushbackInputStream) is : new PushbackInputStream(is, 1);
-        this.buffer = new byte[MAX_CHUNK_SIZE];
-        this.directBuffer = false;
-        // Initialize with first chunk of data
-        readMoreData();
+    boolean hasMore() throws IOException {
+        return decoder.hasMore() && !decoder.isBreak();
     }
 
     /**
-     * Creates a new decoder that reads data directly from a byte array. This constructor is more efficient when all data is already available.
+     * Read the next section of the root array.
      *
-     * @param data
-     *            The byte array containing CBOR data
+     * @param handler
+     *            receiver of the section
+     * @return the section tag
+     * @throws ParseException
+     *             on format error
      */
-    public CborDecoder(byte[] data) {
-        if (data == null)
-            throw new IllegalArgumentException("Data byte array cannot be null!");
-        // No input stream is needed
-        this.inputStream = null;
-        this.buffer = data;
-        this.bufferSize = data.length;
-        // We're using the array directly
-        this.directBuffer = true;
-        this.pos = 0;
+    long readSection(Handler handler) throws IOException, ParseException {
+        long offset = decoder.getPos();
+        long tag = decoder.readTag();
+        handler.section(tag, offset);
+        parseSection(tag, handler);
+        return tag;
     }
 
     /**
-     * Attempts to read more data from the input stream into the buffer. Returns true if data was read, false if end of stream was reached. When using
-     * a direct byte array (directBuffer=true), this method returns false as no more data needs to be read.
+     * Replay a section recorded in a sidecar index: chunks are passed to the handler from their index entry without touching the file, other
+     * sections are parsed from their recorded offset.
+     *
+     * @param index
+     *            the validated index
+     * @param i
+     *            the entry
+     * @param handler
+     *            receiver of the section
+     * @return false if the file does not match the index
+     * @throws ParseException
+     *             on format error
      */
-    private boolean readMoreData() throws IOException {
-        // Fill buffer when using a streaming input. If directBuffer (byte[] provided) is used,
-        // reading more is not necessary. When data remains in buffer move it to start to free space.
-        if (directBuffer || endOfInput)
-            return false;
-        // If there's data left in the buffer, move it to the beginning
-        if (pos > 0 && pos < bufferSize) {
-            System.arraycopy(buffer, pos, buffer, 0, bufferSize - pos);
-            bufferSize -= pos;
-            pos = 0;
-        } else if (pos >= bufferSize) {
-            // Reset buffer if all data has been consumed
-            bufferSize = 0;
-            pos = 0;
+    boolean replaySection(SidecarIndex index, int i, Handler handler) throws IOException, ParseException {
+        if (index.isChunk(i)) {
+            handler.chunk(index.tag(i), index.streamId(i), index.start(i), index.end(i), index.uncompressedSize(i), index.offset(i), index.length(i));
+            return true;
         }
-        // Read more data into the buffer
-        int bytesRead = inputStream.read(buffer, bufferSize, buffer.length - bufferSize);
-        if (bytesRead == -1) {
-            endOfInput = true;
+        decoder = new CborDecoder(mappedFile, index.offset(i), mappedFile.size() - index.offset(i));
+        long tag = decoder.readTag();
+        if (tag != index.tag(i))
             return false;
-        }
-        bufferSize += bytesRead;
+        parseSection(tag, handler);
         return true;
     }
 
-    // ---------------------------------------------------------------------
-    // Position helpers
-    // ---------------------------------------------------------------------
     /**
-     * Return the current read position (byte offset) inside the internal buffer.
-     *
-     * @return current byte position
+     * Parse a section of the root array. The section tag has been read.
      */
-    public long getPos() {
-        return pos;
+    private void parseSection(long tag, Handler handler) throws IOException, ParseException {
+        switch ((int) tag) {
+        case FtrReader.FILE_TAG_INFO: {
+            // time scale and epoch
+            CborDecoder info = payload(decoder.readByteStringLength());
+            long size = info.readArrayLength();
+            if (size != FtrReader.EXPECTED_INFO_ARRAY_SIZE)
+                throw new ParseException("Invalid info section size: " + size);
+            long timeScale = info.readInt();
+            long epochTag = info.readTag();
+            if (epochTag != FtrReader.CBOR_EPOCH_TIME_TAG)
+                throw new ParseException("Expected epoch tag " + FtrReader.CBOR_EPOCH_TIME_TAG + ", found: " + epochTag);
+            handler.info(timeScale, info.readInt());
+            break;
+        }
+        case FtrReader.FILE_TAG_DICT_UNCOMPRESSED:
+            parseDict(payload(decoder.readByteStringLength()), handler);
+            break;
+        case FtrReader.FILE_TAG_DICT_COMPRESSED:
+            decompressSection("dictionary", FtrReader.EXPECTED_COMP_DICT_ARRAY_SIZE, payload -> parseDict(payload, handler));
+            break;
+        case FtrReader.FILE_TAG_DIR_UNCOMPRESSED:
+            parseDir(payload(decoder.readByteStringLength()), handler);
+            break;
+        case FtrReader.FILE_TAG_DIR_COMPRESSED:
+            decompressSection("directory", FtrReader.EXPECTED_COMP_DIR_ARRAY_SIZE, payload -> parseDir(payload, handler));
+            break;
+        case FtrReader.FILE_TAG_TX_UNCOMPRESSED:
+        case FtrReader.FILE_TAG_TX_COMPRESSED: {
+            boolean compressed = tag == FtrReader.FILE_TAG_TX_COMPRESSED;
+            long size = decoder.readArrayLength();
+            if (size != (compressed ? FtrReader.EXPECTED_COMP_TX_ARRAY_SIZE : FtrReader.EXPECTED_TX_ARRAY_SIZE))
+                throw new ParseException("Invalid " + (compressed ? "compressed " : "") + "transaction chunk size: " + size);
+            long streamId = decoder.readInt();
+            long start = decoder.readInt();
+            long end = decoder.readInt();
+            long uncompressedSize = compressed ? decoder.readInt() : -1;
+            long length = decoder.readByteStringLength();
+            long offset = decoder.getPos();
+            handler.chunk((int) tag, streamId, start, end, uncompressedSize, offset, length);
+            if (decoder.getPos() == offset)
+                decoder.skip(length);
+            break;
+        }
+        case FtrReader.FILE_TAG_REL_UNCOMPRESSED: {
+            long length = decoder.readByteStringLength();
+            if (relations)
+                handler.relations(payload(length));
+            else
+                decoder.skip(length);
+            break;
+        }
+        case FtrReader.FILE_TAG_REL_COMPRESSED:
+            if (relations)
+                decompressSection("relations", FtrReader.EXPECTED_COMP_DICT_ARRAY_SIZE, handler::relations);
+            else
+                decoder.skipItem();
+            break;
+        default:
+            throw new ParseException("Unknown tag in FTR file: " + tag);
+        }
     }
 
     /**
-     * Ensures that at least n bytes are available in the buffer. Tries to read more data if needed and fails if not enough data is available.
-     *
-     * @param n
-     *            Number of bytes needed
-     * @throws IOException
-     *             if an I/O error occurs or if there's not enough data
+     * Parse the string dictionary: a CBOR map of index to text string. The undecoded UTF-8 bytes are appended to the dictionary; on error, the
+     * entries of the section are removed again.
      */
-    private void ensureData(long n) throws IOException {
-        // Ensure 'n' bytes available in buffer; try to read more chunks if needed.
-        if (pos + n <= bufferSize)
-            return;
-        // Try to read more data
-        while (pos + n > bufferSize && readMoreData())
-            ;
-        // Fail if we still don't have enough data
-        if (pos + n > bufferSize) {
-            // If still not enough data, this is an unexpected EOF
-            fail("Unexpected end of input, needed " + n + " more bytes");
+    private void parseDict(CborDecoder payload, Handler handler) throws ParseException {
+        int first = dictionary.size();
+        try {
+            long size = payload.readMapLength();
+            for (long i = 0; i < size; ++i) {
+                long idx = payload.readInt();
+                if (idx != dictionary.size())
+                    throw new ParseException("Dictionary index mismatch. Expected: " + dictionary.size() + ", found: " + idx);
+                long length = payload.readTextStringLength();
+                // read the slice first: it may replace the buffer
+                int offset = payload.readSlice(length);
+                dictionary.add(payload.getBuffer(), offset, (int) length);
+            }
+        } catch (IOException e) {
+            dictionary.truncate(first);
+            throw new ParseException("Failed to parse dictionary: " + e.getMessage(), e);
+        } catch (ParseException e) {
+            dictionary.truncate(first);
+            throw e;
         }
+        handler.dictionary(first);
     }
 
     /**
-     * Read a single byte from the buffer, advancing the position.
+     * Parse the directory: a CBOR array (definite or indefinite length) of tagged stream and generator definitions.
+     */
+    private void parseDir(CborDecoder payload, Handler handler) throws ParseException {
+        try {
+            long size = payload.readArrayLength();
+            for (long i = 0; size < 0 ? payload.hasMore() && !payload.isBreak() : i < size; i++) {
+                long tag = payload.readTag();
+                if (tag != FtrReader.DIR_TAG_STREAM && tag != FtrReader.DIR_TAG_GENERATOR)
+                    throw new ParseException("Invalid directory entry tag: " + tag);
+                boolean stream = tag == FtrReader.DIR_TAG_STREAM;
+                long length = payload.readArrayLength();
+                long expected = stream ? FtrReader.EXPECTED_STREAM_DEF_ARRAY_SIZE : FtrReader.EXPECTED_GENERATOR_DEF_ARRAY_SIZE;
+                if (length != expected)
+                    throw new ParseException("Invalid " + (stream ? "stream" : "generator") + " definition, expected array length " + expected
+                            + ", found: " + length);
+                long id = payload.readInt();
+                long nameId = payload.readInt();
+                long ref = payload.readInt();
+                if (stream)
+                    handler.stream(id, nameId, ref);
+                else
+                    handler.generator(id, nameId, ref);
+            }
+        } catch (IOException e) {
+            throw new ParseException("Failed to parse directory: " + e.getMessage(), e);
+        }
+        handler.directory();
+    }
+
+    /**
+     * Read and parse a compressed section: [uncompressed size, compressed bytes].
+     */
+    private void decompressSection(String name, int expectedSize, SectionParser parser) throws IOException, ParseException {
+        long size = decoder.readArrayLength();
+        if (size != expectedSize)
+            throw new ParseException("Invalid compressed " + name + " section size: " + size);
+        long uncompressedSize = decoder.readInt();
+        decompress(decoder.readByteStringLength(), uncompressedSize, parser);
+    }
+
+    /**
+     * Provide a decoder for the payload of the current section.
      *
-     * Ensures at least one byte is available, reading more from the underlying stream if necessary.
+     * In mapped mode the decoder reads straight from the mapping and the main decoder skips the payload; otherwise the decoder reads a slice of the
+     * main decoder buffer, which is valid until the main decoder continues. The payload must be decoded before the next section is read.
      *
-     * @return unsigned byte value in range [0..255]
-     * @throws IOException
-     *             on I/O or EOF
+     * @param length
+     *            payload length in bytes
+     * @return decoder positioned at the payload
      */
-    private int readByte() throws IOException {
-        ensureData(1);
-        return buffer[pos++] & 0xff;
+    CborDecoder payload(long length) throws IOException {
+        if (mappedFile != null) {
+            CborDecoder payload = new CborDecoder(mappedFile, decoder.getPos(), length);
+            decoder.skip(length);
+            return payload;
+        }
+        int offset = decoder.readSlice(length);
+        return new CborDecoder(decoder.getBuffer(), offset, (int) length);
     }
 
     /**
-     * Unread the last consumed byte (move position back by one) or push it back to the stream when at the buffer beginning.
+     * Read the payload of the current section into a pooled buffer, to be released when processed.
      *
-     * Note: this method assumes the previously returned byte is the one to unread.
+     * @param length
+     *            payload length in bytes
+     * @return pooled buffer holding the payload at offset 0
      */
-    private void unreadByte() {
-        if (pos == 0) {
-            try {
-                // If we're at the start of the buffer, use the PushbackInputStream
-                inputStream.unread(buffer[0] & 0xff);
-            } catch (IOException e) {
-                throw new IllegalStateException("Cannot unread byte", e);
-            }
+    byte[] payloadPooled(long length) throws IOException {
+        if (length > Integer.MAX_VALUE - 8)
+            throw new IOException("Section of " + length + " bytes exceeds the maximum array size");
+        byte[] bytes = buffers.acquire((int) length);
+        if (mappedFile != null) {
+            mappedFile.get(decoder.getPos(), bytes, 0, (int) length);
+            decoder.skip(length);
         } else {
-            // Simply move back one position in our buffer
-            --pos;
+            // the slice may grow the buffer: take it afterwards
+            int offset = decoder.readSlice(length);
+            System.arraycopy(decoder.getBuffer(), offset, bytes, 0, (int) length);
         }
+        return bytes;
     }
 
-    // ---------------------------------------------------------------------
-    // Public high‑level API
-    // ---------------------------------------------------------------------
-
     /**
-     * Look at, but do not consume, the next major type.
+     * Read the payload of the current section into an own array, to be held.
+     *
+     * @param length
+     *            payload length in bytes
+     * @return the payload
      */
-    public CborType peekType() throws IOException {
-        if (pos >= bufferSize && !readMoreData())
-            return null;
-        int b = readByte();
-        unreadByte();
-        return CborType.valueOf(b);
+    byte[] readBytes(long length) throws IOException {
+        return decoder.readBytes(length);
     }
 
     /**
-     * Read the length of an array major type (returns -1 for indefinite-length).
+     * Decompress the LZ4 compressed payload of the current section into a pooled buffer and parse it.
      *
-     * @return length of the array or -1 for indefinite-length arrays
-     * @throws IOException
-     *             on I/O or format error
+     * @param length
+     *            compressed payload length in bytes
+     * @param uncompressedSize
+     *            uncompressed size
+     * @param parser
+     *            parser of the decompressed payload
+     * @throws ParseException
+     *             on decompression or format error
      */
-    public long readArrayLength() throws IOException {
-        return readMajorTypeWithSize(CborConstants.TYPE_ARRAY);
+    void decompress(long length, long uncompressedSize, SectionParser parser) throws IOException, ParseException {
+        byte[] compressed = mappedFile != null ? payloadPooled(length) : null;
+        byte[] output = buffers.acquire(FtrReader.lz4BufferSize(uncompressedSize));
+        try {
+            int size;
+            if (compressed != null)
+                size = FtrReader.decompressLZ4(compressed, 0, (int) length, output);
+            else {
+                // the slice may grow the buffer: take it afterwards
+                int offset = decoder.readSlice(length);
+                size = FtrReader.decompressLZ4(decoder.getBuffer(), offset, (int) length, output);
+            }
+            parser.parse(new CborDecoder(output, 0, size));
+        } finally {
+            buffers.release(output);
+            buffers.release(compressed);
+        }
     }
+}
+
+// ========================================================================================================================
+// Sidecar Index
+// ========================================================================================================================
+/**
+ * SidecarIndex - Persistent index of the sections of an FTR file, stored next to it as &lt;file&gt;.idx.
+ *
+ * Records the offset of every non-chunk section (info, dictionary, directory, relations) and the header of every transaction chunk (stream id,
+ * offset, length, uncompressed size, time range in file time units) in file order. The index is bound to the file by its size, modification
+ * time and a hash of its first bytes; a changed file invalidates it. Stream and generator filters and the time scale are applied when the index
+ * is replayed, so one index serves all reader settings and FtrQuery.
+ */
+class SidecarIndex {
+
+    // File signature and format version
+    private static final long MAGIC = 0x4654525F49445831L; // "FTR_IDX1"
+    private static final int VERSION = 2;
+
+    // Number of leading file bytes hashed
+    private static final int HASH_LENGTH = 65536;
+
+    // Initial capacity of the entry arrays
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Identity of the indexed file
+    private final long fileSize, modified, hash;
+
+    // Number of entries
+    private int size;
+
+    // Section tags
+    private int[] tags = new int[INITIAL_CAPACITY];
+
+    // Section offsets (tag position) or chunk payload offsets
+    private long[] offsets = new long[INITIAL_CAPACITY];
+
+    // Chunk payload lengths, stream ids, uncompressed sizes (-1 if uncompressed), start and end times
+    private long[] lengths = new long[INITIAL_CAPACITY];
+    private long[] streamIds = new long[INITIAL_CAPACITY];
+    private long[] uncompressed = new long[INITIAL_CAPACITY];
+    private long[] starts = new long[INITIAL_CAPACITY];
+    private long[] ends = new long[INITIAL_CAPACITY];
 
     /**
-     * Read the length of a map major type (returns -1 for indefinite-length).
+     * Create an empty index for a file.
      *
-     * @return length of the map or -1 for indefinite-length maps
-     * @throws IOException
-     *             on I/O or format error
+     * @param file
+     *            the FTR file
+     * @param mapped
+     *            the mapped file content
      */
-    public long readMapLength() throws IOException {
-        return readMajorTypeWithSize(CborConstants.TYPE_MAP);
+    SidecarIndex(File file, MappedFile mapped) {
+        this(mapped.size(), file.lastModified(), hash(mapped));
+    }
+
+    private SidecarIndex(long fileSize, long modified, long hash) {
+        this.fileSize = fileSize;
+        this.modified = modified;
+        this.hash = hash;
     }
 
     /**
-     * Read a text (UTF-8) string value.
-     *
-     * Supports only definite-length strings; indefinite-length text strings are rejected.
-     *
-     * @return decoded Java String
-     * @throws IOException
-     *             on I/O or format error
+     * @return the index file of an FTR file
      */
-    public String readTextString() throws IOException {
-        long len = readMajorTypeWithSize(CborConstants.TYPE_TEXT_STRING);
-        if (len < 0)
-            fail("Indefinite‑length text not supported");
-        ensureData(len);
-        String s = new String(buffer, pos, (int) len, StandardCharsets.UTF_8);
-        pos += (int) len;
-        return s;
+    static File fileOf(File file) {
+        return new File(file.getPath() + ".idx");
     }
 
     /**
-     * Read a byte string (raw bytes).
-     *
-     * Supports only definite-length byte strings; indefinite-length byte strings are rejected.
-     *
-     * @return byte[] with the requested bytes
-     * @throws IOException
-     *             on I/O or format error
+     * Hash the leading bytes of the file (CRC32).
      */
-    public byte[] readByteString() throws IOException {
-        long len = readMajorTypeWithSize(CborConstants.TYPE_BYTE_STRING);
-        if (len < 0)
-            fail("Indefinite‑length byte string not supported");
-        ensureData(len);
-        // Use Arrays.copyOfRange for cleaner code and potentially better optimization
-        byte[] out = Arrays.copyOfRange(buffer, pos, pos + (int) len);
-        pos += (int) len;
-        return out;
+    private static long hash(MappedFile mapped) {
+        byte[] head = new byte[(int) Math.min(HASH_LENGTH, mapped.size())];
+        mapped.get(0, head, 0, head.length);
+        CRC32 crc = new CRC32();
+        crc.update(head, 0, head.length);
+        return crc.getValue();
     }
 
     /**
-     * Read a semantic tag value.
+     * Add a non-chunk section.
      *
-     * @return tag value as unsigned long
-     * @throws IOException
-     *             on I/O or format error
+     * @param tag
+     *            section tag
+     * @param offset
+     *            file offset of the section tag
      */
-    public long readTag() throws IOException {
-        return readUInt(readMajorType(CborConstants.TYPE_TAG), false);
+    void addSection(int tag, long offset) {
+        add(tag, offset, 0, 0, -1, 0, 0);
     }
 
     /**
-     * Read an integer value (positive or negative).
-     *
-     * This is a fast path that verifies major type and dispatches to readUInt.
+     * Add a transaction chunk.
      *
-     * @return decoded integer (negative integers returned as negative numbers)
-     * @throws IOException
-     *             on I/O or format error
+     * @param tag
+     *            section tag
+     * @param streamId
+     *            stream id
+     * @param offset
+     *            file offset of the payload
+     * @param length
+     *            payload length in bytes
+     * @param uncompressedSize
+     *            uncompressed size for LZ4 compressed chunks, -1 otherwise
+     * @param start
+     *            chunk start time (file time units)
+     * @param end
+     *            chunk end time (file time units)
      */
-    public long readInt() throws IOException {
-        int ib = readByte();
-        int major = (ib >>> 5) & 0x07;
-        int ai = ib & 0x1f;
-        if (major != CborConstants.TYPE_UNSIGNED_INTEGER && major != CborConstants.TYPE_NEGATIVE_INTEGER)
-            fail("Expected integer major type, got %s", CborType.getName(major));
-        long n = readUInt(ai, false);
-        return (major == CborConstants.TYPE_UNSIGNED_INTEGER) ? n : -1L - n;
+    void addChunk(int tag, long streamId, long offset, long length, long uncompressedSize, long start, long end) {
+        add(tag, offset, length, streamId, uncompressedSize, start, end);
+    }
+
+    private void add(int tag, long offset, long length, long streamId, long uncompressedSize, long start, long end) {
+        if (size == tags.length) {
+            int capacity = size * 2;
+            tags = Arrays.copyOf(tags, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            streamIds = Arrays.copyOf(streamIds, capacity);
+            uncompressed = Arrays.copyOf(uncompressed, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+        tags[size] = tag;
+        offsets[size] = offset;
+        lengths[size] = length;
+        streamIds[size] = streamId;
+        uncompressed[size] = uncompressedSize;
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int tag(int i) {
+        return tags[i];
+    }
+
+    boolean isChunk(int i) {
+        return tags[i] == FtrReader.FILE_TAG_TX_UNCOMPRESSED || tags[i] == FtrReader.FILE_TAG_TX_COMPRESSED;
+    }
+
+    long offset(int i) {
+        return offsets[i];
+    }
+
+    long length(int i) {
+        return lengths[i];
+    }
+
+    long streamId(int i) {
+        return streamIds[i];
+    }
+
+    long uncompressedSize(int i) {
+        return uncompressed[i];
+    }
+
+    long start(int i) {
+        return starts[i];
     }
 
-    /**
-     * Read a CBOR boolean value.
-     *
-     * @return true or false
-     * @throws IOException
-     *             on I/O or format error
-     */
-    public boolean readBoolean() throws IOException {
-        int ib = readByte();
-        int major = (ib >>> 5) & 0x07;
-        if (major != CborConstants.TYPE_FLOAT_SIMPLE)
-            fail("Expected simple value, got %s", CborType.getName(major));
-        int ai = ib & 0x1f;
-        if (ai == CborConstants.TRUE)
-            return true;
-        if (ai == CborConstants.FALSE)
-            return false;
-        fail("Additional‑info %d is not a boolean", ai);
-        // unreachable
-        return false;
+    long end(int i) {
+        return ends[i];
     }
 
     /**
-     * Read a floating-point value (half/single/double) or integer coerced to float.
+     * Write the index. The index is written to a temporary file first and then moved into place, so readers never see a partial index.
      *
-     * @return float value
+     * @param indexFile
+     *            the index file
      * @throws IOException
-     *             on I/O or format error
+     *             on I/O error
      */
-    public float readFloat() throws IOException {
-        int ib = readByte();
-        int major = (ib >>> 5) & 0x07;
-        int ai = ib & 0x1f;
-        if (major == CborConstants.TYPE_FLOAT_SIMPLE) {
-            switch (ai) {
-            case CborConstants.HALF_PRECISION_FLOAT:
-                return halfToFloat(readUInt16());
-            case CborConstants.SINGLE_PRECISION_FLOAT:
-                return Float.intBitsToFloat((int) readUInt32());
-            case CborConstants.DOUBLE_PRECISION_FLOAT:
-                return (float) Double.longBitsToDouble(readUInt64());
-            default:
-                fail("Unexpected additional‑info %d for float", ai);
+    void write(File indexFile) throws IOException {
+        File temp = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 65536))) {
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fileSize);
+            out.writeLong(modified);
+            out.writeLong(hash);
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeInt(tags[i]);
+                out.writeLong(offsets[i]);
+                if (isChunk(i)) {
+                    out.writeLong(lengths[i]);
+                    out.writeLong(streamIds[i]);
+                    out.writeLong(uncompressed[i]);
+                    out.writeLong(starts[i]);
+                    out.writeLong(ends[i]);
+                }
             }
-        } else if (major == CborConstants.TYPE_UNSIGNED_INTEGER || major == CborConstants.TYPE_NEGATIVE_INTEGER) {
-            unreadByte();
-            return (float) readInt();
         }
-        fail("Expected float/int, got %s", CborType.getName(major));
-        // unreachable
-        return 0f;
+        try {
+            Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp.toPath());
+            throw e;
+        }
     }
 
     /**
-     * Read a raw byte from the stream (unsigned).
+     * Read the index of a file.
      *
-     * @return byte value in [0..255]
-     * @throws IOException
-     *             on I/O or format error
+     * @param indexFile
+     *            the index file
+     * @param file
+     *            the FTR file
+     * @param mapped
+     *            the mapped file content
+     * @return the index, or null if there is no index or it does not belong to the current file content
      */
-    public int readRawByte() throws IOException {
-        return readByte();
+    static SidecarIndex read(File indexFile, File file, MappedFile mapped) {
+        if (!indexFile.isFile())
+            return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 65536))) {
+            if (in.readLong() != MAGIC || in.readInt() != VERSION)
+                return null;
+            long fileSize = in.readLong(), modified = in.readLong(), hash = in.readLong();
+            if (fileSize != mapped.size() || modified != file.lastModified() || hash != hash(mapped))
+                return null;
+            SidecarIndex index = new SidecarIndex(fileSize, modified, hash);
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                int tag = in.readInt();
+                long offset = in.readLong();
+                if (offset < 0 || offset >= fileSize)
+                    return null;
+                if (tag == FtrReader.FILE_TAG_TX_UNCOMPRESSED || tag == FtrReader.FILE_TAG_TX_COMPRESSED) {
+                    long length = in.readLong();
+                    if (length < 0 || offset + length > fileSize)
+                        return null;
+                    index.addChunk(tag, in.readLong(), offset, length, in.readLong(), in.readLong(), in.readLong());
+                } else
+                    index.addSection(tag, offset);
+            }
+            return index;
+        } catch (IOException e) {
+            // truncated or unreadable: parse the file
+            return null;
+        }
     }
+}
+
+// ========================================================================================================================
+// Follow Input Stream
+// ========================================================================================================================
+/**
+ * FollowInputStream - Input stream on a file that is still being written.
+ *
+ * At the end of the available data, reads wait for appended data instead of returning end of input, polling the underlying stream. Partial reads
+ * return what is available, so complete sections are decoded as soon as they are written. Waiting ends when the progress is canceled; a properly
+ * closed FTR file ends with the break of the root array, after which no more data is requested.
+ */
+class FollowInputStream extends FilterInputStream {
+
+    // Progress (cancellation)
+    private final IProgress progress;
+
+    // Poll interval in ms
+    private final int pollInterval;
 
     /**
-     * Unread a raw byte value (compatibility API).
-     *
-     * This simply calls the internal unreadByte() helper.
-     *
-     * @param b
-     *            ignored (kept for API compatibility)
+     * @param in
+     *            the file input stream
+     * @param progress
+     *            progress, canceling stops waiting
+     * @param pollInterval
+     *            poll interval in ms
      */
-    public void unreadByte(int b) {
-        unreadByte();
+    FollowInputStream(InputStream in, IProgress progress, int pollInterval) {
+        super(in);
+        this.progress = progress;
+        this.pollInterval = pollInterval;
     }
 
-    // ---------------------------------------------------------------------
-    // Low‑level helpers
-    // ---------------------------------------------------------------------
+    @Override
+    public int read() throws IOException {
+        int b;
+        while ((b = super.read()) < 0 && waitForData())
+            ;
+        return b;
+    }
 
-    /**
-     * Signal a parsing failure by throwing an IOException with position info.
-     *
-     * @param fmt
-     *            message format
-     * @param args
-     *            format args
-     * @throws IOException
-     *             always
-     */
-    private void fail(String fmt, Object... args) throws IOException {
-        throw new IOException(String.format(fmt, args) + " @pos=" + getPos());
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n;
+        while ((n = super.read(b, off, len)) < 0 && waitForData())
+            ;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // do not skip beyond the written data: the decoder reads instead
+        return Math.min(super.skip(Math.min(n, available())), n);
     }
 
     /**
-     * Read and validate major type byte, returning the additional-info field.
+     * Wait for appended data.
      *
-     * @param expectedMajor
-     *            expected major type constant
-     * @return additional-info value
-     * @throws IOException
-     *             on I/O or unexpected major type
+     * @return false if waiting was canceled
      */
-    private int readMajorType(int expectedMajor) throws IOException {
-        int ib = readByte();
-        int major = (ib >>> 5) & 0x07;
-        if (major != expectedMajor)
-            fail("Unexpected major %s, expected %s", CborType.getName(major), CborType.getName(expectedMajor));
-        return ib & 0x1f;
+    private boolean waitForData() {
+        if (progress != null && progress.isCanceled())
+            return false;
+        try {
+            Thread.sleep(pollInterval);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return progress == null || !progress.isCanceled();
     }
+}
+
+// ========================================================================================================================
+// Event Queue
+// ========================================================================================================================
+/**
+ * EventQueue - Priority queue of pending events ordered by time, for nearly monotonic timestamps.
+ *
+ * Events added in time order (e.g. begin events of consecutive transactions) are appended to a run kept in a ring buffer: O(1) per event. Events
+ * earlier than the end of the run (e.g. end events of overlapping transactions) go into a binary min-heap: O(log n). Polling takes the earlier of
+ * the run head and the heap top. Events with equal times are returned in insertion order, like the sorted list this replaces, so streams with
+ * thousands of outstanding transactions no longer pay a linear walk per insertion. See EventQueueBenchmark for the crossover.
+ *
+ * @param <E>
+ *            event type
+ */
+class EventQueue<E> {
+
+    // Initial capacity of run and heap (allocated with the first event: idle queues cost no arrays)
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final Object[] EMPTY = new Object[0];
+
+    private static final long[] EMPTY_LONGS = new long[0];
+
+    // Insertion counter (order of equal times)
+    private long sequence;
+
+    // In-order run: ring buffer of events with non-decreasing times (capacity is a power of 2)
+    private Object[] run = EMPTY;
+    private long[] runTimes = EMPTY_LONGS;
+    private long[] runSequences = EMPTY_LONGS;
+    private int runHead, runSize;
+
+    // Out-of-order events: binary min-heap on (time, sequence)
+    private Object[] heap = EMPTY;
+    private long[] heapTimes = EMPTY_LONGS;
+    private long[] heapSequences = EMPTY_LONGS;
+    private int heapSize;
 
     /**
-     * Read major type and interpret size information, supporting indefinite-length.
+     * Add an event.
      *
-     * @param major
-     *            expected major type constant
-     * @return length or -1 for indefinite-length
-     * @throws IOException
-     *             on I/O or format error
+     * @param time
+     *            event time
+     * @param event
+     *            the event
      */
-    private long readMajorTypeWithSize(int major) throws IOException {
-        return readUInt(readMajorType(major), true);
+    void add(long time, E event) {
+        long seq = sequence++;
+        if (runSize == 0 || time >= runTimes[(runHead + runSize - 1) & (run.length - 1)]) {
+            if (runSize == run.length)
+                growRun();
+            int i = (runHead + runSize) & (run.length - 1);
+            run[i] = event;
+            runTimes[i] = time;
+            runSequences[i] = seq;
+            runSize++;
+        } else {
+            if (heapSize == heap.length) {
+                int capacity = Math.max(INITIAL_CAPACITY, heapSize * 2);
+                heap = Arrays.copyOf(heap, capacity);
+                heapTimes = Arrays.copyOf(heapTimes, capacity);
+                heapSequences = Arrays.copyOf(heapSequences, capacity);
+            }
+            siftUp(heapSize++, time, seq, event);
+        }
     }
 
     /**
-     * Decode an unsigned integer value from additional-info and following bytes.
-     *
-     * Supports the CBOR "break" additional-info (returns -1 when breakAllowed==true).
-     *
-     * @param ai
-     *            additional-info nibble
-     * @param breakAllowed
-     *            permit break code to return -1
-     * @return decoded unsigned integer or -1 if break encountered and allowed
-     * @throws IOException
-     *             on I/O or format error
+     * @return true if no event is queued
      */
-    private long readUInt(int ai, boolean breakAllowed) throws IOException {
-        if (ai < CborConstants.ONE_BYTE) {
-            return ai;
-        }
-        switch (ai) {
-        case CborConstants.ONE_BYTE:
-            return readByte();
-        case CborConstants.TWO_BYTES:
-            return readUInt16();
-        case CborConstants.FOUR_BYTES:
-            return readUInt32();
-        case CborConstants.EIGHT_BYTES:
-            return readUInt64();
-        case CborConstants.BREAK:
-            if (breakAllowed)
-                return -1;
-        }
-        fail("Illegal additional‑info value %d", ai);
-        // unreachable
-        return 0;
+    boolean isEmpty() {
+        return runSize == 0 && heapSize == 0;
     }
 
     /**
-     * Read a 16-bit unsigned integer.
-     *
-     * @return value in range [0..65535]
-     * @throws IOException
-     *             on I/O or EOF
+     * @return number of queued events
      */
-    private int readUInt16() throws IOException {
-        ensureData(2);
-        // Combine operations to reduce variable assignments
-        int result = ((buffer[pos] & 0xff) << 8) | (buffer[pos + 1] & 0xff);
-        pos += 2;
-        return result;
+    int size() {
+        return runSize + heapSize;
     }
 
     /**
-     * Read a 32-bit unsigned integer and return as long.
-     *
-     * @return unsigned 32-bit value as long
-     * @throws IOException
-     *             on I/O or EOF
+     * @return time of the earliest event (queue must not be empty)
      */
-    private long readUInt32() throws IOException {
-        // Read 4 bytes as unsigned 32-bit integer; use local vars for faster JIT optimization
-        ensureData(4);
-        int p = pos;
-        byte[] buf = buffer;
-        long result = ((buf[p] & 0xffL) << 24) | ((buf[p + 1] & 0xffL) << 16) | ((buf[p + 2] & 0xffL) << 8) | (buf[p + 3] & 0xffL);
-        pos = p + 4;
-        return result & 0xffffffffL;
+    long firstTime() {
+        return fromRun() ? runTimes[runHead] : heapTimes[0];
     }
 
     /**
-     * Read a 64-bit unsigned integer.
+     * Remove and return the earliest event.
      *
-     * @return 64-bit value
-     * @throws IOException
-     *             on I/O or EOF
+     * @return the earliest event or null if the queue is empty
      */
-    private long readUInt64() throws IOException {
-        // Read 8 bytes as unsigned 64-bit integer; same optimization pattern as readUInt32
-        ensureData(8);
-        int p = pos;
-        byte[] buf = buffer;
-        long result = ((buf[p] & 0xffL) << 56) | ((buf[p + 1] & 0xffL) << 48) | ((buf[p + 2] & 0xffL) << 40) | ((buf[p + 3] & 0xffL) << 32)
-                | ((buf[p + 4] & 0xffL) << 24) | ((buf[p + 5] & 0xffL) << 16) | ((buf[p + 6] & 0xffL) << 8) | (buf[p + 7] & 0xffL);
-        pos = p + 8;
-        return result;
+    @SuppressWarnings("unchecked")
+    E poll() {
+        if (isEmpty())
+            return null;
+        if (fromRun()) {
+            Object event = run[runHead];
+            run[runHead] = null;
+            runHead = (runHead + 1) & (run.length - 1);
+            runSize--;
+            return (E) event;
+        }
+        Object event = heap[0];
+        int last = --heapSize;
+        Object moved = heap[last];
+        heap[last] = null;
+        if (last > 0)
+            siftDown(0, heapTimes[last], heapSequences[last], moved);
+        return (E) event;
     }
 
     /**
-     * Convert a CBOR half-precision float (16-bit) to Java float.
-     *
-     * Handles zero, subnormal, normal, infinity and NaN cases.
-     *
-     * @param bits
-     *            16-bit half float bits
-     * @return 32-bit IEEE float value
+     * @return true if the earliest event is the head of the run
      */
-    private static float halfToFloat(int bits) {
-        // Convert 16-bit IEEE754-half to 32-bit float.
-        // Handles zero, subnormal, normalized and special cases (Inf/NaN).
-        int s = (bits >>> 15) & 0x1;
-        int e = (bits >>> 10) & 0x1f;
-        int f = bits & 0x3ff;
-        if (e == 0) {
-            // ±0 or subnormal numbers
-            if (f == 0)
-                return s == 1 ? -0.0f : 0.0f;
-            return (float) ((s == 1 ? -1 : 1) * f * Math.pow(2, -24)); // subnormal scaling
+    private boolean fromRun() {
+        if (heapSize == 0)
+            return true;
+        if (runSize == 0)
+            return false;
+        long runTime = runTimes[runHead];
+        return runTime < heapTimes[0] || (runTime == heapTimes[0] && runSequences[runHead] < heapSequences[0]);
+    }
+
+    private void growRun() {
+        int capacity = Math.max(INITIAL_CAPACITY, run.length * 2);
+        Object[] grownRun = new Object[capacity];
+        long[] grownTimes = new long[capacity];
+        long[] grownSequences = new long[capacity];
+        // unwrap the ring into the new arrays
+        int first = Math.min(runSize, run.length - runHead);
+        System.arraycopy(run, runHead, grownRun, 0, first);
+        System.arraycopy(runTimes, runHead, grownTimes, 0, first);
+        System.arraycopy(runSequences, runHead, grownSequences, 0, first);
+        System.arraycopy(run, 0, grownRun, first, runSize - first);
+        System.arraycopy(runTimes, 0, grownTimes, first, runSize - first);
+        System.arraycopy(runSequences, 0, grownSequences, first, runSize - first);
+        run = grownRun;
+        runTimes = grownTimes;
+        runSequences = grownSequences;
+        runHead = 0;
+    }
+
+    private static boolean before(long time, long seq, long otherTime, long otherSeq) {
+        return time < otherTime || (time == otherTime && seq < otherSeq);
+    }
+
+    private void siftUp(int i, long time, long seq, Object event) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(time, seq, heapTimes[parent], heapSequences[parent]))
+                break;
+            set(i, heapTimes[parent], heapSequences[parent], heap[parent]);
+            i = parent;
         }
-        if (e == 31) {
-            // infinity or NaN
-            return f == 0 ? (s == 1 ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY) : Float.NaN;
+        set(i, time, seq, event);
+    }
+
+    private void siftDown(int i, long time, long seq, Object event) {
+        int half = heapSize >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < heapSize && before(heapTimes[right], heapSequences[right], heapTimes[child], heapSequences[child]))
+                child = right;
+            if (!before(heapTimes[child], heapSequences[child], time, seq))
+                break;
+            set(i, heapTimes[child], heapSequences[child], heap[child]);
+            i = child;
         }
-        // Normalized value
-        return (float) ((s == 1 ? -1 : 1) * (1 + f / 1024.0) * Math.pow(2, e - 15));
+        set(i, time, seq, event);
+    }
+
+    private void set(int i, long time, long seq, Object event) {
+        heap[i] = event;
+        heapTimes[i] = time;
+        heapSequences[i] = seq;
     }
-}
\ No newline at end of file
+}
+
+// ========================================================================================================================
+// Transaction Buffer
+// ========================================================================================================================
+/**
+ * TxBuffer - Decoded elements of transactions as flat records of ELEMENT_SIZE longs: the element tag followed by its values.
+ *
+ * <pre>
+ * core:      TX_TAG_CORE, txId, genId, start, end
+ * attribute: tag (begin/record/end), nameId, typeId, bits, 0
+ * end:       END, 0, 0, 0, 0
+ * </pre>
+ */
+class TxBuffer {
+
+    // Longs per element
+    static final int ELEMENT_SIZE = 5;
+
+    // Tag of the end of a transaction
+    static final int END = -1;
+
+    long[] data = new long[16 * ELEMENT_SIZE];
+
+    int size;
+
+    void add(long tag, long v1, long v2, long v3, long v4) {
+        if (size + ELEMENT_SIZE > data.length)
+            data = Arrays.copyOf(data, data.length * 2);
+        data[size] = tag;
+        data[size + 1] = v1;
+        data[size + 2] = v2;
+        data[size + 3] = v3;
+        data[size + 4] = v4;
+        size += ELEMENT_SIZE;
+    }
+
+    void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,386 @@
+// FtrRecordWriter - Fast Transaction Recording writer implementation
+package de.toem.impulse.extension.eda.transaction.ftr;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.toem.impulse.ImpulseBase;
+import de.toem.impulse.cells.record.IRecord;
+import de.toem.impulse.extension.eda.transaction.i18n.I18n;
+import de.toem.impulse.samples.IMemberDescriptor;
+import de.toem.impulse.samples.IReadableSample;
+import de.toem.impulse.samples.IReadableSamples;
+import de.toem.impulse.samples.ISample;
+import de.toem.impulse.serializer.AbstractRecordWriter;
+import de.toem.toolkits.core.Utils;
+import de.toem.toolkits.pattern.bundles.Bundles;
+import de.toem.toolkits.pattern.element.ICell;
+import de.toem.toolkits.pattern.element.serializer.ISerializerDescriptor;
+import de.toem.toolkits.pattern.element.serializer.JavaSerializerPreference;
+import de.toem.toolkits.pattern.properties.IPropertyModel;
+import de.toem.toolkits.pattern.properties.PropertyModel;
+import de.toem.toolkits.pattern.registry.RegistryAnnotation;
+import de.toem.toolkits.pattern.threading.IProgress;
+import de.toem.toolkits.utils.serializer.ParseException;
+import de.toem.toolkits.utils.text.MultilineText;
+
+/**
+ * FTR (Fast Transaction Recording) writer implementation for impulse.
+ *
+ * This writer exports the transaction signals of a record into an FTR file using FtrWriter, so records read from FTR, SCV or any other
+ * transaction source can be written back and re-opened (also lazily) with the FtrReader.
+ *
+ * Mapping (the inverse of the FtrReader):
+ * - Each struct signal becomes a stream, named by its path below the record with scopes joined by the hierarchy separator (default: "."); the
+ * signal description is the stream kind.
+ * - A transaction is a GO_INITIAL sample and the GO_FINAL sample on the same layer, or a GO_SINGLE sample; GO_INTERMEDIATE samples in between add
+ * RECORD attributes.
+ * - The "Origin" member (FtrReader) or "scvGenerator" member (ScvReader) names the generator; signals without one use a generator named as the
+ * signal. The "scvId" member is dropped, FTR numbers transactions itself.
+ * - All other valid members are attributes: members of the initial sample BEGIN attributes, of the final sample END attributes. Integers are
+ * written as integer (hexadecimal format: pointer), floats as floating point number, boolean enumerations as boolean, logic values as bit vector
+ * (binary format) or logic vector, and all other values as string.
+ * - Relations are not exported: the readable samples give no access to the relations of a signal.
+ *
+ * FtrWriter requires start order per stream, but transactions complete in end order. A first pass over the samples therefore links the samples
+ * of each transaction (see writeSignal); the second writes each transaction at its initial sample with its recorded end, so no transaction is
+ * held in memory behind one that is still open.
+ *
+ * Copyright (c) 2013-2025 Thomas Haber All rights reserved.
+ *
+ * @see FtrWriter
+ * @see FtrReader
+ */
+@RegistryAnnotation(annotation = FtrRecordWriter.Annotation.class)
+public class FtrRecordWriter extends AbstractRecordWriter {
+
+    public static class Annotation extends AbstractRecordWriter.Annotation {
+
+        public static final String id = "de.toem.impulse.writer.ftr";
+        public static final String label = I18n.Serializer_FtrWriter;
+        public static final String description = I18n.Serializer_FtrWriter_Description;
+        public static final String helpURL = I18n.Serializer_FtrWriter_HelpURL;
+        public static final String defaultNamePattern = "\\.ftr$,\\.FTR$";
+        public static final String formatType = "ftr";
+    }
+
+    // Members naming the generator of a transaction
+    private static final String[] ORIGIN_MEMBERS = { "Origin", "scvGenerator" };
+
+    // Members not exported
+    private static final String[] IGNORED_MEMBERS = { "scvId" };
+
+    // ========================================================================================================================
+    // Constructors
+    // ========================================================================================================================
+    /**
+     * Default constructor for the FtrRecordWriter.
+     */
+    public FtrRecordWriter() {
+        super();
+    }
+
+    /**
+     * Fully parameterized constructor for the FtrRecordWriter.
+     *
+     * @param descriptor
+     *            The serializer descriptor providing contextual information
+     * @param contentName
+     *            The name of the content being written
+     * @param contentType
+     *            The MIME type or other format descriptor of the content
+     * @param cellType
+     *            The type of cell to be written
+     * @param configuration
+     *            Configuration name for specialized settings
+     * @param properties
+     *            Additional properties as key-value pairs
+     * @param out
+     *            The output stream receiving the FTR file
+     */
+    public FtrRecordWriter(ISerializerDescriptor descriptor, String contentName, String contentType, String cellType, String configuration,
+            String[][] properties, OutputStream out) {
+        super(descriptor, configuration, properties, getPropertyModel(descriptor, null), out);
+    }
+
+    // ========================================================================================================================
+    // Support Interface
+    // ========================================================================================================================
+
+    /**
+     * Determines if this writer supports the specified functionality request.
+     *
+     * @param request
+     *            An Integer identifying the functionality being queried
+     * @param context
+     *            Additional context for the request
+     * @return true if the writer supports the requested functionality, false otherwise
+     */
+    public static boolean supports(Object request, Object context) {
+        int ir = request instanceof Integer ? ((Integer) request).intValue() : -1;
+        return ir == (ir & SUPPORT_PROPERTIES);
+    }
+
+    /**
+     * Create Java serializer preference cell for this writer.
+     *
+     * @return configured ICell instance for Java serializer preference
+     */
+    public static ICell createJavaPreference() {
+        try {
+            JavaSerializerPreference p = new JavaSerializerPreference();
+            p.setName(Annotation.label);
+            p.description = Annotation.description;
+            p.helpUrl = Annotation.helpURL;
+            p.namePattern = Annotation.defaultNamePattern;
+            p.formatType = Annotation.formatType;
+            p.impl = MultilineText.toXml(Bundles.getBundleSourceEntryAsString(FtrRecordWriter.class));
+            p.javaBundle = Utils.commarize(ImpulseBase.BUNDLE_ID, Bundles.getBundleId(FtrRecordWriter.class));
+            p.cellType = IRecord.Record.TYPE;
+            return p;
+        } catch (Throwable e) {
+        }
+        return null;
+    }
+
+    // ========================================================================================================================
+    // Property Model
+    // ========================================================================================================================
+    /**
+     * Creates and returns the property model for configuring this writer.
+     *
+     * @param object
+     *            The serializer descriptor, used to provide context
+     * @param context
+     *            Additional context information
+     * @return The property model containing all configurable properties for this writer
+     */
+    static public IPropertyModel getPropertyModel(ISerializerDescriptor object, Object context) {
+        PropertyModel model = new PropertyModel()
+                .add("hierarchy", ".", null, null, "Hierarchy separator", null, null)
+                .add("timeScale", -12, null, null, null, "Time scale (10^n s)", null, null)
+                .add("chunkSize", FtrWriter.DEFAULT_CHUNK_SIZE / 1024, null, null, null, "Chunk size (KB)", null, null)
+                .add("compress", true, null, "Compress", null, null);
+        return model;
+    }
+
+    // ========================================================================================================================
+    // Write
+    // ========================================================================================================================
+
+    // Sample links (see writeSignal): the transaction stays open to the last sample, or ends with this sample
+    private static final int LINK_OPEN = -1;
+    private static final int LINK_END = -2;
+    // Links below: ends at the initial sample -(link - LINK_ENDED_BY) on the same layer
+    private static final int LINK_ENDED_BY = -3;
+
+    /**
+     * Write the transaction signals of a record as FTR.
+     *
+     * @param progress
+     *            progress and cancel state, may be null
+     * @param record
+     *            record to write
+     * @param out
+     *            output stream, closed when the file is complete
+     * @throws ParseException
+     *             on write error
+     */
+    @Override
+    protected void write(IProgress progress, ICell record, OutputStream out) throws ParseException {
+        String separator = getProperty("hierarchy");
+        Integer timeScale = getTypedProperty("timeScale", Integer.class);
+        Integer chunkSize = getTypedProperty("chunkSize", Integer.class);
+        try (FtrWriter writer = new FtrWriter(out, timeScale != null ? timeScale : -12, getTypedProperty("compress", Boolean.class) != Boolean.FALSE)) {
+            if (chunkSize != null)
+                writer.setChunkSize(chunkSize * 1024);
+            writeCell(progress, writer, record, null, Utils.isEmpty(separator) ? "." : separator);
+        } catch (IOException e) {
+            throw new ParseException("Failed to write FTR: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Write the transaction signals below a cell, depth first in record order.
+     */
+    private void writeCell(IProgress progress, FtrWriter writer, ICell cell, String path, String separator) throws IOException {
+        for (ICell child : cell.getChildren()) {
+            if (progress != null && progress.isCanceled())
+                return;
+            String name = child instanceof IRecord.Signal ? ((IRecord.Signal) child).getName()
+                    : child instanceof IRecord.Scope ? ((IRecord.Scope) child).getName() : null;
+            if (name == null)
+                continue;
+            String childPath = path != null ? path + separator + name : name;
+            if (child instanceof IRecord.Signal) {
+                IReadableSamples samples = getReadable((IRecord.Signal) child);
+                if (samples != null && samples.getDataType() == ISample.DATA_TYPE_STRUCT)
+                    writeSignal(writer, (IRecord.Signal) child, samples, childPath);
+            } else
+                writeCell(progress, writer, child, childPath, separator);
+        }
+    }
+
+    /**
+     * Write the transactions of a struct signal as a stream.
+     *
+     * @param writer
+     *            FTR writer
+     * @param signal
+     *            transaction signal
+     * @param samples
+     *            samples of the signal
+     * @param name
+     *            stream name
+     * @return number of transactions written
+     * @throws IOException
+     *             on write error
+     */
+    static int writeSignal(FtrWriter writer, IRecord.Signal signal, IReadableSamples samples, String name) throws IOException {
+        int count = samples.getCount();
+        if (count == 0)
+            return 0;
+        int stream = writer.addStream(name, signal.getDescription());
+
+        // origin and attribute members
+        IMemberDescriptor origin = null;
+        List<IMemberDescriptor> attributes = new ArrayList<>();
+        for (IMemberDescriptor member : samples.getMemberDescriptors()) {
+            if (origin == null && Arrays.asList(ORIGIN_MEMBERS).contains(member.getName()))
+                origin = member;
+            else if (!Arrays.asList(IGNORED_MEMBERS).contains(member.getName()))
+                attributes.add(member);
+        }
+
+        // link the samples of each transaction: the index of its next sample, or how it ends
+        int[] links = new int[count];
+        Map<Integer, Integer> open = new HashMap<>();
+        for (int n = 0; n < count; n++) {
+            int order = samples.groupOrderAt(n);
+            int layer = samples.layerAt(n);
+            Integer previous;
+            switch (order) {
+            case ISample.GO_INITIAL:
+                links[n] = LINK_OPEN;
+                // a transaction left open on the layer ends here
+                previous = open.put(layer, n);
+                if (previous != null)
+                    links[previous] = LINK_ENDED_BY - n;
+                break;
+            case ISample.GO_SINGLE:
+                links[n] = LINK_END;
+                break;
+            case ISample.GO_INTERMEDIATE:
+                links[n] = LINK_OPEN;
+                previous = open.get(layer);
+                if (previous != null) {
+                    links[previous] = n;
+                    open.put(layer, n);
+                }
+                break;
+            case ISample.GO_FINAL:
+                links[n] = LINK_END;
+                previous = open.remove(layer);
+                if (previous != null)
+                    links[previous] = n;
+                break;
+            default:
+                links[n] = LINK_END;
+                break;
+            }
+        }
+
+        // write the transactions in start order, each with its end
+        Map<String, Integer> generators = new HashMap<>();
+        long last = samples.timeAt(count - 1);
+        int written = 0;
+        for (int n = 0; n < count; n++) {
+            int order = samples.groupOrderAt(n);
+            if (order != ISample.GO_INITIAL && order != ISample.GO_SINGLE)
+                continue;
+            IReadableSample sample = samples.compoundAt(n);
+            Object generatorName = origin != null ? sample.valueOf(origin) : null;
+            String generator = generatorName != null ? generatorName.toString() : signal.getName();
+            Integer generatorId = generators.get(generator);
+            if (generatorId == null) {
+                generatorId = writer.addGenerator(stream, generator);
+                generators.put(generator, generatorId);
+            }
+            // follow the links to the end
+            int end = n;
+            while (links[end] >= 0)
+                end = links[end];
+            writer.transaction(generatorId, samples.timeAt(n),
+                    links[end] == LINK_END ? samples.timeAt(end) : links[end] == LINK_OPEN ? last : samples.timeAt(LINK_ENDED_BY - links[end]));
+            attributes(writer, FtrWriter.BEGIN, sample, attributes);
+            for (int m = links[n]; m >= 0; m = links[m])
+                attributes(writer, samples.groupOrderAt(m) == ISample.GO_FINAL ? FtrWriter.END : FtrWriter.RECORD, samples.compoundAt(m), attributes);
+            written++;
+        }
+        return written;
+    }
+
+    /**
+     * Write the valid attribute members of a sample.
+     */
+    private static void attributes(FtrWriter writer, int phase, IReadableSample sample, List<IMemberDescriptor> attributes) {
+        for (IMemberDescriptor member : attributes) {
+            Object value = sample.valueOf(member);
+            if (value != null)
+                attribute(writer, phase, member, value);
+        }
+    }
+
+    /**
+     * Write a member value as an attribute of the current transaction, with the FTR type the FtrReader maps back to the member type.
+     *
+     * @param writer
+     *            FTR writer
+     * @param phase
+     *            FtrWriter.BEGIN, RECORD or END
+     * @param member
+     *            member descriptor
+     * @param value
+     *            member value
+     */
+    static void attribute(FtrWriter writer, int phase, IMemberDescriptor member, Object value) {
+        String name = member.getName();
+        String format = member.getFormat();
+        switch (member.getType()) {
+        case ISample.DATA_TYPE_INTEGER:
+            if (value instanceof Number) {
+                writer.attribute(phase, name, ISample.FORMAT_HEXADECIMAL.equals(format) ? FtrWriter.TYPE_POINTER : FtrWriter.TYPE_INTEGER,
+                        ((Number) value).longValue());
+                return;
+            }
+            break;
+        case ISample.DATA_TYPE_FLOAT:
+            if (value instanceof Number) {
+                writer.attribute(phase, name, ((Number) value).doubleValue());
+                return;
+            }
+            break;
+        case ISample.DATA_TYPE_ENUM:
+            if (ISample.FORMAT_BOOLEAN.equals(format)) {
+                Object bool = FtrReader.coerce(value, FtrReader.ATTRIBUTE_BOOLEAN);
+                if (bool instanceof Boolean) {
+                    writer.attribute(phase, name, (boolean) (Boolean) bool);
+                    return;
+                }
+            }
+            break;
+        case ISample.DATA_TYPE_LOGIC:
+            writer.attribute(phase, name, ISample.FORMAT_BINARY.equals(format) ? FtrWriter.TYPE_BIT_VECTOR : FtrWriter.TYPE_LOGIC_VECTOR,
+                    value.toString());
+            return;
+        default:
+            break;
+        }
+        writer.attribute(phase, name, value.toString());
+    }
+}
@@ -0,0 +1,282 @@
+// FtrRoundTripTest - Writes random transactions with FtrWriter and reads them back with FtrReader
+package de.toem.impulse.extension.eda.transaction.ftr;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import de.toem.impulse.cells.record.IRecord;
+import de.toem.impulse.samples.IMemberDescriptor;
+import de.toem.impulse.samples.IReadableSample;
+import de.toem.impulse.samples.IReadableSamples;
+import de.toem.impulse.samples.ISample;
+
+/**
+ * FtrRoundTripTest - Round trip of FtrWriter and FtrReader.
+ *
+ * Writes streams of random transactions with attributes of all types (begin, record and end phase) into a temporary FTR file, with small chunks
+ * so each stream spans many chunks, once compressed and once uncompressed. The file is then parsed lazily by the FtrReader and the transactions
+ * of each stream are read back (readTransactions) and compared with the written ones: id, generator, start, end and the attributes in order.
+ * Throws an IllegalStateException on the first mismatch.
+ *
+ * The written transactions are then exported as a record by the FtrRecordWriter: each stream as struct signal samples (initial, intermediate
+ * and final sample per transaction, overlapping transactions on separate layers, the last transaction of each stream left open), written with
+ * FtrRecordWriter.writeSignal and read back like the FtrWriter file.
+ *
+ * Not part of the plugin; run from the command line with the impulse bundles on the class path:
+ *
+ * <pre>
+ * java -cp &lt;classes&gt; de.toem.impulse.extension.eda.transaction.ftr.FtrRoundTripTest [transactions per stream]
+ * </pre>
+ */
+public class FtrRoundTripTest {
+
+    // Streams and generators per stream
+    private static final int STREAMS = 3;
+    private static final int GENERATORS = 2;
+
+    // Struct members of the exported signals: name, type and format
+    private static final String[][] MEMBERS = { { "Origin", "TEXT", null }, { "addr", "INTEGER", ISample.FORMAT_HEXADECIMAL },
+            { "len", "INTEGER", null }, { "posted", "ENUM", ISample.FORMAT_BOOLEAN }, { "latency", "FLOAT", null }, { "status", "TEXT", null },
+            { "data", "LOGIC", ISample.FORMAT_BINARY }, { "resp", "ENUM", null } };
+
+    public static void main(String[] args) throws Exception {
+        int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        for (boolean compress : new boolean[] { true, false }) {
+            File file = File.createTempFile("roundtrip", ".ftr");
+            try {
+                List<List<FtrReader.Transaction>> written = write(file, transactions, compress);
+                int count = read(file, written);
+                System.out.println((compress ? "compressed" : "uncompressed") + ": " + count + " transactions ok");
+            } finally {
+                file.delete();
+            }
+        }
+        File file = File.createTempFile("roundtrip", ".ftr"), record = File.createTempFile("record", ".ftr");
+        try {
+            List<List<FtrReader.Transaction>> expected = export(record, write(file, transactions, true));
+            int count = read(record, expected);
+            System.out.println("record: " + count + " transactions ok");
+        } finally {
+            file.delete();
+            record.delete();
+        }
+    }
+
+    /**
+     * Write random transactions and return them per stream.
+     */
+    static List<List<FtrReader.Transaction>> write(File file, int transactions, boolean compress) throws Exception {
+        Random random = new Random(transactions);
+        List<List<FtrReader.Transaction>> written = new ArrayList<>();
+        try (FtrWriter writer = new FtrWriter(new FileOutputStream(file), -12, compress)) {
+            writer.setChunkSize(1024);
+            int[][] generators = new int[STREAMS][GENERATORS];
+            for (int s = 0; s < STREAMS; s++) {
+                int stream = writer.addStream("top.bus" + s + ".socket", "tlm");
+                for (int g = 0; g < GENERATORS; g++)
+                    generators[s][g] = writer.addGenerator(stream, g == 0 ? "read" : "write");
+                written.add(new ArrayList<>());
+            }
+            long[] starts = new long[STREAMS];
+            long lastId = 0;
+            for (int n = 0; n < transactions * STREAMS; n++) {
+                int s = random.nextInt(STREAMS);
+                int g = random.nextInt(GENERATORS);
+                long start = starts[s] += random.nextInt(1000);
+                // mostly short, some zero length and some long transactions
+                int kind = random.nextInt(100);
+                long end = kind < 5 ? start : start + (kind < 8 ? 100000 + random.nextInt(1000000) : 1 + random.nextInt(2000));
+                long txId = writer.transaction(generators[s][g], start, end);
+                if (txId != lastId + 1)
+                    throw new IllegalStateException("Unexpected transaction id " + txId + " after " + lastId);
+                lastId = txId;
+
+                long addr = random.nextLong() & 0xffffffffffL;
+                long len = random.nextInt(256) - 16;
+                boolean posted = random.nextBoolean();
+                float latency = random.nextFloat() * 100;
+                String status = random.nextInt(10) == 0 ? "ERROR" : "OK";
+                String data = Long.toBinaryString(random.nextInt(256));
+                String resp = "RESP" + random.nextInt(4);
+                writer.attribute(FtrWriter.BEGIN, "addr", FtrWriter.TYPE_POINTER, addr);
+                writer.attribute(FtrWriter.BEGIN, "len", len);
+                writer.attribute(FtrWriter.BEGIN, "posted", posted);
+                writer.attribute(FtrWriter.RECORD, "latency", latency);
+                writer.attribute(FtrWriter.END, "status", status);
+                writer.attribute(FtrWriter.END, "data", FtrWriter.TYPE_BIT_VECTOR, data);
+                writer.attribute(FtrWriter.END, "resp", FtrWriter.TYPE_ENUMERATION, resp);
+                written.get(s).add(new FtrReader.Transaction(txId, g == 0 ? "read" : "write", start, end,
+                        new int[] { FtrWriter.BEGIN, FtrWriter.BEGIN, FtrWriter.BEGIN, FtrWriter.RECORD, FtrWriter.END, FtrWriter.END, FtrWriter.END },
+                        new String[] { "addr", "len", "posted", "latency", "status", "data", "resp" },
+                        new Object[] { addr, len, posted, latency, status, data, resp }));
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Export the transactions of each stream as signal samples with the FtrRecordWriter.
+     *
+     * @return the transactions expected when reading the file back: numbered in stream order, the last transaction of each stream without end
+     *         attributes
+     */
+    static List<List<FtrReader.Transaction>> export(File file, List<List<FtrReader.Transaction>> written) throws Exception {
+        List<List<FtrReader.Transaction>> expected = new ArrayList<>();
+        long txId = 0;
+        try (FtrWriter writer = new FtrWriter(new FileOutputStream(file), -12, true)) {
+            writer.setChunkSize(1024);
+            for (int s = 0; s < STREAMS; s++) {
+                List<FtrReader.Transaction> stream = written.get(s);
+                // the transaction ending last is left open: it ends with the last sample (of the others), without end attributes
+                int open = 0;
+                for (int n = 1; n < stream.size(); n++)
+                    if (stream.get(n).end >= stream.get(open).end)
+                        open = n;
+
+                // samples: time, order, layer and transaction; the initial, intermediate and final sample of a transaction in this order
+                List<long[]> samples = new ArrayList<>();
+                List<Long> layers = new ArrayList<>();
+                for (int n = 0; n < stream.size(); n++) {
+                    FtrReader.Transaction tx = stream.get(n);
+                    int layer = 0;
+                    while (layer < layers.size() && layers.get(layer) >= tx.start)
+                        layer++;
+                    if (layer == layers.size())
+                        layers.add(tx.end);
+                    else
+                        layers.set(layer, tx.end);
+                    samples.add(new long[] { tx.start, 3 * n, ISample.GO_INITIAL, layer, n });
+                    samples.add(new long[] { tx.start, 3 * n + 1, ISample.GO_INTERMEDIATE, layer, n });
+                    if (n != open)
+                        samples.add(new long[] { tx.end, 3 * n + 2, ISample.GO_FINAL, layer, n });
+                }
+                samples.sort(Comparator.<long[]> comparingLong(sample -> sample[0]).thenComparingLong(sample -> sample[1]));
+
+                String name = "top.bus" + s + ".socket";
+                FtrRecordWriter.writeSignal(writer, signal(name), samples(samples, stream), name);
+                List<FtrReader.Transaction> transactions = new ArrayList<>();
+                for (int n = 0; n < stream.size(); n++) {
+                    FtrReader.Transaction tx = stream.get(n);
+                    int attributes = n == open ? 4 : tx.getAttributeCount();
+                    int[] phases = new int[attributes];
+                    String[] names = new String[attributes];
+                    Object[] values = new Object[attributes];
+                    for (int a = 0; a < attributes; a++) {
+                        phases[a] = tx.getAttributePhase(a);
+                        names[a] = tx.getAttributeName(a);
+                        values[a] = tx.getAttributeValue(a);
+                    }
+                    transactions.add(new FtrReader.Transaction(++txId, tx.generator, tx.start, n == open ? samples.get(samples.size() - 1)[0] : tx.end,
+                            phases, names, values));
+                }
+                expected.add(transactions);
+            }
+        }
+        return expected;
+    }
+
+    /**
+     * Signal with a name.
+     */
+    static IRecord.Signal signal(String name) {
+        return (IRecord.Signal) Proxy.newProxyInstance(FtrRoundTripTest.class.getClassLoader(), new Class<?>[] { IRecord.Signal.class },
+                (proxy, method, args) -> method.getName().equals("getName") ? name : method.getName().equals("getDescription") ? "tlm" : null);
+    }
+
+    /**
+     * Struct samples of a stream: the origin on the initial sample, the begin and record attributes on the initial and intermediate sample, the
+     * end attributes on the final sample.
+     */
+    static IReadableSamples samples(List<long[]> samples, List<FtrReader.Transaction> stream) {
+        IMemberDescriptor[] members = new IMemberDescriptor[MEMBERS.length];
+        for (int m = 0; m < MEMBERS.length; m++) {
+            String[] member = MEMBERS[m];
+            int type = member[1].equals("INTEGER") ? ISample.DATA_TYPE_INTEGER : member[1].equals("FLOAT") ? ISample.DATA_TYPE_FLOAT
+                    : member[1].equals("ENUM") ? ISample.DATA_TYPE_ENUM : member[1].equals("LOGIC") ? ISample.DATA_TYPE_LOGIC : ISample.DATA_TYPE_TEXT;
+            members[m] = (IMemberDescriptor) Proxy.newProxyInstance(FtrRoundTripTest.class.getClassLoader(), new Class<?>[] { IMemberDescriptor.class },
+                    (proxy, method, args) -> method.getName().equals("getName") ? member[0]
+                            : method.getName().equals("getType") ? type : method.getName().equals("getFormat") ? member[2] : null);
+        }
+        return (IReadableSamples) Proxy.newProxyInstance(FtrRoundTripTest.class.getClassLoader(), new Class<?>[] { IReadableSamples.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "getCount":
+                        return samples.size();
+                    case "getDataType":
+                        return ISample.DATA_TYPE_STRUCT;
+                    case "getMemberDescriptors":
+                        return members;
+                    case "timeAt":
+                        return samples.get((Integer) args[0])[0];
+                    case "groupOrderAt":
+                        return (int) samples.get((Integer) args[0])[2];
+                    case "layerAt":
+                        return (int) samples.get((Integer) args[0])[3];
+                    case "compoundAt": {
+                        long[] sample = samples.get((Integer) args[0]);
+                        FtrReader.Transaction tx = stream.get((int) sample[4]);
+                        int phase = sample[2] == ISample.GO_INITIAL ? FtrWriter.BEGIN : sample[2] == ISample.GO_INTERMEDIATE ? FtrWriter.RECORD : FtrWriter.END;
+                        return (IReadableSample) member -> {
+                            if (member.getName().equals("Origin"))
+                                return phase == FtrWriter.BEGIN ? tx.generator : null;
+                            for (int a = 0; a < tx.getAttributeCount(); a++)
+                                if (tx.getAttributePhase(a) == phase && tx.getAttributeName(a).equals(member.getName()))
+                                    return tx.getAttributeValue(a);
+                            return null;
+                        };
+                    }
+                    default:
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Parse a file lazily and compare the transactions of each stream with the written ones.
+     *
+     * @return number of transactions compared
+     */
+    static int read(File file, List<List<FtrReader.Transaction>> written) throws Exception {
+        FtrReader reader = new FtrReader(null, file.getPath(), null, null, null, new String[][] { { "lazy", "true" } }, null);
+        try (InputStream in = new FileInputStream(file)) {
+            reader.parse(null, in);
+        }
+        int count = 0;
+        for (int s = 0; s < STREAMS; s++) {
+            String name = "top.bus" + s + ".socket";
+            IRecord.Signal signal = reader.getSignal(name);
+            if (signal == null)
+                throw new IllegalStateException("Missing stream " + name);
+            List<FtrReader.Transaction> expected = written.get(s);
+            List<FtrReader.Transaction> read = new ArrayList<>();
+            reader.readTransactions(signal, Long.MIN_VALUE, Long.MAX_VALUE, read::add);
+            if (read.size() != expected.size())
+                throw new IllegalStateException(name + ": read " + read.size() + " transactions, written " + expected.size());
+            for (int n = 0; n < read.size(); n++)
+                compare(name, expected.get(n), read.get(n));
+            count += read.size();
+        }
+        return count;
+    }
+
+    /**
+     * Compare a read transaction with the written one.
+     */
+    static void compare(String stream, FtrReader.Transaction expected, FtrReader.Transaction read) {
+        boolean equal = expected.txId == read.txId && expected.generator.equals(read.generator) && expected.start == read.start
+                && expected.end == read.end && expected.getAttributeCount() == read.getAttributeCount();
+        for (int n = 0; equal && n < expected.getAttributeCount(); n++)
+            equal = expected.getAttributePhase(n) == read.getAttributePhase(n) && expected.getAttributeName(n).equals(read.getAttributeName(n))
+                    && expected.getAttributeValue(n).equals(read.getAttributeValue(n));
+        if (!equal)
+            throw new IllegalStateException(stream + ": read " + read + ", written " + expected);
+    }
+}
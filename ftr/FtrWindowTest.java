@@ -0,0 +1,113 @@
+// FtrWindowTest - Reads time windows of FTR streams with long transactions crossing chunk boundaries
+package de.toem.impulse.extension.eda.transaction.ftr;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import de.toem.impulse.cells.record.IRecord;
+
+/**
+ * FtrWindowTest - Time windows of streams with long transactions.
+ *
+ * Writes a stream of short transactions with FtrWriter in small chunks, interleaved with long transactions that span many chunks. The header end
+ * of a chunk is the start of its last transaction, so a window starting after it still overlaps the long transactions of the chunk. Random
+ * windows are then read with FtrReader.readTransactions (lazy mode, fresh reader and reused reader) and FtrQuery, and compared with the
+ * transactions overlapping the window as written. Throws an IllegalStateException on the first mismatch.
+ *
+ * Not part of the plugin; run from the command line with the impulse bundles on the class path:
+ *
+ * <pre>
+ * java -cp &lt;classes&gt; de.toem.impulse.extension.eda.transaction.ftr.FtrWindowTest [windows]
+ * </pre>
+ */
+public class FtrWindowTest {
+
+    // Stream name
+    private static final String STREAM = "top.dram";
+
+    // Short transactions per long transaction
+    private static final int PERIOD = 500;
+
+    public static void main(String[] args) throws Exception {
+        int windows = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        File file = File.createTempFile("window", ".ftr");
+        try {
+            List<long[]> written = write(file, 20000);
+            long end = 0;
+            for (long[] tx : written)
+                end = Math.max(end, tx[2]);
+            Random random = new Random(windows);
+            FtrReader reused = open(file);
+            try (FtrQuery query = new FtrQuery(file)) {
+                // a window inside a long transaction, after the chunk holding its start
+                long[] longTx = written.get(PERIOD);
+                check(reused, query, written, longTx[1] + (longTx[2] - longTx[1]) / 2, longTx[1] + (longTx[2] - longTx[1]) / 2 + 10);
+                for (int n = 0; n < windows; n++) {
+                    long from = (long) (random.nextDouble() * end);
+                    check(n % 10 == 0 ? open(file) : reused, query, written, from, from + random.nextInt(5000));
+                }
+            }
+            System.out.println(windows + 1 + " windows ok");
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Write short transactions and every PERIOD transactions a long one, in chunks of 1 KB.
+     *
+     * @return id, start and end of the written transactions
+     */
+    static List<long[]> write(File file, int transactions) throws Exception {
+        List<long[]> written = new ArrayList<>();
+        try (FtrWriter writer = new FtrWriter(file, -12)) {
+            writer.setChunkSize(1024);
+            int stream = writer.addStream(STREAM, "tlm");
+            int generator = writer.addGenerator(stream, "burst");
+            long start = 0;
+            for (int n = 0; n < transactions; n++) {
+                start += 10;
+                long end = start + (n % PERIOD == 0 ? 100 * PERIOD : 5);
+                long txId = writer.transaction(generator, start, end);
+                writer.attribute(FtrWriter.BEGIN, "n", n);
+                written.add(new long[] { txId, start, end });
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Parse a file lazily.
+     */
+    static FtrReader open(File file) throws Exception {
+        FtrReader reader = new FtrReader(null, file.getPath(), null, null, null, new String[][] { { "lazy", "true" } }, null);
+        try (InputStream in = new FileInputStream(file)) {
+            reader.parse(null, in);
+        }
+        return reader;
+    }
+
+    /**
+     * Read a window with the reader and the query and compare the transaction ids with the written ones.
+     */
+    static void check(FtrReader reader, FtrQuery query, List<long[]> written, long from, long to) throws Exception {
+        List<Long> expected = new ArrayList<>();
+        for (long[] tx : written)
+            if (tx[2] >= from && tx[1] <= to)
+                expected.add(tx[0]);
+        IRecord.Signal signal = reader.getSignal(STREAM);
+        List<Long> read = new ArrayList<>();
+        reader.readTransactions(signal, from, to, transaction -> read.add(transaction.txId));
+        if (!read.equals(expected))
+            throw new IllegalStateException("Window " + from + ".." + to + ": read " + read + ", written " + expected);
+        List<Long> found = new ArrayList<>();
+        for (FtrQuery.Hit hit : query.find(new FtrQuery.Filter().time(from, to), 2, Integer.MAX_VALUE, null))
+            found.add(hit.txId);
+        if (!found.equals(expected))
+            throw new IllegalStateException("Query " + from + ".." + to + ": found " + found + ", written " + expected);
+    }
+}
@@ -0,0 +1,725 @@
+// FtrWriter - Writes transaction streams to FTR files
+package de.toem.impulse.extension.eda.transaction.ftr;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * FtrWriter - Writes transactions to a chunked, LZ4 compressed FTR file that FtrReader imports (also lazily and memory mapped) and FtrQuery
+ * queries.
+ *
+ * Streams and generators are declared first; transactions are then written with their attributes, and relations between transactions by id.
+ * Transactions are encoded into a chunk buffer per stream. A chunk is written when it reaches the chunk size, or when all chunk buffers together
+ * exceed 64 MB, with the time range of its transactions in the header, so the reader can index the file by chunk headers and skip chunks outside
+ * a time window. New dictionary entries and directory entries are written as incremental sections in front of the first chunk that references
+ * them; relations are collected and written in sections of 64K relations. Sections are LZ4 compressed unless compression does not reduce them.
+ *
+ * The transactions of a stream must be written in order of their start time. Times are integers in units of 10^timeScale seconds (e.g. -12:
+ * picoseconds). The writer is not thread safe.
+ *
+ * <pre>
+ * try (FtrWriter writer = new FtrWriter(file, -12)) {
+ *     int stream = writer.addStream("top.cpu.socket", "tlm");
+ *     int read = writer.addGenerator(stream, "read");
+ *     long tx = writer.transaction(read, 1000, 1800);
+ *     writer.attribute(FtrWriter.BEGIN, "addr", FtrWriter.TYPE_POINTER, 0x40000000L);
+ *     writer.attribute(FtrWriter.END, "status", "OK");
+ *     writer.relation("PARENT/CHILD", parent, tx);
+ * }
+ * </pre>
+ */
+public class FtrWriter implements Closeable {
+
+    // Attribute phases
+    public static final int BEGIN = FtrReader.TX_TAG_BEGIN_ATTR;
+    public static final int RECORD = FtrReader.TX_TAG_RECORD_ATTR;
+    public static final int END = FtrReader.TX_TAG_END_ATTR;
+
+    // Attribute types
+    public static final int TYPE_BOOLEAN = FtrReader.ATTRIBUTE_BOOLEAN;
+    public static final int TYPE_ENUMERATION = FtrReader.ATTRIBUTE_ENUMERATION;
+    public static final int TYPE_INTEGER = FtrReader.ATTRIBUTE_INTEGER;
+    public static final int TYPE_UNSIGNED = FtrReader.ATTRIBUTE_UNSIGNED;
+    public static final int TYPE_FLOATING_POINT_NUMBER = FtrReader.ATTRIBUTE_FLOATING_POINT_NUMBER;
+    public static final int TYPE_BIT_VECTOR = FtrReader.ATTRIBUTE_BIT_VECTOR;
+    public static final int TYPE_LOGIC_VECTOR = FtrReader.ATTRIBUTE_LOGIC_VECTOR;
+    public static final int TYPE_POINTER = FtrReader.ATTRIBUTE_POINTER;
+    public static final int TYPE_STRING = FtrReader.ATTRIBUTE_STRING;
+    public static final int TYPE_TIME = FtrReader.ATTRIBUTE_TIME;
+
+    // Default uncompressed chunk size
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    // Chunk buffers of all streams above which all chunks are written
+    private static final long MAX_BUFFERED = 64L * 1024 * 1024;
+
+    // Relations per relation section
+    private static final int RELATIONS_PER_SECTION = 65536;
+
+    /**
+     * Stream with its chunk buffer.
+     */
+    static final class WriterStream {
+        final int id;
+        final CborEncoder chunk = new CborEncoder(256);
+        int transactions;
+        long chunkStart;
+        long lastStart = Long.MIN_VALUE;
+        long maxEnd = Long.MIN_VALUE;
+
+        WriterStream(int id) {
+            this.id = id;
+        }
+    }
+
+    // Output
+    private final OutputStream out;
+
+    // Compress sections with LZ4
+    private final boolean compress;
+
+    // Uncompressed size at which a chunk is written
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    // Dictionary ids by string; entries from writtenEntries on are not written yet
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private final List<String> entries = new ArrayList<>();
+    private int writtenEntries;
+
+    // Directory entries not written yet
+    private final CborEncoder directory = new CborEncoder(256);
+    private int directoryEntries;
+
+    // Streams by id - 1, stream ids of generators by generator id - 1
+    private final List<WriterStream> streams = new ArrayList<>();
+    private int[] generatorStreams = new int[16];
+    private int generators;
+
+    // Transaction being written: the core info is kept until the attributes are complete
+    private WriterStream current;
+    private long currentId, currentGenerator, currentStart, currentEnd;
+    private final CborEncoder attributes = new CborEncoder(256);
+    private int attributeCount;
+    private long lastId;
+
+    // Relations not written yet: type, from, to
+    private long[] relations = new long[3 * 64];
+    private int relationCount;
+
+    // Bytes in all chunk buffers
+    private long buffered;
+
+    // Section header and compression buffers
+    private final CborEncoder header = new CborEncoder(64);
+    private final CborEncoder section = new CborEncoder(1024);
+    private byte[] compressed = new byte[0];
+
+    private boolean closed;
+
+    /**
+     * Create a writer for a file, with LZ4 compression.
+     *
+     * @param file
+     *            file to be written
+     * @param timeScale
+     *            power of ten of the time unit in seconds, e.g. -12 for picoseconds
+     * @throws IOException
+     *             if the file cannot be created
+     */
+    public FtrWriter(File file, int timeScale) throws IOException {
+        this(new BufferedOutputStream(new FileOutputStream(file), 1 << 16), timeScale, true);
+    }
+
+    /**
+     * Create a writer for an output stream.
+     *
+     * @param out
+     *            output stream, closed with the writer
+     * @param timeScale
+     *            power of ten of the time unit in seconds, e.g. -12 for picoseconds
+     * @param compress
+     *            compress sections with LZ4
+     * @throws IOException
+     *             on write error
+     */
+    public FtrWriter(OutputStream out, int timeScale, boolean compress) throws IOException {
+        this.out = out;
+        this.compress = compress;
+        // self describing CBOR, indefinite array of sections
+        header.writeTag(FtrReader.CBOR_SELF_DESCRIBE_TAG);
+        header.writeIndefiniteArray();
+        // info: time scale and epoch
+        section.writeArrayHeader(FtrReader.EXPECTED_INFO_ARRAY_SIZE);
+        section.writeInt(timeScale);
+        section.writeTag(FtrReader.CBOR_EPOCH_TIME_TAG);
+        section.writeInt(System.currentTimeMillis() / 1000);
+        header.writeTag(FtrReader.FILE_TAG_INFO);
+        header.writeByteStringHeader(section.size());
+        writeSection(section.buffer(), section.size());
+    }
+
+    /**
+     * Set the uncompressed size at which the chunk of a stream is written (default 1 MB). Larger chunks compress better; smaller chunks let
+     * lazy readers and time windows load less data.
+     *
+     * @param chunkSize
+     *            chunk size in bytes
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = Math.max(1024, chunkSize);
+    }
+
+    /**
+     * Add a stream.
+     *
+     * @param name
+     *            stream name, scopes separated by '.'
+     * @param kind
+     *            stream kind (e.g. "tlm")
+     * @return stream id
+     */
+    public int addStream(String name, String kind) {
+        WriterStream stream = new WriterStream(streams.size() + 1);
+        streams.add(stream);
+        directory.writeTag(FtrReader.DIR_TAG_STREAM);
+        directory.writeArrayHeader(FtrReader.EXPECTED_STREAM_DEF_ARRAY_SIZE);
+        directory.writeInt(stream.id);
+        directory.writeInt(id(name));
+        directory.writeInt(id(kind != null ? kind : ""));
+        directoryEntries++;
+        return stream.id;
+    }
+
+    /**
+     * Add a generator to a stream.
+     *
+     * @param stream
+     *            stream id
+     * @param name
+     *            generator name
+     * @return generator id
+     */
+    public int addGenerator(int stream, String name) {
+        stream(stream);
+        if (generators == generatorStreams.length)
+            generatorStreams = Arrays.copyOf(generatorStreams, 2 * generators);
+        generatorStreams[generators++] = stream;
+        directory.writeTag(FtrReader.DIR_TAG_GENERATOR);
+        directory.writeArrayHeader(FtrReader.EXPECTED_GENERATOR_DEF_ARRAY_SIZE);
+        directory.writeInt(generators);
+        directory.writeInt(id(name));
+        directory.writeInt(stream);
+        directoryEntries++;
+        return generators;
+    }
+
+    /**
+     * Start a transaction. Attributes written until the next transaction belong to it.
+     *
+     * @param generator
+     *            generator id
+     * @param start
+     *            start time, not before the start of the previous transaction of the stream
+     * @param end
+     *            end time, not before start
+     * @return transaction id
+     * @throws IOException
+     *             on write error
+     */
+    public long transaction(int generator, long start, long end) throws IOException {
+        commit();
+        if (generator < 1 || generator > generators)
+            throw new IllegalArgumentException("Unknown generator id: " + generator);
+        WriterStream stream = streams.get(generatorStreams[generator - 1] - 1);
+        if (start < stream.lastStart)
+            throw new IllegalArgumentException("Transactions of a stream must be written in order of their start time: " + start + " < " + stream.lastStart);
+        if (end < start)
+            throw new IllegalArgumentException("Transaction ends before its start: " + end + " < " + start);
+        current = stream;
+        currentId = ++lastId;
+        currentGenerator = generator;
+        currentStart = start;
+        currentEnd = end;
+        return currentId;
+    }
+
+    /**
+     * Add a boolean attribute to the current transaction.
+     *
+     * @param phase
+     *            BEGIN, RECORD or END
+     * @param name
+     *            attribute name
+     * @param value
+     *            value
+     */
+    public void attribute(int phase, String name, boolean value) {
+        attributeHeader(phase, name, TYPE_BOOLEAN);
+        attributes.writeBoolean(value);
+    }
+
+    /**
+     * Add a signed integer attribute to the current transaction.
+     *
+     * @param phase
+     *            BEGIN, RECORD or END
+     * @param name
+     *            attribute name
+     * @param value
+     *            value
+     */
+    public void attribute(int phase, String name, long value) {
+        attribute(phase, name, TYPE_INTEGER, value);
+    }
+
+    /**
+     * Add an integer attribute to the current transaction.
+     *
+     * @param phase
+     *            BEGIN, RECORD or END
+     * @param name
+     *            attribute name
+     * @param type
+     *            TYPE_INTEGER, TYPE_UNSIGNED, TYPE_POINTER or TYPE_TIME
+     * @param value
+     *            value
+     */
+    public void attribute(int phase, String name, int type, long value) {
+        if (type != TYPE_INTEGER && type != TYPE_UNSIGNED && type != TYPE_POINTER && type != TYPE_TIME)
+            throw new IllegalArgumentException("Not an integer attribute type: " + type);
+        attributeHeader(phase, name, type);
+        attributes.writeInt(value);
+    }
+
+    /**
+     * Add a floating point attribute to the current transaction. FTR stores single precision values.
+     *
+     * @param phase
+     *            BEGIN, RECORD or END
+     * @param name
+     *            attribute name
+     * @param value
+     *            value
+     */
+    public void attribute(int phase, String name, double value) {
+        attributeHeader(phase, name, TYPE_FLOATING_POINT_NUMBER);
+        attributes.writeFloat((float) value);
+    }
+
+    /**
+     * Add a string attribute to the current transaction.
+     *
+     * @param phase
+     *            BEGIN, RECORD or END
+     * @param name
+     *            attribute name
+     * @param value
+     *            value
+     */
+    public void attribute(int phase, String name, String value) {
+        attribute(phase, name, TYPE_STRING, value);
+    }
+
+    /**
+     * Add a textual attribute to the current transaction. The value is stored in the dictionary.
+     *
+     * @param phase
+     *            BEGIN, RECORD or END
+     * @param name
+     *            attribute name
+     * @param type
+     *            TYPE_STRING, TYPE_ENUMERATION, TYPE_BIT_VECTOR or TYPE_LOGIC_VECTOR
+     * @param value
+     *            value
+     */
+    public void attribute(int phase, String name, int type, String value) {
+        if (type != TYPE_STRING && type != TYPE_ENUMERATION && type != TYPE_BIT_VECTOR && type != TYPE_LOGIC_VECTOR)
+            throw new IllegalArgumentException("Not a textual attribute type: " + type);
+        attributeHeader(phase, name, type);
+        attributes.writeInt(id(value != null ? value : ""));
+    }
+
+    /**
+     * Add a relation between two transactions. The transactions may be written before or after the relation.
+     *
+     * @param type
+     *            relation type (e.g. "PARENT/CHILD")
+     * @param from
+     *            id of the source transaction
+     * @param to
+     *            id of the target transaction
+     * @throws IOException
+     *             on write error
+     */
+    public void relation(String type, long from, long to) throws IOException {
+        if (3 * relationCount + 3 > relations.length)
+            relations = Arrays.copyOf(relations, 2 * relations.length);
+        relations[3 * relationCount] = id(type);
+        relations[3 * relationCount + 1] = from;
+        relations[3 * relationCount + 2] = to;
+        if (++relationCount >= RELATIONS_PER_SECTION)
+            writeRelations();
+    }
+
+    /**
+     * Write all buffered transactions and relations, e.g. for a reader following the file.
+     *
+     * @throws IOException
+     *             on write error
+     */
+    public void flush() throws IOException {
+        commit();
+        for (WriterStream stream : streams)
+            writeChunk(stream, stream.lastStart);
+        writeRelations();
+        writePending();
+        out.flush();
+    }
+
+    /**
+     * Write all buffered data, terminate the file and close the output.
+     *
+     * @throws IOException
+     *             on write error
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            commit();
+            // nothing follows: the last chunks cover the ends of their transactions
+            for (WriterStream stream : streams)
+                writeChunk(stream, Math.max(stream.lastStart, stream.maxEnd));
+            writeRelations();
+            writePending();
+            header.writeBreak();
+            writeSection(null, 0);
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Get the stream of an id.
+     */
+    private WriterStream stream(int id) {
+        if (id < 1 || id > streams.size())
+            throw new IllegalArgumentException("Unknown stream id: " + id);
+        return streams.get(id - 1);
+    }
+
+    /**
+     * Get the dictionary id of a string, adding it if new.
+     */
+    private int id(String value) {
+        Integer id = dictionary.get(value);
+        if (id == null) {
+            id = entries.size();
+            dictionary.put(value, id);
+            entries.add(value);
+        }
+        return id;
+    }
+
+    /**
+     * Start an attribute element of the current transaction.
+     */
+    private void attributeHeader(int phase, String name, int type) {
+        if (current == null)
+            throw new IllegalStateException("No transaction to add attribute " + name + " to");
+        if (phase != BEGIN && phase != RECORD && phase != END)
+            throw new IllegalArgumentException("Invalid attribute phase: " + phase);
+        attributes.writeTag(phase);
+        attributes.writeArrayHeader(FtrReader.EXPECTED_ATTR_ARRAY_SIZE);
+        attributes.writeInt(id(name));
+        attributes.writeInt(type);
+        attributeCount++;
+    }
+
+    /**
+     * Append the current transaction to the chunk of its stream, and write the chunk when it is full.
+     */
+    private void commit() throws IOException {
+        WriterStream stream = current;
+        if (stream == null)
+            return;
+        current = null;
+        CborEncoder chunk = stream.chunk;
+        int size = chunk.size();
+        if (stream.transactions == 0) {
+            chunk.writeIndefiniteArray();
+            stream.chunkStart = currentStart;
+        }
+        chunk.writeArrayHeader(1 + attributeCount);
+        chunk.writeTag(FtrReader.TX_TAG_CORE);
+        chunk.writeArrayHeader(FtrReader.EXPECTED_TX_INFO_ARRAY_SIZE);
+        chunk.writeInt(currentId);
+        chunk.writeInt(currentGenerator);
+        chunk.writeInt(currentStart);
+        chunk.writeInt(currentEnd);
+        chunk.write(attributes.buffer(), 0, attributes.size());
+        attributes.reset();
+        attributeCount = 0;
+        stream.transactions++;
+        stream.lastStart = currentStart;
+        stream.maxEnd = Math.max(stream.maxEnd, currentEnd);
+        buffered += chunk.size() - size;
+        if (chunk.size() >= chunkSize)
+            // later transactions of the stream start at or after lastStart: the reader writes events up to it after this chunk
+            writeChunk(stream, stream.lastStart);
+        else if (buffered > MAX_BUFFERED)
+            for (WriterStream other : streams)
+                writeChunk(other, other.lastStart);
+    }
+
+    /**
+     * Write the chunk of a stream, if it holds transactions.
+     *
+     * @param endTime
+     *            end time of the chunk header: all begin and end events up to it are complete after this chunk
+     */
+    private void writeChunk(WriterStream stream, long endTime) throws IOException {
+        if (stream.transactions == 0)
+            return;
+        writePending();
+        CborEncoder chunk = stream.chunk;
+        chunk.writeBreak();
+        int length = compress(chunk);
+        if (length >= 0) {
+            header.writeTag(FtrReader.FILE_TAG_TX_COMPRESSED);
+            header.writeArrayHeader(FtrReader.EXPECTED_COMP_TX_ARRAY_SIZE);
+        } else {
+            header.writeTag(FtrReader.FILE_TAG_TX_UNCOMPRESSED);
+            header.writeArrayHeader(FtrReader.EXPECTED_TX_ARRAY_SIZE);
+        }
+        header.writeInt(stream.id);
+        header.writeInt(stream.chunkStart);
+        header.writeInt(endTime);
+        if (length >= 0) {
+            header.writeInt(chunk.size());
+            header.writeByteStringHeader(length);
+            writeSection(compressed, length);
+        } else {
+            header.writeByteStringHeader(chunk.size());
+            writeSection(chunk.buffer(), chunk.size());
+        }
+        buffered -= chunk.size() - 1;
+        chunk.reset();
+        stream.transactions = 0;
+    }
+
+    /**
+     * Write new dictionary and directory entries.
+     */
+    private void writePending() throws IOException {
+        if (writtenEntries < entries.size()) {
+            section.reset();
+            section.writeMapHeader(entries.size() - writtenEntries);
+            for (int n = writtenEntries; n < entries.size(); n++) {
+                section.writeInt(n);
+                section.writeTextString(entries.get(n));
+            }
+            writtenEntries = entries.size();
+            writePayload(FtrReader.FILE_TAG_DICT_UNCOMPRESSED, FtrReader.FILE_TAG_DICT_COMPRESSED, section);
+        }
+        if (directoryEntries > 0) {
+            section.reset();
+            section.writeArrayHeader(directoryEntries);
+            section.write(directory.buffer(), 0, directory.size());
+            directory.reset();
+            directoryEntries = 0;
+            writePayload(FtrReader.FILE_TAG_DIR_UNCOMPRESSED, FtrReader.FILE_TAG_DIR_COMPRESSED, section);
+        }
+    }
+
+    /**
+     * Write the collected relations.
+     */
+    private void writeRelations() throws IOException {
+        if (relationCount == 0)
+            return;
+        // relation types are dictionary entries
+        writePending();
+        section.reset();
+        section.writeIndefiniteArray();
+        for (int n = 0; n < 3 * relationCount; n += 3) {
+            section.writeArrayHeader(FtrReader.EXPECTED_REL_ARRAY_SIZE_SHORT);
+            section.writeInt(relations[n]);
+            section.writeInt(relations[n + 1]);
+            section.writeInt(relations[n + 2]);
+        }
+        section.writeBreak();
+        relationCount = 0;
+        writePayload(FtrReader.FILE_TAG_REL_UNCOMPRESSED, FtrReader.FILE_TAG_REL_COMPRESSED, section);
+    }
+
+    /**
+     * Write a dictionary, directory or relation section: tagged byte string, or tagged [uncompressed size, byte string] if compressed.
+     */
+    private void writePayload(int uncompressedTag, int compressedTag, CborEncoder payload) throws IOException {
+        int length = compress(payload);
+        if (length >= 0) {
+            header.writeTag(compressedTag);
+            header.writeArrayHeader(FtrReader.EXPECTED_COMP_DICT_ARRAY_SIZE);
+            header.writeInt(payload.size());
+            header.writeByteStringHeader(length);
+            writeSection(compressed, length);
+        } else {
+            header.writeTag(uncompressedTag);
+            header.writeByteStringHeader(payload.size());
+            writeSection(payload.buffer(), payload.size());
+        }
+    }
+
+    /**
+     * Compress a payload into the compression buffer.
+     *
+     * @return compressed length, or -1 if not compressed
+     */
+    private int compress(CborEncoder payload) {
+        if (!compress)
+            return -1;
+        int max = FtrReader.lz4MaxCompressedSize(payload.size());
+        if (compressed.length < max)
+            compressed = new byte[max];
+        int length = FtrReader.compressLZ4(payload.buffer(), 0, payload.size(), compressed);
+        return length >= 0 && length < payload.size() ? length : -1;
+    }
+
+    /**
+     * Write the section header followed by its payload.
+     */
+    private void writeSection(byte[] payload, int length) throws IOException {
+        out.write(header.buffer(), 0, header.size());
+        header.reset();
+        if (length > 0)
+            out.write(payload, 0, length);
+    }
+}
+
+/**
+ * Growable byte buffer with CBOR encoding of the items used by FTR files (counterpart of CborDecoder).
+ */
+final class CborEncoder {
+
+    private byte[] buffer;
+    private int size;
+
+    CborEncoder(int capacity) {
+        buffer = new byte[capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    void reset() {
+        size = 0;
+    }
+
+    void writeInt(long value) {
+        if (value >= 0)
+            writeHead(CborConstants.TYPE_UNSIGNED_INTEGER, value);
+        else
+            writeHead(CborConstants.TYPE_NEGATIVE_INTEGER, -1 - value);
+    }
+
+    void writeTag(long tag) {
+        writeHead(CborConstants.TYPE_TAG, tag);
+    }
+
+    void writeArrayHeader(long length) {
+        writeHead(CborConstants.TYPE_ARRAY, length);
+    }
+
+    void writeMapHeader(long length) {
+        writeHead(CborConstants.TYPE_MAP, length);
+    }
+
+    void writeByteStringHeader(long length) {
+        writeHead(CborConstants.TYPE_BYTE_STRING, length);
+    }
+
+    void writeIndefiniteArray() {
+        ensure(1);
+        buffer[size++] = (byte) (CborConstants.TYPE_ARRAY << 5 | CborConstants.BREAK);
+    }
+
+    void writeBreak() {
+        ensure(1);
+        buffer[size++] = (byte) CborConstants.BREAK_BYTE;
+    }
+
+    void writeBoolean(boolean value) {
+        ensure(1);
+        buffer[size++] = (byte) (CborConstants.TYPE_FLOAT_SIMPLE << 5 | (value ? CborConstants.TRUE : CborConstants.FALSE));
+    }
+
+    void writeFloat(float value) {
+        ensure(5);
+        buffer[size++] = (byte) (CborConstants.TYPE_FLOAT_SIMPLE << 5 | CborConstants.SINGLE_PRECISION_FLOAT);
+        writeBytes(Float.floatToIntBits(value) & 0xffffffffL, 4);
+    }
+
+    void writeTextString(String value) {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        writeHead(CborConstants.TYPE_TEXT_STRING, utf8.length);
+        write(utf8, 0, utf8.length);
+    }
+
+    void write(byte[] data, int offset, int length) {
+        ensure(length);
+        System.arraycopy(data, offset, buffer, size, length);
+        size += length;
+    }
+
+    /**
+     * Write the initial byte and argument of an item (value is an unsigned 64 bit value).
+     */
+    private void writeHead(int major, long value) {
+        ensure(9);
+        int type = major << 5;
+        if (value >= 0 && value < CborConstants.ONE_BYTE)
+            buffer[size++] = (byte) (type | value);
+        else if (value >= 0 && value < 0x100) {
+            buffer[size++] = (byte) (type | CborConstants.ONE_BYTE);
+            writeBytes(value, 1);
+        } else if (value >= 0 && value < 0x10000) {
+            buffer[size++] = (byte) (type | CborConstants.TWO_BYTES);
+            writeBytes(value, 2);
+        } else if (value >= 0 && value < 0x100000000L) {
+            buffer[size++] = (byte) (type | CborConstants.FOUR_BYTES);
+            writeBytes(value, 4);
+        } else {
+            buffer[size++] = (byte) (type | CborConstants.EIGHT_BYTES);
+            writeBytes(value, 8);
+        }
+    }
+
+    private void writeBytes(long value, int count) {
+        for (int shift = 8 * (count - 1); shift >= 0; shift -= 8)
+            buffer[size++] = (byte) (value >>> shift);
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > buffer.length)
+            buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, size + extra));
+    }
+}
@@ -0,0 +1,159 @@
+// ScvParallelTest - Parses an SCV file line by line and with parallel tokenizing and compares the written samples
+package de.toem.impulse.extension.eda.transaction.scv;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import de.toem.impulse.cells.record.IRecord;
+import de.toem.impulse.samples.ISamplesWriter;
+import de.toem.impulse.samples.IStructSamplesWriter;
+import de.toem.impulse.samples.raw.StructMember;
+
+/**
+ * ScvParallelTest - Line by line and parallel tokenizing.
+ *
+ * Writes an SCV file of several blocks (see ScvReader.BLOCK_SIZE) with attribute values of all types, quoted and unquoted, with trailing tokens
+ * and blanks, and parses it once with tokenizing on the parsing thread (threads=0) and once with parallel tokenizing. The samples written into
+ * the signals (time, order, layer and attribute values) are recorded and compared. Throws an IllegalStateException on the first difference.
+ *
+ * Not part of the plugin; run from the command line with the impulse bundles on the class path:
+ *
+ * <pre>
+ * java -cp &lt;classes&gt; de.toem.impulse.extension.eda.transaction.scv.ScvParallelTest [transactions] [threads]
+ * </pre>
+ */
+public class ScvParallelTest {
+
+    // Begin and end attribute types of the generator of each stream
+    private static final String[][] TYPES = { { "POINTER", "BOOLEAN" }, { "STRING", "FLOATING_POINT_NUMBER" }, { "INTEGER", "ENUMERATION" },
+            { "UNSIGNED", "TEXT" } };
+
+    public static void main(String[] args) throws Exception {
+        int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        File file = File.createTempFile("parallel", ".txlog");
+        try {
+            write(file, transactions);
+            List<String> direct = parse(file, 0);
+            List<String> parallel = parse(file, threads);
+            if (direct.isEmpty())
+                throw new IllegalStateException("No samples written");
+            for (int n = 0; n < Math.min(direct.size(), parallel.size()); n++)
+                if (!direct.get(n).equals(parallel.get(n)))
+                    throw new IllegalStateException("Sample " + n + ": parallel " + parallel.get(n) + ", line by line " + direct.get(n));
+            if (direct.size() != parallel.size())
+                throw new IllegalStateException("Parallel " + parallel.size() + " samples, line by line " + direct.size());
+            System.out.println(file.length() / 1024 + " KB, " + direct.size() + " samples ok");
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Write streams with one generator each and random transactions.
+     */
+    static void write(File file, int transactions) throws Exception {
+        Random random = new Random(transactions);
+        try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+            for (int s = 0; s < TYPES.length; s++) {
+                int stream = 2 * s + 1;
+                out.println("scv_tr_stream (ID " + stream + ", name \"top.bus" + s + "\", kind \"transactor\")");
+                out.println("scv_tr_generator (ID " + (stream + 1) + ", name \"access\", scv_tr_stream " + stream + ",");
+                out.println("begin_attribute (ID 0, name \"begin\", type \"" + TYPES[s][0] + "\")");
+                out.println("end_attribute (ID 1, name \"end\", type \"" + TYPES[s][1] + "\")");
+                out.println(")");
+            }
+            long[] times = new long[TYPES.length];
+            for (int id = 1; id <= transactions; id++) {
+                int s = random.nextInt(TYPES.length);
+                int generator = 2 * s + 2;
+                long start = times[s] += 1 + random.nextInt(100);
+                long end = times[s] += random.nextInt(3) == 0 ? 0 : random.nextInt(50);
+                out.println("tx_begin " + id + " " + generator + " " + start + " ns");
+                out.println("a " + value(random, TYPES[s][0], id));
+                if (random.nextInt(4) == 0)
+                    out.println("tx_record_attribute " + id + " \"delay\" STRING = \"" + random.nextInt(10) + " ns\"");
+                out.println("tx_end " + id + " " + generator + " " + end + " ns");
+                out.println("a " + value(random, TYPES[s][1], id));
+            }
+        }
+    }
+
+    /**
+     * Random value text of a type, quoted and unquoted, with trailing blanks and tokens.
+     */
+    static String value(Random random, String type, int id) {
+        switch (type) {
+        case "POINTER":
+            return "0x" + Long.toHexString(random.nextLong());
+        case "UNSIGNED":
+            return String.valueOf(random.nextLong() & 0xffffffffL);
+        case "INTEGER":
+            return random.nextInt(2000) - 1000 + (random.nextBoolean() ? "" : "  ");
+        case "BOOLEAN":
+            return String.valueOf(random.nextBoolean());
+        case "FLOATING_POINT_NUMBER":
+            return random.nextInt(100000) / 100.0 + (random.nextBoolean() ? "" : "e3");
+        case "TEXT":
+            return random.nextBoolean() ? "\"quoted text " + id + "\"" : "free text " + id + "  ";
+        default:
+            return random.nextBoolean() ? "\"BEGIN_REQ\"" : random.nextBoolean() ? "END_REQ  " : "END_RESP pending " + id;
+        }
+    }
+
+    /**
+     * Parse a file and record the samples written into the signals.
+     *
+     * @return the samples in the order written, prefixed with the signal name
+     */
+    static List<String> parse(File file, int threads) throws Exception {
+        List<String> written = Collections.synchronizedList(new ArrayList<>());
+        ScvReader reader = new ScvReader(null, file.getPath(), null, null, null, new String[][] { { "threads", String.valueOf(threads) } }, null) {
+            @Override
+            protected ISamplesWriter getWriter(IRecord.Signal signal) {
+                return recorder(signal.getName(), written);
+            }
+        };
+        try (InputStream in = new FileInputStream(file)) {
+            reader.parse(null, in);
+        }
+        return written;
+    }
+
+    /**
+     * Create a struct writer that records the written samples and relations.
+     */
+    static IStructSamplesWriter recorder(String name, List<String> written) {
+        return (IStructSamplesWriter) Proxy.newProxyInstance(ScvParallelTest.class.getClassLoader(), new Class<?>[] { IStructSamplesWriter.class },
+                (proxy, method, args) -> {
+                    if (method.getName().equals("write") && args.length == 5 && args[4] instanceof StructMember[]) {
+                        StringBuilder sample = new StringBuilder(name).append(' ').append(args[0]).append(' ').append(args[2]).append(' ')
+                                .append(args[3]);
+                        for (StructMember member : (StructMember[]) args[4])
+                            if (member != null && member.isValid())
+                                sample.append(' ').append(member.getName()).append('=').append(member.getValue());
+                        written.add(sample.toString());
+                    } else if (method.getName().equals("attachRelation") || method.getName().equals("insertRelationAt"))
+                        written.add(name + ' ' + method.getName() + Arrays.toString(args));
+                    Class<?> type = method.getReturnType();
+                    if (type == boolean.class)
+                        return !method.getName().equals("isOpen");
+                    else if (type == int.class)
+                        return 0;
+                    else if (type == long.class)
+                        return 0L;
+                    else if (type == String.class)
+                        return name;
+                    return null;
+                });
+    }
+}
@@ -1,10 +1,19 @@
 package de.toem.impulse.extension.eda.transaction.scv;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import de.toem.impulse.ImpulseBase;
 import de.toem.impulse.cells.record.IRecord;
@@ -87,6 +96,15 @@ public class ScvReader extends AbstractSingleDomainRecordReader {
     // Default history size for event vector
     private static final int DEFAULT_HISTORY = 1000000;
 
+    // Default number of tokenizing threads (0: tokenize on the parsing thread)
+    private static final int DEFAULT_THREADS = 0;
+
+    // Size of the byte ranges tokenized in parallel (extended to the next line end)
+    static final int BLOCK_SIZE = 4 * 1024 * 1024;
+
+    // Blocks in flight per tokenizing thread
+    private static final int BLOCKS_PER_THREAD = 2;
+
     // ========================================================================================================================
     // Parsing state and configuration
     // ========================================================================================================================
@@ -139,6 +157,18 @@ public class ScvReader extends AbstractSingleDomainRecordReader {
     private long start;
     // End time for parsing
     private long end;
+    // Time base of the record
+    private TimeBase timeBase;
+    // Whether the first transaction of the start/end window has been seen
+    private boolean isStarted;
+    // Number of tokenizing threads (0: tokenize on the parsing thread)
+    private int threads;
+    // Tokenizer of the parsing thread (null when tokenizing in parallel)
+    private ScvTokenizer tokenizer;
+    // Parallel tokenizer (null when tokenizing on the parsing thread)
+    private ScvPipeline pipeline;
+    // Tokenized lines, positioned at the line being interpreted
+    private ScvRecords records;
 
     // ========================================================================================================================
     // Token constants for SCV parsing
@@ -263,6 +293,7 @@ public class ScvReader extends AbstractSingleDomainRecordReader {
                 .add("excludeAllRelation", true, null, "Exclude all relations", null, null)
                 .add("excludeAllRecordAttributes", false, null, "Exclude all record attributes", null, null)
                 .add("maxAttributes", DEFAULT_ATTRIBUTES, null, null, null, "Max number of attributes", null, null)
+                .add("threads", DEFAULT_THREADS, null, null, null, "Tokenizing threads", null, null)
                 .add("includeGenerators", "", null, null, "Include Generators", null, null)
                 .add("excludeGenerators", "", null, null, "Exclude Generators", null, null)
                 .add("includeAttributes", "", null, null, "Include Attributes", null, null)
@@ -370,17 +401,28 @@ public class ScvReader extends AbstractSingleDomainRecordReader {
 
         // lines
         int linesProcessed = 0;
-        boolean isStarted = false;
+        this.isStarted = false;
         boolean stop = false;
+        this.timeBase = timeBase;
+        this.threads = Utils.parseInt(getProperty("threads"), DEFAULT_THREADS);
 
         try {
-            final ScvLineParser line = this.lineParser = new ScvLineParser(decompressStream(in)/* ,charset */);
+            // tokenize on this thread, or in parallel with a tokenizer pool
+            if (threads > 0) {
+                this.pipeline = new ScvPipeline(decompressStream(in), threads);
+                this.records = null;
+            } else {
+                this.lineParser = new ScvLineParser(decompressStream(in)/* ,charset */);
+                this.tokenizer = new ScvTokenizer(lineParser, true);
+                this.records = new ScvRecords();
+                this.pipeline = null;
+            }
 
             // init record
             initRecord("Transaction File", timeBase);
             changed(CHANGED_RECORD);
 
-            while (line.readLine() && !stop && (progress == null || !progress.isCanceled())) {
+            while (nextLine() && !stop && (progress == null || !progress.isCanceled())) {
 
                 // processed
                 linesProcessed++;
@@ -389,65 +431,37 @@ public class ScvReader extends AbstractSingleDomainRecordReader {
                     changed(CHANGED_CURRENT);
                 }
 
-                // extract token and dispatch handling
-                switch (line.extractTokenHash()) {
+                // dispatch by token; fields are taken from the tokenized line in the order of the line
+                final ScvRecords line = records;
+                switch (line.token()) {
                 case TOKEN_SCV_TR_STREAM: {
-                    line.pass('(');
-                    line.pass("ID".toCharArray());
-                    int id = (int) line.extractInt();
-                    line.pass(',');
-                    line.pass("name".toCharArray());
-                    String name = line.extractStringifiedText();
-                    line.pass(',');
-                    line.pass("kind".toCharArray());
-                    String kind = line.extractStringifiedText();
-                    line.pass(')');
+                    line.check();
+                    int id = (int) line.nextNumber();
+                    String name = (String) line.nextObject();
+                    String kind = (String) line.nextObject();
                     new Stream(id, name, kind);
                 }
                     break;
                 case TOKEN_SCV_TR_GENERATOR: {
-                    line.pass('(');
-                    line.pass("ID".toCharArray());
-                    int id = (int) line.extractInt();
-                    line.pass(',');
-                    line.pass("name".toCharArray());
-                    String name = line.extractStringifiedText();
-                    line.pass(',');
-                    line.pass("scv_tr_stream".toCharArray());
-                    int sid = (int) line.extractInt();
-                    line.pass(',');
+                    line.check();
+                    int id = (int) line.nextNumber();
+                    String name = (String) line.nextObject();
+                    int sid = (int) line.nextNumber();
                     if (!streams.has(sid))
                         throw new ParseException(0, "Invalid stream id " + sid + " for generator " + id);
                     Generator generator = new Generator(id, name, sid);
 
                     List<StructMember> begin = new ArrayList<StructMember>();
                     List<StructMember> end = new ArrayList<StructMember>();
-                    while (line.readLine() && !stop && (progress == null || !progress.isCanceled())) {
-                        final int token = line.extractTokenHash();
-                        if (token == TOKEN_BEGIN_ATTRIBUTE) {
-                            line.pass('(');
-                            line.pass("ID".toCharArray());
-                            int aid = (int) line.extractInt();
-                            line.pass(',');
-                            line.pass("name".toCharArray());
-                            String aname = line.extractStringifiedToken();
-                            line.pass(',');
-                            line.pass("type".toCharArray());
-                            String type = line.extractStringifiedToken();
-                            line.pass(')');
-                            begin.add(new StructMember(-1, null, aname, null, null, null, structType(aname, type), -1, format(aname, type), null));
-                        } else if (token == TOKEN_END_ATTRIBUTE) {
-                            line.pass('(');
-                            line.pass("ID".toCharArray());
-                            int aid = (int) line.extractInt();
-                            line.pass(',');
-                            line.pass("name".toCharArray());
-                            String aname = line.extractStringifiedToken();
-                            line.pass(',');
-                            line.pass("type".toCharArray());
-                            String type = line.extractStringifiedToken();
-                            line.pass(')');
-                            end.add(new StructMember(-1, null, aname, null, null, null, structType(aname, type), -1, format(aname, type), null));
+                    while (nextLine() && !stop && (progress == null || !progress.isCanceled())) {
+                        final ScvRecords attribute = records;
+                        final int token = attribute.token();
+                        if (token == TOKEN_BEGIN_ATTRIBUTE || token == TOKEN_END_ATTRIBUTE) {
+                            attribute.check();
+                            String aname = (String) attribute.nextObject();
+                            String type = (String) attribute.nextObject();
+                            (token == TOKEN_BEGIN_ATTRIBUTE ? begin : end)
+                                    .add(new StructMember(-1, null, aname, null, null, null, structType(aname, type), -1, format(aname, type), null));
                         } else if (token == TOKEN_SCV_END_GENERATOR) {
                             generator.init(begin, end);
                             break;
@@ -456,8 +470,9 @@ public class ScvReader extends AbstractSingleDomainRecordReader {
                 }
                     break;
                 case TOKEN_TX_BEGIN: {
-                    int id = (int) line.extractInt();
-                    int gid = (int) line.extractInt();
+                    line.check(2);
+                    int id = (int) line.nextNumber();
+                    int gid = (int) line.nextNumber();
                     Generator generator = generators.get(gid);
                     if (generator == null)
                         throw new ParseException(0, "Invalid generator id " + gid + " for tx_begin " + id);
@@ -466,9 +481,8 @@ public class ScvReader extends AbstractSingleDomainRecordReader {
                         currentEvent = EXLUDED;
                         break;
                     }
-                    long t = line.extractLong();
-                    TimeBase base = line.extractUnit();
-                    t = base.convertTo(timeBase, t);
+                    line.check();
+                    long t = line.nextNumber();
                     if (!isStarted) {
                         if (t < start) {
                             events.exclude(id);
@@ -486,8 +500,9 @@ public class ScvReader extends AbstractSingleDomainRecordReader {
                 }
                     break;
                 case TOKEN_TX_END: {
-                    int id = (int) line.extractInt();
-                    int gid = (int) line.extractInt();
+                    line.check(2);
+                    int id = (int) line.nextNumber();
+                    int gid = (int) line.nextNumber();
                     Generator generator = generators.get(gid);
                     if (generator == null)
                         throw new ParseException(0, "Invalid generator id " + gid + " for tx_end " + id);
@@ -495,9 +510,8 @@ public class ScvReader extends AbstractSingleDomainRecordReader {
                         currentEvent = EXLUDED;
                         break;
                     }
-                    long t = line.extractLong();
-                    TimeBase base = line.extractUnit();
-                    t = base.convertTo(timeBase, t);
+                    line.check();
+                    long t = line.nextNumber();
                     if (!isStarted) {
                         if (t < start) {
                             events.exclude(id);
@@ -535,15 +549,20 @@ public class ScvReader extends AbstractSingleDomainRecordReader {
                     int idx = currentEvent.attributePos;
                     if (idx < 0)
                         throw new ParseException(0, "Invalid attribute :" + currentEvent.id);
-                    final Object value = line.extractValue(currentEvent.generator.attributes[idx]);
+                    line.check();
+                    Object value = line.nextObject();
+                    // values tokenized in parallel are converted here, to the attribute of the current event
+                    if (value instanceof ScvValue)
+                        value = ((ScvValue) value).convert(currentEvent.generator.attributes[idx]);
                     if (value == null)
-                        throw new ParseException(0, "Invalid attribute value:" + currentEvent.id + "," + line);
+                        throw new ParseException(0, "Invalid attribute value:" + currentEvent.id);
                     currentEvent.attributes[idx] = value;
                 }
                     break;
                 case TOKEN_TX_RECORD_ATTRIBUTE: {
                     if (!excludeAllRecordAttributes || !isStarted) {
-                        int id = (int) line.extractInt();
+                        line.check(1);
+                        int id = (int) line.nextNumber();
                         Event event = currentEvent != null && currentEvent.id == id ? currentEvent : events.get(id);
                         if (event == EXLUDED)
                             break;
@@ -553,24 +572,26 @@ public class ScvReader extends AbstractSingleDomainRecordReader {
                             throw new ParseException(0,
                                     "Can not find event for record attribute (allready written):" + id + " Please try extending backlog.");
 
-                        final ScvLineParser.Pair nameType = line.extractNameTypePair();
+                        line.check(2);
+                        final ScvLineParser.Pair nameType = (ScvLineParser.Pair) line.nextObject();
                         int idx = event.generator.getAttributeIndex(nameType);
                         if (idx < 0)
                             throw new ParseException(0, "Invalid record attribute :" + id + "," + nameType.o1 + "," + nameType.o2);
                         else if (idx == 0) // excluded
                             continue;
-                        line.pass('=');
-                        final Object value = line.extractValue(event.generator.attributes[idx]);
+                        line.check();
+                        final Object value = line.nextObject();
                         if (value == null)
-                            throw new ParseException(0, "Invalid record attribute value:" + id + "," + line);
+                            throw new ParseException(0, "Invalid record attribute value:" + id + "," + nameType.o1);
                         event.attributes[idx] = value;
                     }
                 }
                     break;
                 case TOKEN_TX_RELATION: {
                     if (!excludeAllRelation || !isStarted) {
-                        String label = line.extractStringifiedToken();
-                        int id = (int) line.extractInt();
+                        line.check(2);
+                        String label = (String) line.nextObject();
+                        int id = (int) line.nextNumber();
                         Event event = currentEvent != null && currentEvent.id == id ? currentEvent : events.get(id);
                         if (event == EXLUDED)
                             break;
@@ -579,7 +600,8 @@ public class ScvReader extends AbstractSingleDomainRecordReader {
                         else if (event.isDisposed())
                             throw new ParseException(0,
                                     "Can not find source event for relation (allready written):" + id + " Please try extending backlog.");
-                        int pid = (int) line.extractInt();
+                        line.check();
+                        int pid = (int) line.nextNumber();
                         Event pevent = events.get(pid);
                         if (pevent == EXLUDED)
                             break;
@@ -599,6 +621,7 @@ public class ScvReader extends AbstractSingleDomainRecordReader {
                 }
                     break;
                 default:
+                    line.check();
                     throw new ParseException(0, "Unknown line");
                 }
 
@@ -619,11 +642,34 @@ public class ScvReader extends AbstractSingleDomainRecordReader {
 
             // close
             close(current() + 1);
-            lineParser.close();
+            if (lineParser != null)
+                lineParser.close();
+            if (pipeline != null)
+                pipeline.close();
         }
 
     }
 
+    /**
+     * Advance to the next tokenized line: tokenize it on this thread, or take it from the blocks tokenized in parallel, in file order.
+     *
+     * @return false at the end of the input
+     * @throws ParseException
+     *             If reading or tokenizing fails
+     */
+    private boolean nextLine() throws ParseException {
+        if (pipeline == null) {
+            records.clear();
+            return tokenizer.tokenize(records) && records.next();
+        }
+        while (records == null || !records.next()) {
+            records = pipeline.take();
+            if (records == null)
+                return false;
+        }
+        return true;
+    }
+
     // ========================================================================================================================
     // Model
     // ========================================================================================================================
@@ -1535,6 +1581,633 @@ public class ScvReader extends AbstractSingleDomainRecordReader {
         return ISample.FORMAT_DEFAULT;
     }
 
+    /**
+     * Attribute value tokenized without knowing its type: the unquoted text span of the value in the line, the span of its first token, and the
+     * token parsed as integer and floating point number where possible. The interpreter converts it to the type of the attribute (see convert) by
+     * the rules of the line parser routines used line by line.
+     */
+    static final class ScvValue {
+        // Bytes of the line (the block)
+        private final byte[] data;
+        // Text: the quoted content, or the rest of the line
+        private final int start;
+        private final int end;
+        // End of the first token (the end of the text if quoted)
+        private final int tokenEnd;
+        // Quoted value (no number, no boolean)
+        private final boolean quoted;
+        // The token as integer and floating point number, if valid
+        private boolean isLong;
+        private long longValue;
+        private boolean isDouble;
+        private double doubleValue;
+
+        /**
+         * Parse the value of an 'a' line.
+         * 
+         * @param data
+         *            Bytes of the line
+         * @param pos
+         *            Position after the 'a' token
+         * @param lineEnd
+         *            End of the line
+         */
+        ScvValue(byte[] data, int pos, int lineEnd) {
+            this.data = data;
+            while (pos < lineEnd && (data[pos] == ' ' || data[pos] == '\t'))
+                pos++;
+            this.quoted = pos < lineEnd && data[pos] == '"';
+            if (quoted) {
+                int close = pos + 1;
+                while (close < lineEnd && data[close] != '"')
+                    close++;
+                this.start = pos + 1;
+                this.end = this.tokenEnd = close;
+            } else {
+                int token = pos;
+                while (token < lineEnd && !isDelimiter(data[token]))
+                    token++;
+                this.start = pos;
+                this.end = lineEnd;
+                this.tokenEnd = token;
+            }
+            if (!quoted && tokenEnd > start) {
+                parseLong();
+                if (isLong) {
+                    isDouble = true;
+                    doubleValue = longValue;
+                } else
+                    parseDouble();
+            }
+        }
+
+        /**
+         * Convert to the type of the given struct member, like ScvLineParser.extractValue.
+         * 
+         * @param member
+         *            The struct member
+         * @return The value, or null if there is no member
+         * @throws ParseException
+         *             If the value is no valid value of the member type
+         */
+        Object convert(StructMember member) throws ParseException {
+            if (member != null) {
+                int type = member.getMainType();
+                String format = member.getFormat();
+                if (type == StructMember.DATA_TYPE_INTEGER && !Utils.equals(format, ISample.FORMAT_BOOLEAN)) {
+                    if (!isLong)
+                        throw new ParseException(0, "Invalid integer value: " + text());
+                    return longValue;
+                } else if (type == StructMember.DATA_TYPE_INTEGER && Utils.equals(format, ISample.FORMAT_BOOLEAN)) {
+                    String token = token();
+                    return !quoted && (token.equals("true") || token.equals("1")) ? 1 : 0;
+                } else if (type == StructMember.DATA_TYPE_FLOAT) {
+                    if (!isDouble)
+                        throw new ParseException(0, "Invalid floating point value: " + text());
+                    return doubleValue;
+                } else if (type == StructMember.DATA_TYPE_ENUM)
+                    return token();
+                else
+                    return text();
+            }
+            return null;
+        }
+
+        /**
+         * The first token (the quoted content if quoted).
+         * 
+         * @throws ParseException
+         *             If there is no token
+         */
+        private String token() throws ParseException {
+            if (!quoted && tokenEnd == start)
+                throw new ParseException(0, "Missing attribute value");
+            return new String(data, start, tokenEnd - start, StandardCharsets.UTF_8);
+        }
+
+        private String text() {
+            return new String(data, start, end - start, StandardCharsets.UTF_8);
+        }
+
+        static boolean isDelimiter(byte b) {
+            return b == ' ' || b == '\t' || b == ',' || b == '(' || b == ')' || b == '=';
+        }
+
+        /**
+         * Parse the token as decimal or 0x prefixed hexadecimal integer.
+         */
+        private void parseLong() {
+            int pos = start;
+            if (tokenEnd - pos > 2 && data[pos] == '0' && (data[pos + 1] == 'x' || data[pos + 1] == 'X')) {
+                try {
+                    longValue = Long.parseUnsignedLong(new String(data, pos + 2, tokenEnd - pos - 2, StandardCharsets.ISO_8859_1), 16);
+                    isLong = true;
+                } catch (NumberFormatException e) {
+                }
+                return;
+            }
+            boolean negative = data[pos] == '-';
+            if (data[pos] == '-' || data[pos] == '+')
+                pos++;
+            if (pos == tokenEnd)
+                return;
+            if (tokenEnd - pos > 18) {
+                // possibly beyond the long range
+                try {
+                    longValue = Long.parseLong(new String(data, start, tokenEnd - start, StandardCharsets.ISO_8859_1));
+                    isLong = true;
+                } catch (NumberFormatException e) {
+                }
+                return;
+            }
+            long value = 0;
+            for (; pos < tokenEnd; pos++) {
+                int digit = data[pos] - '0';
+                if (digit < 0 || digit > 9)
+                    return;
+                value = 10 * value + digit;
+            }
+            longValue = negative ? -value : value;
+            isLong = true;
+        }
+
+        /**
+         * Parse the token as floating point number.
+         */
+        private void parseDouble() {
+            byte first = data[start];
+            // plain text fails without an exception
+            if (!(first >= '0' && first <= '9') && first != '-' && first != '+' && first != '.' && first != 'N' && first != 'I')
+                return;
+            try {
+                doubleValue = Double.parseDouble(new String(data, start, tokenEnd - start, StandardCharsets.ISO_8859_1));
+                isDouble = true;
+            } catch (NumberFormatException e) {
+            }
+        }
+    }
+
+    /**
+     * Record attribute name/type with the struct member used to extract its values.
+     */
+    static final class RecordAttribute {
+        // Name/type pair (owned, not the parser's temporary pair)
+        final ScvLineParser.Pair nameType;
+        // Member typed like the generator attribute created for the pair
+        final StructMember member;
+
+        RecordAttribute(ScvLineParser.Pair nameType, StructMember member) {
+            this.nameType = nameType;
+            this.member = member;
+        }
+    }
+
+    /**
+     * ScvRecords holds tokenized lines in compact form: per line its token, the numbers (ids, times) and the objects (names, values) extracted
+     * from it, in the order of the line, and the error of a line that could not be tokenized completely.
+     * 
+     * Lines are read back in order with next(); check() throws the error of a line when the interpreter needs a field that was not extracted, so
+     * malformed lines fail where the line parser would have failed and lines the interpreter skips are not checked.
+     */
+    static final class ScvRecords {
+
+        // Tokens of the lines
+        private int[] tokens = new int[256];
+        // First number and object of each line
+        private int[] numberStarts = new int[256];
+        private int[] objectStarts = new int[256];
+        // Errors of lines (allocated with the first error)
+        private Throwable[] errors;
+        // Object positions of the 'a' values, tokenized in parallel (see ScvValue)
+        private int[] valueSlots;
+        private int valueCount;
+        // Number of lines
+        private int lines;
+        // Numbers of all lines
+        private long[] numbers = new long[1024];
+        private int numberCount;
+        // Objects of all lines
+        private Object[] objects = new Object[512];
+        private int objectCount;
+        // Line being read and its next number and object
+        private int line = -1;
+        private int numberPos;
+        private int objectPos;
+
+        /**
+         * Start a line.
+         */
+        void begin(int token) {
+            if (lines == tokens.length) {
+                tokens = Arrays.copyOf(tokens, 2 * lines);
+                numberStarts = Arrays.copyOf(numberStarts, 2 * lines);
+                objectStarts = Arrays.copyOf(objectStarts, 2 * lines);
+                if (errors != null)
+                    errors = Arrays.copyOf(errors, 2 * lines);
+            }
+            tokens[lines] = token;
+            numberStarts[lines] = numberCount;
+            objectStarts[lines] = objectCount;
+            lines++;
+        }
+
+        void number(long value) {
+            if (numberCount == numbers.length)
+                numbers = Arrays.copyOf(numbers, 2 * numberCount);
+            numbers[numberCount++] = value;
+        }
+
+        void object(Object value) {
+            if (objectCount == objects.length)
+                objects = Arrays.copyOf(objects, 2 * objectCount);
+            objects[objectCount++] = value;
+        }
+
+        /**
+         * Reserve the object of an 'a' value of the current line, set later with value().
+         */
+        void valueSlot() {
+            if (valueSlots == null)
+                valueSlots = new int[256];
+            else if (valueCount == valueSlots.length)
+                valueSlots = Arrays.copyOf(valueSlots, 2 * valueCount);
+            valueSlots[valueCount++] = objectCount;
+            object(null);
+        }
+
+        /**
+         * Set the value of the n-th 'a' line.
+         */
+        void value(int n, ScvValue value) {
+            objects[valueSlots[n]] = value;
+        }
+
+        int valueCount() {
+            return valueCount;
+        }
+
+        /**
+         * Set the error of the current line; fields extracted before it stay valid.
+         */
+        void error(Throwable e) {
+            if (errors == null)
+                errors = new Throwable[tokens.length];
+            errors[lines - 1] = e;
+        }
+
+        /**
+         * Remove all lines.
+         */
+        void clear() {
+            if (errors != null)
+                Arrays.fill(errors, 0, lines, null);
+            Arrays.fill(objects, 0, objectCount, null);
+            lines = numberCount = objectCount = valueCount = 0;
+            line = -1;
+        }
+
+        /**
+         * Move to the next line.
+         * 
+         * @return false if there is none
+         */
+        boolean next() {
+            if (line + 1 >= lines)
+                return false;
+            line++;
+            numberPos = numberStarts[line];
+            objectPos = objectStarts[line];
+            return true;
+        }
+
+        int token() {
+            return tokens[line];
+        }
+
+        long nextNumber() {
+            return numbers[numberPos++];
+        }
+
+        Object nextObject() {
+            return objects[objectPos++];
+        }
+
+        /**
+         * Throw the error of the current line, if any.
+         * 
+         * @throws ParseException
+         *             The error of the line
+         */
+        void check() throws ParseException {
+            check(Integer.MAX_VALUE);
+        }
+
+        /**
+         * Throw the error of the current line if it occurred before the given number of fields was extracted.
+         * 
+         * @param fields
+         *            Number of fields (numbers and objects) needed
+         * @throws ParseException
+         *             The error of the line
+         */
+        void check(int fields) throws ParseException {
+            Throwable e = errors != null ? errors[line] : null;
+            if (e == null)
+                return;
+            int numberEnd = line + 1 < lines ? numberStarts[line + 1] : numberCount;
+            int objectEnd = line + 1 < lines ? objectStarts[line + 1] : objectCount;
+            if (numberEnd - numberStarts[line] + objectEnd - objectStarts[line] >= fields)
+                return;
+            if (e instanceof ParseException)
+                throw (ParseException) e;
+            throw new ParseException(0, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * ScvTokenizer reads lines with a line parser and extracts their fields into ScvRecords, without interpreting them.
+     * 
+     * On the parsing thread (direct) values of 'a' lines are extracted with the type of the current event's attribute, exactly as before
+     * tokenizing was separated. Tokenizing in parallel, the current event is not known yet: a slot is reserved for each of these lines, filled by
+     * the pipeline with the value parsed without a type (see ScvValue), and the interpreter only converts it to the attribute type. Record
+     * attribute values carry their type in the line and are typed in both cases.
+     */
+    final class ScvTokenizer {
+
+        // Line parser
+        private final ScvLineParser line;
+        // Tokenizing on the parsing thread
+        private final boolean direct;
+        // Record attributes by name/type
+        private final HashMap<ScvLineParser.Pair, RecordAttribute> recordAttributes = new HashMap<>();
+        ScvTokenizer(ScvLineParser line, boolean direct) {
+            this.line = line;
+            this.direct = direct;
+        }
+
+        /**
+         * Read and tokenize the next line.
+         * 
+         * @param records
+         *            The records to append the line to
+         * @return false at the end of the input
+         * @throws ParseException
+         *             If reading fails; tokenizing errors are stored with the line
+         */
+        boolean tokenize(ScvRecords records) throws ParseException {
+            if (!line.readLine())
+                return false;
+            int token;
+            try {
+                token = line.extractTokenHash();
+            } catch (Exception e) {
+                records.begin(0);
+                records.error(e);
+                return true;
+            }
+            records.begin(token);
+            try {
+                switch (token) {
+                case TOKEN_SCV_TR_STREAM:
+                    line.pass('(');
+                    line.pass("ID".toCharArray());
+                    records.number(line.extractInt());
+                    line.pass(',');
+                    line.pass("name".toCharArray());
+                    records.object(line.extractStringifiedText());
+                    line.pass(',');
+                    line.pass("kind".toCharArray());
+                    records.object(line.extractStringifiedText());
+                    line.pass(')');
+                    break;
+                case TOKEN_SCV_TR_GENERATOR:
+                    line.pass('(');
+                    line.pass("ID".toCharArray());
+                    records.number(line.extractInt());
+                    line.pass(',');
+                    line.pass("name".toCharArray());
+                    records.object(line.extractStringifiedText());
+                    line.pass(',');
+                    line.pass("scv_tr_stream".toCharArray());
+                    records.number(line.extractInt());
+                    line.pass(',');
+                    break;
+                case TOKEN_BEGIN_ATTRIBUTE:
+                case TOKEN_END_ATTRIBUTE:
+                    line.pass('(');
+                    line.pass("ID".toCharArray());
+                    line.extractInt();
+                    line.pass(',');
+                    line.pass("name".toCharArray());
+                    records.object(line.extractStringifiedToken());
+                    line.pass(',');
+                    line.pass("type".toCharArray());
+                    records.object(line.extractStringifiedToken());
+                    line.pass(')');
+                    break;
+                case TOKEN_TX_BEGIN:
+                case TOKEN_TX_END: {
+                    records.number(line.extractInt());
+                    records.number(line.extractInt());
+                    long t = line.extractLong();
+                    TimeBase base = line.extractUnit();
+                    records.number(base.convertTo(timeBase, t));
+                }
+                    break;
+                case TOKEN_A:
+                    if (!direct)
+                        records.valueSlot();
+                    else {
+                        // only lines the interpreter uses are parsed (see parse)
+                        Event event = currentEvent;
+                        if (event != null && event != EXLUDED && isStarted && event.attributePos >= 0)
+                            records.object(line.extractValue(event.generator.attributes[event.attributePos]));
+                    }
+                    break;
+                case TOKEN_TX_RECORD_ATTRIBUTE: {
+                    records.number(line.extractInt());
+                    final ScvLineParser.Pair nameType = line.extractNameTypePair();
+                    RecordAttribute attribute = recordAttributes.get(nameType);
+                    if (attribute == null) {
+                        ScvLineParser.Pair key = nameType.clone();
+                        attribute = new RecordAttribute(key, new StructMember(-1, null, key.o1, null, null, null, structType(key.o1, key.o2), -1,
+                                format(key.o1, key.o2), null));
+                        recordAttributes.put(key, attribute);
+                    }
+                    records.object(attribute.nameType);
+                    line.pass('=');
+                    records.object(line.extractValue(attribute.member));
+                }
+                    break;
+                case TOKEN_TX_RELATION:
+                    records.object(line.extractStringifiedToken());
+                    records.number(line.extractInt());
+                    records.number(line.extractInt());
+                    break;
+                default:
+                    // unknown lines are reported by the interpreter (ignored within a generator definition)
+                    break;
+                }
+            } catch (Exception e) {
+                records.error(e);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * ScvPipeline tokenizes the input in parallel: the parsing thread reads the input in blocks of about BLOCK_SIZE bytes, split at line ends, and
+     * a pool tokenizes each block with its own line parser into ScvRecords. Blocks are taken in file order, so the interpreter sees the same
+     * sequence of lines as when tokenizing on the parsing thread. The number of blocks in flight is bounded.
+     */
+    final class ScvPipeline {
+
+        // Decompressed input
+        private final InputStream in;
+        // Tokenizer pool
+        private final ExecutorService pool;
+        // Blocks being tokenized, in file order
+        private final ArrayDeque<Future<ScvRecords>> blocks = new ArrayDeque<>();
+        // Maximum number of blocks in flight
+        private final int depth;
+        // Start of the next block: the bytes after the last line end of the previous one
+        private byte[] carry = new byte[0];
+        private int carryLength;
+        // End of input reached
+        private boolean eof;
+
+        ScvPipeline(InputStream in, int threads) {
+            this.in = in;
+            this.pool = Executors.newFixedThreadPool(threads);
+            this.depth = BLOCKS_PER_THREAD * threads;
+        }
+
+        /**
+         * Take the next tokenized block, keeping the pool busy with the following ones.
+         * 
+         * @return the records of the block, or null at the end of the input
+         * @throws ParseException
+         *             If reading or tokenizing fails
+         */
+        ScvRecords take() throws ParseException {
+            try {
+                while (blocks.size() < depth && !(eof && carryLength == 0))
+                    submit();
+                Future<ScvRecords> next = blocks.poll();
+                return next != null ? next.get() : null;
+            } catch (IOException e) {
+                throw new ParseException(0, e.getMessage(), e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ParseException(0, "Interrupted", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof ParseException)
+                    throw (ParseException) cause;
+                throw new ParseException(0, cause != null ? cause.getMessage() : e.getMessage(), cause != null ? cause : e);
+            }
+        }
+
+        /**
+         * Read the next block up to its last line end and submit it for tokenizing.
+         */
+        private void submit() throws IOException {
+            byte[] data = new byte[Math.max(BLOCK_SIZE, 2 * carryLength)];
+            System.arraycopy(carry, 0, data, 0, carryLength);
+            int length = carryLength, cut;
+            while (true) {
+                while (!eof && length < data.length) {
+                    int n = in.read(data, length, data.length - length);
+                    if (n < 0)
+                        eof = true;
+                    else
+                        length += n;
+                }
+                if (eof) {
+                    cut = length;
+                    break;
+                }
+                cut = lineEnd(data, length);
+                if (cut > 0)
+                    break;
+                // a line longer than the block
+                data = Arrays.copyOf(data, 2 * data.length);
+            }
+            carryLength = length - cut;
+            if (carry.length < carryLength)
+                carry = new byte[carryLength];
+            System.arraycopy(data, cut, carry, 0, carryLength);
+            if (cut == 0)
+                return;
+            final byte[] block = data;
+            final int blockLength = cut;
+            blocks.add(pool.submit(() -> {
+                ScvLineParser line = new ScvLineParser(new ByteArrayInputStream(block, 0, blockLength));
+                try {
+                    ScvRecords records = new ScvRecords();
+                    ScvTokenizer tokenizer = new ScvTokenizer(line, false);
+                    while (tokenizer.tokenize(records))
+                        ;
+                    if (records.valueCount() > 0)
+                        parseValues(block, blockLength, records);
+                    return records;
+                } finally {
+                    line.close();
+                }
+            }));
+        }
+
+        /**
+         * Parse the values of the 'a' lines of a block into the slots reserved by the tokenizer, in order.
+         * 
+         * @throws ParseException
+         *             If their number differs from the 'a' lines found by the tokenizer
+         */
+        private void parseValues(byte[] block, int length, ScvRecords records) throws ParseException {
+            int found = 0, count = records.valueCount();
+            for (int start = 0, end; start < length; start = end + 1) {
+                end = start;
+                while (end < length && block[end] != '\n' && block[end] != '\r')
+                    end++;
+                int n = start;
+                while (n < end && (block[n] == ' ' || block[n] == '\t'))
+                    n++;
+                if (n < end && block[n] == 'a' && (n + 1 == end || ScvValue.isDelimiter(block[n + 1]))) {
+                    if (found == count)
+                        break;
+                    records.value(found++, new ScvValue(block, n + 1, end));
+                }
+            }
+            if (found != count)
+                throw new ParseException(0, "Can not find the values of " + count + " attribute lines (found " + found + ")");
+        }
+
+        /**
+         * Find the end of the last complete line.
+         * 
+         * @return index after the last '\n' (or '\r' if there is none), 0 if there is no line end
+         */
+        private int lineEnd(byte[] data, int length) {
+            for (int n = length - 1; n >= 0; n--)
+                if (data[n] == '\n')
+                    return n + 1;
+            for (int n = length - 1; n >= 0; n--)
+                if (data[n] == '\r')
+                    return n + 1;
+            return 0;
+        }
+
+        /**
+         * Stop tokenizing and release the pool.
+         */
+        void close() {
+            for (Future<ScvRecords> block : blocks)
+                block.cancel(true);
+            blocks.clear();
+            pool.shutdownNow();
+        }
+    }
+
     /**
      * ScvLineParser parses lines from the SCV file.
      */
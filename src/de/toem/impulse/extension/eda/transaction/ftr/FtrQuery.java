@@ -0,0 +1 @@
+/home/thomas/Workspaces/impulse/de.toem.impulse.extension.eda-transaction/ftr/FtrQuery.java
\ No newline at end of file
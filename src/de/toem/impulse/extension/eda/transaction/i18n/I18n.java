@@ -12,6 +12,11 @@ public class I18n extends de.toem.impulse.i18n.I18n {
     public static String Serializer_FtrReader_IconId=null;
     public static String Serializer_FtrReader_HelpURL="impulse-extension/${BND}/ftr-reader";
 
+    public static String Serializer_FtrWriter="FTR Writer";
+    public static String Serializer_FtrWriter_Description="With the FTR writer you can export the transaction signals of a record into a Fast Transaction Recording file that the FTR reader opens again, also lazily.";
+    public static String Serializer_FtrWriter_IconId=null;
+    public static String Serializer_FtrWriter_HelpURL="impulse-extension/${BND}/ftr-reader";
+
     public static String Processor_TlmPhaseAnalyzer="TLM Phase Analyzer";
     public static String Processor_TlmPhaseAnalyzer_Description="The TLM Phase Analyzer processes Transaction-Level Modeling (TLM) traces to analyze phases and timing in SystemC simulations.";
     public static String Processor_TlmPhaseAnalyzer_IconId=null;